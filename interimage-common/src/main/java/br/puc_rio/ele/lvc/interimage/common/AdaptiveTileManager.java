@@ -0,0 +1,339 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A quadtree tile manager whose tiles follow the estimated load of the data.<br><br>
+ * The tiles are nodes of the Z-order hierarchy of MortonTileManager: a node at depth d has a code with d digits,
+ * so the base tiles have getLevels() digits, coarser tiles are prefixes of them and finer tiles extend them.
+ * Starting from the root, a node is split while its load (pixels, objects...) exceeds the budget, down to
+ * maxSplits levels below the base tiles, and nodes up to maxMerges levels above the base tiles are kept whole
+ * when their load fits the budget, so that empty and sparse regions are coalesced in a few tiles.<br><br>
+ * Loads are added before calling setTiles(). Without loads every region is empty and is coalesced. Loads that are
+ * uniform over a region, such as the pixels of an image, only tell covered regions from uncovered ones; the density
+ * of the data comes from point loads, such as the centroids of the input objects, with getAverageLoad() as budget.
+ * @author Rodrigo Ferreira
+ *
+ */
+public class AdaptiveTileManager extends MortonTileManager {
+
+	public static final int MAX_SPLITS = 2;
+	public static final int MAX_MERGES = 2;
+	
+	/*Loads spread over boxes carry rounding errors, so a full base tile may exceed a budget equal to its load*/
+	private static final double TOLERANCE = 1e-9;
+	
+	private double _budget;
+	private int _maxSplits;
+	private int _maxMerges;
+	
+	/*West, south, east, north and load; points have an empty box*/
+	private List<double[]> _loads;
+	
+	/*Codes of the leaves (the tiles) and of the inner nodes of the tree*/
+	private Set<String> _leaves;
+	private Set<String> _inner;
+	
+	private List<Tile> _tiles;
+	
+	public AdaptiveTileManager(double size, String crs, double budget) {
+		this(size, crs, budget, MAX_SPLITS, MAX_MERGES);
+	}
+	
+	public AdaptiveTileManager(double size, String crs, double budget, int maxSplits, int maxMerges) {
+		super(size, crs);
+		
+		if (getLevels() + maxSplits > MAX_DIGITS)
+			throw new IllegalArgumentException("Too many levels for the tile size: " + (getLevels() + maxSplits));
+		
+		_budget = budget;
+		_maxSplits = maxSplits;
+		_maxMerges = Math.min(maxMerges, getLevels());
+		_loads = new ArrayList<double[]>();
+		_leaves = new HashSet<String>();
+		_inner = new HashSet<String>();
+		_tiles = new ArrayList<Tile>();
+	}
+	
+	/**Adds a load concentrated at a point, such as the centroid of an object.*/
+	public void addLoad(double x, double y, double load) {
+		_loads.add(new double[] {x, y, x, y, load});
+	}
+	
+	/**Adds a load spread uniformly over a box (west, south, east, north), such as the pixels of an image.*/
+	public void addLoad(double[] bbox, double load) {
+		_loads.add(new double[] {bbox[0], bbox[1], bbox[2], bbox[3], load});
+	}
+	
+	/**Returns the sum of the loads added so far.*/
+	public double getTotalLoad() {
+		double total = 0.0;
+		for (double[] l : _loads)
+			total += l[4];
+		return total;
+	}
+	
+	/**
+	 * Returns the load of a base tile if the loads were spread evenly over the bounding box. With it as the budget,
+	 * the regions denser than the average are split and the sparser ones are merged.
+	 */
+	public double getAverageLoad(double[] geoBBox) {
+		double area = (geoBBox[2]-geoBBox[0])*(geoBBox[3]-geoBBox[1]);
+		if (area <= 0)
+			return getTotalLoad();
+		return getTotalLoad() * getTileSize() * getTileSize() / area;
+	}
+	
+	public double getBudget() {
+		return _budget;
+	}
+	
+	/**Sets the budget, for when it depends on the loads; it is used by the next call to setTiles().*/
+	public void setBudget(double budget) {
+		_budget = budget;
+	}
+	
+	/*Nodes*/
+	
+	/**Returns the envelope (west, south, east, north) of the node with the given key and depth.*/
+	public double[] getEnvelope(long key, int depth) {
+		double unit = Math.scalb(getTileSize(), getLevels()-depth);
+		double[] world = getWorldBBox();
+		double west = world[0] + getI(key)*unit;
+		double south = world[1] + getJ(key)*unit;
+		return new double[] {west, south, west + unit, south + unit};
+	}
+	
+	/**Returns the envelope (west, south, east, north) of the tile with the given code.*/
+	public double[] getEnvelope(String code) {
+		return getEnvelope(parseKey(code), code.length());
+	}
+	
+	/**Returns the grid coordinates (i, j) of the base tile at the lower left corner of the tile with the given code.*/
+	public int[] getBaseTile(String code) {
+		long key = parseKey(code);
+		int height = getLevels() - code.length();
+		return new int[] {height >= 0 ? getI(key) << height : getI(key) >> -height, height >= 0 ? getJ(key) << height : getJ(key) >> -height};
+	}
+	
+	/*Load of the node; a point counts only in the node that holds it*/
+	private static double load(double[] env, List<double[]> loads) {
+		
+		double load = 0.0;
+		
+		for (double[] l : loads) {
+			
+			double area = (l[2]-l[0])*(l[3]-l[1]);
+			
+			if (area <= 0) {
+				if (l[0] >= env[0] && l[0] < env[2] && l[1] >= env[1] && l[1] < env[3])
+					load += l[4];
+			} else {
+				double w = Math.min(l[2], env[2]) - Math.max(l[0], env[0]);
+				double h = Math.min(l[3], env[3]) - Math.max(l[1], env[1]);
+				if (w > 0 && h > 0)
+					load += l[4]*(w*h)/area;
+			}
+			
+		}
+		
+		return load;
+	}
+	
+	/*Loads that may fall in the node*/
+	private static List<double[]> filter(double[] env, List<double[]> loads) {
+		
+		List<double[]> list = new ArrayList<double[]>();
+		
+		for (double[] l : loads) {
+			if (l[0] <= env[2] && l[2] >= env[0] && l[1] <= env[3] && l[3] >= env[1])
+				list.add(l);
+		}
+		
+		return list;
+	}
+	
+	private void build(long key, int depth, int[] range, List<double[]> loads) {
+		
+		int height = getLevels() - depth;
+		
+		/*Base tiles covered by the node*/
+		if (height >= 0) {
+			long i = getI(key);
+			long j = getJ(key);
+			if ((i << height) > range[2] || ((i+1) << height) <= range[0] || (j << height) > range[3] || ((j+1) << height) <= range[1])
+				return;
+		}
+		
+		double[] env = getEnvelope(key, depth);
+		
+		loads = filter(env, loads);
+		
+		if (height <= _maxMerges && (height == -_maxSplits || load(env, loads) <= _budget*(1+TOLERANCE))) {
+			
+			String code = getCode(key, depth);
+			
+			_leaves.add(code);
+			
+			/*Tiles of different sizes may share the base tile of the lower left corner, so the id comes from the code*/
+			Tile tile = new Tile();
+			tile.setId(getOrderKey(code));
+			tile.setCode(code);
+			tile.setGeometry(String.format("POLYGON ((%f %f, %f %f, %f %f, %f %f, %f %f))", env[0], env[1], env[2], env[1], env[2], env[3], env[0], env[3], env[0], env[1]));
+			
+			_tiles.add(tile);
+			
+			return;
+		}
+		
+		_inner.add(getCode(key, depth));
+		
+		for (int q=0; q<4; q++)
+			build(getChild(key, q), depth+1, range, loads);
+		
+	}
+	
+	/*Leaf that holds the cell (i, j) of the deepest level, or null*/
+	private String leaf(int i, int j) {
+		
+		int deepest = getLevels() + _maxSplits;
+		
+		for (int depth=0; depth<=deepest; depth++) {
+			String code = getCode(getKey(i >> (deepest-depth), j >> (deepest-depth)), depth);
+			if (_leaves.contains(code))
+				return code;
+			if (!_inner.contains(code))
+				return null;
+		}
+		
+		return null;
+	}
+	
+	private void collect(long key, int depth, double[] bbox, List<String> list) {
+		
+		String code = getCode(key, depth);
+		
+		if (_leaves.contains(code)) {
+			list.add(code);
+			return;
+		}
+		
+		if (!_inner.contains(code))
+			return;
+		
+		for (int q=0; q<4; q++) {
+			long child = getChild(key, q);
+			double[] env = getEnvelope(child, depth+1);
+			if (bbox[0] < env[2] && bbox[2] >= env[0] && bbox[1] < env[3] && bbox[3] >= env[1])
+				collect(child, depth+1, bbox, list);
+		}
+		
+	}
+	
+	/*TileManager*/
+	
+	/**Builds the tiles of the bounding box from the loads added so far.*/
+	@Override
+	public void setTiles(double[] geoBBox) {
+		
+		_leaves.clear();
+		_inner.clear();
+		_tiles.clear();
+		
+		build(0, 0, getTileCoordinates(geoBBox), _loads);
+		
+	}
+	
+	@Override
+	public List<String> getTiles(double[] bbox) {
+		
+		if (_tiles.isEmpty())
+			return super.getTiles(bbox);
+		
+		List<String> list = new ArrayList<String>();
+		
+		collect(0, 0, bbox, list);
+		
+		return list;
+	}
+	
+	@Override
+	public List<Tile> getTiles() {
+		return _tiles;
+	}
+	
+	/**Returns the tiles that touch the given side or corner of the tile; a side may touch several smaller tiles.*/
+	@Override
+	public List<String> getNeighourTiles(String code, List<String> directions) {
+		
+		if (_tiles.isEmpty())
+			return super.getNeighourTiles(code, directions);
+		
+		long key = parseKey(code);
+		
+		/*Cells of the deepest level covered by the tile*/
+		int shift = getLevels() + _maxSplits - code.length();
+		int i0 = getI(key) << shift;
+		int j0 = getJ(key) << shift;
+		int span = 1 << shift;
+		
+		Set<String> neighbours = new LinkedHashSet<String>();
+		
+		for (int d=0; d<NEIGHBORS.length; d++) {
+			
+			if (!directions.contains(NEIGHBORS[d]))
+				continue;
+			
+			int iMin = DX[d] == 0 ? i0 : (DX[d] > 0 ? i0 + span : i0 - 1);
+			int iMax = DX[d] == 0 ? i0 + span - 1 : iMin;
+			int jMin = DY[d] == 0 ? j0 : (DY[d] > 0 ? j0 + span : j0 - 1);
+			int jMax = DY[d] == 0 ? j0 + span - 1 : jMin;
+			
+			if (iMin < 0 || jMin < 0)
+				continue;
+			
+			/*Walks along the side, skipping the cells of each tile found*/
+			for (int i=iMin; i<=iMax; i++) {
+				for (int j=jMin; j<=jMax; j++) {
+					
+					String neighbour = leaf(i, j);
+					
+					if (neighbour == null)
+						continue;
+					
+					neighbours.add(neighbour);
+					
+					int size = 1 << (getLevels() + _maxSplits - neighbour.length());
+					
+					if (iMin == iMax)
+						j = (j / size + 1) * size - 1;
+					else
+						i = (i / size + 1) * size - 1;
+					
+				}
+			}
+			
+		}
+		
+		return new ArrayList<String>(neighbours);
+	}
+	
+}
@@ -0,0 +1,417 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.common;
+
+import org.apache.pig.data.DataByteArray;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A compact binary geometry format for the records exchanged between the stages.<br><br>
+ * The coordinates are quantized to a grid (a fraction of the pixel resolution), anchored at the origin so that the
+ * same coordinate gets the same value in every tile, and written as zigzag varint deltas from the previous coordinate.
+ * A quantum of zero keeps the coordinates exact, as raw doubles.<br><br>
+ * Layout: the magic "IIG", version, quantum (double), then the geometry: type (byte) followed by the number of parts or
+ * coordinates (varint) and their contents. Only x and y are kept.
+ * @author Rodrigo Ferreira
+ */
+public class GeometryCodec {
+
+	/**Number of grid steps per pixel used by quantum(resolution).*/
+	public static final int SUBDIVISIONS = 1000;
+
+	private static final byte[] MAGIC = {'I', 'I', 'G'};
+	private static final int VERSION = 1;
+	private static final int HEADER = 12;
+
+	private static final int POINT = 1;
+	private static final int LINESTRING = 2;
+	private static final int LINEARRING = 3;
+	private static final int POLYGON = 4;
+	private static final int MULTIPOINT = 5;
+	private static final int MULTILINESTRING = 6;
+	private static final int MULTIPOLYGON = 7;
+	private static final int COLLECTION = 8;
+
+	private static final GeometryFactory _factory = new GeometryFactory();
+
+	/**Returns the grid step for a pixel resolution.*/
+	public static double quantum(double resolution) {
+		return resolution / SUBDIVISIONS;
+	}
+
+	/**Returns true if the bytes start with the codec header.*/
+	public static boolean isEncoded(byte[] bytes) {
+
+		if (bytes == null || bytes.length < HEADER)
+			return false;
+
+		for (int i=0; i<MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i])
+				return false;
+		}
+
+		return bytes[MAGIC.length] == VERSION;
+	}
+
+	/**Returns the quantum of an encoded geometry.*/
+	public static double getQuantum(byte[] bytes) {
+		return Double.longBitsToDouble(readLong(bytes, 4));
+	}
+
+	/**Returns the quantum of a geometry attribute, or zero if it is not encoded with this codec.*/
+	public static double getQuantum(Object obj) {
+
+		if (obj instanceof DataByteArray) {
+			byte[] bytes = ((DataByteArray)obj).get();
+			if (isEncoded(bytes))
+				return getQuantum(bytes);
+		}
+
+		return 0;
+	}
+
+	/**Encodes a geometry as a pig attribute.*/
+	public static DataByteArray toBytes(Geometry geometry, double quantum) {
+		return new DataByteArray(encode(geometry, quantum));
+	}
+
+	/*Encoding*/
+
+	private static class Writer {
+
+		final double quantum;
+		byte[] buffer = new byte[256];
+		int size = 0;
+
+		/*Last quantized coordinate*/
+		long lastX = 0;
+		long lastY = 0;
+
+		Writer(double quantum) {
+			this.quantum = quantum;
+		}
+
+		void ensure(int n) {
+			if (size + n > buffer.length) {
+				byte[] aux = new byte[Math.max(2*buffer.length, size + n)];
+				System.arraycopy(buffer, 0, aux, 0, size);
+				buffer = aux;
+			}
+		}
+
+		void writeByte(int b) {
+			ensure(1);
+			buffer[size++] = (byte)b;
+		}
+
+		void writeLong(long v) {
+			ensure(8);
+			for (int i=7; i>=0; i--)
+				buffer[size++] = (byte)(v >>> (8*i));
+		}
+
+		void writeVarint(long v) {
+			ensure(10);
+			while ((v & ~0x7FL) != 0) {
+				buffer[size++] = (byte)((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buffer[size++] = (byte)v;
+		}
+
+		void writeSequence(CoordinateSequence seq) {
+
+			int n = seq.size();
+
+			writeVarint(n);
+
+			for (int i=0; i<n; i++) {
+
+				if (quantum > 0) {
+
+					long x = Math.round(seq.getX(i) / quantum);
+					long y = Math.round(seq.getY(i) / quantum);
+
+					writeVarint(zigzag(x - lastX));
+					writeVarint(zigzag(y - lastY));
+
+					lastX = x;
+					lastY = y;
+
+				} else {
+
+					writeLong(Double.doubleToLongBits(seq.getX(i)));
+					writeLong(Double.doubleToLongBits(seq.getY(i)));
+
+				}
+
+			}
+
+		}
+
+		void writeGeometry(Geometry geometry) {
+
+			if (geometry instanceof Point) {
+
+				writeByte(POINT);
+				writeSequence(((Point)geometry).getCoordinateSequence());
+
+			} else if (geometry instanceof LinearRing) {
+
+				writeByte(LINEARRING);
+				writeSequence(((LinearRing)geometry).getCoordinateSequence());
+
+			} else if (geometry instanceof LineString) {
+
+				writeByte(LINESTRING);
+				writeSequence(((LineString)geometry).getCoordinateSequence());
+
+			} else if (geometry instanceof Polygon) {
+
+				Polygon polygon = (Polygon)geometry;
+
+				writeByte(POLYGON);
+
+				if (polygon.isEmpty()) {
+					writeVarint(0);
+					return;
+				}
+
+				writeVarint(polygon.getNumInteriorRing()+1);
+				writeSequence(polygon.getExteriorRing().getCoordinateSequence());
+
+				for (int i=0; i<polygon.getNumInteriorRing(); i++)
+					writeSequence(polygon.getInteriorRingN(i).getCoordinateSequence());
+
+			} else {
+
+				if (geometry instanceof MultiPoint)
+					writeByte(MULTIPOINT);
+				else if (geometry instanceof MultiLineString)
+					writeByte(MULTILINESTRING);
+				else if (geometry instanceof MultiPolygon)
+					writeByte(MULTIPOLYGON);
+				else
+					writeByte(COLLECTION);
+
+				writeVarint(geometry.getNumGeometries());
+
+				for (int i=0; i<geometry.getNumGeometries(); i++)
+					writeGeometry(geometry.getGeometryN(i));
+
+			}
+
+		}
+
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Encodes a geometry.
+	 * @param quantum grid step of the coordinates; zero keeps them exact
+	 */
+	public static byte[] encode(Geometry geometry, double quantum) {
+
+		/*Coordinates far from the origin don't fit in the grid*/
+		if (quantum > 0) {
+			double limit = quantum * (double)(1L << 52);
+			if (Math.abs(geometry.getEnvelopeInternal().getMinX()) > limit || Math.abs(geometry.getEnvelopeInternal().getMaxX()) > limit
+					|| Math.abs(geometry.getEnvelopeInternal().getMinY()) > limit || Math.abs(geometry.getEnvelopeInternal().getMaxY()) > limit)
+				quantum = 0;
+		}
+
+		Writer writer = new Writer(quantum > 0 ? quantum : 0);
+
+		for (byte b : MAGIC)
+			writer.writeByte(b);
+
+		writer.writeByte(VERSION);
+		writer.writeLong(Double.doubleToLongBits(writer.quantum));
+		writer.writeGeometry(geometry);
+
+		byte[] bytes = new byte[writer.size];
+		System.arraycopy(writer.buffer, 0, bytes, 0, writer.size);
+
+		return bytes;
+	}
+
+	/*Decoding*/
+
+	private static long readLong(byte[] bytes, int offset) {
+		long v = 0;
+		for (int i=0; i<8; i++)
+			v = (v << 8) | (bytes[offset+i] & 0xFF);
+		return v;
+	}
+
+	private static class Reader {
+
+		final byte[] bytes;
+		final double quantum;
+		final GeometryFactory factory;
+		final CoordinateSequenceFactory sequences;
+		int position;
+
+		long lastX = 0;
+		long lastY = 0;
+
+		Reader(byte[] bytes, GeometryFactory factory) {
+			this.bytes = bytes;
+			this.factory = factory;
+			this.sequences = factory.getCoordinateSequenceFactory();
+			this.quantum = getQuantum(bytes);
+			this.position = HEADER;
+		}
+
+		long readVarint() {
+			long v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[position++];
+				v |= (long)(b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return v;
+		}
+
+		CoordinateSequence readSequence() {
+
+			int n = (int)readVarint();
+
+			CoordinateSequence seq = sequences.create(n, 2);
+
+			for (int i=0; i<n; i++) {
+
+				if (quantum > 0) {
+
+					lastX += unzigzag(readVarint());
+					lastY += unzigzag(readVarint());
+
+					seq.setOrdinate(i, CoordinateSequence.X, lastX * quantum);
+					seq.setOrdinate(i, CoordinateSequence.Y, lastY * quantum);
+
+				} else {
+
+					seq.setOrdinate(i, CoordinateSequence.X, Double.longBitsToDouble(readLong(bytes, position)));
+					seq.setOrdinate(i, CoordinateSequence.Y, Double.longBitsToDouble(readLong(bytes, position+8)));
+					position += 16;
+
+				}
+
+			}
+
+			return seq;
+		}
+
+		Geometry readGeometry() {
+
+			int type = bytes[position++];
+
+			switch (type) {
+
+				case POINT:
+					return factory.createPoint(readSequence());
+
+				case LINESTRING:
+					return factory.createLineString(readSequence());
+
+				case LINEARRING:
+					return factory.createLinearRing(readSequence());
+
+				case POLYGON: {
+
+					int rings = (int)readVarint();
+
+					if (rings == 0)
+						return factory.createPolygon(null, null);
+
+					LinearRing shell = factory.createLinearRing(readSequence());
+					LinearRing[] holes = new LinearRing[rings-1];
+
+					for (int i=0; i<holes.length; i++)
+						holes[i] = factory.createLinearRing(readSequence());
+
+					return factory.createPolygon(shell, holes);
+				}
+
+				case MULTIPOINT: {
+					Point[] points = new Point[(int)readVarint()];
+					for (int i=0; i<points.length; i++)
+						points[i] = (Point)readGeometry();
+					return factory.createMultiPoint(points);
+				}
+
+				case MULTILINESTRING: {
+					LineString[] lines = new LineString[(int)readVarint()];
+					for (int i=0; i<lines.length; i++)
+						lines[i] = (LineString)readGeometry();
+					return factory.createMultiLineString(lines);
+				}
+
+				case MULTIPOLYGON: {
+					Polygon[] polygons = new Polygon[(int)readVarint()];
+					for (int i=0; i<polygons.length; i++)
+						polygons[i] = (Polygon)readGeometry();
+					return factory.createMultiPolygon(polygons);
+				}
+
+				case COLLECTION: {
+					Geometry[] geometries = new Geometry[(int)readVarint()];
+					for (int i=0; i<geometries.length; i++)
+						geometries[i] = readGeometry();
+					return factory.createGeometryCollection(geometries);
+				}
+
+				default:
+					throw new IllegalArgumentException("Unknown geometry type: " + type);
+
+			}
+
+		}
+
+	}
+
+	public static Geometry decode(byte[] bytes) {
+		return decode(bytes, _factory);
+	}
+
+	public static Geometry decode(byte[] bytes, GeometryFactory factory) {
+
+		if (!isEncoded(bytes))
+			throw new IllegalArgumentException("Not an encoded geometry");
+
+		return new Reader(bytes, factory).readGeometry();
+	}
+
+}
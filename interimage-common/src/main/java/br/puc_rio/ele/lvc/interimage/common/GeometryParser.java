@@ -17,6 +17,7 @@ package br.puc_rio.ele.lvc.interimage.common;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.pig.data.DataByteArray;
 import org.iq80.snappy.SnappyInputStream;
@@ -24,25 +25,95 @@ import org.iq80.snappy.SnappyOutputStream;
 
 import com.google.common.io.ByteStreams;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ByteArrayInStream;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.io.WKBReader;
 import com.vividsolutions.jts.io.WKTReader;
 import com.vividsolutions.jts.io.WKTWriter;
 
 /**
  * Retrieves a geometry from a pig attribute. It automatically detects its format
- * and tries to get the geometry from it. It understands WKT (text) and WKB (binary) formats.<br><br>
+ * and tries to get the geometry from it. It understands GeometryCodec, WKT (text) and WKB (binary) formats.<br><br>
  * 
- * In particular, here are the checks done in order:<br>
- * 1 - DataByteArray (WKB)<br>
- * 2 - String (WKT)<br>
- * 3 - Hexadecimal String (WKB)<br>
+ * The format is detected from the first bytes, without trying the readers one after the other:<br>
+ * 1 - GeometryCodec header<br>
+ * 2 - WKB byte order marker (0 or 1)<br>
+ * 3 - Hexadecimal WKB ("00" or "01")<br>
+ * 4 - WKT otherwise<br><br>
+ * 
+ * The readers are kept per thread and share the same geometry factory. The number of geometries parsed
+ * in each format is counted for all the parsers of the JVM.
  * 
  * @author Rodrigo Ferreira
  *
  */
 public class GeometryParser {
 
+	public static final int CODEC = 0;
+	public static final int WKB = 1;
+	public static final int HEX_WKB = 2;
+	public static final int WKT = 3;
+	public static final int FAILED = 4;
+	
+	private static final String[] FORMATS = {"codec", "wkb", "hex wkb", "wkt", "failed"};
+	
+	private static final AtomicLong[] _counts = {new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicLong()};
+	
+	private static final GeometryFactory _factory = new GeometryFactory();
+	
+	private static final ThreadLocal<WKBReader> _wkbReader = new ThreadLocal<WKBReader>() {
+		@Override
+		protected WKBReader initialValue() {
+			return new WKBReader(_factory);
+		}
+	};
+	
+	private static final ThreadLocal<WKTReader> _wktReader = new ThreadLocal<WKTReader>() {
+		@Override
+		protected WKTReader initialValue() {
+			return new WKTReader(_factory);
+		}
+	};
+	
+	/**Returns the number of geometries parsed in the given format (CODEC, WKB, HEX_WKB, WKT or FAILED).*/
+	public static long getCount(int format) {
+		return _counts[format].get();
+	}
+	
+	/**Returns the counts of all the formats, such as "codec=10 wkb=0 hex wkb=0 wkt=2 failed=0".*/
+	public static String getCounts() {
+		StringBuilder builder = new StringBuilder();
+		for (int f=0; f<FORMATS.length; f++) {
+			if (f > 0)
+				builder.append(' ');
+			builder.append(FORMATS[f]).append('=').append(_counts[f].get());
+		}
+		return builder.toString();
+	}
+	
+	/**Detects the format of a binary attribute.*/
+	public static int detectFormat(byte[] bytes) {
+		
+		if (GeometryCodec.isEncoded(bytes))
+			return CODEC;
+		
+		if (bytes.length > 0 && (bytes[0] == 0 || bytes[0] == 1))
+			return WKB;
+		
+		if (bytes.length > 1 && bytes[0] == '0' && (bytes[1] == '0' || bytes[1] == '1'))
+			return HEX_WKB;
+		
+		return WKT;
+	}
+	
+	/**Detects the format of a text attribute.*/
+	public static int detectFormat(String string) {
+		
+		if (string.length() > 1 && string.charAt(0) == '0' && (string.charAt(1) == '0' || string.charAt(1) == '1'))
+			return HEX_WKB;
+		
+		return WKT;
+	}
+	
 	/**
      * Method that parses a geometry object.
      * @param geometry object
@@ -50,41 +121,52 @@ public class GeometryParser {
      */
 	public Geometry parseGeometry(Object objGeometry) {
 		
+		int format = FAILED;
 		Geometry geometry = null;
-		Object obj = objGeometry;
-		
-		if (obj instanceof DataByteArray) {
-					
-			try {
-				//parsing as a well known binary (WKB)
-				byte[] arrGeometry = ((DataByteArray)obj).get();
-				geometry = new WKBReader().read(new ByteArrayInStream(arrGeometry));
-			} catch (Exception e) {
-				//parsing as an encoded well known text (WKT)
-		        obj = new String(((DataByteArray) obj).get());
-			}
-			
-		}
 		
-		if (obj instanceof String) {
+		try {
 			
-			try {
-				//parsing as a well known text (WKT)
-				String strGeometry = (String)obj;
-				geometry = new WKTReader().read(strGeometry);
-			} catch (Exception e1) {
-				try {
-					//parsing as a hexadecimal string					
-					byte[] arrGeometry = WKBReader.hexToBytes((String)obj);
-					geometry = new WKBReader().read(new ByteArrayInStream(arrGeometry));
-				} catch (Exception e2) {
-					System.err.println("Failed to parse geometry; error - " + e2.getMessage());
-					//cannot parse it. Returning null
+			if (objGeometry instanceof DataByteArray) {
+				
+				byte[] bytes = ((DataByteArray)objGeometry).get();
+				
+				format = detectFormat(bytes);
+				
+				switch (format) {
+					case CODEC:
+						geometry = GeometryCodec.decode(bytes, _factory);
+						break;
+					case WKB:
+						geometry = _wkbReader.get().read(bytes);
+						break;
+					case HEX_WKB:
+						geometry = _wkbReader.get().read(WKBReader.hexToBytes(new String(bytes)));
+						break;
+					default:
+						geometry = _wktReader.get().read(new String(bytes));
 				}
+				
+			} else if (objGeometry instanceof String) {
+				
+				String string = (String)objGeometry;
+				
+				format = detectFormat(string);
+				
+				if (format == HEX_WKB)
+					geometry = _wkbReader.get().read(WKBReader.hexToBytes(string));
+				else
+					geometry = _wktReader.get().read(string);
+				
 			}
 			
+		} catch (Exception e) {
+			System.err.println("Failed to parse geometry; error - " + e.getMessage());
+			//cannot parse it. Returning null
+			geometry = null;
 		}
 		
+		_counts[geometry == null ? FAILED : format].incrementAndGet();
+		
 		return geometry;
 		
 	}
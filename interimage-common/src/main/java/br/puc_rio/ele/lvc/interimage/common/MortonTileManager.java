@@ -0,0 +1,306 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A space filling curve tile manager based on long Morton (Z-order) keys.<br><br>
+ * The key of the tile (i, j) interleaves the bits of both coordinates, i in the odd bits and j in the even bits,
+ * so that encoding, decoding, parent, children and neighbors are computed with a few bit operations at any level.
+ * The string codes are the base 4 digits of the key written with the letters w, x, y and z, the same codes of
+ * SFCTileManager; they are only built when the tiles are written out.
+ * @author Rodrigo Ferreira
+ *
+ */
+public class MortonTileManager implements TileManager {
+
+	/* Z-order
+	 *  ----------------
+	 * |	1	|	3	|
+	 *  ----------------
+	 * |	0	|	2	|
+	 *  ----------------
+	 * */
+	
+	private static final char[] DIRECTIONS = {'w', 'x', 'y', 'z'};
+	
+	public static final String[] NEIGHBORS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+	
+	/*Longest code whose order key fits a long: two bits per digit plus five bits for the length*/
+	public static final int MAX_DIGITS = 29;
+	protected static final int[] DX = {0, 1, 1, 1, 0, -1, -1, -1};
+	protected static final int[] DY = {1, 1, 0, -1, -1, -1, 0, 1};
+	
+	private double _tileSize; 
+	private int _numTilesX;
+	private int _numTilesY;
+	private double[] _worldBBox;
+	private List<Tile> _tiles;
+	private int _levels;
+	private String _crs;
+	
+	public MortonTileManager(double size, String crs) {
+		setSize(size, crs);
+		_tiles = new ArrayList<Tile>();
+	}
+	
+	private void setSize(double size, String crs) {
+		_tileSize = size;
+		
+		_crs = crs;
+		
+		double[] bounds = new CRS().getBounds(_crs); 
+		
+		_numTilesX = (int)Math.ceil((bounds[2]-bounds[0]) / _tileSize);
+		_numTilesY = (int)Math.ceil((bounds[3]-bounds[1]) / _tileSize);
+		
+		/*Same number of levels as SFCTileManager, so that the codes match*/
+		_levels = (int)Math.ceil(Math.log((double)Math.max(_numTilesX,_numTilesY)) / Math.log(2));
+		
+		_worldBBox = new double[] {bounds[0], bounds[1], bounds[2], bounds[3]}; 
+				
+	}
+	
+	/*Key operations*/
+	
+	/*Spreads the 32 bits of the value over the even bits*/
+	private static long spread(long v) {
+		v &= 0xFFFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+	
+	/*Gathers the even bits*/
+	private static int compact(long v) {
+		v &= 0x5555555555555555L;
+		v = (v | (v >>> 1)) & 0x3333333333333333L;
+		v = (v | (v >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v >>> 4)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v >>> 8)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v >>> 16)) & 0x00000000FFFFFFFFL;
+		return (int)v;
+	}
+	
+	/**Returns the key of the tile (i, j).*/
+	public static long getKey(int i, int j) {
+		return (spread(i) << 1) | spread(j);
+	}
+	
+	public static int getI(long key) {
+		return compact(key >>> 1);
+	}
+	
+	public static int getJ(long key) {
+		return compact(key);
+	}
+	
+	/**Returns the key of the tile one level up.*/
+	public static long getParent(long key) {
+		return key >>> 2;
+	}
+	
+	/**Returns the key of a child (0 to 3, in Z-order) of the tile one level down.*/
+	public static long getChild(long key, int quadrant) {
+		return (key << 2) | quadrant;
+	}
+	
+	/**Returns the key of the neighbor in the given direction (N, NE, E, SE, S, SW, W or NW), or -1 if it is outside the grid.*/
+	public long getNeighbor(long key, String direction) {
+		
+		for (int d=0; d<NEIGHBORS.length; d++) {
+			if (NEIGHBORS[d].equals(direction)) {
+				
+				int i = getI(key) + DX[d];
+				int j = getJ(key) + DY[d];
+				
+				if (i < 0 || j < 0 || i >= _numTilesX || j >= _numTilesY)
+					return -1;
+				
+				return getKey(i, j);
+			}
+		}
+		
+		throw new IllegalArgumentException("Unknown direction: " + direction);
+	}
+	
+	/*Codes*/
+	
+	/**Returns the code of a key with the given number of digits.*/
+	public static String getCode(long key, int digits) {
+		char[] code = new char[digits];
+		for (int d=0; d<digits; d++)
+			code[digits-1-d] = DIRECTIONS[(int)(key >>> (2*d)) & 3];
+		return new String(code);
+	}
+	
+	public String getCode(long key) {
+		return getCode(key, _levels);
+	}
+	
+	/**
+	 * Returns the key of a tile code. Codes of FixedGridTileManager ("T" followed by the id) are also accepted,
+	 * in which case the id is returned.
+	 */
+	public static long parseKey(String code) {
+		
+		if (code.length() > 1 && code.charAt(0) == 'T')
+			return Long.parseLong(code.substring(1));
+		
+		long key = 0;
+		
+		for (int c=0; c<code.length(); c++) {
+			int digit = code.charAt(c) - DIRECTIONS[0];
+			if (digit < 0 || digit > 3)
+				throw new IllegalArgumentException("Invalid tile code: " + code);
+			key = (key << 2) | digit;
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * Returns a key that tells apart codes of different lengths, such as the tiles of AdaptiveTileManager, and sorts
+	 * them along the curve: the key is padded to MAX_DIGITS digits and the length is kept in the lowest bits, so that
+	 * a tile comes just before the tiles inside it. Codes of FixedGridTileManager give their id, as in parseKey.
+	 */
+	public static long getOrderKey(String code) {
+		
+		if (code.length() > 1 && code.charAt(0) == 'T')
+			return Long.parseLong(code.substring(1));
+		
+		if (code.length() > MAX_DIGITS)
+			throw new IllegalArgumentException("Tile code too long: " + code);
+		
+		return (parseKey(code) << (2*(MAX_DIGITS-code.length()) + 5)) | code.length();
+	}
+	
+	public int getLevels() {
+		return _levels;
+	}
+	
+	/*TileManager*/
+	
+	public String encode(long id) {
+		
+		int i = (int)((id-1) % _numTilesX);
+		int j = (int)((id-1) / _numTilesX);
+		
+		return getCode(getKey(i, j));
+	}
+	
+	/**Returns the code of the tile that contains the given one, the given number of levels up.*/
+	public String encode(long id, int level) {
+		
+		int i = (int)((id-1) % _numTilesX);
+		int j = (int)((id-1) / _numTilesX);
+		
+		return getCode(getKey(i, j) >>> (2*level), Math.max(0, _levels-level));
+	}
+	
+	public List<String> getTiles(double[] bbox) {
+		
+		int[] tileCoords = getTileCoordinates(bbox);
+		
+		ArrayList<String> list = new ArrayList<String>();
+		
+		for (int j=tileCoords[1]; j<=tileCoords[3]; j++) {
+			for (int i=tileCoords[0]; i<=tileCoords[2]; i++)
+				list.add(getCode(getKey(i, j)));
+		}
+		
+		return list;
+		
+	}
+	
+	public int[] getTileCoordinates(double[] bbox) {
+		int[] tileCoords = new int[4];
+		tileCoords[0] = (int)Math.floor((bbox[0]-_worldBBox[0]) / _tileSize);
+		tileCoords[1] = (int)Math.floor((bbox[1]-_worldBBox[1]) / _tileSize);
+		tileCoords[2] = (int)Math.floor((bbox[2]-_worldBBox[0]) / _tileSize);
+		tileCoords[3] = (int)Math.floor((bbox[3]-_worldBBox[1]) / _tileSize);
+		
+		return tileCoords;
+	}
+	
+	public int getNumTilesX() {
+		return _numTilesX;
+	}
+	
+	public int getNumTilesY() {
+		return _numTilesY;
+	}
+	
+	public double getTileSize() {
+		return _tileSize;
+	}
+	
+	public void setTiles(double[] geoBBox) {
+		
+		int[] tileCoords = getTileCoordinates(geoBBox);
+		
+		for (int j=tileCoords[1]; j<=tileCoords[3]; j++) {
+			for (int i=tileCoords[0]; i<=tileCoords[2]; i++) {
+				Tile tile = new Tile();
+				long id = ((long)j)*_numTilesX+i+1;
+				tile.setId(id);
+				tile.setCode(getCode(getKey(i, j)));
+				
+				double geoX = i*_tileSize + _worldBBox[0];
+				double geoY = j*_tileSize + _worldBBox[1];
+				
+				tile.setGeometry(String.format("POLYGON ((%f %f, %f %f, %f %f, %f %f, %f %f))", geoX, geoY, geoX + _tileSize, geoY, geoX + _tileSize, geoY + _tileSize, geoX, geoY + _tileSize, geoX, geoY));
+				
+				_tiles.add(tile);
+			}
+		}
+		
+	}
+	
+	public List<String> getNeighourTiles(String code, List<String> directions) {
+		
+		long key = parseKey(code);
+		
+		List<String> neighbours = new ArrayList<String>();
+		
+		for (String direction : NEIGHBORS) {
+			if (directions.contains(direction)) {
+				long neighbor = getNeighbor(key, direction);
+				if (neighbor >= 0)
+					neighbours.add(getCode(neighbor));
+			}
+		}
+		
+		return neighbours;
+	}
+	
+	public String getCRS() {
+		return _crs;
+	}
+	
+	public List<Tile> getTiles() {
+		return _tiles;
+	}
+	
+	public double[] getWorldBBox() {
+		return _worldBBox;
+	}
+	
+}
@@ -0,0 +1,269 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * An immutable, indexed set of shapes (e.g. the ROIs of a project).<br><br>
+ * Like the tiles grid, a shape set is loaded only once per JVM and shared by every UDF that asks for the same URL.
+ * The binary layout stores the geometries as WKB; shapes written as a serialized list are still accepted.<br>
+ * The geometries are prepared once, and the predicates on rectangular shapes are answered from the envelopes.
+ * @author Rodrigo Ferreira
+ */
+public class ShapeSet {
+
+	/*"IISH"*/
+	private static final int MAGIC = 0x49495348;
+	private static final int VERSION = 1;
+
+	private static final Map<String, ShapeSet> _cache = new HashMap<String, ShapeSet>();
+
+	private long[] _ids;
+	private String[] _codes;
+	private Geometry[] _geometries;
+	private PreparedGeometry[] _prepared;
+	private boolean[] _rectangles;
+
+	private SpatialIndex _index;
+
+	private ShapeSet(int size) {
+		_ids = new long[size];
+		_codes = new String[size];
+		_geometries = new Geometry[size];
+		_prepared = new PreparedGeometry[size];
+		_rectangles = new boolean[size];
+	}
+
+	/**Returns the shapes stored at the given URL, loading them on the first call.*/
+	public static ShapeSet get(String url) throws IOException {
+		synchronized (_cache) {
+			ShapeSet shapes = _cache.get(url);
+			if (shapes == null) {
+				InputStream in = URL.openStream(url);
+				try {
+					shapes = read(in);
+				} finally {
+					in.close();
+				}
+				_cache.put(url, shapes);
+			}
+			return shapes;
+		}
+	}
+
+	/**Reads the shapes in the binary layout or, for older projects, as a serialized list of shapes.*/
+	@SuppressWarnings("unchecked")
+	public static ShapeSet read(InputStream stream) throws IOException {
+
+		BufferedInputStream buff = new BufferedInputStream(stream);
+		buff.mark(4);
+
+		DataInputStream in = new DataInputStream(buff);
+
+		if (in.readInt() != MAGIC) {
+
+			buff.reset();
+
+			try {
+				List<Shape> list = (List<Shape>)new ObjectInputStream(buff).readObject();
+				return fromShapes(list);
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unknown shapes format", e);
+			}
+
+		}
+
+		int version = in.readInt();
+
+		if (version != VERSION)
+			throw new IOException("Unsupported shapes version " + version);
+
+		ShapeSet shapes = new ShapeSet(in.readInt());
+
+		WKBReader reader = new WKBReader();
+
+		for (int k=0; k<shapes._ids.length; k++) {
+
+			shapes._ids[k] = in.readLong();
+			shapes._codes[k] = in.readUTF();
+
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+
+			try {
+				shapes._geometries[k] = reader.read(bytes);
+			} catch (Exception e) {
+				throw new IOException("Caught exception parsing shape " + shapes._codes[k], e);
+			}
+
+		}
+
+		shapes.buildIndex();
+
+		return shapes;
+	}
+
+	private static ShapeSet fromShapes(List<Shape> list) throws IOException {
+
+		ShapeSet shapes = new ShapeSet(list.size());
+
+		WKTReader reader = new WKTReader();
+
+		for (int k=0; k<list.size(); k++) {
+
+			Shape shape = list.get(k);
+
+			shapes._ids[k] = shape.getId();
+			shapes._codes[k] = shape.getCode();
+
+			try {
+				shapes._geometries[k] = reader.read(shape.getGeometry());
+			} catch (Exception e) {
+				throw new IOException("Caught exception parsing shape " + shape.getCode(), e);
+			}
+
+		}
+
+		shapes.buildIndex();
+
+		return shapes;
+	}
+
+	/**Writes a list of shapes in the binary layout.*/
+	public static void write(List<Shape> list, OutputStream stream) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(stream);
+
+		WKTReader reader = new WKTReader();
+		WKBWriter writer = new WKBWriter();
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(list.size());
+
+		for (Shape shape : list) {
+
+			byte[] bytes;
+
+			try {
+				bytes = writer.write(reader.read(shape.getGeometry()));
+			} catch (Exception e) {
+				throw new IOException("Caught exception parsing shape " + shape.getCode(), e);
+			}
+
+			out.writeLong(shape.getId());
+			out.writeUTF(shape.getCode());
+			out.writeInt(bytes.length);
+			out.write(bytes);
+
+		}
+
+		out.flush();
+
+	}
+
+	private void buildIndex() {
+
+		_index = new SpatialIndex();
+
+		for (int k=0; k<_geometries.length; k++) {
+			_index.insert(_geometries[k].getEnvelopeInternal(), k);
+			_prepared[k] = PreparedGeometryFactory.prepare(_geometries[k]);
+			_rectangles[k] = _geometries[k].isRectangle();
+		}
+
+		/*Building now makes the index read-only, so it can be queried from several threads*/
+		_index.build();
+
+	}
+
+	public int size() {
+		return _codes.length;
+	}
+
+	public long getId(int k) {
+		return _ids[k];
+	}
+
+	public String getCode(int k) {
+		return _codes[k];
+	}
+
+	public Geometry getGeometry(int k) {
+		return _geometries[k];
+	}
+
+	public PreparedGeometry getPrepared(int k) {
+		return _prepared[k];
+	}
+
+	/**Whether the shape is an axis-aligned rectangle.*/
+	public boolean isRectangle(int k) {
+		return _rectangles[k];
+	}
+
+	/**Tests whether the shape intersects the geometry.*/
+	public boolean intersects(int k, Geometry geometry) {
+
+		Envelope env = geometry.getEnvelopeInternal();
+
+		if (!_geometries[k].getEnvelopeInternal().intersects(env))
+			return false;
+
+		if (_rectangles[k] && _geometries[k].getEnvelopeInternal().covers(env))
+			return true;
+
+		return _prepared[k].intersects(geometry);
+	}
+
+	/**Tests whether the shape covers the geometry.*/
+	public boolean covers(int k, Geometry geometry) {
+
+		Envelope env = geometry.getEnvelopeInternal();
+
+		if (_rectangles[k])
+			return _geometries[k].getEnvelopeInternal().covers(env);
+
+		if (!_geometries[k].getEnvelopeInternal().covers(env))
+			return false;
+
+		return _prepared[k].covers(geometry);
+	}
+
+	/**Returns the positions of the shapes whose envelopes intersect the given envelope.*/
+	@SuppressWarnings("unchecked")
+	public List<Integer> query(Envelope env) {
+		return _index.query(env);
+	}
+
+}
@@ -0,0 +1,328 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * An immutable, indexed view of the tiles grid resource.<br><br>
+ * A grid is loaded only once per JVM and the same instance is shared by every UDF that asks for the same URL.
+ * The binary layout stores, for each tile, its id, code, grid coordinates and envelope, so no WKT has to be parsed
+ * and tile geometries are built directly from the envelopes. Grids written as a serialized list of tiles are still accepted.<br>
+ * Since tiles are axis-aligned rectangles, most predicates against them are answered from the envelopes alone.
+ * @author Rodrigo Ferreira
+ */
+public class TileGrid {
+
+	/*"IIGR"*/
+	private static final int MAGIC = 0x49494752;
+	private static final int VERSION = 1;
+
+	private static final Map<String, TileGrid> _cache = new HashMap<String, TileGrid>();
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	private long[] _ids;
+	private String[] _codes;
+	private int[] _cols;
+	private int[] _rows;
+	private double[] _bounds;
+
+	private Map<String, Integer> _positions;
+	private SpatialIndex _index;
+
+	private TileGrid(int size) {
+		_ids = new long[size];
+		_codes = new String[size];
+		_cols = new int[size];
+		_rows = new int[size];
+		_bounds = new double[4*size];
+	}
+
+	/**Returns the grid stored at the given URL, loading it on the first call.*/
+	public static TileGrid get(String url) throws IOException {
+		synchronized (_cache) {
+			TileGrid grid = _cache.get(url);
+			if (grid == null) {
+				InputStream in = URL.openStream(url);
+				try {
+					grid = read(in);
+				} finally {
+					in.close();
+				}
+				_cache.put(url, grid);
+			}
+			return grid;
+		}
+	}
+
+	/**Reads a grid in the binary layout or, for older projects, as a serialized list of tiles.*/
+	@SuppressWarnings("unchecked")
+	public static TileGrid read(InputStream stream) throws IOException {
+
+		BufferedInputStream buff = new BufferedInputStream(stream);
+		buff.mark(4);
+
+		DataInputStream in = new DataInputStream(buff);
+
+		if (in.readInt() != MAGIC) {
+
+			buff.reset();
+
+			try {
+				List<Tile> tiles = (List<Tile>)new ObjectInputStream(buff).readObject();
+				return fromTiles(tiles);
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unknown grid format", e);
+			}
+
+		}
+
+		int version = in.readInt();
+
+		if (version != VERSION)
+			throw new IOException("Unsupported grid version " + version);
+
+		TileGrid grid = new TileGrid(in.readInt());
+
+		for (int k=0; k<grid._ids.length; k++) {
+			grid._ids[k] = in.readLong();
+			grid._codes[k] = in.readUTF();
+			grid._cols[k] = in.readInt();
+			grid._rows[k] = in.readInt();
+			for (int b=0; b<4; b++)
+				grid._bounds[4*k+b] = in.readDouble();
+		}
+
+		grid.buildIndex();
+
+		return grid;
+	}
+
+	/*The tile geometries are parsed only here; grid coordinates are unknown for this layout*/
+	private static TileGrid fromTiles(List<Tile> tiles) throws IOException {
+
+		TileGrid grid = new TileGrid(tiles.size());
+
+		WKTReader reader = new WKTReader();
+
+		for (int k=0; k<tiles.size(); k++) {
+
+			Tile tile = tiles.get(k);
+
+			Envelope env;
+
+			try {
+				env = reader.read(tile.getGeometry()).getEnvelopeInternal();
+			} catch (Exception e) {
+				throw new IOException("Caught exception parsing tile " + tile.getCode(), e);
+			}
+
+			grid._ids[k] = tile.getId();
+			grid._codes[k] = tile.getCode();
+			grid._cols[k] = -1;
+			grid._rows[k] = -1;
+			grid._bounds[4*k] = env.getMinX();
+			grid._bounds[4*k+1] = env.getMinY();
+			grid._bounds[4*k+2] = env.getMaxX();
+			grid._bounds[4*k+3] = env.getMaxY();
+
+		}
+
+		grid.buildIndex();
+
+		return grid;
+	}
+
+	/**
+	 * Writes the tiles of a tile manager in the binary layout.<br>
+	 * The envelopes are computed from the grid coordinates of each tile instead of from its WKT. Tiles of an
+	 * AdaptiveTileManager, whose ids are not grid positions, take the envelope of their quadtree node and the grid
+	 * coordinates of its lower left base tile.
+	 */
+	public static void write(List<Tile> tiles, TileManager tileManager, OutputStream stream) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(stream);
+
+		double size = tileManager.getTileSize();
+		double[] world = tileManager.getWorldBBox();
+		int numTilesX = tileManager.getNumTilesX();
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(tiles.size());
+
+		for (Tile tile : tiles) {
+
+			int i;
+			int j;
+			double[] env;
+
+			if (tileManager instanceof AdaptiveTileManager) {
+				AdaptiveTileManager adaptive = (AdaptiveTileManager)tileManager;
+				int[] base = adaptive.getBaseTile(tile.getCode());
+				i = base[0];
+				j = base[1];
+				env = adaptive.getEnvelope(tile.getCode());
+			} else {
+				i = (int)((tile.getId()-1) % numTilesX);
+				j = (int)((tile.getId()-1) / numTilesX);
+				env = new double[] {i*size + world[0], j*size + world[1], i*size + world[0] + size, j*size + world[1] + size};
+			}
+
+			out.writeLong(tile.getId());
+			out.writeUTF(tile.getCode());
+			out.writeInt(i);
+			out.writeInt(j);
+
+			for (int b=0; b<4; b++)
+				out.writeDouble(env[b]);
+
+		}
+
+		out.flush();
+
+	}
+
+	private void buildIndex() {
+
+		_positions = new HashMap<String, Integer>(2*_codes.length);
+		_index = new SpatialIndex();
+
+		for (int k=0; k<_codes.length; k++) {
+			_positions.put(_codes[k], k);
+			_index.insert(getEnvelope(k), k);
+		}
+
+		/*Building now makes the index read-only, so it can be queried from several threads*/
+		_index.build();
+
+	}
+
+	public int size() {
+		return _codes.length;
+	}
+
+	public long getId(int k) {
+		return _ids[k];
+	}
+
+	public String getCode(int k) {
+		return _codes[k];
+	}
+
+	/**Column of the tile in the grid, or -1 if the grid was read from the serialized list of tiles.*/
+	public int getColumn(int k) {
+		return _cols[k];
+	}
+
+	/**Row of the tile in the grid, or -1 if the grid was read from the serialized list of tiles.*/
+	public int getRow(int k) {
+		return _rows[k];
+	}
+
+	public Envelope getEnvelope(int k) {
+		return new Envelope(_bounds[4*k], _bounds[4*k+2], _bounds[4*k+1], _bounds[4*k+3]);
+	}
+
+	/**Builds the rectangle of the tile.*/
+	public Geometry getGeometry(int k) {
+		return _factory.toGeometry(getEnvelope(k));
+	}
+
+	/**Returns the position of the tile with the given code, or -1 if it is not in the grid.*/
+	public int indexOf(String code) {
+		Integer k = _positions.get(code);
+		return k == null ? -1 : k;
+	}
+
+	/**Tests whether the tile intersects the geometry.*/
+	public boolean intersects(int k, Geometry geometry) {
+
+		Envelope env = geometry.getEnvelopeInternal();
+
+		if (!envelopeIntersects(k, env))
+			return false;
+
+		if (envelopeCovers(k, env))
+			return true;
+
+		/*Polygon.intersects has its own rectangle fast path*/
+		return getGeometry(k).intersects(geometry);
+	}
+
+	/**Tests whether the tile covers the geometry, which for a rectangle only depends on the envelope of the geometry.*/
+	public boolean covers(int k, Geometry geometry) {
+		return envelopeCovers(k, geometry.getEnvelopeInternal());
+	}
+
+	private boolean envelopeIntersects(int k, Envelope env) {
+		if (env.isNull())
+			return false;
+		return !(env.getMinX() > _bounds[4*k+2] || env.getMaxX() < _bounds[4*k]
+				|| env.getMinY() > _bounds[4*k+3] || env.getMaxY() < _bounds[4*k+1]);
+	}
+
+	private boolean envelopeCovers(int k, Envelope env) {
+		if (env.isNull())
+			return false;
+		return env.getMinX() >= _bounds[4*k] && env.getMaxX() <= _bounds[4*k+2]
+				&& env.getMinY() >= _bounds[4*k+1] && env.getMaxY() <= _bounds[4*k+3];
+	}
+
+	/**
+	 * Computes the set of tiles whose envelopes intersect the envelope of any of the shapes.
+	 * @return a bit set indexed by tile position
+	 */
+	public BitSet intersecting(ShapeSet shapes) {
+
+		BitSet set = new BitSet(size());
+
+		for (int s=0; s<shapes.size(); s++) {
+			for (Integer k : query(shapes.getGeometry(s).getEnvelopeInternal()))
+				set.set(k);
+		}
+
+		return set;
+	}
+
+	/**Tests whether the tile with the given code belongs to the set.*/
+	public boolean contains(BitSet set, String code) {
+		int k = indexOf(code);
+		return k >= 0 && set.get(k);
+	}
+
+	/**Returns the positions of the tiles whose envelopes intersect the given envelope.*/
+	@SuppressWarnings("unchecked")
+	public List<Integer> query(Envelope env) {
+		return _index.query(env);
+	}
+
+}
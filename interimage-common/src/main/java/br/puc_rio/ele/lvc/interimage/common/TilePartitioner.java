@@ -0,0 +1,227 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.pig.impl.io.PigNullableWritable;
+
+/**
+ * A partitioner for the relations grouped by tile, used with PARTITION BY.<br><br>
+ * The tiles are sorted along the space filling curve (see MortonTileManager) and cut into contiguous ranges of
+ * about the same weight, one range per reducer, so that neighboring tiles go to the same reducer and a dense tile
+ * doesn't share its reducer with many others. The weight of a tile is its number of objects in the sample stored by
+ * II_TileWeights (plus one), read from interimage.tileWeights; without it, every tile of the grid given by
+ * interimage.tileGrid weighs the same. Without both, or for keys that are not tile codes, the keys are hashed
+ * as in the default partitioner.
+ * @author Rodrigo Ferreira
+ *
+ */
+public class TilePartitioner extends Partitioner<PigNullableWritable, Writable> implements Configurable {
+
+	public static final String GRID = "interimage.tileGrid";
+	public static final String WEIGHTS = "interimage.tileWeights";
+	
+	private Configuration _conf;
+	
+	/*First key of the range of each reducer; null to hash the keys*/
+	private long[] _starts = null;
+	private int _partitions = -1;
+	
+	@Override
+	public void setConf(Configuration conf) {
+		_conf = conf;
+		_partitions = -1;
+	}
+	
+	@Override
+	public Configuration getConf() {
+		return _conf;
+	}
+	
+	@Override
+	public int getPartition(PigNullableWritable key, Writable value, int numPartitions) {
+		
+		if (_partitions != numPartitions) {
+			_starts = ranges(numPartitions);
+			_partitions = numPartitions;
+		}
+		
+		Object obj = key.getValueAsPigType();
+		
+		if (_starts != null && obj != null) {
+			try {
+				return range(_starts, MortonTileManager.getOrderKey(obj.toString()));
+			} catch (IllegalArgumentException e) {
+				//not a tile code
+			}
+		}
+		
+		return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+	}
+	
+	/*Computes the ranges from the grid and the sampled weights*/
+	private long[] ranges(int numPartitions) {
+		
+		if (_conf == null)
+			return null;
+		
+		try {
+			
+			Map<Long, Double> weights = new HashMap<Long, Double>();
+			
+			String gridUrl = _conf.get(GRID);
+			
+			if (gridUrl != null && !gridUrl.isEmpty()) {
+				TileGrid grid = TileGrid.get(gridUrl);
+				for (int k=0; k<grid.size(); k++)
+					weights.put(MortonTileManager.getOrderKey(grid.getCode(k)), 1.0);
+			}
+			
+			String weightsUrl = _conf.get(WEIGHTS);
+			
+			if (weightsUrl != null && !weightsUrl.isEmpty())
+				readWeights(new Path(weightsUrl), weights);
+			
+			if (weights.isEmpty())
+				return null;
+			
+			long[] keys = new long[weights.size()];
+			
+			int index = 0;
+			for (Long k : weights.keySet())
+				keys[index++] = k;
+			
+			Arrays.sort(keys);
+			
+			double[] w = new double[keys.length];
+			
+			for (int k=0; k<keys.length; k++)
+				w[k] = weights.get(keys[k]);
+			
+			return partition(keys, w, numPartitions);
+			
+		} catch (Exception e) {
+			System.err.println("Failed to compute the tile partitions; hashing the tiles - " + e.getMessage());
+			return null;
+		}
+		
+	}
+	
+	/*Reads the lines "tile count" of a file or of the part files of a directory*/
+	private void readWeights(Path path, Map<Long, Double> weights) throws IOException {
+		
+		FileSystem fs = path.getFileSystem(_conf);
+		
+		if (!fs.exists(path))
+			return;
+		
+		FileStatus[] files = fs.getFileStatus(path).isDir() ? fs.globStatus(new Path(path, "part*")) : new FileStatus[] {fs.getFileStatus(path)};
+		
+		if (files == null)
+			return;
+		
+		for (FileStatus file : files) {
+			
+			BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath())));
+			
+			try {
+				
+				String line;
+				
+				while ((line = reader.readLine()) != null) {
+					
+					String[] tokens = line.trim().split("\\s+");
+					
+					if (tokens.length < 2)
+						continue;
+					
+					try {
+						long key = MortonTileManager.getOrderKey(tokens[0]);
+						weights.put(key, Double.parseDouble(tokens[1]) + 1.0);
+					} catch (IllegalArgumentException e) {
+						//not a tile
+					}
+					
+				}
+				
+			} finally {
+				reader.close();
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Cuts the keys, sorted along the curve, into at most n contiguous ranges of about the same total weight.
+	 * A tile heavier than the average range gets a range of its own.
+	 * @return the first key of each range
+	 */
+	public static long[] partition(long[] keys, double[] weights, int n) {
+		
+		double remaining = 0.0;
+		for (double w : weights)
+			remaining += w;
+		
+		long[] starts = new long[Math.min(n, keys.length)];
+		
+		if (starts.length == 0)
+			return starts;
+		
+		int ranges = 1;
+		starts[0] = keys[0];
+		
+		double target = remaining / starts.length;
+		double current = 0.0;
+		
+		for (int k=0; k<keys.length; k++) {
+			
+			/*Closes the range when the tile would take it further from the target*/
+			if (current > 0 && current + weights[k]/2 > target && ranges < starts.length) {
+				remaining -= current;
+				target = remaining / (starts.length - ranges);
+				starts[ranges++] = keys[k];
+				current = 0.0;
+			}
+			
+			current += weights[k];
+			
+		}
+		
+		return Arrays.copyOf(starts, ranges);
+	}
+	
+	/**Returns the range of a key.*/
+	public static int range(long[] starts, long key) {
+		int index = Arrays.binarySearch(starts, key);
+		if (index >= 0)
+			return index;
+		return Math.max(0, -index-2);
+	}
+	
+}
@@ -14,7 +14,11 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.common;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.URLConnection;
 
 /**
  * Help class to work with URLs.
@@ -95,6 +99,13 @@ public class URL {
 		
 	}
 	
+	/**Opens a buffered stream for the given URL.*/
+	public static InputStream openStream(String url) throws IOException {
+		URLConnection urlConn = new java.net.URL(url).openConnection();
+		urlConn.connect();
+		return new BufferedInputStream(urlConn.getInputStream());
+	}
+	
 	public static boolean exists(String URLName){
 	    try {
 	      HttpURLConnection.setFollowRedirects(false);
@@ -43,12 +43,17 @@ import org.apache.pig.ResourceSchema.ResourceFieldSchema;
 import org.apache.pig.ResourceStatistics;
 import org.apache.pig.StoreMetadata;
 import org.apache.pig.StoreFunc;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.impl.util.UDFContext;
 import org.apache.pig.impl.util.Utils;
 
+import br.puc_rio.ele.lvc.interimage.common.GeometryCodec;
+
+import com.vividsolutions.jts.io.WKTWriter;
+
 /**
  * A JSON Pig store function.  Each Pig tuple is stored on one line (as one
  * value for TextOutputFormat) so that it can be read easily using
@@ -188,6 +193,12 @@ public class CompressedJsonStorage extends StoreFunc implements StoreMetadata {
             return;
         }
 
+        // Geometries encoded with GeometryCodec are written as WKT
+        if (d instanceof DataByteArray && GeometryCodec.isEncoded(((DataByteArray)d).get())) {
+            json.writeStringField(field.getName(), new WKTWriter().write(GeometryCodec.decode(((DataByteArray)d).get())));
+            return;
+        }
+
         // Based on the field's type, write it out
         switch (field.getType()) {
         case DataType.BOOLEAN:
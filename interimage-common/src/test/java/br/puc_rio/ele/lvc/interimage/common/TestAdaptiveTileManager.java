@@ -0,0 +1,193 @@
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class TestAdaptiveTileManager extends TestCase {
+
+	private static final double SIZE = 5.12;
+	private static final double[] GEO_BOX = new double[] {684306.2852457707, 7463100.402618, 684350.2852457707, 7463168.402618};
+
+	/*A uniform image over the box, plus a dense cluster of objects in one corner*/
+	private AdaptiveTileManager create() {
+
+		AdaptiveTileManager adaptive = new AdaptiveTileManager(SIZE, "EPSG:32723", 100.0);
+
+		/*One budget per base tile*/
+		double[] image = new double[] {684310, 7463110, 684330, 7463130};
+		adaptive.addLoad(image, 100.0 * (20*20) / (SIZE*SIZE));
+
+		Random random = new Random(42);
+
+		for (int n=0; n<2000; n++)
+			adaptive.addLoad(684340 + 5*random.nextDouble(), 7463160 + 5*random.nextDouble(), 1.0);
+
+		adaptive.setTiles(GEO_BOX);
+
+		return adaptive;
+	}
+
+	/*The tile that holds the point*/
+	private String tileAt(AdaptiveTileManager adaptive, double x, double y) {
+		List<String> tiles = adaptive.getTiles(new double[] {x, y, x, y});
+		assertEquals(1, tiles.size());
+		return tiles.get(0);
+	}
+
+	@Test
+	public void testSplitsDenseAndMergesSparseTiles() throws Exception {
+
+		AdaptiveTileManager adaptive = create();
+		int levels = adaptive.getLevels();
+
+		boolean split = false;
+		boolean merged = false;
+
+		Set<Long> ids = new HashSet<Long>();
+
+		for (Tile tile : adaptive.getTiles()) {
+
+			String code = tile.getCode();
+
+			/*The children of a split base tile have ids of their own*/
+			assertTrue(ids.add(tile.getId()));
+
+			assertTrue(code.length() >= levels - AdaptiveTileManager.MAX_MERGES);
+			assertTrue(code.length() <= levels + AdaptiveTileManager.MAX_SPLITS);
+
+			split |= code.length() > levels;
+			merged |= code.length() < levels;
+
+			/*No tile contains another one*/
+			for (Tile other : adaptive.getTiles()) {
+				if (other != tile)
+					assertFalse(code.startsWith(other.getCode()));
+			}
+
+		}
+
+		assertTrue(split);
+		assertTrue(merged);
+
+		/*Inside the image the tiles are the base tiles*/
+		MortonTileManager morton = new MortonTileManager(SIZE, "EPSG:32723");
+		assertEquals(morton.getTiles(new double[] {684321, 7463121, 684321, 7463121}), adaptive.getTiles(new double[] {684321, 7463121, 684321, 7463121}));
+
+		/*Every point of the box is in exactly one tile, whose envelope holds it*/
+		Random random = new Random(7);
+
+		for (int n=0; n<1000; n++) {
+
+			double x = GEO_BOX[0] + random.nextDouble()*(GEO_BOX[2]-GEO_BOX[0]);
+			double y = GEO_BOX[1] + random.nextDouble()*(GEO_BOX[3]-GEO_BOX[1]);
+
+			double[] env = adaptive.getEnvelope(tileAt(adaptive, x, y));
+
+			assertTrue(x >= env[0] && x < env[2] && y >= env[1] && y < env[3]);
+
+		}
+
+	}
+
+	@Test
+	public void testObjectDensityWithAverageBudget() throws Exception {
+
+		/*A dense block of objects in a box that is otherwise sparse*/
+		double[] box = new double[] {684300, 7463000, 684500, 7463200};
+
+		AdaptiveTileManager adaptive = new AdaptiveTileManager(SIZE, "EPSG:32723", 0.0);
+
+		Random random = new Random(42);
+
+		for (int n=0; n<2000; n++)
+			adaptive.addLoad(684450 + 20*random.nextDouble(), 7463150 + 20*random.nextDouble(), 1.0);
+
+		for (int n=0; n<100; n++)
+			adaptive.addLoad(box[0] + 200*random.nextDouble(), box[1] + 200*random.nextDouble(), 1.0);
+
+		assertEquals(2100.0, adaptive.getTotalLoad(), 1e-9);
+
+		adaptive.setBudget(adaptive.getAverageLoad(box));
+		adaptive.setTiles(box);
+
+		int levels = adaptive.getLevels();
+
+		/*Split in the dense block, merged in the sparse corner*/
+		assertEquals(levels + AdaptiveTileManager.MAX_SPLITS, tileAt(adaptive, 684460, 7463160).length());
+		assertTrue(tileAt(adaptive, 684320, 7463020).length() < levels);
+
+	}
+
+	@Test
+	public void testNeighborsAcrossLevels() throws Exception {
+
+		AdaptiveTileManager adaptive = create();
+
+		List<String> all = Arrays.asList(MortonTileManager.NEIGHBORS);
+
+		for (Tile tile : adaptive.getTiles()) {
+
+			double[] env = adaptive.getEnvelope(tile.getCode());
+
+			for (String neighbour : adaptive.getNeighourTiles(tile.getCode(), all)) {
+
+				/*Neighbors touch the tile and see it back*/
+				double[] other = adaptive.getEnvelope(neighbour);
+				double eps = 1e-6;
+
+				assertTrue(other[0] <= env[2] + eps && other[2] >= env[0] - eps && other[1] <= env[3] + eps && other[3] >= env[1] - eps);
+				assertTrue(adaptive.getNeighourTiles(neighbour, all).contains(tile.getCode()));
+
+			}
+
+			/*The tile just north of the middle of the north side*/
+			double x = (env[0]+env[2])/2;
+			double y = env[3] + 0.01;
+
+			if (y < GEO_BOX[3] && adaptive.getTiles(new double[] {x, y, x, y}).size() == 1)
+				assertTrue(adaptive.getNeighourTiles(tile.getCode(), Arrays.asList("N")).contains(tileAt(adaptive, x, y)));
+
+		}
+
+	}
+
+	@Test
+	public void testWritesTileEnvelopes() throws Exception {
+
+		AdaptiveTileManager adaptive = create();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TileGrid.write(adaptive.getTiles(), adaptive, out);
+
+		TileGrid grid = TileGrid.read(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(adaptive.getTiles().size(), grid.size());
+
+		for (int k=0; k<grid.size(); k++) {
+
+			double[] env = adaptive.getEnvelope(grid.getCode(k));
+
+			assertEquals(env[0], grid.getEnvelope(k).getMinX());
+			assertEquals(env[1], grid.getEnvelope(k).getMinY());
+			assertEquals(env[2], grid.getEnvelope(k).getMaxX());
+			assertEquals(env[3], grid.getEnvelope(k).getMaxY());
+
+			/*Grid coordinates of the base tile that holds the lower left corner*/
+			double x = adaptive.getWorldBBox()[0] + grid.getColumn(k)*SIZE;
+			double y = adaptive.getWorldBBox()[1] + grid.getRow(k)*SIZE;
+			assertTrue(env[0] >= x - 1e-6 && env[0] < x + SIZE && env[1] >= y - 1e-6 && env[1] < y + SIZE);
+
+		}
+
+	}
+
+}
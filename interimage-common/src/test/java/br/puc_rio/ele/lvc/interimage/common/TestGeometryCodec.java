@@ -0,0 +1,78 @@
+package br.puc_rio.ele.lvc.interimage.common;
+
+import org.apache.pig.data.DataByteArray;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.WKTWriter;
+
+import junit.framework.TestCase;
+
+public class TestGeometryCodec extends TestCase {
+
+	private static final String POLYGON = "POLYGON ((684306.2852457707 7463168.402618, 684308.2853693123 7463168.402618, 684309.2854310831 7463168.402618, 684309.2854310831 7463167.402556229, 684308.2853693123 7463167.402556229, 684306.2852457707 7463167.402556229, 684306.2852457707 7463168.402618), (684307 7463167.6, 684308 7463167.6, 684308 7463168, 684307 7463167.6))";
+
+	@Test
+	public void testLossless() throws Exception {
+
+		String[] wkts = {POLYGON, "POINT (1.5 -2.25)", "LINESTRING (0 0, 1 1, 2 0)", "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))", "GEOMETRYCOLLECTION (POINT (1 1), LINESTRING (0 0, 3 3))", "POLYGON EMPTY"};
+
+		for (String wkt : wkts) {
+
+			Geometry geometry = new WKTReader().read(wkt);
+
+			byte[] bytes = GeometryCodec.encode(geometry, 0);
+
+			assertTrue(GeometryCodec.isEncoded(bytes));
+			assertEquals(0.0, GeometryCodec.getQuantum(bytes));
+			assertTrue(geometry.equalsExact(GeometryCodec.decode(bytes)));
+
+		}
+
+	}
+
+	@Test
+	public void testQuantized() throws Exception {
+
+		Geometry geometry = new WKTReader().read(POLYGON);
+
+		double quantum = GeometryCodec.quantum(1.0);
+
+		byte[] bytes = GeometryCodec.encode(geometry, quantum);
+
+		Geometry decoded = GeometryCodec.decode(bytes);
+
+		assertEquals(quantum, GeometryCodec.getQuantum(bytes));
+		assertTrue(geometry.equalsExact(decoded, quantum));
+		assertEquals(geometry.getArea(), decoded.getArea(), 0.01);
+
+		/*Much smaller than the text*/
+		assertTrue(bytes.length * 4 < new WKTWriter().write(geometry).length());
+
+		/*Values on the grid are kept*/
+		Coordinate c = GeometryCodec.decode(GeometryCodec.encode(new WKTReader().read("POINT (684306.5 7463168.25)"), quantum)).getCoordinate();
+
+		assertEquals(684306.5, c.x, 1e-6);
+		assertEquals(7463168.25, c.y, 1e-6);
+
+	}
+
+	@Test
+	public void testParser() throws Exception {
+
+		Geometry geometry = new WKTReader().read(POLYGON);
+
+		DataByteArray array = GeometryCodec.toBytes(geometry, 0);
+
+		assertEquals(0.0, GeometryCodec.getQuantum(array));
+		assertTrue(geometry.equalsExact(new GeometryParser().parseGeometry(array)));
+
+		/*WKT and WKB are not taken as encoded geometries*/
+		assertFalse(GeometryCodec.isEncoded(POLYGON.getBytes()));
+		assertEquals(0.0, GeometryCodec.getQuantum(POLYGON));
+
+	}
+
+}
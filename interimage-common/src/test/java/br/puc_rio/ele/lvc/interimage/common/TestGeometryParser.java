@@ -88,4 +88,33 @@ public class TestGeometryParser extends TestCase {
 		
 	}
 	
+	@Test
+	public void testDetectFormat() throws Exception {
+		
+		String geoStr = "POLYGON ((0 0, 1 0, 1 1, 0 0))";
+		
+		Geometry geometry = new WKTReader().read(geoStr);
+		byte[] wkb = new WKBWriter().write(geometry);
+		
+		assertEquals(GeometryParser.CODEC, GeometryParser.detectFormat(GeometryCodec.encode(geometry, 0)));
+		assertEquals(GeometryParser.WKB, GeometryParser.detectFormat(wkb));
+		assertEquals(GeometryParser.HEX_WKB, GeometryParser.detectFormat(WKBWriter.toHex(wkb).getBytes()));
+		assertEquals(GeometryParser.WKT, GeometryParser.detectFormat(geoStr.getBytes()));
+		assertEquals(GeometryParser.HEX_WKB, GeometryParser.detectFormat(WKBWriter.toHex(wkb)));
+		assertEquals(GeometryParser.WKT, GeometryParser.detectFormat(geoStr));
+		
+		GeometryParser parser = new GeometryParser();
+		
+		long wkt = GeometryParser.getCount(GeometryParser.WKT);
+		long failed = GeometryParser.getCount(GeometryParser.FAILED);
+		
+		assertTrue(geometry.equals(parser.parseGeometry(new DataByteArray(geoStr.getBytes()))));
+		assertTrue(geometry.equals(parser.parseGeometry(new DataByteArray(WKBWriter.toHex(wkb).getBytes()))));
+		assertNull(parser.parseGeometry("POLYGON ((0 0"));
+		
+		assertTrue(GeometryParser.getCount(GeometryParser.WKT) > wkt);
+		assertTrue(GeometryParser.getCount(GeometryParser.FAILED) > failed);
+		
+	}
+	
 }
@@ -0,0 +1,207 @@
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class TestMortonTileManager extends TestCase {
+
+	private static final double[] GEO_BOX = new double[] {684306.2852457707, 7463100.402618, 684330.2852457707, 7463168.402618};
+
+	@Test
+	public void testMatchesSFCTileManager() throws Exception {
+
+		SFCTileManager sfc = new SFCTileManager(5.12, "EPSG:32723");
+		MortonTileManager morton = new MortonTileManager(5.12, "EPSG:32723");
+
+		sfc.setTiles(GEO_BOX);
+		morton.setTiles(GEO_BOX);
+
+		assertEquals(sfc.getTiles(GEO_BOX), morton.getTiles(GEO_BOX));
+		assertEquals(sfc.getTiles().size(), morton.getTiles().size());
+
+		for (int k=0; k<sfc.getTiles().size(); k++) {
+			assertEquals(sfc.getTiles().get(k).getCode(), morton.getTiles().get(k).getCode());
+			assertEquals(sfc.getTiles().get(k).getId(), morton.getTiles().get(k).getId());
+			assertTrue(morton.getTiles().get(k).getCode().startsWith(morton.encode(morton.getTiles().get(k).getId(), 3)));
+		}
+
+		Random random = new Random(42);
+
+		for (int n=0; n<1000; n++) {
+
+			int i = random.nextInt(morton.getNumTilesX());
+			int j = random.nextInt(morton.getNumTilesY());
+
+			long key = MortonTileManager.getKey(i, j);
+			String code = sfc.encodeCoordinates(i, j, 0);
+
+			assertEquals(code, morton.getCode(key));
+			assertEquals(key, MortonTileManager.parseKey(code));
+			assertEquals(i, MortonTileManager.getI(key));
+			assertEquals(j, MortonTileManager.getJ(key));
+
+			assertEquals(key, MortonTileManager.getChild(MortonTileManager.getParent(key), (int)(key & 3)));
+			assertEquals(code.substring(0, code.length()-1), MortonTileManager.getCode(MortonTileManager.getParent(key), morton.getLevels()-1));
+
+		}
+
+	}
+
+	@Test
+	public void testNeighborsAtEveryLevel() throws Exception {
+
+		MortonTileManager morton = new MortonTileManager(5.12, "EPSG:32723");
+		SFCTileManager sfc = new SFCTileManager(5.12, "EPSG:32723");
+
+		List<String> directions = Arrays.asList(MortonTileManager.NEIGHBORS);
+		int[] dx = {0, 1, 1, 1, 0, -1, -1, -1};
+		int[] dy = {1, 1, 0, -1, -1, -1, 0, 1};
+
+		/*Tiles on the borders of large quadrants, where the carry goes up several levels*/
+		int[][] tiles = {{1023, 1023}, {1024, 1024}, {1023, 1024}, {32767, 100}, {511, 65535}, {12345, 6789}};
+
+		for (int[] tile : tiles) {
+
+			List<String> neighbors = morton.getNeighourTiles(sfc.encodeCoordinates(tile[0], tile[1], 0), directions);
+
+			assertEquals(8, neighbors.size());
+
+			for (int d=0; d<8; d++)
+				assertEquals(sfc.encodeCoordinates(tile[0]+dx[d], tile[1]+dy[d], 0), neighbors.get(d));
+
+		}
+
+		/*No neighbors outside the grid*/
+		assertEquals(3, morton.getNeighourTiles(morton.getCode(MortonTileManager.getKey(0, 0)), directions).size());
+
+		/*Legacy codes*/
+		assertEquals(42, MortonTileManager.parseKey("T42"));
+
+	}
+
+	@Test
+	public void testMatchesSFCTileManagerAtEveryLevel() throws Exception {
+
+		SFCTileManager sfc = new SFCTileManager(5.12, "EPSG:32723");
+		MortonTileManager morton = new MortonTileManager(5.12, "EPSG:32723");
+
+		List<String> directions = Arrays.asList(MortonTileManager.NEIGHBORS);
+		int[] dx = {0, 1, 1, 1, 0, -1, -1, -1};
+		int[] dy = {1, 1, 0, -1, -1, -1, 0, 1};
+
+		Random random = new Random(11);
+
+		for (int level=0; level<=morton.getLevels()-2; level++) {
+
+			/*Tiles of this level whose neighbors are inside the grid*/
+			int columns = (morton.getNumTilesX()-1) >> level;
+			int rows = (morton.getNumTilesY()-1) >> level;
+
+			if (columns < 3 || rows < 3)
+				continue;
+
+			for (int n=0; n<100; n++) {
+
+				int i = 1 + random.nextInt(columns-2);
+				int j = 1 + random.nextInt(rows-2);
+				int digits = morton.getLevels() - level;
+
+				long key = MortonTileManager.getKey(i, j);
+				String code = sfc.encodeCoordinates(i, j, level);
+
+				assertEquals(code, MortonTileManager.getCode(key, digits));
+
+				/*Parent and child*/
+				assertEquals(sfc.encodeCoordinates(i >> 1, j >> 1, level+1), MortonTileManager.getCode(MortonTileManager.getParent(key), digits-1));
+				assertEquals(key, MortonTileManager.getChild(MortonTileManager.getParent(key), (int)(key & 3)));
+
+				/*Neighbors, encoded by SFCTileManager; its own neighbor lookup goes wrong on some carries across several levels*/
+				List<String> neighbors = level == 0 ? morton.getNeighourTiles(code, directions) : null;
+
+				for (int d=0; d<8; d++) {
+					String neighbor = MortonTileManager.getCode(MortonTileManager.getKey(i+dx[d], j+dy[d]), digits);
+					assertEquals(sfc.encodeCoordinates(i+dx[d], j+dy[d], level), neighbor);
+					if (neighbors != null)
+						assertEquals(neighbor, neighbors.get(d));
+				}
+
+			}
+
+		}
+
+	}
+
+	/*Times both encoders over the same tiles of a large grid, keeping the best of several runs*/
+	@Test
+	public void testBenchmark() throws Exception {
+
+		SFCTileManager sfc = new SFCTileManager(5.12, "EPSG:32723");
+		MortonTileManager morton = new MortonTileManager(5.12, "EPSG:32723");
+
+		int n = 50000;
+
+		Random random = new Random(7);
+		int[] is = new int[n];
+		int[] js = new int[n];
+
+		for (int k=0; k<n; k++) {
+			is[k] = random.nextInt(morton.getNumTilesX());
+			js[k] = random.nextInt(morton.getNumTilesY());
+		}
+
+		long sfcTime = Long.MAX_VALUE;
+		long mortonTime = Long.MAX_VALUE;
+
+		for (int run=0; run<5; run++) {
+
+			long time = System.nanoTime();
+
+			int length = 0;
+			for (int k=0; k<n; k++)
+				length += sfc.encodeCoordinates(is[k], js[k], 0).length();
+
+			sfcTime = Math.min(sfcTime, System.nanoTime() - time);
+
+			time = System.nanoTime();
+
+			int length2 = 0;
+			for (int k=0; k<n; k++)
+				length2 += morton.getCode(MortonTileManager.getKey(is[k], js[k])).length();
+
+			mortonTime = Math.min(mortonTime, System.nanoTime() - time);
+
+			assertEquals(length, length2);
+
+		}
+
+		assertTrue("Morton: " + mortonTime + " ns, SFCTileManager: " + sfcTime + " ns", mortonTime <= sfcTime);
+
+	}
+
+	@Test
+	public void testOrderKeyAcrossLengths() throws Exception {
+
+		/*Same key, different tiles*/
+		assertEquals(MortonTileManager.parseKey("x"), MortonTileManager.parseKey("wx"));
+		assertTrue(MortonTileManager.getOrderKey("x") != MortonTileManager.getOrderKey("wx"));
+
+		/*Z-order, with a tile just before the tiles inside it*/
+		String[] sorted = {"w", "wx", "wxz", "wy", "x", "xw", "xwwy", "xz", "y", "zzzz"};
+
+		for (int c=1; c<sorted.length; c++)
+			assertTrue(MortonTileManager.getOrderKey(sorted[c-1]) < MortonTileManager.getOrderKey(sorted[c]));
+
+		char[] deepest = new char[MortonTileManager.MAX_DIGITS];
+		Arrays.fill(deepest, 'z');
+		assertTrue(MortonTileManager.getOrderKey(new String(deepest)) > MortonTileManager.getOrderKey("zzzz"));
+
+		assertEquals(42, MortonTileManager.getOrderKey("T42"));
+
+	}
+
+}
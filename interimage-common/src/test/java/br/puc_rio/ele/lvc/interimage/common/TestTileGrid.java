@@ -0,0 +1,163 @@
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.common.SFCTileManager;
+import br.puc_rio.ele.lvc.interimage.common.Shape;
+import br.puc_rio.ele.lvc.interimage.common.ShapeSet;
+import br.puc_rio.ele.lvc.interimage.common.Tile;
+import br.puc_rio.ele.lvc.interimage.common.TileGrid;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import junit.framework.TestCase;
+
+public class TestTileGrid extends TestCase {
+
+	private static final double[] GEO_BOX = new double[] {684306.2852457707, 7463100.402618, 684330.2852457707, 7463168.402618};
+
+	private SFCTileManager createTileManager() {
+		SFCTileManager tileManager = new SFCTileManager(5.12, "EPSG:32723");
+		tileManager.setTiles(GEO_BOX);
+		return tileManager;
+	}
+
+	@Test
+	public void testBinaryMatchesSerialized() throws Exception {
+
+		SFCTileManager tileManager = createTileManager();
+		List<Tile> tiles = tileManager.getTiles();
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		TileGrid.write(tiles, tileManager, binary);
+
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(serialized);
+		out.writeObject(tiles);
+		out.close();
+
+		TileGrid grid1 = TileGrid.read(new ByteArrayInputStream(binary.toByteArray()));
+		TileGrid grid2 = TileGrid.read(new ByteArrayInputStream(serialized.toByteArray()));
+
+		assertEquals(tiles.size(), grid1.size());
+		assertEquals(tiles.size(), grid2.size());
+		assertTrue(binary.size() < serialized.size());
+
+		for (int k=0; k<tiles.size(); k++) {
+
+			assertEquals(tiles.get(k).getCode(), grid1.getCode(k));
+			assertEquals(tiles.get(k).getId(), grid1.getId(k));
+			assertEquals(k, grid1.indexOf(tiles.get(k).getCode()));
+
+			Envelope env1 = grid1.getEnvelope(k);
+			Envelope env2 = grid2.getEnvelope(k);
+
+			/*The serialized tiles keep only six decimal places*/
+			assertEquals(env2.getMinX(), env1.getMinX(), 1e-5);
+			assertEquals(env2.getMinY(), env1.getMinY(), 1e-5);
+			assertEquals(env2.getMaxX(), env1.getMaxX(), 1e-5);
+			assertEquals(env2.getMaxY(), env1.getMaxY(), 1e-5);
+
+			assertTrue(grid1.query(env1).contains(k));
+
+		}
+
+		assertEquals(-1, grid1.indexOf("unknown"));
+
+	}
+
+	@Test
+	public void testPredicatesMatchGeometry() throws Exception {
+
+		SFCTileManager tileManager = createTileManager();
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		TileGrid.write(tileManager.getTiles(), tileManager, binary);
+
+		TileGrid grid = TileGrid.read(new ByteArrayInputStream(binary.toByteArray()));
+
+		List<Shape> list = new ArrayList<Shape>();
+
+		Shape rectangle = new Shape();
+		rectangle.setCode("rectangle");
+		rectangle.setGeometry("POLYGON ((684310 7463110, 684325 7463110, 684325 7463150, 684310 7463150, 684310 7463110))");
+		list.add(rectangle);
+
+		Shape triangle = new Shape();
+		triangle.setCode("triangle");
+		triangle.setGeometry("POLYGON ((684306 7463100, 684330 7463100, 684318 7463168, 684306 7463100))");
+		list.add(triangle);
+
+		ByteArrayOutputStream shapesBinary = new ByteArrayOutputStream();
+		ShapeSet.write(list, shapesBinary);
+
+		ShapeSet shapes = ShapeSet.read(new ByteArrayInputStream(shapesBinary.toByteArray()));
+
+		assertTrue(shapes.isRectangle(0));
+		assertFalse(shapes.isRectangle(1));
+
+		GeometryFactory fact = new GeometryFactory();
+		Random random = new Random(42);
+
+		for (int n=0; n<500; n++) {
+
+			double x = GEO_BOX[0] + random.nextDouble()*(GEO_BOX[2]-GEO_BOX[0]);
+			double y = GEO_BOX[1] + random.nextDouble()*(GEO_BOX[3]-GEO_BOX[1]);
+
+			Geometry geometry = fact.createPoint(new Coordinate(x, y)).buffer(0.5 + random.nextDouble()*4);
+
+			for (int k=0; k<grid.size(); k++) {
+				assertEquals(grid.getGeometry(k).intersects(geometry), grid.intersects(k, geometry));
+				assertEquals(grid.getGeometry(k).covers(geometry), grid.covers(k, geometry));
+			}
+
+			for (int k=0; k<shapes.size(); k++) {
+				assertEquals(shapes.getGeometry(k).intersects(geometry), shapes.intersects(k, geometry));
+				assertEquals(shapes.getGeometry(k).covers(geometry), shapes.covers(k, geometry));
+			}
+
+		}
+
+		/*Both shapes reach every tile of the box*/
+		assertEquals(grid.size(), grid.intersecting(shapes).cardinality());
+		assertTrue(grid.contains(grid.intersecting(shapes), grid.getCode(0)));
+		assertFalse(grid.contains(grid.intersecting(shapes), "unknown"));
+
+	}
+
+	@Test
+	public void testShapesRoundTrip() throws Exception {
+
+		List<Shape> list = new ArrayList<Shape>();
+
+		Shape shape = new Shape();
+		shape.setId(7);
+		shape.setCode("roi");
+		shape.setGeometry("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 2 4, 4 4, 4 2, 2 2))");
+		list.add(shape);
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		ShapeSet.write(list, binary);
+
+		ShapeSet shapes = ShapeSet.read(new ByteArrayInputStream(binary.toByteArray()));
+
+		assertEquals(1, shapes.size());
+		assertEquals(7, shapes.getId(0));
+		assertEquals("roi", shapes.getCode(0));
+		assertEquals(96.0, shapes.getGeometry(0).getArea(), 0.0);
+		assertEquals(1, shapes.query(new Envelope(5, 6, 5, 6)).size());
+		assertEquals(0, shapes.query(new Envelope(20, 30, 20, 30)).size());
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package br.puc_rio.ele.lvc.interimage.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.impl.io.NullableText;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class TestTilePartitioner extends TestCase {
+
+	private static final double[] GEO_BOX = new double[] {684306.2852457707, 7463100.402618, 684330.2852457707, 7463168.402618};
+
+	@Test
+	public void testPartitionBalancesWeights() throws Exception {
+
+		long[] keys = new long[20];
+		double[] weights = new double[20];
+
+		for (int k=0; k<keys.length; k++) {
+			keys[k] = 10*k;
+			weights[k] = 1.0;
+		}
+
+		/*One dense tile*/
+		weights[7] = 100.0;
+
+		long[] starts = TilePartitioner.partition(keys, weights, 4);
+
+		assertEquals(4, starts.length);
+
+		double[] loads = new double[starts.length];
+		for (int k=0; k<keys.length; k++)
+			loads[TilePartitioner.range(starts, keys[k])] += weights[k];
+
+		/*The dense tile is alone and the other tiles are spread over the remaining reducers*/
+		assertEquals(100.0, loads[TilePartitioner.range(starts, keys[7])]);
+		for (double load : loads)
+			assertTrue(load >= 3.0);
+
+		/*Ranges are contiguous along the curve*/
+		for (int k=1; k<keys.length; k++)
+			assertTrue(TilePartitioner.range(starts, keys[k]) >= TilePartitioner.range(starts, keys[k-1]));
+
+		/*More reducers than tiles*/
+		assertEquals(2, TilePartitioner.partition(new long[] {1, 2}, new double[] {1, 1}, 8).length);
+
+	}
+
+	@Test
+	public void testCodesOfDifferentLengths() throws Exception {
+
+		/*Adaptive tiles sorted along the curve; "x" and "wx" have the same Morton key*/
+		String[] codes = {"ww", "wx", "wy", "wz", "x", "y", "z"};
+
+		long[] keys = new long[codes.length];
+		for (int c=0; c<codes.length; c++)
+			keys[c] = MortonTileManager.getOrderKey(codes[c]);
+
+		long[] starts = TilePartitioner.partition(keys, new double[] {1, 1, 1, 1, 1, 1, 1}, codes.length);
+
+		assertEquals(codes.length, starts.length);
+
+		for (int c=0; c<codes.length; c++)
+			assertEquals(c, TilePartitioner.range(starts, MortonTileManager.getOrderKey(codes[c])));
+
+	}
+
+	@Test
+	public void testPartitionerReadsGridAndWeights() throws Exception {
+
+		MortonTileManager tileManager = new MortonTileManager(5.12, "EPSG:32723");
+		tileManager.setTiles(GEO_BOX);
+		List<Tile> tiles = tileManager.getTiles();
+
+		File gridFile = File.createTempFile("tiles", ".ser");
+		File weightsDir = File.createTempFile("weights", "");
+		weightsDir.delete();
+		weightsDir.mkdirs();
+		File part = new File(weightsDir, "part-r-00000");
+
+		try {
+
+			OutputStream out = new FileOutputStream(gridFile);
+			TileGrid.write(tiles, tileManager, out);
+			out.close();
+
+			String dense = tiles.get(tiles.size()/2).getCode();
+
+			FileWriter writer = new FileWriter(part);
+			writer.write(dense + "\t" + (10*tiles.size()) + "\n");
+			writer.close();
+
+			Configuration conf = new Configuration();
+			conf.set(TilePartitioner.GRID, gridFile.toURI().toURL().toString());
+			conf.set(TilePartitioner.WEIGHTS, weightsDir.getPath());
+
+			TilePartitioner partitioner = new TilePartitioner();
+			partitioner.setConf(conf);
+
+			int n = 4;
+			int[] counts = new int[n];
+
+			for (Tile tile : tiles)
+				counts[partitioner.getPartition(new NullableText(tile.getCode()), null, n)]++;
+
+			/*The dense tile has a reducer of its own*/
+			int denseReducer = partitioner.getPartition(new NullableText(dense), null, n);
+			assertEquals(1, counts[denseReducer]);
+
+			for (int c : counts)
+				assertTrue(c > 0);
+
+			/*Other keys are hashed*/
+			int p = partitioner.getPartition(new NullableText("not a tile"), null, n);
+			assertTrue(p >= 0 && p < n);
+
+		} finally {
+			gridFile.delete();
+			part.delete();
+			weightsDir.delete();
+		}
+
+	}
+
+}
@@ -213,7 +213,7 @@ public class Example {
 				
 				+ "group = COGROUP bright_2 BY properties#'tile', dark_2 BY properties#'tile', grey_2 BY properties#'tile', brightgrey_2 BY properties#'tile', blue_2 BY properties#'tile', pools_2 BY properties#'tile' PARALLEL $PARALLEL;\n\n"
 				
-				+ "projection = FOREACH $LAST_RELATION GENERATE FLATTEN(II_SimpleSpatialResolve(bright_2, dark_2, grey_2, brightgrey_2, blue_2, pools_2)) AS (geometry:chararray, data:map[chararray], properties:map[bytearray]);\n\n";
+				+ "projection = FOREACH $LAST_RELATION GENERATE FLATTEN(II_SimpleSpatialResolve(bright_2, dark_2, grey_2, brightgrey_2, blue_2, pools_2)) AS (geometry:bytearray, data:map[chararray], properties:map[bytearray]);\n\n";
 										
 		/*Map<String,String> params3 = new HashMap<String, String>();
 
@@ -337,7 +337,7 @@ public class Example {
 				+ "DEFINE II_MergeNeighbors br.puc_rio.ele.lvc.interimage.geometry.udf.MergeNeighbors('Trees,Grass,CeramicRoof,Shadow,Blue,Bright,BrightGrey,Grey,Dark,Pools');\n\n" 
 				+ "load = LOAD '$INPUT_PATH' USING org.apache.pig.builtin.JsonLoader('geometry:chararray, data:map[chararray], properties:map[bytearray]');\n\n"
 				+ "group = GROUP $LAST_RELATION BY properties#'parent';\n\n"
-				+ "merged = FOREACH $LAST_RELATION GENERATE FLATTEN(II_MergeNeighbors(load_1)) AS (geometry:chararray, data:map[chararray], properties:map[bytearray]);\n\n"
+				+ "merged = FOREACH $LAST_RELATION GENERATE FLATTEN(II_MergeNeighbors(load_1)) AS (geometry:bytearray, data:map[chararray], properties:map[bytearray]);\n\n"
 				
 				+ "wfeatures = FOREACH $LAST_RELATION GENERATE geometry, data, II_ToProps(II_Area(geometry),'area',properties) as properties;\n\n"
 				
@@ -510,7 +510,7 @@ public class Example {
 						
 				+ "group = COGROUP pul_1 BY properties#'tile', pul_2 BY properties#'tile' PARALLEL $PARALLEL;\n\n"
 
-				+ "projection = FOREACH $LAST_RELATION GENERATE FLATTEN(II_SimpleSpatialResolve(pul_1, pul_2)) AS (geometry:chararray, data:map[chararray], properties:map[bytearray]);\n\n";
+				+ "projection = FOREACH $LAST_RELATION GENERATE FLATTEN(II_SimpleSpatialResolve(pul_1, pul_2)) AS (geometry:bytearray, data:map[chararray], properties:map[bytearray]);\n\n";
 					
 		
 		gClusterOperator op12 = g2.addClusterOperator();
@@ -636,7 +636,7 @@ public class Example {
 		
 		String script18 = "load = LOAD '$INPUT_PATH' USING org.apache.pig.builtin.JsonLoader('geometry:chararray, data:map[chararray], properties:map[bytearray]');\n\n"
 				+ "group = GROUP $LAST_RELATION BY properties#'tile' PARALLEL $PARALLEL;\n\n"
-				+ "projection = FOREACH $LAST_RELATION GENERATE FLATTEN(II_SimpleSpatialResolve(load_1)) AS (geometry:chararray, data:map[chararray], properties:map[bytearray]);\n\n";;
+				+ "projection = FOREACH $LAST_RELATION GENERATE FLATTEN(II_SimpleSpatialResolve(load_1)) AS (geometry:bytearray, data:map[chararray], properties:map[bytearray]);\n\n";;
 		
 		gClusterOperator op18 = g2.addClusterOperator();
 		
@@ -28,7 +28,9 @@ import java.util.List;
 import java.util.Properties;
 
 import br.puc_rio.ele.lvc.interimage.common.Node;
+import br.puc_rio.ele.lvc.interimage.common.ShapeSet;
 import br.puc_rio.ele.lvc.interimage.common.Tile;
+import br.puc_rio.ele.lvc.interimage.common.TileGrid;
 import br.puc_rio.ele.lvc.interimage.common.TileManager;
 import br.puc_rio.ele.lvc.interimage.common.URL;
 import br.puc_rio.ele.lvc.interimage.common.UUID;
@@ -107,11 +109,10 @@ public class DataManager {
 						List<Tile> tiles = (List<Tile>)rsrc.getObject();
 						
 						OutputStream stream = new FileOutputStream(projectPath + "tiles.ser");
-					    ObjectOutputStream out = new ObjectOutputStream(stream);
 						
-					    out.writeObject(tiles);
+					    TileGrid.write(tiles, tileManager, stream);
 					    
-					    out.close();
+					    stream.close();
 						
 						//TODO: Just for test purposes
 					    FileWriter fw = new FileWriter(projectPath + "tiles.wkt");
@@ -272,11 +273,10 @@ public class DataManager {
 					        buff.close();
 							
 							OutputStream stream2 = new FileOutputStream(projectPath + "/shapes/" + shp.getKey() + ".ser");
-						    ObjectOutputStream out = new ObjectOutputStream(stream2);
 							
-						    out.writeObject(shapes);
+						    ShapeSet.write(shapes, stream2);
 						    
-						    out.close();
+						    stream2.close();
 							
 							//TODO: Just for test purposes
 						    //FileWriter fw = new FileWriter(projectPath + "/shapes/" + shp.getKey() + ".wkt");
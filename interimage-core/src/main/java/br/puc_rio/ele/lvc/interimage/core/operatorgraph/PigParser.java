@@ -90,6 +90,10 @@ public class PigParser {
 		_params.put("$PARALLEL", String.valueOf(_parallel));
 		_params.put("$CRS", _crs);
 		
+		/*The sampled tile weights of the partitioner cost one more job, so they are only computed when asked for*/
+		if (Boolean.parseBoolean(properties.getProperty("interimage.TilePartitioner.weights")))
+			_params.put("$TILE_WEIGHTS", _sourceSpecificURL + "interimage/" + _projectName + "/resources/tileweights");
+		
 	}
 	
 	public PigParser() {
@@ -330,10 +334,10 @@ public class PigParser {
 	    		
 	    		if (terms[2].equals("NOT")) {
 	    			name = terms[3];
-	    			test = !_specificParams.containsKey(terms[3]);
+	    			test = !_specificParams.containsKey(terms[3]) && !_params.containsKey(terms[3]);
 	    		} else {
 	    			name = terms[2];
-	    			test = _specificParams.containsKey(terms[2]);
+	    			test = _specificParams.containsKey(terms[2]) || _params.containsKey(terms[2]);
 	    		}
 	    			    		
 	    		line = buff.readLine();
@@ -123,6 +123,12 @@ public class gClusterOperator extends gOperator {
 			script.append("SET pig.tmpfilecompression.codec lzo;\n");
 			script.append("SET pig.splitCombination true;\n");
 			
+			/*Tile partitioner*/
+			script.append("SET interimage.tileGrid '" + properties_.getProperty("interimage.sourceURL") + "interimage/" + properties_.getProperty("interimage.projectName") + "/resources/tiles.ser';\n");
+			
+			if (Boolean.parseBoolean(properties_.getProperty("interimage.TilePartitioner.weights")))
+				script.append("SET interimage.tileWeights '" + properties_.getProperty("interimage.sourceSpecificURL") + "interimage/" + properties_.getProperty("interimage.projectName") + "/resources/tileweights';\n");
+			
 			//script.append("SET pig.maxCombinedSplitSize ").append(tilesPerTask*tileRecordSize).append(";\n");
 			
 			/*Including JARs*/
@@ -14,7 +14,8 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.core.project;
 
-import br.puc_rio.ele.lvc.interimage.common.SFCTileManager;
+import br.puc_rio.ele.lvc.interimage.common.AdaptiveTileManager;
+import br.puc_rio.ele.lvc.interimage.common.MortonTileManager;
 import br.puc_rio.ele.lvc.interimage.common.SemanticNetwork;
 import br.puc_rio.ele.lvc.interimage.common.TileManager;
 import br.puc_rio.ele.lvc.interimage.common.URL;
@@ -102,6 +103,44 @@ public class Project {
 		return _properties;
 	}
 	
+	/*
+	 * The loads of the adaptive tiles are the objects of the splittable shapes, added while they were converted, and
+	 * the default budget is the average number of objects per base tile, so dense regions are split and sparse ones are
+	 * merged. Without objects, the loads are the pixels of the images and the default budget is the pixel load of a base
+	 * tile covered by every image, which only coalesces the regions the images don't cover.
+	 */
+	private void setupLoads(AdaptiveTileManager adaptive) {
+		
+		double[] geoBBox = _dataManager.getGeoBBox();
+		
+		double budget;
+		
+		if (adaptive.getTotalLoad() > 0) {
+			
+			budget = adaptive.getAverageLoad(geoBBox);
+			
+		} else {
+			
+			double tileSize = adaptive.getTileSize();
+			
+			budget = 0.0;
+			
+			for (Image img : _imageList.getImages().values()) {
+				budget += tileSize * tileSize * img.getCols() * img.getRows() / Math.abs((img.getGeoEast()-img.getGeoWest())*(img.getGeoNorth()-img.getGeoSouth()));
+				adaptive.addLoad(new double[] {img.getGeoWest(), img.getGeoSouth(), img.getGeoEast(), img.getGeoNorth()}, (double)img.getCols() * img.getRows());
+			}
+			
+		}
+		
+		String tileBudget = _properties.getProperty("interimage.tileBudget");
+		
+		if (tileBudget != null && !tileBudget.isEmpty())
+			budget = Double.parseDouble(tileBudget);
+		
+		adaptive.setBudget(budget);
+		
+	}
+	
 	public void readOldFile(String url, boolean upload) {
 		
 		try {
@@ -271,12 +310,20 @@ public class Project {
 			    				    	
 			    	//System.out.println(_properties.getProperty("interimage.tileSize"));
 			    	
-			    	_tileManager = new SFCTileManager(_tilePixelSize * _minResolution, crs);
+			    	if ("adaptive".equals(_properties.getProperty("interimage.tiling"))) {
+			    		/*The loads come from the shapes read below, so the budget is set when the tiles are created*/
+			    		_tileManager = new AdaptiveTileManager(_tilePixelSize * _minResolution, crs, 0.0);
+			    	} else {
+			    		_tileManager = new MortonTileManager(_tilePixelSize * _minResolution, crs);
+			    	}
 			    	
 			    	_dataManager.updateGeoBBox(new double[] {_imageList.getGeoWest(), _imageList.getGeoSouth(), _imageList.getGeoEast(), _imageList.getGeoNorth()}); 
 			    				    	
-			    	for (Map.Entry<String, Image> entry : _imageList.getImages().entrySet()) {
-			    		_dataManager.setupResource(new SplittableResource(entry.getValue(),SplittableResource.IMAGE), _tileManager, _projectName, URL.getPath(_projectPath));
+			    	/*Adaptive tiles are only known after all the data is read, so the images are split afterwards*/
+			    	if (!(_tileManager instanceof AdaptiveTileManager)) {
+				    	for (Map.Entry<String, Image> entry : _imageList.getImages().entrySet()) {
+				    		_dataManager.setupResource(new SplittableResource(entry.getValue(),SplittableResource.IMAGE), _tileManager, _projectName, URL.getPath(_projectPath));
+				    	}
 			    	}
 			    				    	
 			    } else {
@@ -320,8 +367,17 @@ public class Project {
 			    }
 			    	
 			    /*Creating Tiles*/
+			    if (_tileManager instanceof AdaptiveTileManager)
+			    	setupLoads((AdaptiveTileManager)_tileManager);
+			    
 			    _tileManager.setTiles(_dataManager.getGeoBBox());
 			    
+			    if (_tileManager instanceof AdaptiveTileManager) {
+			    	for (Map.Entry<String, Image> entry : _imageList.getImages().entrySet()) {
+			    		_dataManager.setupResource(new SplittableResource(entry.getValue(),SplittableResource.IMAGE), _tileManager, _projectName, URL.getPath(_projectPath));
+			    	}
+			    }
+			    
 			    String tileUrl = null;
 			    
 			    tileUrl = _dataManager.setupResource(new DefaultResource(_tileManager.getTiles(), DefaultResource.TILE), _tileManager, _projectName, URL.getPath(_projectPath));
@@ -18,6 +18,9 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -36,6 +39,8 @@ import br.puc_rio.ele.lvc.interimage.core.udf.UDFSet;
  */
 public class RuleSet {
 
+	private static final Pattern SHAPE_CALCULATION = Pattern.compile("(\\w+)\\s*\\(\\s*geometry\\s*\\)");
+	
 	private String _url;
 	private Rule _root;
 	
@@ -43,6 +48,7 @@ public class RuleSet {
 	//private String _lastClassRelation;
 	//private Map<String,Integer> _counts;
 	private List<String> _spectralCalculations;
+	private List<String> _shapeCalculations;
 	private boolean _firstClass = true;
 	//private Properties _properties;
 	private UDFSet _udfSet;
@@ -61,6 +67,7 @@ public class RuleSet {
 		_lastClassRelation = "undefined";*/
 		
 		_spectralCalculations = new ArrayList<String>();
+		_shapeCalculations = new ArrayList<String>();
 				
 		_udfSet = new UDFSet();
 		_udfSet.loadUDFs();
@@ -244,7 +251,7 @@ public class RuleSet {
 			
 			//TODO: Maybe a parameter could define the way spectral features will be considered
 			//String relation = nextRelation("group");
-			code.append("DEFINE SpectralFeatures br.puc_rio.ele.lvc.interimage.data.udf.SpectralFeatures('$IMAGES_PATH','" + list + "','$TILE_SIZE_METERS');\n");
+			code.append("DEFINE SpectralFeatures br.puc_rio.ele.lvc.interimage.data.udf.SpectralFeatures('$IMAGES_PATH','" + list + "','" + getSpectralMode() + "');\n");
 			code.append("group = II_SpectralFeatures($LAST_RELATION, $PARALLEL);\n");			
 			//_lastRelation = relation;
 						
@@ -254,6 +261,32 @@ public class RuleSet {
 		
 	}
 	
+	private void loadShape(StringBuilder code) {
+		
+		if (_shapeCalculations.size()>0) {
+			
+			String list = "";			
+			boolean first = true;
+			
+			for (String s : _shapeCalculations) {
+				if (first) {
+					list += s.replace("'", "");
+					first = false;
+				} else {
+					list += ";" + s.replace("'", "");
+				}
+			}
+			
+			/*One call parses each geometry once for all the shape features of the class*/
+			code.append("DEFINE ShapeFeatures br.puc_rio.ele.lvc.interimage.geometry.udf.ShapeFeatures('" + list + "');\n");
+			code.append("projection = FOREACH $LAST_RELATION GENERATE geometry, data, ShapeFeatures(geometry, properties) AS properties;\n");
+						
+		}
+		
+		_shapeCalculations.clear();
+		
+	}
+	
 	private void evaluateRule(Rule rule, StringBuilder code) {
 		
 		if (rule.getType().equals("Union")) {
@@ -355,6 +388,7 @@ public class RuleSet {
 			
 			//if (!rule.getParent().getType().equals("Union")) {
 				loadSpectral(rule, code);
+				loadShape(code);
 			//}
 									
 		} else if (rule.getType().equals("And")) {
@@ -763,6 +797,8 @@ public class RuleSet {
 			if (_udfSet.getUDFs().containsKey(tokens[0])) {
 				if (_udfSet.getUDFs().get(tokens[0]).get("isSpectral").equals("true")) {
 					return;
+				} else if (isShapeCalculation(expression[1])) {
+					return;
 				}
 			}
 			
@@ -784,6 +820,24 @@ public class RuleSet {
 		
 	}
 	
+	/*The mode attribute of SpectralFeatures in the UDF files: 'zonal' computes the objects of a tile together, 'object' (the default) one by one*/
+	private String getSpectralMode() {
+		Map<String, Object> udf = _udfSet.getUDFs().get("SpectralFeatures");
+		String mode = udf == null ? null : (String)udf.get("mode");
+		return mode == null || mode.isEmpty() ? "object" : mode;
+	}
+	
+	/*Only a single call such as "Area(geometry)" is computed by ShapeFeatures; other expressions are projected as usual*/
+	private boolean isShapeCalculation(String expression) {
+		
+		Matcher matcher = SHAPE_CALCULATION.matcher(expression.trim());
+		
+		if (!matcher.matches() || !_udfSet.getUDFs().containsKey(matcher.group(1)))
+			return false;
+		
+		return _udfSet.getUDFs().get(matcher.group(1)).get("isShape").equals("true");
+	}
+	
 	private void checkSpectral(Rule rule) {
 		
 		String fullExpression = rule.getLabel();
@@ -802,6 +856,8 @@ public class RuleSet {
 				if (_udfSet.getUDFs().containsKey(tokens[0])) {
 					if (_udfSet.getUDFs().get(tokens[0]).get("isSpectral").equals("true")) {
 						_spectralCalculations.add(fullExpression);
+					} else if (isShapeCalculation(expression[1])) {
+						_shapeCalculations.add(fullExpression);
 					}
 				}
 				
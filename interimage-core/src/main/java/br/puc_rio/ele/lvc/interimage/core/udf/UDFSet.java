@@ -86,7 +86,9 @@ public class UDFSet {
 			    		map.put("alias",udfElem.getAttribute("alias"));
 			    		map.put("import",udfElem.getAttribute("import"));
 			    		map.put("isSpectral",udfElem.getAttribute("isSpectral"));
+			    		map.put("isShape",udfElem.getAttribute("isShape"));
 			    		map.put("lazyDefinition",udfElem.getAttribute("lazyDefinition"));
+			    		map.put("mode",udfElem.getAttribute("mode"));
 			    		
 			    		NodeList params = udfElem.getElementsByTagName("param");
 			    			
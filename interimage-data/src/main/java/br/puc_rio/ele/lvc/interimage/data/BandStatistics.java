@@ -0,0 +1,239 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+
+/**
+ * Per-band statistics of the pixels of an object.<br><br>
+ * The pixels under the mask are read once, straight from the raster data buffer, and the count, sum, sum of squares,
+ * minimum and maximum of every band are accumulated together. All the spectral features are then derived from these values.
+ * Several windows (e.g. the parts of an object in different tiles) can be accumulated into the same statistics.
+ * @author Rodrigo Ferreira
+ */
+public class BandStatistics {
+
+	private int _bands;
+	private int _count;
+	private double[] _sum;
+	private double[] _squared;
+	private double[] _min;
+	private double[] _max;
+
+	public BandStatistics(int bands) {
+
+		_bands = bands;
+		_sum = new double[bands];
+		_squared = new double[bands];
+		_min = new double[bands];
+		_max = new double[bands];
+
+		for (int b=0; b<bands; b++) {
+			_min[b] = Double.MAX_VALUE;
+			_max[b] = -Double.MAX_VALUE;
+		}
+
+	}
+
+	/**
+	 * Accumulates the pixels of a raster window selected by a mask.
+	 * @param mask row-major mask with width*height elements
+	 */
+	public void accumulate(Raster raster, int x0, int y0, int width, int height, boolean[] mask) {
+
+		if (raster.getNumBands() != _bands)
+			throw new IllegalArgumentException("Raster bands don't match the statistics bands");
+
+		SampleModel sm = raster.getSampleModel();
+
+		if (!(sm instanceof ComponentSampleModel)) {
+			accumulatePixels(raster, x0, y0, width, height, mask);
+			return;
+		}
+
+		ComponentSampleModel csm = (ComponentSampleModel)sm;
+		DataBuffer buffer = raster.getDataBuffer();
+
+		int type = buffer.getDataType();
+		Object[] banks = bankData(buffer);
+
+		if (banks == null) {
+			accumulatePixels(raster, x0, y0, width, height, mask);
+			return;
+		}
+
+		int pixelStride = csm.getPixelStride();
+		int scanlineStride = csm.getScanlineStride();
+
+		Object[] data = new Object[_bands];
+		int[] offsets = new int[_bands];
+
+		for (int b=0; b<_bands; b++) {
+			int bank = csm.getBankIndices()[b];
+			data[b] = banks[bank];
+			offsets[b] = buffer.getOffsets()[bank] + csm.getBandOffsets()[b];
+		}
+
+		int startX = x0 - raster.getSampleModelTranslateX();
+		int startY = y0 - raster.getSampleModelTranslateY();
+
+		for (int j=0; j<height; j++) {
+
+			int row = (startY + j) * scanlineStride + startX * pixelStride;
+
+			for (int i=0; i<width; i++) {
+
+				if (!mask[j*width + i])
+					continue;
+
+				int idx = row + i * pixelStride;
+
+				for (int b=0; b<_bands; b++) {
+
+					int k = idx + offsets[b];
+					double v;
+
+					switch (type) {
+					case DataBuffer.TYPE_BYTE:
+						v = ((byte[])data[b])[k] & 0xff;
+						break;
+					case DataBuffer.TYPE_USHORT:
+						v = ((short[])data[b])[k] & 0xffff;
+						break;
+					case DataBuffer.TYPE_SHORT:
+						v = ((short[])data[b])[k];
+						break;
+					case DataBuffer.TYPE_INT:
+						v = ((int[])data[b])[k];
+						break;
+					case DataBuffer.TYPE_FLOAT:
+						v = ((float[])data[b])[k];
+						break;
+					default:
+						v = ((double[])data[b])[k];
+						break;
+					}
+
+					add(b, v);
+
+				}
+
+				_count++;
+
+			}
+
+		}
+
+	}
+
+	/*Fallback for packed layouts*/
+	private void accumulatePixels(Raster raster, int x0, int y0, int width, int height, boolean[] mask) {
+
+		double[] pixel = new double[_bands];
+
+		for (int j=0; j<height; j++) {
+			for (int i=0; i<width; i++) {
+
+				if (!mask[j*width + i])
+					continue;
+
+				raster.getPixel(x0 + i, y0 + j, pixel);
+
+				for (int b=0; b<_bands; b++)
+					add(b, pixel[b]);
+
+				_count++;
+
+			}
+		}
+
+	}
+
+	private static Object[] bankData(DataBuffer buffer) {
+		if (buffer instanceof DataBufferByte)
+			return ((DataBufferByte)buffer).getBankData();
+		else if (buffer instanceof DataBufferUShort)
+			return ((DataBufferUShort)buffer).getBankData();
+		else if (buffer instanceof DataBufferShort)
+			return ((DataBufferShort)buffer).getBankData();
+		else if (buffer instanceof DataBufferInt)
+			return ((DataBufferInt)buffer).getBankData();
+		else if (buffer instanceof DataBufferFloat)
+			return ((DataBufferFloat)buffer).getBankData();
+		else if (buffer instanceof DataBufferDouble)
+			return ((DataBufferDouble)buffer).getBankData();
+		return null;
+	}
+
+	/**Adds statistics accumulated elsewhere; the values of band b are at offset+b in the arrays.*/
+	void add(int count, double[] sum, double[] squared, double[] min, double[] max, int offset) {
+
+		for (int b=0; b<_bands; b++) {
+			_sum[b] += sum[offset+b];
+			_squared[b] += squared[offset+b];
+			if (min[offset+b] < _min[b])
+				_min[b] = min[offset+b];
+			if (max[offset+b] > _max[b])
+				_max[b] = max[offset+b];
+		}
+
+		_count += count;
+
+	}
+
+	private void add(int b, double v) {
+		_sum[b] += v;
+		_squared[b] += v*v;
+		if (v < _min[b])
+			_min[b] = v;
+		if (v > _max[b])
+			_max[b] = v;
+	}
+
+	public int getBands() {
+		return _bands;
+	}
+
+	/**Returns the number of accumulated pixels.*/
+	public int getCount() {
+		return _count;
+	}
+
+	public double getSum(int band) {
+		return _sum[band];
+	}
+
+	public double getSquared(int band) {
+		return _squared[band];
+	}
+
+	public double getMin(int band) {
+		return _min[band];
+	}
+
+	public double getMax(int band) {
+		return _max[band];
+	}
+
+}
@@ -18,11 +18,14 @@ import java.lang.Exception;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.pig.data.DataByteArray;
+
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.Cursor;
 import net.imglib2.type.numeric.real.DoubleType;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 
@@ -32,6 +35,10 @@ import ij.process.ShortProcessor;
  * and tries to get the image layer from it. 
  * It understands a generic format.
  * 
+ * Besides the "type width height v0 v1 ..." text form, the layer can be a binary RasterBlock in a bytearray.
+ * The first band of the block is used; when the block has a mask, only the pixels of the object are considered,
+ * except by parseImgProc, that returns the whole window.
+ * 
  * {@linkplain http://www.lvc.ele.puc-rio.br/projects/interimage/wiki/index.php/Data_Package}
  * 
  * In particular, here are the checks done in order:
@@ -46,12 +53,47 @@ import ij.process.ShortProcessor;
 
 public class DataParser {
 
+	/**Returns the raster block carried by the object, or null if it is in the text form.*/
+	public RasterBlock parseRasterBlock(Object objImage) {
+		
+		byte[] bytes = null;
+		
+		if (objImage instanceof DataByteArray) {
+			bytes = ((DataByteArray)objImage).get();
+		} else if (objImage instanceof byte[]) {
+			bytes = (byte[])objImage;
+		}
+		
+		if (RasterBlock.isBlock(bytes))
+			return RasterBlock.parse(bytes);
+		
+		return null;
+	}
+	
+	/*Legacy text form; a bytearray that isn't a block holds the text*/
+	private String parseText(Object objImage) {
+		if (objImage instanceof DataByteArray)
+			return objImage.toString();
+		return (String)objImage;
+	}
 
 	public Img< DoubleType > parseData(Object objImage) {
 		
 		try {
+			RasterBlock block = parseRasterBlock(objImage);
+			
+			if (block != null) {
+				double[] samples = block.getObjectSamples(0);
+				Img <DoubleType> img = new ArrayImgFactory< DoubleType >().create(block.getMask() == null ? new long[] {block.getWidth(), block.getHeight()} : new long[] {samples.length, 1}, new DoubleType());
+				Cursor < DoubleType > cursor = img.cursor();
+				int i=0;
+				while (cursor.hasNext())
+					cursor.next().set(samples[i++]);
+				return img;
+			}
+			
 			//Assuming generic data in a json file
-			String strImage = (String)objImage;
+			String strImage = parseText(objImage);
 			String[] tokens = strImage.trim().split("\\s");
 			int type = Integer.parseInt(tokens[0]);
 			//TODO using cellnumber for CellImg --> performance
@@ -89,8 +131,18 @@ public class DataParser {
 	public ImageProcessor parseImgProc(Object objImage) {
 		
 		try {
+			RasterBlock block = parseRasterBlock(objImage);
+			
+			if (block != null) {
+				double[] samples = block.getSamples(0, null);
+				float[] pixels = new float[samples.length];
+				for (int i=0; i<samples.length; i++)
+					pixels[i] = (float)samples[i];
+				return new FloatProcessor(block.getWidth(), block.getHeight(), pixels, null);
+			}
+			
 			//Assuming generic data in a json file
-			String strImage = (String)objImage;
+			String strImage = parseText(objImage);
 			String[] tokens = strImage.trim().split("\\s");
 			int type = Integer.parseInt(tokens[0]);
 			int width = Integer.parseInt(tokens[1]);
@@ -122,8 +174,18 @@ public class DataParser {
 	public List< Double > parseListData(Object objImage) {
 		
 		try {
+			RasterBlock block = parseRasterBlock(objImage);
+			
+			if (block != null) {
+				double[] samples = block.getObjectSamples(0);
+				List<Double> lst = new ArrayList<Double>(samples.length);
+				for (double sample : samples)
+					lst.add(sample);
+				return lst;
+			}
+			
 			//Assuming generic data in a json file
-			String strImage = (String)objImage;
+			String strImage = parseText(objImage);
 			String[] tokens = strImage.trim().split("\\s");
 			int type = Integer.parseInt(tokens[0]);
 			//Do not use width and height
@@ -152,6 +214,39 @@ public class DataParser {
 		}
 	}
 	
+	/**Returns the values of the layer as an array, without boxing them; only the pixels of the object for a masked block.*/
+	public double[] parseSamples(Object objImage) {
+		
+		try {
+			RasterBlock block = parseRasterBlock(objImage);
+			
+			if (block != null)
+				return block.getObjectSamples(0);
+			
+			//Assuming generic data in a json file
+			String strImage = parseText(objImage);
+			String[] tokens = strImage.trim().split("\\s");
+			int type = Integer.parseInt(tokens[0]);
+			
+			double[] samples = new double[0];
+			
+			switch  (type) {
+				case 0:
+					samples = new double[tokens.length-3];
+					for (int i=3; i<tokens.length; i++)
+						samples[i-3] = Double.parseDouble(tokens[i]);
+				break;
+				default:
+					System.out.println("Image Type is not recognized!");
+			}
+			
+			return samples;
+		} catch (Exception e) {
+			System.err.println("Failed to process input; error - " + e.getMessage());
+			return null;
+		}
+	}
+	
 	/*public FloatProcessor parseGeometryImageData(Map<String, Map<String, Object>> tiles, int band, Image image, Geometry geometry) {
 
 		try {
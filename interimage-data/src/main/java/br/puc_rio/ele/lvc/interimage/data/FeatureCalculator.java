@@ -15,784 +15,669 @@ limitations under the License.*/
 package br.puc_rio.ele.lvc.interimage.data;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import org.apache.pig.data.DataByteArray;
 
-import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgFactory;
-import net.imglib2.ops.operation.iterable.unary.Max;
-import net.imglib2.ops.operation.iterable.unary.Min;
-import net.imglib2.ops.operation.iterable.unary.Sum;
-import net.imglib2.roi.BinaryMaskRegionOfInterest;
-import net.imglib2.type.logic.BitType;
-import net.imglib2.type.numeric.real.DoubleType;
 import br.puc_rio.ele.lvc.interimage.common.Common;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 
 /**
- * A class that computes spectral features. 
+ * A class that computes spectral features.<br><br>
+ * The pixels of the object are read only once per image: the statistics of all bands are accumulated in a single pass
+ * and every requested feature is derived from them. The parts of the object in each tile are kept, so that the
+ * co-occurrence matrices of the texture features are also computed once per image, band and number of gray levels, and
+ * the histograms of the median, mode, entropy and percentile features once per image and band.
  * @author Rodrigo Ferreira
  */
 public class FeatureCalculator {
-	
+
 	//private final DataParser imageParser = new DataParser();
-	
+
+	/*The part of the object inside one tile*/
+	private static class Part {
+
+		final Raster raster;
+		final int x0;
+		final int y0;
+		final int width;
+		final int height;
+		final boolean[] mask;
+
+		Part(Raster raster, int x0, int y0, int width, int height, boolean[] mask) {
+			this.raster = raster;
+			this.x0 = x0;
+			this.y0 = y0;
+			this.width = width;
+			this.height = height;
+			this.mask = mask;
+		}
+
+	}
+
+	/*The image keys used by the features; numeric parameters such as the number of gray levels are skipped*/
 	@SuppressWarnings("unchecked")
+	private static Set<String> images(Map<String, Map<String, Object>> featureMap) {
+
+		Set<String> images = new HashSet<String>();
+
+		for (Map<String, Object> map : featureMap.values()) {
+			for (String param : (List<String>)map.get("params")) {
+				//get image key and band in the form: image_layer2 or image
+				if (!Common.isNumeric(param.trim()))
+					images.add(param.split("_")[0]);
+			}
+		}
+
+		return images;
+	}
+
+	/*Whether any feature is computed from the pixels of the parts instead of the statistics*/
+	private static boolean hasPartFeatures(Map<String, Map<String, Object>> featureMap) {
+		for (Map<String, Object> map : featureMap.values()) {
+			int operation = PartialFeature.getOperation((String)map.get("operation"));
+			if (operation == PartialFeature.GLCM || PartialFeature.isHistogram(operation))
+				return true;
+		}
+		return false;
+	}
+
+	/*The part of the geometry inside a tile, or null if it doesn't reach the tile*/
+	private static Geometry clip(Geometry geometry, double[] tileGeoBox) {
+
+		Geometry tileGeom = null;
+
+		try {
+
+			tileGeom = new GeometryFactory().createPolygon(new Coordinate[] { new Coordinate(tileGeoBox[0], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[1])});
+
+		} catch (Exception e) {
+			System.err.println("Couldn't create tile geometry.");
+			e.printStackTrace();
+		}
+
+		if (!tileGeom.intersects(geometry))	//if geometry intersects tile
+			return null;
+
+		/*Gets the part of the polygon inside the tile*/
+		return tileGeom.intersection(geometry);
+	}
+
+	/*The pixel window of a clipped geometry in the tile, or null if it falls outside the tile*/
+	private static int[] window(Geometry geom, double[] tileGeoBox, BufferedImage buff) {
+
+		int[] bBox = Image.imgBBox(new double[] {geom.getEnvelopeInternal().getMinX(), geom.getEnvelopeInternal().getMinY(), geom.getEnvelopeInternal().getMaxX(), geom.getEnvelopeInternal().getMaxY()}, tileGeoBox, new int[] {buff.getWidth(), buff.getHeight()});
+
+		if ((bBox[0] < 0) || (bBox[1] < 0) || (bBox[2] < 0) || (bBox[3] < 0)
+		|| (bBox[0] >= buff.getWidth()) || (bBox[1] >= buff.getHeight()) || (bBox[2] >= buff.getWidth()) || (bBox[3] >= buff.getHeight()))
+			return null;
+
+		return bBox;
+	}
+
+	/*A rasterizer for the window of a clipped geometry*/
+	private static Rasterizer rasterizer(int[] bBox, double[] tileGeoBox, BufferedImage buff) {
+
+		double[] geoBBox = Image.geoBBox(bBox, tileGeoBox, new int[] {buff.getWidth(), buff.getHeight()});
+
+		double resX = (tileGeoBox[2]-tileGeoBox[0])/buff.getWidth();
+		double resY = (tileGeoBox[1]-tileGeoBox[3])/buff.getHeight();
+
+		return new Rasterizer(bBox[2]-bBox[0]+1, bBox[1]-bBox[3]+1, geoBBox[0], geoBBox[3], resX, resY);
+	}
+
 	public Map<String, Map<String, Object>> computeFeatures(Map<String, Map<String, Map<String, Object>>> imageMap, Map<String, Map<String, Object>> featureMap, Geometry geometry) {
-		
+
+		/*A null value means that the object doesn't reach any tile of the image*/
+		Map<String, BandStatistics> statsMap = new HashMap<String, BandStatistics>();
+
+		Map<String, List<Part>> partsMap = new HashMap<String, List<Part>>();
+
+		Map<String, boolean[]> masks = new HashMap<String, boolean[]>();
+
+		for (String imageKey : images(featureMap)) {//does this only one time for each image
+
+			BandStatistics stats = null;
+
+			List<Part> parts = new ArrayList<Part>();
+
+			/*computing tiles*/
+			for (Map.Entry<String, Map<String, Object>> entry : imageMap.get(imageKey).entrySet()) {
+
+				String tile = entry.getKey();
+
+				Map<String, Object> map = entry.getValue();
+
+				BufferedImage buff = (BufferedImage)map.get("image");
+
+				double[] tileGeoBox = (double[])map.get("geoBox");
+
+				Geometry geom = clip(geometry, tileGeoBox);
+
+				if (geom == null)
+					continue;
+
+				int[] bBox = window(geom, tileGeoBox, buff);
+
+				if (bBox == null)
+					continue;
+
+				int width = bBox[2]-bBox[0]+1;
+				int height = bBox[1]-bBox[3]+1;
+
+				/*Images with the same tile dimensions share the mask*/
+				String maskKey = tile + "_" + buff.getWidth() + "_" + buff.getHeight();
+
+				boolean[] mask = null;
+
+				if (!masks.containsKey(maskKey)) {
+
+					/*Creates mask; a pixel belongs to the object when its center is covered by the polygon*/
+					mask = new boolean[width*height];
+
+					rasterizer(bBox, tileGeoBox, buff).rasterize(geom.buffer(0), mask);
+
+					masks.put(maskKey, mask);
+
+				} else {
+
+					mask = masks.get(maskKey);
+				}
+
+				if (stats == null)
+					stats = new BandStatistics(buff.getRaster().getNumBands());
+
+				stats.accumulate(buff.getRaster(), bBox[0], bBox[3], width, height, mask);
+
+				parts.add(new Part(buff.getRaster(), bBox[0], bBox[3], width, height, mask));
+
+			}
+
+			statsMap.put(imageKey, stats);
+			partsMap.put(imageKey, parts);
+
+		}
+
+		return features(featureMap, statsMap, partsMap);
+	}
+
+	/**
+	 * Computes the features of all the objects of a tile group at once (zonal mode).<br>
+	 * The objects are burnt into one label raster per tile, and the pixels of the tile are swept once to accumulate the
+	 * statistics of every object. An object that loses pixels to an overlapping object is computed alone, as in
+	 * the per-object mode, so the results are the same in both modes.
+	 * @return the features of each geometry, in the same order
+	 */
+	public List<Map<String, Map<String, Object>>> computeFeatures(Map<String, Map<String, Map<String, Object>>> imageMap, Map<String, Map<String, Object>> featureMap, List<Geometry> geometries) {
+
+		int n = geometries.size();
+
+		List<Map<String, BandStatistics>> statsMaps = new ArrayList<Map<String, BandStatistics>>(n);
+		List<Map<String, List<Part>>> partsMaps = new ArrayList<Map<String, List<Part>>>(n);
+
+		for (int i=0; i<n; i++) {
+			statsMaps.add(new HashMap<String, BandStatistics>());
+			partsMaps.add(new HashMap<String, List<Part>>());
+		}
+
+		boolean partFeatures = hasPartFeatures(featureMap);
+
+		/*Images with the same tile dimensions share the labels*/
+		Map<String, Labels> labelsMap = new HashMap<String, Labels>();
+
+		for (String imageKey : images(featureMap)) {
+
+			BandStatistics[] stats = new BandStatistics[n];
+
+			List<List<Part>> parts = new ArrayList<List<Part>>(n);
+
+			for (int i=0; i<n; i++)
+				parts.add(new ArrayList<Part>());
+
+			for (Map.Entry<String, Map<String, Object>> entry : imageMap.get(imageKey).entrySet()) {
+
+				String tile = entry.getKey();
+
+				Map<String, Object> map = entry.getValue();
+
+				BufferedImage buff = (BufferedImage)map.get("image");
+
+				double[] tileGeoBox = (double[])map.get("geoBox");
+
+				String labelsKey = tile + "_" + buff.getWidth() + "_" + buff.getHeight();
+
+				Labels labels = labelsMap.get(labelsKey);
+
+				if (labels == null) {
+					labels = new Labels(geometries, tileGeoBox, buff);
+					labelsMap.put(labelsKey, labels);
+				}
+
+				Raster raster = buff.getRaster();
+
+				ZonalStatistics zonal = new ZonalStatistics(n, raster.getNumBands());
+
+				zonal.accumulate(raster, labels.labels);
+
+				for (int i=0; i<n; i++) {
+
+					int[] bBox = labels.windows[i];
+
+					if (bBox == null)
+						continue;
+
+					int width = bBox[2]-bBox[0]+1;
+					int height = bBox[1]-bBox[3]+1;
+
+					if (stats[i] == null)
+						stats[i] = new BandStatistics(raster.getNumBands());
+
+					boolean[] mask = null;
+
+					if (labels.exact[i]) {
+
+						zonal.addTo(i+1, stats[i]);
+
+						if (partFeatures)
+							mask = labels.mask(i, bBox);
+
+					} else {
+
+						mask = new boolean[width*height];
+
+						rasterizer(bBox, tileGeoBox, buff).rasterize(labels.geometries[i], mask);
+
+						stats[i].accumulate(raster, bBox[0], bBox[3], width, height, mask);
+
+					}
+
+					parts.get(i).add(new Part(raster, bBox[0], bBox[3], width, height, mask));
+
+				}
+
+			}
+
+			for (int i=0; i<n; i++) {
+				statsMaps.get(i).put(imageKey, stats[i]);
+				partsMaps.get(i).put(imageKey, parts.get(i));
+			}
+
+		}
+
+		List<Map<String, Map<String, Object>>> result = new ArrayList<Map<String, Map<String, Object>>>(n);
+
+		for (int i=0; i<n; i++)
+			result.add(features(featureMap, statsMaps.get(i), partsMaps.get(i)));
+
+		return result;
+	}
+
+	/*The objects of a group burnt into a tile; label i+1 is the object i, 0 is the background*/
+	private static class Labels {
+
+		final int[] labels;
+		final int stride;
+		final int[][] windows;
+		final Geometry[] geometries;
+
+		/*Whether the label raster holds all the pixels of the object*/
+		final boolean[] exact;
+
+		Labels(List<Geometry> objects, double[] tileGeoBox, BufferedImage buff) {
+
+			int n = objects.size();
+
+			stride = buff.getWidth();
+			labels = new int[buff.getWidth()*buff.getHeight()];
+			windows = new int[n][];
+			geometries = new Geometry[n];
+			exact = new boolean[n];
+
+			int[] covered = new int[n+1];
+
+			for (int i=0; i<n; i++) {
+
+				Geometry geom = clip(objects.get(i), tileGeoBox);
+
+				if (geom == null)
+					continue;
+
+				windows[i] = window(geom, tileGeoBox, buff);
+
+				if (windows[i] == null)
+					continue;
+
+				geometries[i] = geom.buffer(0);
+
+				covered[i+1] = rasterizer(windows[i], tileGeoBox, buff).rasterize(geometries[i], labels, windows[i][3]*stride + windows[i][0], stride, i+1);
+
+			}
+
+			/*Pixels taken by a later overlapping object are missing from the earlier one*/
+			int[] count = new int[n+1];
+
+			for (int label : labels)
+				count[label]++;
+
+			for (int i=0; i<n; i++)
+				exact[i] = count[i+1] == covered[i+1];
+
+		}
+
+		boolean[] mask(int i, int[] bBox) {
+
+			int width = bBox[2]-bBox[0]+1;
+			int height = bBox[1]-bBox[3]+1;
+
+			boolean[] mask = new boolean[width*height];
+
+			for (int y=0; y<height; y++) {
+				int row = (bBox[3]+y)*stride + bBox[0];
+				for (int x=0; x<width; x++)
+					mask[y*width + x] = labels[row + x] == i+1;
+			}
+
+			return mask;
+		}
+
+	}
+
+	/*Derives the requested features from the statistics and parts of the object*/
+	@SuppressWarnings("unchecked")
+	private Map<String, Map<String, Object>> features(Map<String, Map<String, Object>> featureMap, Map<String, BandStatistics> statsMap, Map<String, List<Part>> partsMap) {
+
 		Map<String, Map<String, Object>> result = new HashMap<String, Map<String, Object>>();
-		
-		Map<String, Map<String, Map<Integer, Object>>> tileMap = new HashMap<String, Map<String, Map<Integer, Object>>>();
-				
-		Map<String, Object> masks = new HashMap<String, Object>();
-		
-		Map<String,Integer> bandsMap = new HashMap<String, Integer>();
-				
+
+		/*Binary co-occurrence matrices by image_layerN_levels, written once for all the texture features*/
+		Map<String, DataByteArray> textureMap = new HashMap<String, DataByteArray>();
+
+		/*Binary histograms by image_layerN*/
+		Map<String, DataByteArray> histogramMap = new HashMap<String, DataByteArray>();
+
 		//Going through the attributes
 		for (Map.Entry<String, Map<String, Object>> entry : featureMap.entrySet()) {
-			
+
 			String attribute = entry.getKey();
-			
+
 			Map<String, Object> params = new HashMap<String, Object>();
-			
-			//System.out.println(attribute);
-			
+
 			Map<String, Object> map = entry.getValue();
-			
+
 			String operation = (String)map.get("operation");
 			List<String> paramList = (List<String>)map.get("params");
-			
-			//System.out.println(attribute);
-			//System.out.println(operation);
-			
-			//if (operation.equals("mean")) {
-				
-			for (String param : paramList) {
-			
-				//System.out.println(param);
-				
-				//get image key and band in the form: image_layer2 or image
-				String[] tokens = param.split("_");
-				
-				String imageKey = null;
-				
-				if (tokens.length>0) {
-					imageKey = tokens[0];
-				} else if (!Common.isNumeric(tokens[0])) {
-					imageKey = tokens[0];
-				} else {
-					continue;
-				}
-				
-				//System.out.println(imageKey);
-				
-				if (!tileMap.containsKey(imageKey)) {//does this only one time for each image
-				
-					//System.out.println(imageKey);
-					
-					Map<String, Map<Integer, Object>> tiles = new HashMap<String, Map<Integer, Object>>();
-					
-					/*computing tiles*/				
-					for (Map.Entry<String, Map<String, Object>> entry2 : imageMap.get(imageKey).entrySet()) {
-						
-						String tile = entry2.getKey();
-						
-						//System.out.println(tile);
-						
-						Map<String, Object> map2 = entry2.getValue();
-						
-						BufferedImage buff = (BufferedImage)map2.get("image");
-						
-						if (!bandsMap.containsKey(imageKey)) {
-							bandsMap.put(imageKey, buff.getRaster().getNumBands());
-						}
-						
-						double[] tileGeoBox = (double[])map2.get("geoBox");
-										
-						Geometry tileGeom = null;
-						
-						//System.out.println(tile);
-						
-						try {
-						
-							tileGeom = new GeometryFactory().createPolygon(new Coordinate[] { new Coordinate(tileGeoBox[0], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[1])});
-							
-							//tileGeom = new WKTReader().read(String.format("POLYGON ((%f %f, %f %f, %f %f, %f %f, %f %f))", tileGeoBox[0], tileGeoBox[1], tileGeoBox[2], tileGeoBox[1], tileGeoBox[2], tileGeoBox[3], tileGeoBox[0], tileGeoBox[3], tileGeoBox[0], tileGeoBox[1]));
-						
-						} catch (Exception e) {
-							System.err.println("Couldn't create tile geometry.");
-							e.printStackTrace();
-						}
-												
-						if (!tileGeom.intersects(geometry)) //{	//if geometry intersects tile
-							continue;
-						
-							Map<Integer,Object> map3 = new HashMap<Integer,Object>();
-							
-							//System.out.println("intersects");
-							
-							/*Gets the part of the polygon inside the tile*/
-							Geometry geom = tileGeom.intersection(geometry);
-							//Geometry geom = geometry;
-							
-							int[] bBox = Image.imgBBox(new double[] {geom.getEnvelopeInternal().getMinX(), geom.getEnvelopeInternal().getMinY(), geom.getEnvelopeInternal().getMaxX(), geom.getEnvelopeInternal().getMaxY()}, tileGeoBox, new int[] {buff.getWidth(), buff.getHeight()});
-							
-							//System.out.println(bBox[0]);
-							//System.out.println(bBox[1]);
-							//System.out.println(bBox[2]);
-							//System.out.println(bBox[3]);
-							
-							if ((bBox[0] < 0) || (bBox[1] < 0) || (bBox[2] < 0) || (bBox[3] < 0)
-							|| (bBox[0] >= buff.getWidth()) || (bBox[1] >= buff.getHeight()) || (bBox[2] >= buff.getWidth()) || (bBox[3] >= buff.getHeight()))
-								continue;
-														
-							/*int imgidx = 0;
-							
-							FloatProcessor ip = new FloatProcessor(bBox[2]-bBox[0]+1, bBox[1]-bBox[3]+1);
-							
-							ImageProcessor mask = new ShortProcessor(bBox[2]-bBox[0]+1, bBox[1]-bBox[3]+1);
-							
-							for (int j=0; j<buff.getHeight(); j++) {
-								for (int i=0; i<buff.getWidth(); i++) {
-									float dArray[] = new float[buff.getRaster().getNumDataElements()];
-									buff.getRaster().getPixel(i, j, dArray);
-									
-									//Create mask: magic!
-									
-									//Set processor
-									ip.setf(imgidx%buff.getWidth(), imgidx/buff.getWidth(), dArray[band]);
-									imgidx++;
-								}
-							}
-							
-							ip.setMask(mask);
-							
-							map3.put("imageProcessor",ip);*/
-							
-							double[] geoBBox = Image.geoBBox(bBox, tileGeoBox, new int[] {buff.getWidth(), buff.getHeight()});
-							
-							int width = bBox[2]-bBox[0]+1;
-							int height = bBox[1]-bBox[3]+1;
-							
-							double resX = (tileGeoBox[2]-tileGeoBox[0])/buff.getWidth();
-							double resY = (tileGeoBox[1]-tileGeoBox[3])/buff.getHeight();
-							
-							Img<BitType> mask = null;
-							
-							if (!masks.containsKey(tile)) {
-							
-								//System.out.println("Computing mask for tile: " + tile);
-										
-								//long startTime = System.nanoTime();
-								
-								/*Creates mask*/
-								mask = new ArrayImgFactory<BitType>().create(new long[] {width, height} , new BitType());
-								Cursor<BitType> c = mask.cursor();
-								
-								//int idx = 0;
-								int count = 0;
-								
-								geom = geom.buffer(0);
-								
-								PreparedGeometry prep = PreparedGeometryFactory.prepare(geom);
-								
-								int[] pos = new int[2];
-								
-								while(c.hasNext()) {
-									BitType t = c.next();
-									//int x = idx%(width);
-									//int y = idx/(width);
-									
-									c.localize(pos);
-									
-									int x = pos[0];
-									int y = pos[1];
-									
-									double centerPixelX = geoBBox[0] + (x*resX) + (resX/2);
-									double centerPixelY = geoBBox[3] + (y*resY) + (resY/2);
-									
-									Point point = new GeometryFactory().createPoint(new Coordinate(centerPixelX, centerPixelY));
-									
-									boolean b = false;
-									/*for (int g=0; g<geom.getNumGeometries(); g++) {
-										if (geom.getGeometryN(g).covers(point)) {
-											b = true;
-										}
-									}*/
-									
-									if (prep.covers(point))
-										b = true;
-									
-									if (b)
-										count++;
-									
-									t.set(b);
-									
-									//idx++;
-								}
-								
-								masks.put(tile, mask);
-								
-								map3.put(1000,count);	//TODO: using 1000 as a code for the area, assuming no image will have 1000 bands!
-								
-								//long endTime = System.nanoTime();
-								
-								//System.out.println("mask in nanoseconds: " + (endTime-startTime));
-								
-							} else {
-								
-								//System.out.println("loaded mask for tile: " + tile);
-								
-								mask = (Img<BitType>)masks.get(tile);
-							}
-														
-							WritableRaster raster = buff.getRaster();
-							
-							int bands = raster.getNumBands();
-							
-							/*Creates image*/
-							
-							//System.out.println("bands: " + bands);
-							
-							Object[] imgs = new Object[bands];
-							Object[] cursors = new Object[bands];
-							
-							//long startTime = System.nanoTime();
-							
-							for (int b=0; b<bands; b++) {
-								Img<DoubleType> img = new ArrayImgFactory<DoubleType>().create(new long[] {width, height}, new DoubleType());
-								imgs[b] = img;
-								cursors[b] = img.randomAccess();
-							}
-									
-							for (int b=0; b<bands; b++) {
-								
-								RandomAccess<DoubleType> ra = (RandomAccess<DoubleType>)cursors[b];
-								
-								for (int j=bBox[3]; j<=bBox[1]; j++) {
-									for (int i=bBox[0]; i<=bBox[2]; i++) {
-										
-											double value = raster.getSampleDouble(i, j, b);
-											
-											ra.setPosition(i-bBox[0],0);
-											ra.setPosition(j-bBox[3],1);
-											
-											DoubleType pixelValue = ra.get();
-											pixelValue.set(value);
-									}
-								}
-							}
-														
-							for (int b=0; b<bands; b++) {
-								/*Creates masked cursor*/
-								BinaryMaskRegionOfInterest<BitType, Img<BitType>> x = new BinaryMaskRegionOfInterest<BitType, Img<BitType>>(mask);
-								
-								Cursor<DoubleType> cursor2 = x.getIterableIntervalOverROI(((Img<DoubleType>)imgs[b])).cursor();
-								
-								map3.put(b, cursor2);
-							}
-							
-							//long endTime = System.nanoTime();
-							
-							//System.out.println("copying in nanoseconds: " + (endTime-startTime));
-							
-							tiles.put(tile, map3);
-							
-						//}
-									
-					}
-					
-					tileMap.put(imageKey, tiles);
-					
-				}
-							
-			}
-			
-			//long startTime = System.nanoTime();
-			
+
 			params.put("name", operation);
-			
+
 			if (operation.equals("mean")) {
 				String[] tokens = paramList.get(0).split("_");
-				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;				
-				meanValue(tileMap.get(tokens[0]), band, params);
-				//result.put(attribute, meanValue(tileMap.get(tokens[0]), band));
+				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;
+				meanValue(statsMap.get(tokens[0]), band, params);
 			} else if (operation.equals("maxPixelValue")) {
 				String[] tokens = paramList.get(0).split("_");
-				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;				
-				maxPixelValue(tileMap.get(tokens[0]), band, params);
-				//result.put(attribute, maxPixelValue(tileMap.get(tokens[0]), band));
+				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;
+				maxPixelValue(statsMap.get(tokens[0]), band, params);
 			} else if (operation.equals("minPixelValue")) {
 				String[] tokens = paramList.get(0).split("_");
 				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;
-				minPixelValue(tileMap.get(tokens[0]), band, params);
-				//result.put(attribute, minPixelValue(tileMap.get(tokens[0]), band));
+				minPixelValue(statsMap.get(tokens[0]), band, params);
 			} else if (operation.equals("ratio")) {
 				String[] tokens = paramList.get(0).split("_");
 				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;
-				ratioValue(tileMap.get(tokens[0]), band, bandsMap.get(tokens[0]), params);
-				//result.put(attribute, ratioValue(tileMap.get(tokens[0]), band, bandsMap.get(tokens[0])));
+				ratioValue(statsMap.get(tokens[0]), band, params);
 			} else if (operation.equals("brightness")) {
 				String token = paramList.get(0).trim();
-				brightnessValue(tileMap.get(token),bandsMap.get(token), params);
-				//result.put(attribute, brightnessValue(tileMap.get(token),bandsMap.get(token)));
+				brightnessValue(statsMap.get(token), params);
 			} else if (operation.equals("bandMeanAdd")) {
 				String[] tokens1 = paramList.get(0).split("_");
 				//TODO: consider different images
 				int band1 = Integer.parseInt(tokens1[1].replace("layer",""))-1;
 				String[] tokens2 = paramList.get(1).split("_");
-				int band2 = Integer.parseInt(tokens2[1].replace("layer",""))-1;				
-				bandArithmetic(tileMap.get(tokens1[0]), new int[] {band1, band2}, "Add", params);
-				//result.put(attribute, bandArithmetic(tileMap.get(tokens1[0]), new int[] {band1, band2}, "Add"));
+				int band2 = Integer.parseInt(tokens2[1].replace("layer",""))-1;
+				bandArithmetic(statsMap.get(tokens1[0]), new int[] {band1, band2}, params);
 			} else if (operation.equals("bandMeanDiv")) {
 				String[] tokens1 = paramList.get(0).split("_");
 				//TODO: consider different images
 				int band1 = Integer.parseInt(tokens1[1].replace("layer",""))-1;
 				String[] tokens2 = paramList.get(1).split("_");
-				int band2 = Integer.parseInt(tokens2[1].replace("layer",""))-1;				
-				bandArithmetic(tileMap.get(tokens1[0]), new int[] {band1, band2}, "Div", params);
-				//result.put(attribute, bandArithmetic(tileMap.get(tokens1[0]), new int[] {band1, band2}, "Div"));
+				int band2 = Integer.parseInt(tokens2[1].replace("layer",""))-1;
+				bandArithmetic(statsMap.get(tokens1[0]), new int[] {band1, band2}, params);
 			} else if (operation.equals("bandMeanMul")) {
 				String[] tokens1 = paramList.get(0).split("_");
 				//TODO: consider different images
 				int band1 = Integer.parseInt(tokens1[1].replace("layer",""))-1;
 				String[] tokens2 = paramList.get(1).split("_");
-				int band2 = Integer.parseInt(tokens2[1].replace("layer",""))-1;				
-				bandArithmetic(tileMap.get(tokens1[0]), new int[] {band1, band2}, "Mul", params);
-				//result.put(attribute, bandArithmetic(tileMap.get(tokens1[0]), new int[] {band1, band2}, "Mul"));
+				int band2 = Integer.parseInt(tokens2[1].replace("layer",""))-1;
+				bandArithmetic(statsMap.get(tokens1[0]), new int[] {band1, band2}, params);
 			} else if (operation.equals("bandMeanSub")) {
 				String[] tokens1 = paramList.get(0).split("_");
 				//TODO: consider different images
 				int band1 = Integer.parseInt(tokens1[1].replace("layer",""))-1;
 				String[] tokens2 = paramList.get(1).split("_");
-				int band2 = Integer.parseInt(tokens2[1].replace("layer",""))-1;				
-				bandArithmetic(tileMap.get(tokens1[0]), new int[] {band1, band2}, "Sub", params);
-				//result.put(attribute, bandArithmetic(tileMap.get(tokens1[0]), new int[] {band1, band2}, "Sub"));
+				int band2 = Integer.parseInt(tokens2[1].replace("layer",""))-1;
+				bandArithmetic(statsMap.get(tokens1[0]), new int[] {band1, band2}, params);
 			} else if (operation.equals("amplitudeValue")) {
 				String[] tokens = paramList.get(0).split("_");
 				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;
-				amplitudeValue(tileMap.get(tokens[0]), band, params);
-				//result.put(attribute, amplitudeValue(tileMap.get(tokens[0]), band));
+				amplitudeValue(statsMap.get(tokens[0]), band, params);
 			} else if (operation.equals("standardDeviation")) {
 				String[] tokens = paramList.get(0).split("_");
 				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;
-				standardDeviation(tileMap.get(tokens[0]), band, params);
-				//result.put(attribute, standardDeviation(tileMap.get(tokens[0]), band));
+				standardDeviation(statsMap.get(tokens[0]), band, params);
+			} else if (operation.startsWith("glcm")) {
+				String[] tokens = paramList.get(0).trim().split("_");
+				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;
+				int levels = paramList.size() > 1 ? Integer.parseInt(paramList.get(1).trim()) : 256;
+				String key = tokens[0] + "_" + band + "_" + levels;
+				if (!textureMap.containsKey(key))
+					textureMap.put(key, record(texture(partsMap.get(tokens[0]), band, levels)));
+				glcmValue(textureMap.get(key), params);
+			} else if (operation.equals("median") || operation.equals("mode") || operation.equals("entropy") || operation.equals("percentile")) {
+				String[] tokens = paramList.get(0).trim().split("_");
+				int band = Integer.parseInt(tokens[1].replace("layer",""))-1;
+				String key = tokens[0] + "_" + band;
+				if (!histogramMap.containsKey(key))
+					histogramMap.put(key, record(histogram(partsMap.get(tokens[0]), band)));
+				if (operation.equals("percentile"))
+					params.put("percentile", Double.parseDouble(paramList.get(1).trim()));
+				histogramValue(histogramMap.get(key), params);
 			}
-						
+
 			result.put(attribute, params);
-			
+
 		}
-		
+
 		return result;
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void meanValue(Object obj, int band, Map<String, Object> params) {
-		
-		if (obj instanceof Map) {
-			
-			Map<String, Map<Integer, Object>> tiles = (Map<String, Map<Integer, Object>>)obj;
-			
-			if (tiles.size()==0) {
-				//System.out.println("Tiles empty");
-				return;				
-			}
-			
-			double sum = 0.0;
-			int count = 0;
-			
-			for (Map.Entry<String, Map<Integer, Object>> entry : tiles.entrySet()) {
-								
-				Map<Integer, Object> map = entry.getValue();
-				
-				Cursor <DoubleType> cursor = (Cursor <DoubleType>) map.get(band);
-				
-				cursor.reset();
-				
-				int c = (Integer)map.get(1000);	//code where we can find the area
-				count = count + c;
-				
-				Sum< DoubleType, DoubleType >  res = new Sum< DoubleType, DoubleType >();
-				
-				double partial = res.compute(cursor, new DoubleType()).get();
-
-				sum = sum + partial;
-							
-			}
-				
-			params.put("sum", sum);
-			params.put("count", count);
-			
-		}
-		
+
+	/*Accumulates the pairs of all the parts in the four directions; null if the object doesn't reach the image*/
+	private HaralickTexture texture(List<Part> parts, int band, int levels) {
+
+		if (parts == null || parts.isEmpty())
+			return null;
+
+		HaralickTexture texture = new HaralickTexture(levels, new int[] {0, 45, 90, 135});
+
+		for (Part part : parts)
+			texture.accumulate(part.raster, band, part.x0, part.y0, part.width, part.height, part.mask);
+
+		return texture;
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void standardDeviation(Object obj, int band, Map<String, Object> params) {
-		
-		if (obj instanceof Map) {
-			
-			Map<String, Map<Integer, Object>> tiles = (Map<String, Map<Integer, Object>>)obj;
-			
-			if (tiles.size()==0) {
-				//System.out.println("Tiles empty");
-				return;				
-			}
-			
-			double squaredPixels = 0.0;
-			double colorSum = 0.0;
-			int area = 0;
-			
-			for (Map.Entry<String, Map<Integer, Object>> entry : tiles.entrySet()) {
-				
-				//String tile = entry.getKey();
-				
-				//System.out.println("Tile: " + tile);
-				
-				Map<Integer, Object> map = entry.getValue();
-				
-				Cursor <DoubleType> cursor = (Cursor <DoubleType>) map.get(band);
-				
-				cursor.reset();
-				
-				int c = (Integer)map.get(1000);	//code where we can find the area
-				//area = area + c;
-				
-				double sp = 0.0;
-				double cs = 0.0;
-								
-				while (cursor.hasNext()) {
-					DoubleType value = cursor.next();
-					double v = value.get();
-					
-					sp = sp + (v*v);
-					cs = cs + v;					
-				}
-								
-				squaredPixels = squaredPixels + sp;
-				colorSum = colorSum + cs;
-				area = area + c;
-								
-			}
-			
-			params.put("sum", colorSum);
-			params.put("squared", squaredPixels);
-			params.put("count", area);
-						
-		}
-		
+
+	/*Counts the pixels of all the parts; null if the object doesn't reach the image*/
+	private PixelHistogram histogram(List<Part> parts, int band) {
+
+		if (parts == null || parts.isEmpty())
+			return null;
+
+		PixelHistogram histogram = new PixelHistogram();
+
+		for (Part part : parts)
+			histogram.accumulate(part.raster, band, part.x0, part.y0, part.width, part.height, part.mask);
+
+		return histogram;
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void maxPixelValue(Object obj, int band, Map<String, Object> params) {
-		
-		if (obj instanceof Map) {
-			
-			Map<String, Map<Integer, Object>> tiles = (Map<String, Map<Integer, Object>>)obj;
-			
-			if (tiles.size()==0) {
-				//System.out.println("Tiles empty");
-				return;				
-			}
-			
-			double max = -Double.MAX_VALUE;			
-			
-			for (Map.Entry<String, Map<Integer, Object>> entry : tiles.entrySet()) {
-				
-				//String tile = entry.getKey();
-				
-				//System.out.println("Tile: " + tile);
-				
-				Map<Integer, Object> map = entry.getValue();
-				
-				Cursor <DoubleType> cursor = (Cursor <DoubleType>) map.get(band);
-				
-				cursor.reset();
-				
-				Max< DoubleType, DoubleType >  res = new Max< DoubleType, DoubleType >();
-				
-				double partial = res.compute(cursor, new DoubleType()).get();
-
-				max = Math.max(max, partial);				
-								
-			}
-			
-			params.put("max", max);
-						
+
+	/*The matrix as read by PartialFeature; null if the object doesn't reach the image*/
+	private static DataByteArray record(HaralickTexture texture) {
+
+		if (texture == null)
+			return null;
+
+		try {
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			texture.write(out);
+			out.close();
+
+			return new DataByteArray(bytes.toByteArray());
+
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write the co-occurrence matrix", e);
 		}
-		
+
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void minPixelValue(Object obj, int band, Map<String, Object> params) {
-		
-		if (obj instanceof Map) {
-			
-			Map<String, Map<Integer, Object>> tiles = (Map<String, Map<Integer, Object>>)obj;
-			
-			if (tiles.size()==0) {
-				//System.out.println("Tiles empty");
-				return;				
-			}
-			
-			double min = Double.MAX_VALUE;			
-			
-			for (Map.Entry<String, Map<Integer, Object>> entry : tiles.entrySet()) {
-				
-				//String tile = entry.getKey();
-				
-				//System.out.println("Tile: " + tile);
-				
-				Map<Integer, Object> map = entry.getValue();
-				
-				Cursor <DoubleType> cursor = (Cursor <DoubleType>) map.get(band);
-				
-				cursor.reset();
-				
-				Min< DoubleType, DoubleType >  res = new Min< DoubleType, DoubleType >();
-				
-				double partial = res.compute(cursor, new DoubleType()).get();
-
-				min = Math.min(min, partial);
-								
-			}
-			
-			params.put("min", min);
-						
+
+	/*The histogram as read by PartialFeature; null if the object doesn't reach the image*/
+	private static DataByteArray record(PixelHistogram histogram) {
+
+		if (histogram == null)
+			return null;
+
+		try {
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			histogram.write(out);
+			out.close();
+
+			return new DataByteArray(bytes.toByteArray());
+
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write the histogram", e);
 		}
-		
+
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void ratioValue(Object obj, int band, int bands, Map<String, Object> params) {
-		
-		if (obj instanceof Map) {
-			
-			Map<String, Map<Integer, Object>> tiles = (Map<String, Map<Integer, Object>>)obj;
-			
-			if (tiles.size()==0) {
-				//System.out.println("Tiles empty");
-				return;				
-			}
-			
-			Double[] sum = new Double[bands];
-			int count = 0;
-					
-			for (int b=0; b<bands; b++) {
-				sum[b] = 0.0;
-			}
-			
-			for (Map.Entry<String, Map<Integer, Object>> entry : tiles.entrySet()) {
-				
-				//String tile = entry.getKey();
-				
-				//System.out.println("Tile: " + tile);
-				
-				Map<Integer, Object> map = entry.getValue();
-					
-				int c = (Integer)map.get(1000);	//code where we can find the area
-				count = count + c;
-				
-				for (int b=0; b<bands; b++) {
-
-					Cursor <DoubleType> cursor = (Cursor <DoubleType>) map.get(b);
-						
-					cursor.reset();
-					
-					Sum< DoubleType, DoubleType >  res = new Sum< DoubleType, DoubleType >();
-					
-					double partial = res.compute(cursor, new DoubleType()).get();
-
-					sum[b] = sum[b] + partial;
-												
-					//System.out.println("partial: " + partial/c + " - " + b);
-			
-				}
-					
-			}
-			
-			for (int i=0; i<bands; i++) {
-				params.put("band_" + i, sum[i]);
-			}
-			
-			params.put("band", band);
-			params.put("bands", bands);
-			params.put("count", count);
-						
-		}
-		
+
+	private void histogramValue(DataByteArray histogram, Map<String, Object> params) {
+
+		if (histogram == null)
+			return;
+
+		params.put("histogram", histogram);
+
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void brightnessValue(Object obj, int bands, Map<String, Object> params) {
-		
-		if (obj instanceof Map) {
-			
-			Map<String, Map<Integer, Object>> tiles = (Map<String, Map<Integer, Object>>)obj;
-			
-			if (tiles.size()==0) {
-				//System.out.println("Tiles empty");
-				return;				
-			}
-			
-			Double[] sum = new Double[bands];
-			int count = 0;
-			
-			for (int b=0; b<bands; b++) {
-				sum[b] = 0.0;
-			}
-						
-			for (Map.Entry<String, Map<Integer, Object>> entry : tiles.entrySet()) {
-				
-				//String tile = entry.getKey();
-				
-				//System.out.println("Tile: " + tile);
-				
-				Map<Integer, Object> map = entry.getValue();
-					
-				int c = (Integer)map.get(1000);	//code where we can find the area
-				count = count + c;
-				
-				for (int b=0; b<bands; b++) {
-
-					Cursor <DoubleType> cursor = (Cursor <DoubleType>) map.get(b);
-									
-					cursor.reset();
-					
-					Sum< DoubleType, DoubleType >  res = new Sum< DoubleType, DoubleType >();
-					
-					double partial = res.compute(cursor, new DoubleType()).get();
-
-					sum[b] = sum[b] + partial;
-												
-					//System.out.println("partial: " + partial/c + " - " + b);
-			
-				}
-					
-			}
-			
-			for (int i=0; i<bands; i++) {
-				params.put("band_" + i, sum[i]);
-			}
 
-			params.put("bands", bands);
-			params.put("count", count);
-						
-		}
-		
+	private void glcmValue(DataByteArray texture, Map<String, Object> params) {
+
+		if (texture == null)
+			return;
+
+		params.put("glcm", texture);
+
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void bandArithmetic(Object obj, int[] bands, String operation, Map<String, Object> params) {
-		
-		if (obj instanceof Map) {
-			
-			Map<String, Map<Integer, Object>> tiles = (Map<String, Map<Integer, Object>>)obj;
-			
-			if (tiles.size()==0) {
-				//System.out.println("Tiles empty");
-				return;				
-			}
-			
-			Double[] sum = new Double[2];
-			int count = 0;
-			
-			for (int b=0; b<2; b++) {
-				sum[b] = 0.0;
-			}
-						
-			for (Map.Entry<String, Map<Integer, Object>> entry : tiles.entrySet()) {
-				
-				//String tile = entry.getKey();
-				
-				//System.out.println("Tile: " + tile);
-			
-				Map<Integer, Object> map = entry.getValue();
-					
-				int c = (Integer)map.get(1000);	//code where we can find the area
-				count = count + c;
-				
-				for (int b=0; b<2; b++) {
-
-					Cursor <DoubleType> cursor = (Cursor <DoubleType>) map.get(bands[b]);
-							
-					cursor.reset();
-					
-					Sum< DoubleType, DoubleType >  res = new Sum< DoubleType, DoubleType >();
-					
-					double partial = res.compute(cursor, new DoubleType()).get();
-
-					sum[b] = sum[b] + partial;
-			
-				}
-					
-			}
-						
-			params.put("band_a", sum[0]);
-			params.put("band_b", sum[1]);
-			params.put("count", count);
-						
+
+	private void meanValue(BandStatistics stats, int band, Map<String, Object> params) {
+
+		if (stats == null)
+			return;
+
+		params.put("sum", stats.getSum(band));
+		params.put("count", stats.getCount());
+
+	}
+
+	private void standardDeviation(BandStatistics stats, int band, Map<String, Object> params) {
+
+		if (stats == null)
+			return;
+
+		params.put("sum", stats.getSum(band));
+		params.put("squared", stats.getSquared(band));
+		params.put("count", stats.getCount());
+
+	}
+
+	private void maxPixelValue(BandStatistics stats, int band, Map<String, Object> params) {
+
+		if (stats == null)
+			return;
+
+		params.put("max", stats.getMax(band));
+
+	}
+
+	private void minPixelValue(BandStatistics stats, int band, Map<String, Object> params) {
+
+		if (stats == null)
+			return;
+
+		params.put("min", stats.getMin(band));
+
+	}
+
+	private void ratioValue(BandStatistics stats, int band, Map<String, Object> params) {
+
+		if (stats == null)
+			return;
+
+		for (int i=0; i<stats.getBands(); i++) {
+			params.put("band_" + i, stats.getSum(i));
 		}
-		
+
+		params.put("band", band);
+		params.put("bands", stats.getBands());
+		params.put("count", stats.getCount());
+
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void amplitudeValue(Object obj, int band, Map<String, Object> params) {
-		
-		if (obj instanceof Map) {
-			
-			Map<String, Map<Integer, Object>> tiles = (Map<String, Map<Integer, Object>>)obj;
-			
-			if (tiles.size()==0) {
-				//System.out.println("Tiles empty");
-				return;				
-			}
-			
-			double min = Double.MAX_VALUE;
-			double max = -Double.MAX_VALUE;
-			
-			for (Map.Entry<String, Map<Integer, Object>> entry : tiles.entrySet()) {
-				
-				//String tile = entry.getKey();
-				
-				//System.out.println("Tile: " + tile);
-				
-				Map<Integer, Object> map = entry.getValue();
-				
-				Cursor <DoubleType> cursor = (Cursor <DoubleType>) map.get(band);
-				
-				cursor.reset();
-				
-				Min< DoubleType, DoubleType >  resMin = new Min< DoubleType, DoubleType >();
-				Max< DoubleType, DoubleType >  resMax = new Max< DoubleType, DoubleType >();
-				
-				double partialMin = resMin.compute(cursor, new DoubleType()).get();
-				
-				cursor.reset();
-				
-				double partialMax = resMax.compute(cursor, new DoubleType()).get();
-
-				min = Math.min(min, partialMin);
-				max = Math.max(max, partialMax);
-				
-			}
-			
-			params.put("max", max);
-			params.put("min", min);
-			
+
+	private void brightnessValue(BandStatistics stats, Map<String, Object> params) {
+
+		if (stats == null)
+			return;
+
+		for (int i=0; i<stats.getBands(); i++) {
+			params.put("band_" + i, stats.getSum(i));
 		}
-		
+
+		params.put("bands", stats.getBands());
+		params.put("count", stats.getCount());
+
+	}
+
+	private void bandArithmetic(BandStatistics stats, int[] bands, Map<String, Object> params) {
+
+		if (stats == null)
+			return;
+
+		params.put("band_a", stats.getSum(bands[0]));
+		params.put("band_b", stats.getSum(bands[1]));
+		params.put("count", stats.getCount());
+
 	}
-		
+
+	private void amplitudeValue(BandStatistics stats, int band, Map<String, Object> params) {
+
+		if (stats == null)
+			return;
+
+		params.put("max", stats.getMax(band));
+		params.put("min", stats.getMin(band));
+
+	}
+
 }
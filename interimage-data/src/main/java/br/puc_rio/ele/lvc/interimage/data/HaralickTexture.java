@@ -0,0 +1,411 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.Raster;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A symmetric gray level co-occurrence matrix (GLCM) and the Haralick features computed from it.<br><br>
+ * The pixel values are rounded, clipped to 0..255 and quantized to the given number of gray levels. The pairs of all
+ * the given angles (0, 45, 90, 135...) at the given distance are accumulated in the same matrix, so that every feature
+ * is computed from one matrix. Small objects are accumulated as a sparse list of pairs; the dense matrix is only
+ * allocated when the number of pairs reaches its size. The features are computed from the non-zero cells only.
+ * @author Patrick Happ, Rodrigo Ferreira
+ */
+public class HaralickTexture {
+
+	public static final String[] FEATURES = {"asm", "contrast", "correlation", "dissimilarity", "entropy", "homogeneity", "idm", "mean", "quisquare", "stddev", "variance"};
+
+	private final int _levels;
+	private final int[][] _offsets;
+
+	/*Dense counts, allocated when the sparse list gets as large as the matrix*/
+	private long[] _dense = null;
+
+	/*Sparse list of pairs, coded as i*levels + j*/
+	private int[] _codes = new int[64];
+	private int _size = 0;
+
+	private long _pairs = 0;
+
+	/*Non-zero cells, computed on demand*/
+	private int[] _cells = null;
+	private long[] _counts = null;
+
+	/**Constructor that takes the number of gray levels (2 to 256) and the angles, with distance 1.*/
+	public HaralickTexture(int levels, int[] angles) {
+		this(levels, angles, 1);
+	}
+
+	/**Constructor that takes the number of gray levels (2 to 256), the angles and the distance.*/
+	public HaralickTexture(int levels, int[] angles, int distance) {
+
+		if (levels < 2 || levels > 256)
+			throw new IllegalArgumentException("The number of gray levels must be between 2 and 256");
+
+		_levels = levels;
+		_offsets = new int[angles.length][];
+
+		/*Pixel offsets of the angles at the given distance; 90 degrees is the row above*/
+		for (int a=0; a<angles.length; a++) {
+			double rad = Math.toRadians(-1.0 * angles[a]);
+			_offsets[a] = new int[] {(int)(distance * Math.round(Math.cos(rad))), (int)(distance * Math.round(Math.sin(rad)))};
+		}
+
+	}
+
+	/**Parses a list of angles such as "0,45,90,135".*/
+	public static int[] parseAngles(String angles) {
+		String[] tokens = angles.split(",");
+		int[] result = new int[tokens.length];
+		for (int i=0; i<tokens.length; i++)
+			result[i] = Integer.parseInt(tokens[i].trim());
+		return result;
+	}
+
+	public int getLevels() {
+		return _levels;
+	}
+
+	/**Returns the number of pairs in the matrix (each pair is counted in both directions).*/
+	public long getPairs() {
+		return _pairs;
+	}
+
+	/**
+	 * Accumulates the pairs of pixels of a window of one band of the raster.
+	 * @param mask the pixels of the window that belong to the object, in row-major order; null for all pixels
+	 */
+	public void accumulate(Raster raster, int band, int x0, int y0, int width, int height, boolean[] mask) {
+		accumulate(raster.getSamples(x0, y0, width, height, band, (double[])null), width, height, mask);
+	}
+
+	/**
+	 * Accumulates the pairs of pixels of an image given by its values in row-major order.
+	 * @param mask the pixels that belong to the object; null for all pixels
+	 */
+	public void accumulate(double[] samples, int width, int height, boolean[] mask) {
+
+		/*Quantized levels; -1 for the pixels outside the object*/
+		int[] q = new int[width*height];
+
+		for (int i=0; i<q.length; i++) {
+			if (mask != null && !mask[i]) {
+				q[i] = -1;
+			} else {
+				int value = (int)(samples[i] + 0.5);
+				value = value < 0 ? 0 : (value > 255 ? 255 : value);
+				q[i] = (value * _levels) >> 8;
+			}
+		}
+
+		for (int[] offset : _offsets) {
+
+			int dx = offset[0];
+			int dy = offset[1];
+
+			for (int y=Math.max(0, -dy); y<Math.min(height, height-dy); y++) {
+				for (int x=Math.max(0, -dx); x<Math.min(width, width-dx); x++) {
+
+					int a = q[y*width + x];
+					if (a < 0)
+						continue;
+
+					int b = q[(y+dy)*width + (x+dx)];
+					if (b < 0)
+						continue;
+
+					add(a*_levels + b, 1);
+					add(b*_levels + a, 1);
+
+				}
+			}
+
+		}
+
+	}
+
+	/**Adds the pairs of another matrix with the same number of gray levels.*/
+	public void merge(HaralickTexture other) {
+
+		if (other._levels != _levels)
+			throw new IllegalArgumentException("The matrices have different numbers of gray levels");
+
+		other.compact();
+
+		for (int c=0; c<other._cells.length; c++)
+			add(other._cells[c], other._counts[c]);
+
+	}
+
+	/**Returns a copy of the matrix, to which other matrices can be added without changing this one.*/
+	public HaralickTexture copy() {
+
+		HaralickTexture texture = new HaralickTexture(_levels, new int[0]);
+
+		texture.merge(this);
+
+		return texture;
+	}
+
+	private void add(int code, long count) {
+
+		_cells = null;
+		_pairs += count;
+
+		if (_dense != null) {
+			_dense[code] += count;
+			return;
+		}
+
+		for (long n=0; n<count; n++) {
+
+			if (_size == _codes.length) {
+
+				if (_size >= _levels*_levels) {
+					/*The sparse list is as large as the matrix*/
+					_dense = new long[_levels*_levels];
+					for (int i=0; i<_size; i++)
+						_dense[_codes[i]]++;
+					_codes = null;
+					_size = 0;
+					_dense[code] += count - n;
+					return;
+				}
+
+				_codes = Arrays.copyOf(_codes, Math.min(2*_codes.length, _levels*_levels));
+
+			}
+
+			_codes[_size++] = code;
+
+		}
+
+	}
+
+	/*Computes the non-zero cells and their counts*/
+	private void compact() {
+
+		if (_cells != null)
+			return;
+
+		int n = 0;
+
+		if (_dense != null) {
+
+			for (int c=0; c<_dense.length; c++) {
+				if (_dense[c] != 0)
+					n++;
+			}
+
+			_cells = new int[n];
+			_counts = new long[n];
+
+			n = 0;
+			for (int c=0; c<_dense.length; c++) {
+				if (_dense[c] != 0) {
+					_cells[n] = c;
+					_counts[n++] = _dense[c];
+				}
+			}
+
+		} else {
+
+			Arrays.sort(_codes, 0, _size);
+
+			for (int i=0; i<_size; i++) {
+				if (i == 0 || _codes[i] != _codes[i-1])
+					n++;
+			}
+
+			_cells = new int[n];
+			_counts = new long[n];
+
+			n = -1;
+			for (int i=0; i<_size; i++) {
+				if (i == 0 || _codes[i] != _codes[i-1])
+					_cells[++n] = _codes[i];
+				_counts[n]++;
+			}
+
+		}
+
+	}
+
+	/**Returns the value of a feature (one of FEATURES), or NaN if there are no pairs.*/
+	public double getFeature(String feature) {
+		Double value = getFeatures().get(feature.toLowerCase());
+		if (value == null)
+			throw new IllegalArgumentException("Unknown texture feature: " + feature);
+		return value;
+	}
+
+	/**Computes all the features at once.*/
+	public Map<String, Double> getFeatures() {
+
+		compact();
+
+		Map<String, Double> features = new HashMap<String, Double>();
+
+		if (_pairs == 0) {
+			for (String feature : FEATURES)
+				features.put(feature, Double.NaN);
+			return features;
+		}
+
+		double[] px = new double[_levels];
+		double[] py = new double[_levels];
+
+		double asm = 0.0;
+		double contrast = 0.0;
+		double dissimilarity = 0.0;
+		double entropy = 0.0;
+		double homogeneity = 0.0;
+		double idm = 0.0;
+
+		for (int c=0; c<_cells.length; c++) {
+
+			int i = _cells[c] / _levels;
+			int j = _cells[c] % _levels;
+			double p = (double)_counts[c] / _pairs;
+
+			px[i] += p;
+			py[j] += p;
+
+			asm += p*p;
+			contrast += (i-j)*(i-j)*p;
+			dissimilarity += Math.abs(i-j)*p;
+			entropy -= p*Math.log(p);
+			homogeneity += p/(1.0+Math.abs(i-j));
+			idm += p/(1.0+(i-j)*(i-j));
+
+		}
+
+		double meanx = 0.0;
+		double meany = 0.0;
+
+		for (int i=0; i<_levels; i++) {
+			meanx += i*px[i];
+			meany += i*py[i];
+		}
+
+		double varx = 0.0;
+		double vary = 0.0;
+
+		for (int i=0; i<_levels; i++) {
+			varx += (i-meanx)*(i-meanx)*px[i];
+			vary += (i-meany)*(i-meany)*py[i];
+		}
+
+		double mean = (meanx + meany)/2;
+
+		double variance = 0.0;
+		double covariance = 0.0;
+		double quisquare = 0.0;
+
+		for (int c=0; c<_cells.length; c++) {
+
+			int i = _cells[c] / _levels;
+			int j = _cells[c] % _levels;
+			double p = (double)_counts[c] / _pairs;
+
+			variance += (i-mean)*(i-mean)*p;
+			covariance += (i-meanx)*(j-meany)*p;
+			quisquare += p*p/(px[i]*py[j]);
+
+		}
+
+		features.put("asm", asm);
+		features.put("contrast", contrast);
+		/*A constant object is perfectly correlated*/
+		features.put("correlation", (varx == 0 || vary == 0) ? 1.0 : covariance/Math.sqrt(varx*vary));
+		features.put("dissimilarity", dissimilarity);
+		features.put("entropy", entropy);
+		features.put("homogeneity", homogeneity);
+		features.put("idm", idm);
+		features.put("mean", mean);
+		features.put("quisquare", quisquare);
+		features.put("stddev", Math.sqrt(variance));
+		features.put("variance", variance);
+
+		return features;
+	}
+
+	/**Encodes the matrix as a string: levels followed by code:count for the non-zero cells.*/
+	public String encode() {
+
+		compact();
+
+		StringBuilder builder = new StringBuilder();
+		builder.append(_levels);
+
+		for (int c=0; c<_cells.length; c++)
+			builder.append(' ').append(_cells[c]).append(':').append(_counts[c]);
+
+		return builder.toString();
+	}
+
+	/**Writes the matrix in binary form: levels, number of non-zero cells and code, count of each cell.*/
+	public void write(DataOutput out) throws IOException {
+
+		compact();
+
+		out.writeShort(_levels);
+		out.writeInt(_cells.length);
+
+		for (int c=0; c<_cells.length; c++) {
+			out.writeInt(_cells[c]);
+			out.writeLong(_counts[c]);
+		}
+
+	}
+
+	/**Reads a matrix written with write().*/
+	public static HaralickTexture read(DataInput in) throws IOException {
+
+		HaralickTexture texture = new HaralickTexture(in.readShort(), new int[0]);
+
+		int cells = in.readInt();
+
+		for (int c=0; c<cells; c++) {
+			int code = in.readInt();
+			texture.add(code, in.readLong());
+		}
+
+		return texture;
+	}
+
+	/**Decodes a matrix encoded with encode().*/
+	public static HaralickTexture decode(String string) {
+
+		String[] tokens = string.trim().split(" ");
+
+		HaralickTexture texture = new HaralickTexture(Integer.parseInt(tokens[0]), new int[0]);
+
+		for (int t=1; t<tokens.length; t++) {
+			int idx = tokens[t].indexOf(':');
+			texture.add(Integer.parseInt(tokens[t].substring(0, idx)), Long.parseLong(tokens[t].substring(idx+1)));
+		}
+
+		return texture;
+	}
+
+}
@@ -23,6 +23,7 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.Exception;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -36,6 +37,7 @@ import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 
+import br.puc_rio.ele.lvc.interimage.common.AdaptiveTileManager;
 import br.puc_rio.ele.lvc.interimage.common.TileManager;
 import br.puc_rio.ele.lvc.interimage.common.URL;
 
@@ -459,63 +461,76 @@ public class ImageConverter {
 		        }
 		    }
     		
-	        for (int j=tiles[3]; j>=tiles[1]; j--) {
-	        	for (int i=tiles[0]; i<=tiles[2]; i++) {
-	        		
-					long id = ((long)j)*numTilesX+i+1;
-	        		
-					//System.out.print(id);
-					
-	        		double[] geoTile = new double[4];
-	        		
-	        		geoTile[0] = i*tileSize + worldBBox[0];
-	        		geoTile[1] = j*tileSize + worldBBox[1];
-	        		geoTile[2] = geoTile[0] + tileSize;
-	        		geoTile[3] = geoTile[1] + tileSize;
-	        		
-	        		/*System.out.println();
-	        		
-	        		System.out.println(geoTile[0]);
-	        		System.out.println(geoTile[1]);
-	        		System.out.println(geoTile[2]);
-	        		System.out.println(geoTile[3]);
-	        		
-	        		System.out.println();	        		
-	        		
-	        		System.out.println(geoBBox[0]);
-	        		System.out.println(geoBBox[1]);
-	        		System.out.println(geoBBox[2]);
-	        		System.out.println(geoBBox[3]);*/
-	        		
-	        		/*geo intersection*/
-	        		double[] srGeoBox = new double[4];
-	        		
-	        		//System.out.println();
-	        		
-	        		srGeoBox[0] = Math.max(geoTile[0], geoBBox[0]);
-	        		srGeoBox[1] = Math.max(geoTile[1], geoBBox[1]);
-	        		srGeoBox[2] = Math.min(geoTile[2], geoBBox[2]);
-	        		srGeoBox[3] = Math.min(geoTile[3], geoBBox[3]);
-	        		
-	        		/*System.out.println();
-	        		
-	        		System.out.println(srGeoBox[0]);
-	        		System.out.println(srGeoBox[1]);
-	        		System.out.println(srGeoBox[2]);
-	        		System.out.println(srGeoBox[3]);*/
-	        		
-	        		int[] imgBBox = Image.imgBBox(srGeoBox, geoBBox, new int[] {imgW, imgH});
-	        		
-	        		/*System.out.println();
-	        		
-	        		System.out.println(imgBBox[0]);
-	        		System.out.println(imgBBox[1]);
-	        		System.out.println(imgBBox[2]);
-	        		System.out.println(imgBBox[3]);*/
-	        		
-	        		/* Set The region to extract */
-	        		sourceRegion.setSize(imgBBox[2]-imgBBox[0]+1,imgBBox[1]-imgBBox[3]+1);//set size
-	        		sourceRegion.setLocation(imgBBox[0], imgBBox[3]);//set origin
+	        /*Tiles to cut: the cells of the base grid or, for an adaptive tile manager, the quadtree tiles over the image*/
+	        List<String> codes = new ArrayList<String>();
+	        List<double[]> geoTiles = new ArrayList<double[]>();
+	        
+	        if (tileManager instanceof AdaptiveTileManager) {
+	        	AdaptiveTileManager adaptive = (AdaptiveTileManager)tileManager;
+	        	for (String code : adaptive.getTiles(geoBBox)) {
+	        		codes.add(code);
+	        		geoTiles.add(adaptive.getEnvelope(code));
+	        	}
+	        } else {
+	        	for (int j=tiles[3]; j>=tiles[1]; j--) {
+	        		for (int i=tiles[0]; i<=tiles[2]; i++) {
+	        			long id = ((long)j)*numTilesX+i+1;
+	        			double x = i*tileSize + worldBBox[0];
+	        			double y = j*tileSize + worldBBox[1];
+	        			codes.add(tileManager.encode(id));
+	        			geoTiles.add(new double[] {x, y, x + tileSize, y + tileSize});
+	        		}
+	        	}
+	        }
+	        
+	        for (int t=0; t<codes.size(); t++) {
+	        	
+	        	String code = codes.get(t);
+	        	double[] geoTile = geoTiles.get(t);
+	        	
+	        	/*System.out.println();
+	        	
+	        	System.out.println(geoTile[0]);
+	        	System.out.println(geoTile[1]);
+	        	System.out.println(geoTile[2]);
+	        	System.out.println(geoTile[3]);
+	        	
+	        	System.out.println();	        		
+	        	
+	        	System.out.println(geoBBox[0]);
+	        	System.out.println(geoBBox[1]);
+	        	System.out.println(geoBBox[2]);
+	        	System.out.println(geoBBox[3]);*/
+	        	
+	        	/*geo intersection*/
+	        	double[] srGeoBox = new double[4];
+	        	
+	        	//System.out.println();
+	        	
+	        	srGeoBox[0] = Math.max(geoTile[0], geoBBox[0]);
+	        	srGeoBox[1] = Math.max(geoTile[1], geoBBox[1]);
+	        	srGeoBox[2] = Math.min(geoTile[2], geoBBox[2]);
+	        	srGeoBox[3] = Math.min(geoTile[3], geoBBox[3]);
+	        	
+	        	/*System.out.println();
+	        	
+	        	System.out.println(srGeoBox[0]);
+	        	System.out.println(srGeoBox[1]);
+	        	System.out.println(srGeoBox[2]);
+	        	System.out.println(srGeoBox[3]);*/
+	        	
+	        	int[] imgBBox = Image.imgBBox(srGeoBox, geoBBox, new int[] {imgW, imgH});
+	        	
+	        	/*System.out.println();
+	        	
+	        	System.out.println(imgBBox[0]);
+	        	System.out.println(imgBBox[1]);
+	        	System.out.println(imgBBox[2]);
+	        	System.out.println(imgBBox[3]);*/
+	        	
+	        	/* Set The region to extract */
+	        	sourceRegion.setSize(imgBBox[2]-imgBBox[0]+1,imgBBox[1]-imgBBox[3]+1);//set size
+	        	sourceRegion.setLocation(imgBBox[0], imgBBox[3]);//set origin
 	                param.setSourceRegion(sourceRegion);
 	                
 	                // Will read only the region specified
@@ -525,7 +540,7 @@ public class ImageConverter {
 	                img = reader.read(0, param);
 	             	                
 	                /*Write tiff file*/
-	                File outputfile = new File(imagePath + tileManager.encode(id) + extension);
+	                File outputfile = new File(imagePath + code + extension);
 	                
 	                ImageIO.write(img, formatName, outputfile);
 	                	                
@@ -540,10 +555,10 @@ public class ImageConverter {
 	                /*System.out.println();
 	                
 	                System.out.println(newGeo[0]);
-	        		System.out.println(newGeo[1]);
-	        		System.out.println(newGeo[2]);
-	        		System.out.println(newGeo[3]);*/
-	        			                
+	        	System.out.println(newGeo[1]);
+	        	System.out.println(newGeo[2]);
+	        	System.out.println(newGeo[3]);*/
+	        		                
 	                /*String str = resX + "\n";
 	                str = str + 0.0 + "\n";
 	                str = str + 0.0 + "\n";
@@ -555,7 +570,7 @@ public class ImageConverter {
 	                
 	                out.close();*/
 	                
-	                OutputStream out3 = new FileOutputStream(imagePath + tileManager.encode(id) + ".meta");
+	                OutputStream out3 = new FileOutputStream(imagePath + code + ".meta");
 	                
 	                String str = imageObj.getBands() + "\n";
 	                str = str + (imgBBox[2]-imgBBox[0]+1) + "\n";
@@ -606,7 +621,6 @@ public class ImageConverter {
 	                	}
 	                }*/
 	                	                	                	        		
-	        	}
 	        }
 	      	            
             /*OutputStream out2 = new FileOutputStream(projectPath + imageObj.getKey() + ".meta");
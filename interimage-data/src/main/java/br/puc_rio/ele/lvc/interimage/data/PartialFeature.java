@@ -0,0 +1,375 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.pig.data.DataType;
+
+/**
+ * The partial value of a spectral feature over the part of an object inside one tile.<br><br>
+ * A partial is an operation code and a fixed set of primitive accumulators (e.g. sum and count for the mean), or the
+ * co-occurrence matrix for the texture features, or the histogram of the band for the median, mode, entropy and
+ * percentile. Partials of the same object are merged by summing, or taking the
+ * minimum or maximum of, the accumulators, and the value of the feature is computed from the merged partial.<br>
+ * A partial is empty when the object doesn't reach the image.<br><br>
+ * Binary record (big endian): operation (byte), argument (double), number of accumulators (short, -1 when empty) and
+ * the accumulators as doubles; for the texture and histogram features the matrix or the histogram follows instead of
+ * the accumulators.
+ * @author Rodrigo Ferreira
+ */
+public class PartialFeature {
+
+	public static final int MEAN = 0;
+	public static final int MAX = 1;
+	public static final int MIN = 2;
+	public static final int RATIO = 3;
+	public static final int BRIGHTNESS = 4;
+	public static final int AMPLITUDE = 5;
+	public static final int STDDEV = 6;
+	public static final int BAND_ADD = 7;
+	public static final int BAND_DIV = 8;
+	public static final int BAND_MUL = 9;
+	public static final int BAND_SUB = 10;
+	public static final int GLCM = 11;
+	public static final int MEDIAN = 12;
+	public static final int MODE = 13;
+	public static final int ENTROPY = 14;
+	public static final int PERCENTILE = 15;
+
+	/*Operation names used in the feature expressions, by code*/
+	private static final String[] OPERATIONS = {"mean", "maxPixelValue", "minPixelValue", "ratio", "brightness", "amplitudeValue", "standardDeviation", "bandMeanAdd", "bandMeanDiv", "bandMeanMul", "bandMeanSub", "glcm", "median", "mode", "entropy", "percentile"};
+
+	private final int _operation;
+
+	/*The band of the ratio, the index of the texture feature or the percentile, which may be fractional*/
+	private final double _argument;
+
+	/*Null when empty*/
+	private double[] _values;
+	private HaralickTexture _texture;
+	private PixelHistogram _histogram;
+
+	private PartialFeature(int operation, double argument) {
+		_operation = operation;
+		_argument = argument;
+	}
+
+	/**Returns the operation code of an operation name, or -1 if unknown.*/
+	public static int getOperation(String name) {
+
+		if (name.startsWith("glcm"))
+			return GLCM;
+
+		for (int i=0; i<OPERATIONS.length; i++) {
+			if (OPERATIONS[i].equals(name))
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**Converts the parameters computed by FeatureCalculator.*/
+	public static PartialFeature fromParams(Map<String, Object> params) throws IOException {
+
+		String name = DataType.toString(params.get("name"));
+
+		int operation = getOperation(name);
+
+		if (operation < 0)
+			throw new IllegalArgumentException("Unknown spectral operation: " + name);
+
+		if (operation == GLCM) {
+
+			PartialFeature partial = new PartialFeature(GLCM, textureFeature(name.substring(4)));
+
+			if (params.containsKey("glcm"))
+				partial._texture = HaralickTexture.read(input(params.get("glcm")));
+
+			return partial;
+		}
+
+		if (isHistogram(operation)) {
+
+			PartialFeature partial = new PartialFeature(operation, params.containsKey("percentile") ? DataType.toDouble(params.get("percentile")) : 0);
+
+			if (params.containsKey("histogram"))
+				partial._histogram = PixelHistogram.read(input(params.get("histogram")));
+
+			return partial;
+		}
+
+		if (operation == RATIO) {
+
+			PartialFeature partial = new PartialFeature(RATIO, params.containsKey("band") ? DataType.toInteger(params.get("band")) : 0);
+
+			if (params.containsKey("count"))
+				partial._values = bandSums(params);
+
+			return partial;
+		}
+
+		PartialFeature partial = new PartialFeature(operation, 0);
+
+		if (operation == BRIGHTNESS) {
+			if (params.containsKey("count"))
+				partial._values = bandSums(params);
+			return partial;
+		}
+
+		String[] keys;
+
+		switch (operation) {
+			case MEAN:
+				keys = new String[] {"sum", "count"};
+				break;
+			case MAX:
+				keys = new String[] {"max"};
+				break;
+			case MIN:
+				keys = new String[] {"min"};
+				break;
+			case AMPLITUDE:
+				keys = new String[] {"min", "max"};
+				break;
+			case STDDEV:
+				keys = new String[] {"sum", "squared", "count"};
+				break;
+			default:
+				keys = new String[] {"band_a", "band_b", "count"};
+		}
+
+		if (!params.containsKey(keys[0]))
+			return partial;
+
+		partial._values = new double[keys.length];
+
+		for (int i=0; i<keys.length; i++)
+			partial._values[i] = DataType.toDouble(params.get(keys[i]));
+
+		return partial;
+	}
+
+	/*The binary matrix or histogram written by FeatureCalculator*/
+	private static DataInputStream input(Object record) throws IOException {
+		return new DataInputStream(new ByteArrayInputStream(DataType.toBytes(record)));
+	}
+
+	/*count followed by the sum of every band*/
+	private static double[] bandSums(Map<String, Object> params) throws IOException {
+
+		int bands = DataType.toInteger(params.get("bands"));
+
+		double[] values = new double[bands+1];
+
+		values[0] = DataType.toDouble(params.get("count"));
+
+		for (int b=0; b<bands; b++)
+			values[b+1] = DataType.toDouble(params.get("band_" + b));
+
+		return values;
+	}
+
+	private static int textureFeature(String feature) {
+
+		for (int i=0; i<HaralickTexture.FEATURES.length; i++) {
+			if (HaralickTexture.FEATURES[i].equalsIgnoreCase(feature))
+				return i;
+		}
+
+		throw new IllegalArgumentException("Unknown texture feature: " + feature);
+	}
+
+	/**Whether the operation is computed from the histogram of the band.*/
+	public static boolean isHistogram(int operation) {
+		return operation >= MEDIAN && operation <= PERCENTILE;
+	}
+
+	public int getOperation() {
+		return _operation;
+	}
+
+	public boolean isEmpty() {
+		return _values == null && _texture == null && _histogram == null;
+	}
+
+	/**Adds another partial of the same feature.*/
+	public void merge(PartialFeature other) {
+
+		if (other._operation != _operation || other._argument != _argument)
+			throw new IllegalArgumentException("The partials belong to different features");
+
+		if (other.isEmpty())
+			return;
+
+		if (_operation == GLCM) {
+
+			if (_texture == null)
+				_texture = other._texture.copy();
+			else
+				_texture.merge(other._texture);
+
+			return;
+		}
+
+		if (isHistogram(_operation)) {
+
+			if (_histogram == null)
+				_histogram = other._histogram.copy();
+			else
+				_histogram.merge(other._histogram);
+
+			return;
+		}
+
+		if (_values == null) {
+			_values = other._values.clone();
+			return;
+		}
+
+		if (other._values.length != _values.length)
+			throw new IllegalArgumentException("The partials have different numbers of bands");
+
+		for (int i=0; i<_values.length; i++) {
+
+			switch (_operation) {
+				case MAX:
+					_values[i] = Math.max(_values[i], other._values[i]);
+					break;
+				case MIN:
+					_values[i] = Math.min(_values[i], other._values[i]);
+					break;
+				case AMPLITUDE:
+					_values[i] = i == 0 ? Math.min(_values[i], other._values[i]) : Math.max(_values[i], other._values[i]);
+					break;
+				default:
+					_values[i] += other._values[i];
+			}
+
+		}
+
+	}
+
+	/**Returns the value of the feature, or null if the partial is empty.*/
+	public Double getValue() {
+
+		if (isEmpty())
+			return null;
+
+		switch (_operation) {
+			case MEAN:
+				return _values[0]/_values[1];
+			case MAX:
+			case MIN:
+				return _values[0];
+			case AMPLITUDE:
+				return _values[1]-_values[0];
+			case STDDEV: {
+				double mean = _values[0]/_values[2];
+				return Math.sqrt(Math.abs((_values[1] - 2*mean*_values[0] + _values[2]*mean*mean))/_values[2]);
+			}
+			case RATIO: {
+				double sum = 0.0;
+				for (int b=1; b<_values.length; b++)
+					sum += _values[b]/_values[0];
+				return (_values[(int)_argument+1]/_values[0])/sum;
+			}
+			case BRIGHTNESS: {
+				double sum = 0.0;
+				for (int b=1; b<_values.length; b++)
+					sum += _values[b]/_values[0];
+				return sum/(_values.length-1);
+			}
+			case BAND_ADD:
+				return _values[0]/_values[2] + _values[1]/_values[2];
+			case BAND_DIV:
+				return (_values[0]/_values[2]) / (_values[1]/_values[2]);
+			case BAND_MUL:
+				return (_values[0]/_values[2]) * (_values[1]/_values[2]);
+			case BAND_SUB:
+				return _values[0]/_values[2] - _values[1]/_values[2];
+			case MEDIAN:
+				return _histogram.getMedian();
+			case MODE:
+				/*As ModeValue*/
+				return _histogram.getModeCount() < 2 ? null : _histogram.getMode();
+			case ENTROPY:
+				return _histogram.getEntropy();
+			case PERCENTILE:
+				return _histogram.getPercentile(_argument);
+			default:
+				return _texture.getFeature(HaralickTexture.FEATURES[(int)_argument]);
+		}
+
+	}
+
+	public byte[] encode() throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeByte(_operation);
+		out.writeDouble(_argument);
+
+		if (_operation == GLCM) {
+			out.writeShort(_texture == null ? -1 : 0);
+			if (_texture != null)
+				_texture.write(out);
+		} else if (isHistogram(_operation)) {
+			out.writeShort(_histogram == null ? -1 : 0);
+			if (_histogram != null)
+				_histogram.write(out);
+		} else {
+			out.writeShort(_values == null ? -1 : _values.length);
+			if (_values != null) {
+				for (double value : _values)
+					out.writeDouble(value);
+			}
+		}
+
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	public static PartialFeature decode(byte[] record) throws IOException {
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+		PartialFeature partial = new PartialFeature(in.readByte(), in.readDouble());
+
+		int size = in.readShort();
+
+		if (size >= 0) {
+			if (partial._operation == GLCM) {
+				partial._texture = HaralickTexture.read(in);
+			} else if (isHistogram(partial._operation)) {
+				partial._histogram = PixelHistogram.read(in);
+			} else {
+				partial._values = new double[size];
+				for (int i=0; i<size; i++)
+					partial._values[i] = in.readDouble();
+			}
+		}
+
+		return partial;
+	}
+
+}
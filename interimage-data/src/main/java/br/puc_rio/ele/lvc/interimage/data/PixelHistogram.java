@@ -0,0 +1,403 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The histogram of the values of one band of an object, from which the order and frequency statistics are derived.<br><br>
+ * Integer values are counted in a dense array that covers the range of the values seen so far, up to 65536 consecutive
+ * values, so 8, 11 and 16 bit bands (signed or not) are counted without sorting or boxing. Values that are not integer
+ * or don't fit in that range are kept in a sparse list, sorted when the statistics are requested.<br><br>
+ * The median is the element of rank n/2 of the sorted values (the upper median for an even number of values), as in
+ * the imglib MedianOp used before, and the percentiles follow the same nearest rank rule. NaN values are ignored.
+ * @author Rodrigo Ferreira
+ */
+public class PixelHistogram {
+
+	/*The maximum number of consecutive integer values counted in the dense array*/
+	public static final int MAX_DENSE = 1 << 16;
+
+	/*Dense counts of the integer values from _offset on*/
+	private long[] _dense = null;
+	private int _offset = 0;
+
+	/*Sparse list of the other values*/
+	private double[] _sparse = new double[16];
+	private int _size = 0;
+
+	private long _count = 0;
+
+	/*Distinct values in ascending order and their counts, computed on demand*/
+	private double[] _values = null;
+	private long[] _counts = null;
+
+	/**Adds one value.*/
+	public void add(double value) {
+		add(value, 1);
+	}
+
+	/**Adds all the given values.*/
+	public void add(double[] values) {
+		for (double value : values)
+			add(value, 1);
+	}
+
+	/**
+	 * Accumulates the pixels of a window of one band of the raster.<br>
+	 * Integer rasters are read as integers, so that no value is converted back and forth.
+	 * @param mask the pixels of the window that belong to the object, in row-major order; null for all pixels
+	 */
+	public void accumulate(Raster raster, int band, int x0, int y0, int width, int height, boolean[] mask) {
+
+		int type = raster.getSampleModel().getDataType();
+
+		if (type == DataBuffer.TYPE_FLOAT || type == DataBuffer.TYPE_DOUBLE) {
+
+			double[] samples = raster.getSamples(x0, y0, width, height, band, (double[])null);
+
+			for (int i=0; i<samples.length; i++) {
+				if (mask == null || mask[i])
+					add(samples[i], 1);
+			}
+
+		} else {
+
+			int[] samples = raster.getSamples(x0, y0, width, height, band, (int[])null);
+
+			for (int i=0; i<samples.length; i++) {
+				if (mask == null || mask[i])
+					add(samples[i], 1);
+			}
+
+		}
+
+	}
+
+	/**Adds the values of another histogram.*/
+	public void merge(PixelHistogram other) {
+
+		other.compact();
+
+		for (int v=0; v<other._values.length; v++)
+			add(other._values[v], other._counts[v]);
+
+	}
+
+	/**Returns a copy of the histogram, to which other histograms can be added without changing this one.*/
+	public PixelHistogram copy() {
+
+		PixelHistogram histogram = new PixelHistogram();
+
+		histogram.merge(this);
+
+		return histogram;
+	}
+
+	private void add(double value, long count) {
+
+		/*No data*/
+		if (Double.isNaN(value))
+			return;
+
+		_values = null;
+		_count += count;
+
+		int integer = (int)value;
+
+		if (integer == value && reserve(integer)) {
+			_dense[integer - _offset] += count;
+			return;
+		}
+
+		for (long n=0; n<count; n++) {
+
+			if (_size == _sparse.length)
+				_sparse = Arrays.copyOf(_sparse, 2*_sparse.length);
+
+			_sparse[_size++] = value;
+
+		}
+
+	}
+
+	/*Makes the dense array cover the value; false if the range would be too large*/
+	private boolean reserve(int value) {
+
+		if (_dense == null) {
+			_dense = new long[16];
+			_offset = value;
+			return true;
+		}
+
+		if (value >= _offset && value - _offset < _dense.length)
+			return true;
+
+		long low = Math.min((long)_offset, value);
+		long high = Math.max((long)_offset + _dense.length, (long)value + 1);
+
+		if (high - low > MAX_DENSE)
+			return false;
+
+		int length = (int)Math.min(MAX_DENSE, Math.max(high - low, 2L*_dense.length));
+
+		/*Grows towards the new value*/
+		int offset = value < _offset ? (int)(high - length) : _offset;
+
+		long[] dense = new long[length];
+		System.arraycopy(_dense, 0, dense, _offset - offset, _dense.length);
+
+		_dense = dense;
+		_offset = offset;
+
+		return true;
+	}
+
+	/*Computes the distinct values and their counts, merging the dense and the sparse values*/
+	private void compact() {
+
+		if (_values != null)
+			return;
+
+		Arrays.sort(_sparse, 0, _size);
+
+		int n = 0;
+
+		if (_dense != null) {
+			for (long count : _dense) {
+				if (count != 0)
+					n++;
+			}
+		}
+
+		for (int i=0; i<_size; i++) {
+			if (i == 0 || _sparse[i] != _sparse[i-1])
+				n++;
+		}
+
+		double[] values = new double[n];
+		long[] counts = new long[n];
+
+		n = 0;
+
+		int d = 0;
+		int s = 0;
+		int length = _dense == null ? 0 : _dense.length;
+
+		while (d < length || s < _size) {
+
+			if (d < length && _dense[d] == 0) {
+				d++;
+				continue;
+			}
+
+			double value;
+			long count;
+
+			if (s == _size || (d < length && _offset + d <= _sparse[s])) {
+				value = _offset + d;
+				count = _dense[d++];
+			} else {
+				value = _sparse[s];
+				count = 0;
+				while (s < _size && _sparse[s] == value) {
+					s++;
+					count++;
+				}
+			}
+
+			if (n > 0 && values[n-1] == value) {
+				counts[n-1] += count;
+			} else {
+				values[n] = value;
+				counts[n++] = count;
+			}
+
+		}
+
+		_values = Arrays.copyOf(values, n);
+		_counts = Arrays.copyOf(counts, n);
+
+	}
+
+	/**Returns the number of values.*/
+	public long getCount() {
+		return _count;
+	}
+
+	/**Returns the number of distinct values.*/
+	public int getDistinct() {
+		compact();
+		return _values.length;
+	}
+
+	/**Returns the minimum value, or NaN if there are no values.*/
+	public double getMin() {
+		compact();
+		return _count == 0 ? Double.NaN : _values[0];
+	}
+
+	/**Returns the maximum value, or NaN if there are no values.*/
+	public double getMax() {
+		compact();
+		return _count == 0 ? Double.NaN : _values[_values.length-1];
+	}
+
+	/*The value of the given rank (0 to count-1) in ascending order*/
+	private double rank(long rank) {
+
+		compact();
+
+		long cumulative = 0;
+
+		for (int v=0; v<_values.length; v++) {
+			cumulative += _counts[v];
+			if (rank < cumulative)
+				return _values[v];
+		}
+
+		return Double.NaN;
+	}
+
+	/**Returns the median (the upper median for an even number of values), or NaN if there are no values.*/
+	public double getMedian() {
+		return rank(_count/2);
+	}
+
+	/**Returns the nearest rank percentile (0 to 100), or NaN if there are no values.*/
+	public double getPercentile(double percentile) {
+
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("The percentile must be between 0 and 100");
+
+		return rank(Math.min(_count-1, (long)Math.floor(percentile*_count/100)));
+	}
+
+	/**Returns the most frequent value, the smallest one in case of a tie, or NaN if there are no values.*/
+	public double getMode() {
+
+		compact();
+
+		double mode = Double.NaN;
+		long max = 0;
+
+		for (int v=0; v<_values.length; v++) {
+			if (_counts[v] > max) {
+				max = _counts[v];
+				mode = _values[v];
+			}
+		}
+
+		return mode;
+	}
+
+	/**Returns the number of occurrences of the mode.*/
+	public long getModeCount() {
+
+		compact();
+
+		long max = 0;
+
+		for (long count : _counts)
+			max = Math.max(max, count);
+
+		return max;
+	}
+
+	/**Returns the Shannon entropy of the values, in bits, or NaN if there are no values.*/
+	public double getEntropy() {
+
+		compact();
+
+		if (_count == 0)
+			return Double.NaN;
+
+		double entropy = 0.0;
+
+		for (long count : _counts) {
+			double p = (double)count / _count;
+			entropy -= p*Math.log(p);
+		}
+
+		return entropy/Math.log(2);
+	}
+
+	/**Encodes the histogram as a string: value:count for the distinct values.*/
+	public String encode() {
+
+		compact();
+
+		StringBuilder builder = new StringBuilder();
+
+		for (int v=0; v<_values.length; v++) {
+			if (v > 0)
+				builder.append(' ');
+			builder.append(_values[v]).append(':').append(_counts[v]);
+		}
+
+		return builder.toString();
+	}
+
+	/**Decodes a histogram encoded with encode().*/
+	public static PixelHistogram decode(String string) {
+
+		PixelHistogram histogram = new PixelHistogram();
+
+		if (string.trim().isEmpty())
+			return histogram;
+
+		for (String token : string.trim().split(" ")) {
+			int idx = token.indexOf(':');
+			histogram.add(Double.parseDouble(token.substring(0, idx)), Long.parseLong(token.substring(idx+1)));
+		}
+
+		return histogram;
+	}
+
+	/**Writes the histogram in binary form: number of distinct values and value, count of each one.*/
+	public void write(DataOutput out) throws IOException {
+
+		compact();
+
+		out.writeInt(_values.length);
+
+		for (int v=0; v<_values.length; v++) {
+			out.writeDouble(_values[v]);
+			out.writeLong(_counts[v]);
+		}
+
+	}
+
+	/**Reads a histogram written with write().*/
+	public static PixelHistogram read(DataInput in) throws IOException {
+
+		PixelHistogram histogram = new PixelHistogram();
+
+		int values = in.readInt();
+
+		for (int v=0; v<values; v++) {
+			double value = in.readDouble();
+			histogram.add(value, in.readLong());
+		}
+
+		return histogram;
+	}
+
+}
@@ -0,0 +1,276 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A class that converts a label raster into polygons by tracing the boundaries between pixels.<br><br>
+ * Each 4-connected region of equal label becomes one polygon, with its shell and holes built directly from the pixel edges.
+ * Only the vertices where the boundary changes direction are kept, so collinear vertices never appear in the output.<br>
+ * The result is topologically equal to the union of the pixel squares of each label (i.e. buffer(0) of the squares),
+ * with shells in clockwise and holes in counterclockwise order.<br><br>
+ * Labels are given in row-major order; negative labels are treated as background.
+ * @author Rodrigo Ferreira
+ */
+public class Polygonizer {
+
+	private static final int EAST = 0;
+	private static final int SOUTH = 1;
+	private static final int WEST = 2;
+	private static final int NORTH = 3;
+
+	private static final int[] DX = {1, 0, -1, 0};
+	private static final int[] DY = {0, 1, 0, -1};
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	private int _width;
+	private int _height;
+	private double[] _geoBox;
+
+	/*Per-call work arrays*/
+	private int[] _components;
+
+	public Polygonizer(int width, int height, double[] geoBox) {
+		_width = width;
+		_height = height;
+		_geoBox = geoBox;
+	}
+
+	/**
+	 * Computes the polygons of every label in the raster.
+	 * @param labels row-major label raster with width*height elements
+	 * @return a map from label to the polygons (one per 4-connected region) of that label
+	 */
+	public Map<Integer, List<Polygon>> polygonize(int[] labels) {
+
+		if (labels.length != _width*_height)
+			throw new IllegalArgumentException("Label raster size doesn't match the polygonizer dimensions");
+
+		Map<Integer, List<Polygon>> result = new HashMap<Integer, List<Polygon>>();
+
+		int count = labelComponents(labels);
+
+		if (count == 0)
+			return result;
+
+		/*Rings of each component; the first ring traced for a component is always its shell*/
+		List<List<LinearRing>> rings = new ArrayList<List<LinearRing>>(count);
+		int[] componentLabel = new int[count];
+
+		/*Only the north side of the pixels must be flagged, every ring has at least one eastward edge*/
+		boolean[] visited = new boolean[labels.length];
+
+		for (int y=0; y<_height; y++) {
+			for (int x=0; x<_width; x++) {
+
+				int idx = y*_width + x;
+				int c = _components[idx];
+
+				if (c < 0 || visited[idx])
+					continue;
+
+				if (y > 0 && _components[idx-_width] == c)
+					continue;
+
+				if (c == rings.size()) {
+					rings.add(new ArrayList<LinearRing>());
+					componentLabel[c] = labels[idx];
+				}
+
+				rings.get(c).add(traceRing(x, y, c, visited));
+
+			}
+		}
+
+		for (int c=0; c<count; c++) {
+
+			List<LinearRing> list = rings.get(c);
+
+			LinearRing shell = list.get(0);
+			LinearRing[] holes = new LinearRing[list.size()-1];
+
+			for (int k=1; k<list.size(); k++)
+				holes[k-1] = list.get(k);
+
+			Polygon poly = _factory.createPolygon(shell, holes);
+
+			List<Polygon> polys = result.get(componentLabel[c]);
+
+			if (polys == null) {
+				polys = new ArrayList<Polygon>();
+				result.put(componentLabel[c], polys);
+			}
+
+			polys.add(poly);
+		}
+
+		_components = null;
+
+		return result;
+	}
+
+	/**
+	 * Assigns a component id to every pixel, numbering the 4-connected regions in raster order.
+	 * @return the number of components
+	 */
+	private int labelComponents(int[] labels) {
+
+		_components = new int[labels.length];
+
+		for (int i=0; i<_components.length; i++)
+			_components[i] = -1;
+
+		int[] stack = new int[labels.length];
+		int count = 0;
+
+		for (int i=0; i<labels.length; i++) {
+
+			if (labels[i] < 0 || _components[i] != -1)
+				continue;
+
+			int label = labels[i];
+			int top = 0;
+
+			stack[top++] = i;
+			_components[i] = count;
+
+			while (top > 0) {
+
+				int idx = stack[--top];
+				int x = idx % _width;
+				int y = idx / _width;
+
+				if (x > 0 && _components[idx-1] == -1 && labels[idx-1] == label) {
+					_components[idx-1] = count;
+					stack[top++] = idx-1;
+				}
+
+				if (x < _width-1 && _components[idx+1] == -1 && labels[idx+1] == label) {
+					_components[idx+1] = count;
+					stack[top++] = idx+1;
+				}
+
+				if (y > 0 && _components[idx-_width] == -1 && labels[idx-_width] == label) {
+					_components[idx-_width] = count;
+					stack[top++] = idx-_width;
+				}
+
+				if (y < _height-1 && _components[idx+_width] == -1 && labels[idx+_width] == label) {
+					_components[idx+_width] = count;
+					stack[top++] = idx+_width;
+				}
+
+			}
+
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Follows the pixel edges of a component keeping it on the right-hand side (image coordinates).<br>
+	 * The trace starts at the north-west corner of the given pixel, whose north side must be a boundary.
+	 * When two pixels of the component touch only diagonally the trace turns away from the current pixel,
+	 * so that a ring never passes through the same vertex twice.
+	 */
+	private LinearRing traceRing(int startX, int startY, int c, boolean[] visited) {
+
+		List<Coordinate> coords = new ArrayList<Coordinate>();
+
+		coords.add(vertex(startX, startY));
+
+		int vx = startX;
+		int vy = startY;
+		int dir = EAST;
+
+		while (true) {
+
+			if (dir == EAST)
+				visited[vy*_width + vx] = true;
+
+			vx += DX[dir];
+			vy += DY[dir];
+
+			int next = nextDirection(vx, vy, dir, c);
+
+			if (vx == startX && vy == startY && next == EAST)
+				break;
+
+			if (next != dir)
+				coords.add(vertex(vx, vy));
+
+			dir = next;
+		}
+
+		coords.add(vertex(startX, startY));
+
+		return _factory.createLinearRing(coords.toArray(new Coordinate[coords.size()]));
+	}
+
+	private int nextDirection(int vx, int vy, int dir, int c) {
+
+		boolean aheadLeft, aheadRight;
+
+		switch (dir) {
+			case EAST:
+				aheadLeft = inComponent(vx, vy-1, c);
+				aheadRight = inComponent(vx, vy, c);
+				break;
+			case SOUTH:
+				aheadLeft = inComponent(vx, vy, c);
+				aheadRight = inComponent(vx-1, vy, c);
+				break;
+			case WEST:
+				aheadLeft = inComponent(vx-1, vy, c);
+				aheadRight = inComponent(vx-1, vy-1, c);
+				break;
+			default:
+				aheadLeft = inComponent(vx-1, vy-1, c);
+				aheadRight = inComponent(vx, vy-1, c);
+				break;
+		}
+
+		if (aheadLeft)
+			return (dir+3) % 4;
+		else if (aheadRight)
+			return dir;
+		else
+			return (dir+1) % 4;
+
+	}
+
+	private boolean inComponent(int x, int y, int c) {
+		if (x < 0 || y < 0 || x >= _width || y >= _height)
+			return false;
+		return _components[y*_width + x] == c;
+	}
+
+	/*Same arithmetic used when building pixel squares, so that vertices are bitwise identical*/
+	private Coordinate vertex(int vx, int vy) {
+		return new Coordinate(Image.imgToGeoX(vx - 0.5, _width, _geoBox), Image.imgToGeoY(vy - 0.5, _height, _geoBox));
+	}
+
+}
@@ -0,0 +1,398 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A binary raster payload: a window of one or more bands, with an optional object mask, meant to be carried in a
+ * Pig bytearray instead of the "type width height v0 v1 ..." text form.<br><br>
+ * Layout (big endian):<br>
+ * - header: the magic "IIRB", version, data type (java.awt.image.DataBuffer.TYPE_*), flags, a reserved byte, width, height and bands;<br>
+ * - body: the mask plane (one bit per pixel, row-major) when FLAG_MASK is set, followed by the bands one after the other.<br>
+ * The body is deflated when FLAG_DEFLATE is set.<br><br>
+ * An uncompressed block is read in place: the samples are accessed straight from the byte array and getView() returns
+ * typed buffers over it, without copying.
+ * @author Rodrigo Ferreira
+ */
+public class RasterBlock {
+
+	public static final int FLAG_MASK = 1;
+	public static final int FLAG_DEFLATE = 2;
+
+	private static final byte[] MAGIC = {'I', 'I', 'R', 'B'};
+	private static final int VERSION = 1;
+	private static final int HEADER = 20;
+
+	private final int _type;
+	private final int _width;
+	private final int _height;
+	private final int _bands;
+
+	private final boolean[] _mask;
+
+	/*The samples, positioned at the first sample of the first band*/
+	private final ByteBuffer _data;
+
+	private RasterBlock(int type, int width, int height, int bands, boolean[] mask, ByteBuffer data) {
+		_type = type;
+		_width = width;
+		_height = height;
+		_bands = bands;
+		_mask = mask;
+		_data = data;
+	}
+
+	/**Returns true if the bytes start with the block header.*/
+	public static boolean isBlock(byte[] bytes) {
+
+		if (bytes == null || bytes.length < HEADER)
+			return false;
+
+		for (int i=0; i<MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	/**Reads a block; the bytes must not be changed while the block is in use.*/
+	public static RasterBlock parse(byte[] bytes) {
+
+		if (!isBlock(bytes))
+			throw new IllegalArgumentException("Not a raster block");
+
+		ByteBuffer header = ByteBuffer.wrap(bytes);
+
+		int version = header.get(4);
+
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unsupported raster block version: " + version);
+
+		int type = header.get(5);
+		int flags = header.get(6);
+		int width = header.getInt(8);
+		int height = header.getInt(12);
+		int bands = header.getInt(16);
+
+		if (!isSupported(type))
+			throw new IllegalArgumentException("Unsupported data type: " + type);
+
+		if (width < 0 || height < 0 || bands < 0)
+			throw new IllegalArgumentException("Invalid raster block size: " + width + "x" + height + "x" + bands);
+
+		long declared = ((flags & FLAG_MASK) != 0 ? maskBytes((long)width*height) : 0) + (long)width*height*bands*(DataBuffer.getDataTypeSize(type)/8);
+
+		ByteBuffer body;
+
+		if ((flags & FLAG_DEFLATE) != 0) {
+
+			/*Deflate can't compress more than about 1032:1*/
+			if (declared > Integer.MAX_VALUE || declared > 1032L*(bytes.length-HEADER) + 64)
+				throw new IllegalArgumentException("Invalid raster block size: " + declared + " bytes from " + (bytes.length-HEADER) + " deflated bytes");
+
+			int size = (int)declared;
+
+			byte[] inflated = new byte[size];
+
+			Inflater inflater = new Inflater();
+			inflater.setInput(bytes, HEADER, bytes.length-HEADER);
+
+			try {
+				int n = 0;
+				while (n < size) {
+					int count = inflater.inflate(inflated, n, size-n);
+					if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+						throw new IllegalArgumentException("Truncated raster block: " + n + " of " + size + " bytes");
+					n += count;
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalArgumentException("Corrupted raster block", e);
+			} finally {
+				inflater.end();
+			}
+
+			body = ByteBuffer.wrap(inflated);
+
+		} else {
+
+			if (declared > bytes.length-HEADER)
+				throw new IllegalArgumentException("Truncated raster block: " + (bytes.length-HEADER) + " of " + declared + " bytes");
+
+			body = ByteBuffer.wrap(bytes, HEADER, bytes.length-HEADER).slice();
+
+		}
+
+		boolean[] mask = null;
+
+		if ((flags & FLAG_MASK) != 0) {
+
+			mask = new boolean[width*height];
+
+			for (int i=0; i<mask.length; i++)
+				mask[i] = (body.get(i >> 3) & (0x80 >> (i & 7))) != 0;
+
+			body.position(maskBytes(mask.length));
+			body = body.slice();
+
+		}
+
+		return new RasterBlock(type, width, height, bands, mask, body);
+	}
+
+	private static int maskBytes(int pixels) {
+		return (pixels + 7) >> 3;
+	}
+
+	private static long maskBytes(long pixels) {
+		return (pixels + 7) >> 3;
+	}
+
+	private static boolean isSupported(int type) {
+		return type == DataBuffer.TYPE_BYTE || type == DataBuffer.TYPE_USHORT || type == DataBuffer.TYPE_SHORT
+				|| type == DataBuffer.TYPE_INT || type == DataBuffer.TYPE_FLOAT || type == DataBuffer.TYPE_DOUBLE;
+	}
+
+	/**
+	 * Encodes a window of a raster.
+	 * @param bands the bands to be encoded; null for all the bands
+	 * @param mask the pixels of the window that belong to the object, in row-major order; null for no mask
+	 * @param type the data type of the samples, one of DataBuffer.TYPE_*; the samples are cast to it
+	 */
+	public static byte[] encode(Raster raster, int x0, int y0, int width, int height, int[] bands, boolean[] mask, int type, boolean deflate) {
+
+		if (!isSupported(type))
+			throw new IllegalArgumentException("Unsupported data type: " + type);
+
+		if (bands == null) {
+			bands = new int[raster.getNumBands()];
+			for (int b=0; b<bands.length; b++)
+				bands[b] = b;
+		}
+
+		int pixels = width*height;
+
+		ByteBuffer body = ByteBuffer.allocate((mask != null ? maskBytes(pixels) : 0) + pixels*bands.length*DataBuffer.getDataTypeSize(type)/8);
+
+		if (mask != null) {
+
+			byte[] bits = new byte[maskBytes(pixels)];
+
+			for (int i=0; i<pixels; i++) {
+				if (mask[i])
+					bits[i >> 3] |= 0x80 >> (i & 7);
+			}
+
+			body.put(bits);
+
+		}
+
+		double[] row = new double[width];
+
+		for (int band : bands) {
+			for (int y=0; y<height; y++) {
+
+				raster.getSamples(x0, y0+y, width, 1, band, row);
+
+				for (int x=0; x<width; x++) {
+					switch (type) {
+						case DataBuffer.TYPE_BYTE:
+							body.put((byte)row[x]);
+							break;
+						case DataBuffer.TYPE_USHORT:
+						case DataBuffer.TYPE_SHORT:
+							body.putShort((short)row[x]);
+							break;
+						case DataBuffer.TYPE_INT:
+							body.putInt((int)row[x]);
+							break;
+						case DataBuffer.TYPE_FLOAT:
+							body.putFloat((float)row[x]);
+							break;
+						default:
+							body.putDouble(row[x]);
+					}
+				}
+
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER + body.capacity());
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.put(MAGIC);
+		header.put((byte)VERSION);
+		header.put((byte)type);
+		header.put((byte)((mask != null ? FLAG_MASK : 0) | (deflate ? FLAG_DEFLATE : 0)));
+		header.put((byte)0);
+		header.putInt(width);
+		header.putInt(height);
+		header.putInt(bands.length);
+
+		out.write(header.array(), 0, HEADER);
+
+		if (deflate) {
+
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			deflater.setInput(body.array());
+			deflater.finish();
+
+			byte[] buffer = new byte[8192];
+
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				out.write(buffer, 0, n);
+			}
+
+			deflater.end();
+
+		} else {
+
+			out.write(body.array(), 0, body.capacity());
+
+		}
+
+		return out.toByteArray();
+	}
+
+	/**Returns the data type of the samples, one of DataBuffer.TYPE_*.*/
+	public int getType() {
+		return _type;
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+
+	public int getBands() {
+		return _bands;
+	}
+
+	/**Returns the object mask in row-major order, or null if the block has no mask.*/
+	public boolean[] getMask() {
+		return _mask;
+	}
+
+	/**Returns the number of pixels that belong to the object.*/
+	public int getCount() {
+
+		if (_mask == null)
+			return _width*_height;
+
+		int count = 0;
+		for (boolean b : _mask) {
+			if (b)
+				count++;
+		}
+
+		return count;
+	}
+
+	/**Returns a sample; the index is in row-major order.*/
+	public double getSample(int band, int index) {
+
+		int i = band*_width*_height + index;
+
+		switch (_type) {
+			case DataBuffer.TYPE_BYTE:
+				return _data.get(i) & 0xff;
+			case DataBuffer.TYPE_USHORT:
+				return _data.getShort(2*i) & 0xffff;
+			case DataBuffer.TYPE_SHORT:
+				return _data.getShort(2*i);
+			case DataBuffer.TYPE_INT:
+				return _data.getInt(4*i);
+			case DataBuffer.TYPE_FLOAT:
+				return _data.getFloat(4*i);
+			default:
+				return _data.getDouble(8*i);
+		}
+
+	}
+
+	/**Copies the samples of a band in row-major order.*/
+	public double[] getSamples(int band, double[] samples) {
+
+		int pixels = _width*_height;
+
+		if (samples == null)
+			samples = new double[pixels];
+
+		for (int i=0; i<pixels; i++)
+			samples[i] = getSample(band, i);
+
+		return samples;
+	}
+
+	/**Copies the samples of a band that belong to the object.*/
+	public double[] getObjectSamples(int band) {
+
+		if (_mask == null)
+			return getSamples(band, null);
+
+		double[] samples = new double[getCount()];
+
+		int n = 0;
+		for (int i=0; i<_mask.length; i++) {
+			if (_mask[i])
+				samples[n++] = getSample(band, i);
+		}
+
+		return samples;
+	}
+
+	/**
+	 * Returns a read-only view of the samples of a band, without copying: a ByteBuffer, ShortBuffer, IntBuffer,
+	 * FloatBuffer or DoubleBuffer depending on the data type. Unsigned types must be masked by the caller.
+	 */
+	public Buffer getView(int band) {
+
+		int pixels = _width*_height;
+		int size = DataBuffer.getDataTypeSize(_type)/8;
+
+		ByteBuffer bytes = _data.duplicate();
+		bytes.position(band*pixels*size);
+		bytes.limit((band+1)*pixels*size);
+		bytes = bytes.slice().asReadOnlyBuffer();
+
+		switch (_type) {
+			case DataBuffer.TYPE_BYTE:
+				return bytes;
+			case DataBuffer.TYPE_USHORT:
+			case DataBuffer.TYPE_SHORT:
+				return bytes.asShortBuffer();
+			case DataBuffer.TYPE_INT:
+				return bytes.asIntBuffer();
+			case DataBuffer.TYPE_FLOAT:
+				return bytes.asFloatBuffer();
+			default:
+				return bytes.asDoubleBuffer();
+		}
+
+	}
+
+}
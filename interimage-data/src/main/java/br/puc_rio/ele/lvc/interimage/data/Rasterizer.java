@@ -0,0 +1,325 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.util.List;
+
+import com.vividsolutions.jts.algorithm.RobustDeterminant;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.util.LinearComponentExtracter;
+
+/**
+ * A class that rasterizes polygons with a scanline fill, in O(edges + pixels).<br><br>
+ * A pixel is filled when its center is covered by the geometry, i.e. exactly when a prepared geometry <code>covers</code>
+ * the center point: every row is scanned with the same even-odd crossing rule and the same robust orientation test that JTS
+ * uses to locate points in areas, and centers lying on the boundary are filled.<br><br>
+ * Pixel centers are computed as <code>originX + x*resX + resX/2</code> and <code>originY + y*resY + resY/2</code>,
+ * with columns growing eastward (positive resX).
+ * @author Rodrigo Ferreira
+ */
+public class Rasterizer {
+
+	private static final int OUTSIDE = 0;
+	private static final int CROSSING = 1;
+	private static final int BOUNDARY = 2;
+
+	private int _width;
+	private int _height;
+	private double _originX;
+	private double _originY;
+	private double _resX;
+	private double _resY;
+
+	/*Per-call work arrays*/
+	private double[] _segments;
+	private int[] _bucketStart;
+	private int[] _bucket;
+	private int[] _crossings;
+	private boolean[] _boundary;
+	private boolean[] _row;
+
+	public Rasterizer(int width, int height, double originX, double originY, double resX, double resY) {
+		_width = width;
+		_height = height;
+		_originX = originX;
+		_originY = originY;
+		_resX = resX;
+		_resY = resY;
+	}
+
+	public double centerX(int x) {
+		return _originX + (x*_resX) + (_resX/2);
+	}
+
+	public double centerY(int y) {
+		return _originY + (y*_resY) + (_resY/2);
+	}
+
+	/**
+	 * Sets the pixels covered by the geometry in a row-major mask with width*height elements.
+	 * @return the number of covered pixels
+	 */
+	public int rasterize(Geometry geometry, boolean[] mask) {
+
+		if (mask.length != _width*_height)
+			throw new IllegalArgumentException("Mask size doesn't match the rasterizer dimensions");
+
+		prepare(geometry);
+
+		int count = 0;
+
+		for (int y=0; y<_height; y++) {
+
+			scanRow(y);
+
+			for (int x=0; x<_width; x++) {
+				if (_row[x]) {
+					mask[y*_width + x] = true;
+					count++;
+				}
+			}
+
+		}
+
+		release();
+
+		return count;
+	}
+
+	/**
+	 * Burns a value into the pixels covered by the geometry, inside a larger row-major raster.
+	 * @param offset index in the raster of the first pixel of this rasterizer
+	 * @param stride number of elements of a raster row
+	 * @return the number of covered pixels
+	 */
+	public int rasterize(Geometry geometry, int[] raster, int offset, int stride, int value) {
+
+		prepare(geometry);
+
+		int count = 0;
+
+		for (int y=0; y<_height; y++) {
+
+			scanRow(y);
+
+			int idx = offset + y*stride;
+
+			for (int x=0; x<_width; x++) {
+				if (_row[x]) {
+					raster[idx + x] = value;
+					count++;
+				}
+			}
+
+		}
+
+		release();
+
+		return count;
+	}
+
+	/*Collects the segments of all rings and buckets them by the rows they may reach*/
+	@SuppressWarnings("unchecked")
+	private void prepare(Geometry geometry) {
+
+		List<LineString> lines = LinearComponentExtracter.getLines(geometry);
+
+		int size = 0;
+
+		for (LineString line : lines)
+			size += Math.max(line.getNumPoints()-1, 0);
+
+		_segments = new double[4*size];
+
+		int s = 0;
+
+		for (LineString line : lines) {
+			Coordinate[] coords = line.getCoordinates();
+			for (int i=1; i<coords.length; i++) {
+				_segments[4*s] = coords[i-1].x;
+				_segments[4*s+1] = coords[i-1].y;
+				_segments[4*s+2] = coords[i].x;
+				_segments[4*s+3] = coords[i].y;
+				s++;
+			}
+		}
+
+		int[] first = new int[size];
+		int[] last = new int[size];
+
+		_bucketStart = new int[_height+1];
+
+		for (s=0; s<size; s++) {
+
+			double r1 = rowOf(_segments[4*s+1]);
+			double r2 = rowOf(_segments[4*s+3]);
+
+			/*One row of margin, the exact tests are done per row*/
+			first[s] = (int)Math.max(Math.floor(Math.min(r1, r2)) - 1, 0);
+			last[s] = (int)Math.min(Math.ceil(Math.max(r1, r2)) + 1, _height-1);
+
+			for (int y=first[s]; y<=last[s]; y++)
+				_bucketStart[y+1]++;
+
+		}
+
+		for (int y=0; y<_height; y++)
+			_bucketStart[y+1] += _bucketStart[y];
+
+		_bucket = new int[_bucketStart[_height]];
+
+		int[] fill = new int[_height];
+
+		for (s=0; s<size; s++) {
+			for (int y=first[s]; y<=last[s]; y++) {
+				_bucket[_bucketStart[y] + fill[y]] = s;
+				fill[y]++;
+			}
+		}
+
+		_crossings = new int[_width+1];
+		_boundary = new boolean[_width];
+		_row = new boolean[_width];
+
+	}
+
+	private void release() {
+		_segments = null;
+		_bucketStart = null;
+		_bucket = null;
+		_crossings = null;
+		_boundary = null;
+		_row = null;
+	}
+
+	private double rowOf(double geoY) {
+		return (geoY - _originY) / _resY - 0.5;
+	}
+
+	private double columnOf(double geoX) {
+		return (geoX - _originX) / _resX - 0.5;
+	}
+
+	/*Approximate column, clamped to [0,width]; the exact position is found by walking from it*/
+	private int guess(double geoX) {
+		double c = Math.floor(columnOf(geoX));
+		if (c != c)
+			return 0;
+		return (int)Math.max(Math.min(c, _width), 0);
+	}
+
+	private void scanRow(int y) {
+
+		double qy = centerY(y);
+
+		for (int x=0; x<=_width; x++)
+			_crossings[x] = 0;
+
+		for (int x=0; x<_width; x++)
+			_boundary[x] = false;
+
+		for (int b=_bucketStart[y]; b<_bucketStart[y+1]; b++) {
+
+			int s = _bucket[b];
+
+			double x1 = _segments[4*s];
+			double y1 = _segments[4*s+1];
+			double x2 = _segments[4*s+2];
+			double y2 = _segments[4*s+3];
+
+			if (y2 == qy) {
+				/*Center equal to the segment end point*/
+				int c = guess(x2);
+				for (int x=Math.max(c-1, 0); x<=Math.min(c+1, _width-1); x++) {
+					if (centerX(x) == x2)
+						_boundary[x] = true;
+				}
+			}
+
+			if ((y1 == qy) && (y2 == qy)) {
+
+				/*Horizontal segment on the row*/
+				double minX = Math.min(x1, x2);
+				double maxX = Math.max(x1, x2);
+
+				int x = guess(minX);
+
+				while (x > 0 && centerX(x-1) >= minX)
+					x--;
+
+				while (x < _width && centerX(x) < minX)
+					x++;
+
+				while (x < _width && centerX(x) <= maxX) {
+					_boundary[x] = true;
+					x++;
+				}
+
+			} else if (((y1 > qy) && (y2 <= qy)) || ((y2 > qy) && (y1 <= qy))) {
+
+				/*The crossing test is monotone along the row: centers left of the crossing count it*/
+				double xInt = x1 + (qy - y1) * (x2 - x1) / (y2 - y1);
+
+				int x = guess(xInt);
+
+				while (x > 0 && classify(x-1, qy, x1, y1, x2, y2) != CROSSING)
+					x--;
+
+				while (x < _width && classify(x, qy, x1, y1, x2, y2) == CROSSING)
+					x++;
+
+				_crossings[0]++;
+				_crossings[x]--;
+
+				while (x < _width && classify(x, qy, x1, y1, x2, y2) == BOUNDARY) {
+					_boundary[x] = true;
+					x++;
+				}
+
+			}
+
+		}
+
+		int count = 0;
+
+		for (int x=0; x<_width; x++) {
+			count += _crossings[x];
+			_row[x] = _boundary[x] || ((count & 1) == 1);
+		}
+
+	}
+
+	/*Same test used by JTS when counting ray crossings for a point (RayCrossingCounter)*/
+	private int classify(int x, double qy, double x1, double y1, double x2, double y2) {
+
+		double qx = centerX(x);
+
+		if (x1 < qx && x2 < qx)
+			return OUTSIDE;
+
+		double sign = RobustDeterminant.signOfDet2x2(x1 - qx, y1 - qy, x2 - qx, y2 - qy);
+
+		if (sign == 0.0)
+			return BOUNDARY;
+
+		if (y2 < y1)
+			sign = -sign;
+
+		return sign > 0.0 ? CROSSING : OUTSIDE;
+	}
+
+}
@@ -0,0 +1,424 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.impl.util.UDFContext;
+
+import br.puc_rio.ele.lvc.interimage.data.imageioimpl.plugins.tiff.TIFFImageReader;
+
+/**
+ * A per-JVM cache of decoded image tiles and of their metadata (.meta files).<br><br>
+ * Tiles are kept in a LRU list bounded by the size of their rasters, so the same tile is decoded only once
+ * even when it is requested by several UDF instances or rule-set passes in the same task.
+ * Tiles can also be prefetched, in which case they are downloaded and decoded by a pool of background threads.<br><br>
+ * The capacity is given in megabytes by the <code>interimage.tilecache.mb</code> property of the job configuration; by default it is a quarter of the maximum heap.
+ * The number of prefetch threads is given by the <code>interimage.tilecache.threads</code> property of the job configuration; by default it is
+ * the number of processors, up to four.<br>
+ * As with the former URL.exists check, a tile or .meta file whose HTTP response is not 200 (OK) is considered missing.<br>
+ * The cached images are shared and must not be modified.
+ * @author Rodrigo Ferreira
+ */
+public class TileCache {
+
+	/**Parsed contents of a .meta file.*/
+	public static class Meta {
+
+		private int _bands;
+		private int _width;
+		private int _height;
+		private double[] _geoBox;
+
+		private Meta(int bands, int width, int height, double[] geoBox) {
+			_bands = bands;
+			_width = width;
+			_height = height;
+			_geoBox = geoBox;
+		}
+
+		public int getBands() {
+			return _bands;
+		}
+
+		public int getWidth() {
+			return _width;
+		}
+
+		public int getHeight() {
+			return _height;
+		}
+
+		/**Returns a copy of the tile geobox [west, south, east, north].*/
+		public double[] getGeoBox() {
+			return _geoBox.clone();
+		}
+
+	}
+
+	public static final String CAPACITY = "interimage.tilecache.mb";
+	public static final String THREADS = "interimage.tilecache.threads";
+
+	private static final int MAX_METAS = 4096;
+	private static final int MAX_THREADS = 4;
+
+	private static TileCache _instance;
+
+	private final long _capacity;
+	private long _size;
+
+	/*A null image or meta means that the tile doesn't exist*/
+	private final LinkedHashMap<String, BufferedImage> _images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+	private final Map<String, FutureTask<BufferedImage>> _pending = new HashMap<String, FutureTask<BufferedImage>>();
+
+	@SuppressWarnings("serial")
+	private final LinkedHashMap<String, Meta> _metas = new LinkedHashMap<String, Meta>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Meta> eldest) {
+			return size() > MAX_METAS;
+		}
+	};
+
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+
+	private ExecutorService _executor;
+
+	public TileCache(long capacity) {
+		_capacity = capacity;
+	}
+
+	/**Returns the cache shared by all the UDFs in this JVM.*/
+	public static synchronized TileCache getInstance() {
+		if (_instance == null)
+			_instance = new TileCache(getDefaultCapacity());
+		return _instance;
+	}
+
+	/*Property set with SET or in the project, read from the job configuration; null in the front end*/
+	private static String getProperty(String name) {
+		Configuration conf = UDFContext.getUDFContext().getJobConf();
+		return conf == null ? null : conf.get(name);
+	}
+
+	/**Returns the capacity in bytes given by the job configuration, or a quarter of the maximum heap.*/
+	public static long getDefaultCapacity() {
+		String mb = getProperty(CAPACITY);
+		if (mb == null)
+			return Runtime.getRuntime().maxMemory() / 4;
+		return Long.parseLong(mb.trim()) * 1024 * 1024;
+	}
+
+	/**Returns the number of prefetch threads given by the job configuration, or the number of processors up to four.*/
+	public static int getDefaultThreads() {
+		String threads = getProperty(THREADS);
+		if (threads == null)
+			return Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+		return Math.max(1, Integer.parseInt(threads.trim()));
+	}
+
+	private static String key(String imageUrl, String image, String tile) {
+		return imageUrl + image + "/" + tile;
+	}
+
+	/**
+	 * Returns the decoded tile of an image, loading it if needed.
+	 * @return the tile, or null if it doesn't exist
+	 */
+	public BufferedImage getImage(String imageUrl, String image, String tile) throws IOException {
+
+		String key = key(imageUrl, image, tile);
+
+		FutureTask<BufferedImage> task = null;
+		boolean owner = false;
+
+		synchronized (this) {
+
+			if (_images.containsKey(key)) {
+				_hits.incrementAndGet();
+				return _images.get(key);
+			}
+
+			task = _pending.get(key);
+
+			if (task == null) {
+				task = createTask(key);
+				_pending.put(key, task);
+				owner = true;
+			} else {
+				/*Already being prefetched*/
+				_hits.incrementAndGet();
+			}
+
+		}
+
+		if (owner)
+			task.run();
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while loading tile " + key, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Caught exception loading tile " + key, e.getCause());
+		}
+
+	}
+
+	/**Starts loading the tile in the background, if it is not yet cached or being loaded.*/
+	public void prefetch(String imageUrl, String image, String tile) {
+
+		String key = key(imageUrl, image, tile);
+
+		synchronized (this) {
+
+			if (_images.containsKey(key) || _pending.containsKey(key))
+				return;
+
+			FutureTask<BufferedImage> task = createTask(key);
+			_pending.put(key, task);
+
+			if (_executor == null) {
+
+				_executor = Executors.newFixedThreadPool(getDefaultThreads(), new ThreadFactory() {
+					private int _count = 0;
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "interimage-tile-prefetch-" + (_count++));
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+			}
+
+			_executor.execute(task);
+
+		}
+
+	}
+
+	/**
+	 * Returns the metadata of a tile of an image, reading its .meta file on the first call.
+	 * @return the metadata, or null if the .meta file doesn't exist
+	 */
+	public Meta getMeta(String imageUrl, String image, String tile) throws IOException {
+
+		String key = key(imageUrl, image, tile);
+
+		synchronized (_metas) {
+			if (_metas.containsKey(key))
+				return _metas.get(key);
+		}
+
+		Meta meta = readMeta(key + ".meta");
+
+		synchronized (_metas) {
+			_metas.put(key, meta);
+		}
+
+		return meta;
+	}
+
+	private FutureTask<BufferedImage> createTask(final String key) {
+		return new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws Exception {
+				try {
+					_misses.incrementAndGet();
+					BufferedImage image = readImage(key + ".tif");
+					put(key, image);
+					return image;
+				} finally {
+					synchronized (TileCache.this) {
+						_pending.remove(key);
+					}
+				}
+			}
+		});
+	}
+
+	private synchronized void put(String key, BufferedImage image) {
+
+		_images.put(key, image);
+		_size += weight(image);
+
+		Iterator<Map.Entry<String, BufferedImage>> it = _images.entrySet().iterator();
+
+		/*The most recent tile is always kept*/
+		while (_size > _capacity && _images.size() > 1) {
+			Map.Entry<String, BufferedImage> eldest = it.next();
+			_size -= weight(eldest.getValue());
+			it.remove();
+			_evictions.incrementAndGet();
+		}
+
+	}
+
+	private static long weight(BufferedImage image) {
+		if (image == null)
+			return 0;
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	/**Opens the URL; returns null if the file doesn't exist or, for HTTP, if the response is not 200 (OK).*/
+	private static InputStream open(String url) throws IOException {
+
+		URLConnection urlConn = new URL(url).openConnection();
+
+		try {
+
+			urlConn.connect();
+
+			if (urlConn instanceof HttpURLConnection) {
+				HttpURLConnection httpConn = (HttpURLConnection)urlConn;
+				if (httpConn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+					httpConn.disconnect();
+					return null;
+				}
+			}
+
+			return urlConn.getInputStream();
+
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+
+	}
+
+	private static BufferedImage readImage(String url) throws Exception {
+
+		InputStream input = open(url);
+
+		if (input == null)
+			return null;
+
+		InputStream stream = new BufferedInputStream(input);
+
+		try {
+
+			ImageInputStream in = ImageIO.createImageInputStream(stream);
+
+			if (in == null)
+				throw new Exception("Could not create input stream: " + url);
+
+			TIFFImageReader reader = new TIFFImageReader(null);
+			reader.setInput(in);
+
+			BufferedImage buff = reader.read(0, reader.getDefaultReadParam());
+
+			if (buff == null)
+				throw new Exception("Could not instantiate tile image: " + url);
+
+			reader.dispose();
+			in.close();
+
+			return buff;
+
+		} finally {
+			stream.close();
+		}
+
+	}
+
+	private static Meta readMeta(String url) throws IOException {
+
+		InputStream input = open(url);
+
+		if (input == null)
+			return null;
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+
+		int bands = 0;
+		int width = 0;
+		int height = 0;
+		double[] geoBox = new double[4];
+
+		try {
+
+			String line;
+			int index = 0;
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					if (index==0)
+						bands = Integer.parseInt(line.trim());
+					else if (index==1)
+						width = Integer.parseInt(line.trim());
+					else if (index==2)
+						height = Integer.parseInt(line.trim());
+					else if (index>=3 && index<=6)
+						geoBox[index-3] = Double.parseDouble(line);
+					index++;
+				}
+			}
+
+		} finally {
+			reader.close();
+		}
+
+		return new Meta(bands, width, height, geoBox);
+	}
+
+	public long getHits() {
+		return _hits.get();
+	}
+
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	public long getEvictions() {
+		return _evictions.get();
+	}
+
+	/**Returns the approximate number of bytes held by the cached rasters.*/
+	public synchronized long getSize() {
+		return _size;
+	}
+
+	@Override
+	public String toString() {
+		return "TileCache [hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", size=" + getSize() + "]";
+	}
+
+}
@@ -0,0 +1,143 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.Raster;
+
+/**
+ * Per-band statistics of many objects given by a label raster.<br><br>
+ * The raster is swept once, row by row, and the count, sum, sum of squares, minimum and maximum of every band are
+ * accumulated for the label of each pixel, in arrays indexed by label. Label 0 is the background.
+ * @author Rodrigo Ferreira
+ */
+public class ZonalStatistics {
+
+	private final int _labels;
+	private final int _bands;
+	private final int[] _count;
+	private final double[] _sum;
+	private final double[] _squared;
+	private final double[] _min;
+	private final double[] _max;
+
+	/**Constructor that takes the number of labels (1 to labels) and of bands.*/
+	public ZonalStatistics(int labels, int bands) {
+
+		_labels = labels;
+		_bands = bands;
+		_count = new int[labels+1];
+		_sum = new double[(labels+1)*bands];
+		_squared = new double[(labels+1)*bands];
+		_min = new double[(labels+1)*bands];
+		_max = new double[(labels+1)*bands];
+
+		for (int i=0; i<_min.length; i++) {
+			_min[i] = Double.MAX_VALUE;
+			_max[i] = -Double.MAX_VALUE;
+		}
+
+	}
+
+	/**
+	 * Accumulates the pixels of the raster.
+	 * @param labels row-major label of each pixel of the raster
+	 */
+	public void accumulate(Raster raster, int[] labels) {
+
+		int width = raster.getWidth();
+		int height = raster.getHeight();
+
+		if (raster.getNumBands() != _bands)
+			throw new IllegalArgumentException("Raster bands don't match the statistics bands");
+
+		if (labels.length != width*height)
+			throw new IllegalArgumentException("Labels size doesn't match the raster dimensions");
+
+		double[] row = new double[width];
+
+		for (int y=0; y<height; y++) {
+
+			int offset = y*width;
+
+			for (int x=0; x<width; x++) {
+				if (labels[offset + x] > _labels)
+					throw new IllegalArgumentException("Label out of range: " + labels[offset + x]);
+				_count[labels[offset + x]]++;
+			}
+
+			for (int b=0; b<_bands; b++) {
+
+				raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, b, row);
+
+				for (int x=0; x<width; x++) {
+
+					int label = labels[offset + x];
+
+					if (label == 0)
+						continue;
+
+					int k = label*_bands + b;
+					double v = row[x];
+
+					_sum[k] += v;
+					_squared[k] += v*v;
+					if (v < _min[k])
+						_min[k] = v;
+					if (v > _max[k])
+						_max[k] = v;
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**Adds the statistics of a label to the statistics of an object.*/
+	public void addTo(int label, BandStatistics stats) {
+
+		if (stats.getBands() != _bands)
+			throw new IllegalArgumentException("The statistics have different numbers of bands");
+
+		stats.add(_count[label], _sum, _squared, _min, _max, label*_bands);
+
+	}
+
+	public int getBands() {
+		return _bands;
+	}
+
+	public int getCount(int label) {
+		return _count[label];
+	}
+
+	public double getSum(int label, int band) {
+		return _sum[label*_bands + band];
+	}
+
+	public double getSquared(int label, int band) {
+		return _squared[label*_bands + band];
+	}
+
+	public double getMin(int label, int band) {
+		return _min[label*_bands + band];
+	}
+
+	public double getMax(int label, int band) {
+		return _max[label*_bands + band];
+	}
+
+}
@@ -18,640 +18,314 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.pig.Algebraic;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import br.puc_rio.ele.lvc.interimage.data.PartialFeature;
+
 /**
  * A class that combines partial values of spectral features.<br>
- * This class is not meant to be used alone. It should be used after SpectralFeatures.
+ * This class is not meant to be used alone. It should be used after SpectralFeatures, as the II_SpectralFeatures macro
+ * does.<br><br>
+ * The partials are binary PartialFeature records (maps written by older versions are also understood) and are merged
+ * per object (iiuuid) and feature. The partials of the objects of a group are merged in the combiner too.<br>
+ * Example:<br>
+ * 		B = group A by properties#'iiuuid';<br>
+ * 		C = foreach B generate FLATTEN(CombineSpectralFeatures(A));
  * 
  * @author Rodrigo Ferreira
  */
 
-public class CombineSpectralFeatures extends EvalFunc<DataBag> {
+public class CombineSpectralFeatures extends EvalFunc<DataBag> implements Algebraic {
 
 	//private final GeometryParser _geometryParser = new GeometryParser();
 	
+	/*Reads the partials of an object*/
+	@SuppressWarnings("unchecked")
+	private static Map<String, PartialFeature> partials(Object features) throws IOException {
+		
+		Map<String, PartialFeature> partials = new HashMap<String, PartialFeature>();
+		
+		if (features == null)
+			return partials;
+		
+		for (Map.Entry<String, Object> entry : DataType.toMap(features).entrySet()) {
+			
+			Object value = entry.getValue();
+			
+			if (value instanceof DataByteArray) {
+				partials.put(entry.getKey(), PartialFeature.decode(((DataByteArray)value).get()));
+			} else {
+				partials.put(entry.getKey(), PartialFeature.fromParams((Map<String, Object>)value));
+			}
+			
+		}
+		
+		return partials;
+	}
+	
+	private static void merge(Map<String, PartialFeature> partials, Map<String, PartialFeature> others) {
+		
+		for (Map.Entry<String, PartialFeature> entry : others.entrySet()) {
+			
+			PartialFeature partial = partials.get(entry.getKey());
+			
+			if (partial == null) {
+				partials.put(entry.getKey(), entry.getValue());
+			} else {
+				partial.merge(entry.getValue());
+			}
+			
+		}
+		
+	}
+	
+	/*
+	 * The partials of the parts of the objects of a group, by iiuuid and in input order, and the part that represents
+	 * each object (the one that is not a replica)
+	 */
+	private static class Objects {
+		
+		private final Map<String, Map<String, PartialFeature>> _partialsMap = new LinkedHashMap<String, Map<String, PartialFeature>>();
+		private final Map<String, Tuple> _finalMap = new HashMap<String, Tuple>();
+		
+		/*Adds the partials of one part, or of several parts already merged; the representative may be null*/
+		private void add(String iiuuid, Tuple representative, Map<String, PartialFeature> partials) {
+			
+			if (_partialsMap.containsKey(iiuuid)) {
+	        	merge(_partialsMap.get(iiuuid), partials);
+	        } else {
+	        	_partialsMap.put(iiuuid, partials);
+	        }
+			
+			if (representative != null && !_finalMap.containsKey(iiuuid))
+				_finalMap.put(iiuuid, representative);
+			
+		}
+		
+		/*Adds the merged objects of a partial result*/
+		private void addPartial(Tuple partial) throws IOException {
+			
+			for (Tuple t : DataType.toBag(partial.get(0)))
+				add(DataType.toString(t.get(0)), (Tuple)t.get(1), partials(t.get(2)));
+			
+		}
+		
+		/*A bag with one tuple per object: iiuuid, the representative (null if not among the parts) and the merged partials as binary records*/
+		private Tuple toPartial() throws IOException {
+			
+			DataBag bag = BagFactory.getInstance().newDefaultBag();
+			
+			for (Map.Entry<String, Map<String, PartialFeature>> entry : _partialsMap.entrySet()) {
+				
+				Map<String, Object> records = new HashMap<String, Object>();
+				
+				for (Map.Entry<String, PartialFeature> partial : entry.getValue().entrySet())
+					records.put(partial.getKey(), new DataByteArray(partial.getValue().encode()));
+				
+				Tuple t = TupleFactory.getInstance().newTuple(3);
+				t.set(0, entry.getKey());
+				t.set(1, _finalMap.get(entry.getKey()));
+				t.set(2, records);
+				
+				bag.add(t);
+				
+			}
+			
+			return TupleFactory.getInstance().newTuple((Object)bag);
+		}
+		
+		/*Adds the objects with their features to the output; objects without a representative are dropped*/
+		private void output(DataBag output) throws IOException {
+			
+			for (Map.Entry<String, Map<String, PartialFeature>> entry : _partialsMap.entrySet()) {
+		    	
+		    	Tuple t = _finalMap.get(entry.getKey());
+		    	
+		    	if (t != null)
+		    		output.add(setFeatures(t, entry.getValue()));
+		    	
+			}
+			
+		}
+		
+	}
+	
+	/*Sets the features in the properties of the object that represents the group*/
+	private static Tuple setFeatures(Tuple t, Map<String, PartialFeature> partials) throws IOException {
+		
+		Map<String,Object> props = DataType.toMap(t.get(2));
+		
+		for (Map.Entry<String, PartialFeature> entry : partials.entrySet()) {
+			
+			Double value = entry.getValue().getValue();
+			
+			/*The object doesn't reach the image*/
+			if (value != null)
+				props.put(entry.getKey(), value);
+			
+		}
+		
+		props.remove("spectral_features");
+		
+		t.set(2, props);
+		
+		return t;
+	}
+	
 	@SuppressWarnings({ "rawtypes" })
 	private void combineFeatures(DataBag bag, DataBag output) {
 				
 		try {
 			
-			Map<String, List<Tuple>> tupleMap = new HashMap<String, List<Tuple>>();
-			Map<String, Tuple> finalMap = new HashMap<String, Tuple>();
+			Objects objects = new Objects();
 												
 			Iterator it = bag.iterator();
 		    while (it.hasNext()) {
 		        Tuple t = (Tuple)it.next();
 		        
-		        //Geometry geometry = _geometryParser.parseGeometry(t.get(0));		        
 		        Map<String,Object> props = DataType.toMap(t.get(2));				
 				
 		        String iiuuid = DataType.toString(props.get("iiuuid"));
-		        		        
-		        if (tupleMap.containsKey(iiuuid)) {
-		        	List<Tuple> l = tupleMap.get(iiuuid);
-		        	l.add(t);
-		        } else {
-		        	List<Tuple> l = new ArrayList<Tuple>();
-		        	l.add(t);
-		        	tupleMap.put(iiuuid, l);
-		        }
-		       		        		        
-		        if (!finalMap.containsKey(iiuuid)) {
-		        	if (!props.containsKey("iirep"))
-		        		finalMap.put(iiuuid, t);
-		        }
+		        
+		        objects.add(iiuuid, props.containsKey("iirep") ? null : t, partials(props.get("spectral_features")));
 		      		        		        
 		    }
 		    		    
-		    //compute features
-		    
-		    for (Map.Entry<String, List<Tuple>> entry1 : tupleMap.entrySet()) {
-		    	
-		    	String iiuuid = entry1.getKey();
-		    	
-		    	Map<String, Map<String, Object>> featureMap = new HashMap<String, Map<String, Object>>();
-		    	
-		    	List<Tuple> list = entry1.getValue();
-		    	
-		    	for (Tuple t : list) {
-		    	
-		    		Map<String,Object> props = DataType.toMap(t.get(2));
-		    		
-			    	Map<String, Object> spectral_features = DataType.toMap(props.get("spectral_features"));
-			        
-			        for (Map.Entry<String, Object> entry2 : spectral_features.entrySet()) {
-			        	
-			        	String name = entry2.getKey();
-			        	
-			        	Map<String, Object> params = DataType.toMap(entry2.getValue());
-			        	
-			        	String operation = DataType.toString(params.get("name"));
-			        	
-			        	//TODO: tile and image info could be used to combine GLCM texture features
-			        	
-			        	//String tile = (String)params.get("tile");
-			        	//String image = (String)params.get("image");
-			        	
-			        	if (operation.equals("mean")) {
-			        		
-			        		Double sum = DataType.toDouble(params.get("sum"));
-		        			Integer count = DataType.toInteger(params.get("count"));
-			        		
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double s = (Double)m.get("sum");
-			        			Integer c = (Integer)m.get("count");
-			        			
-			        			m.put("sum", s + sum);
-			        			m.put("count", c + count);
-			        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        						        			
-			        			m.put("sum", sum);
-			        			m.put("count", count);
-			        			
-			        			m.put("name", operation);
-			        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("maxPixelValue")) {
-			        		
-			        		Double max = DataType.toDouble(params.get("max"));
-			        		
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double x = (Double)m.get("max");
-			        						        			
-			        			m.put("max", Math.max(x, max));
-			        						        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        			
-			        			m.put("max", max);
-			        			
-			        			m.put("name", operation);
-			        						        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("minPixelValue")) {
-			        		
-			        		Double min = DataType.toDouble(params.get("min"));
-			        		
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double n = (Double)m.get("min");
-			        						        			
-			        			m.put("min", Math.min(n, min));
-			        						        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        			
-			        			m.put("min", min);
-			        			
-			        			m.put("name", operation);
-			        						        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("ratio")) {
-			        		
-			        		Integer bands = DataType.toInteger(params.get("bands"));
-			        		Integer band = DataType.toInteger(params.get("band"));
-		        			Integer count = DataType.toInteger(params.get("count"));
-			        		
-		        			Double[] sum = new Double[bands];
-		        			
-		        			for (int i=0; i<bands; i++) {
-		        				sum[i] = DataType.toDouble(params.get("band_" + i));
-		        			}
-		        			
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Integer b = (Integer)m.get("bands");
-			        			Integer c = (Integer)m.get("count");
-			        			
-			        			Double[] s = new Double[bands];
-			        			
-			        			for (int i=0; i<b; i++) {
-			        				s[i] = (Double)params.get("band_" + i);
-			        				m.put("band_" + i, s[i] + sum[i]);
-			        			}
-			        			
-			        			m.put("count", c + count);
-			        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        						        			
-			        			for (int i=0; i<bands; i++) {			        				
-			        				m.put("band_" + i, sum[i]);
-			        			}
-			        			
-			        			m.put("count", count);
-			        			m.put("bands", bands);
-			        			m.put("band", band);
-			        			
-			        			m.put("name", operation);
-			        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("brightness")) {
-			        					        		
-			        		Integer bands = DataType.toInteger(params.get("bands"));
-			        		
-		        			Integer count = DataType.toInteger(params.get("count"));
-			        		
-		        			Double[] sum = new Double[bands];
-		        			
-		        			for (int i=0; i<bands; i++) {
-		        				sum[i] = DataType.toDouble(params.get("band_" + i));
-		        			}
-		        			
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Integer b = (Integer)m.get("bands");
-			        			Integer c = (Integer)m.get("count");
-			        			
-			        			Double[] s = new Double[bands];
-			        			
-			        			for (int i=0; i<b; i++) {
-			        				s[i] = (Double)params.get("band_" + i);
-			        				m.put("band_" + i, s[i] + sum[i]);
-			        			}
-			        			
-			        			m.put("count", c + count);
-			        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        						        			
-			        			for (int i=0; i<bands; i++) {			        				
-			        				m.put("band_" + i, sum[i]);
-			        			}
-			        			
-			        			m.put("count", count);
-			        			m.put("bands", bands);
-			        			
-			        			m.put("name", operation);
-			        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("amplitudeValue")) {
-			        		
-			        		Double min = DataType.toDouble(params.get("min"));
-			        		Double max = DataType.toDouble(params.get("max"));
-			        		
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double n = (Double)m.get("min");
-			        			Double x = (Double)m.get("max");
-			        						        			
-			        			m.put("min", Math.min(n, min));
-			        			m.put("max", Math.max(x, max));
-			        						        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        			
-			        			m.put("min", min);
-			        			m.put("max", max);
-			        			
-			        			m.put("name", operation);
-			        						        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("standardDeviation")) {
-			        	
-			        		Double sum = DataType.toDouble(params.get("sum"));
-			        		Double squared = DataType.toDouble(params.get("squared"));
-			        		Integer count = DataType.toInteger(params.get("count"));
-			        		
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double s = (Double)m.get("sum");
-			        			Double q = (Double)m.get("squared");
-			        			Integer c = (Integer)m.get("count");
-			        						        			
-			        			m.put("sum", s + sum);
-			        			m.put("squared", q + squared);
-			        			m.put("count", c + count);			        			
-			        						        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        			
-			        			m.put("sum", sum);
-			        			m.put("squared", squared);
-			        			m.put("count", count);
-			        			
-			        			m.put("name", operation);
-			        						        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("bandMeanAdd")) {
-			        		
-			        		Double band_a = DataType.toDouble(params.get("band_a"));
-			        		Double band_b = DataType.toDouble(params.get("band_b"));
-			        		
-		        			Integer count = DataType.toInteger(params.get("count"));
-		        			
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double ba = (Double)m.get("band_a");
-			        			Double bb = (Double)m.get("band_b");
-			        			
-			        			Integer c = (Integer)m.get("count");
-
-			        			m.put("band_a", ba + band_a);
-			        			m.put("band_b", bb + band_b);
-			        			
-			        			m.put("count", c + count);
-			        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        						        			
-			        			m.put("count", count);
-			        			m.put("band_a", band_a);
-			        			m.put("band_b", band_b);
-			        			
-			        			m.put("name", operation);
-			        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("bandMeanDiv")) {
-			        		
-			        		Double band_a = DataType.toDouble(params.get("band_a"));
-			        		Double band_b = DataType.toDouble(params.get("band_b"));
-			        		
-		        			Integer count = DataType.toInteger(params.get("count"));
-		        			
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double ba = (Double)m.get("band_a");
-			        			Double bb = (Double)m.get("band_b");
-			        			
-			        			Integer c = (Integer)m.get("count");
-
-			        			m.put("band_a", ba + band_a);
-			        			m.put("band_b", bb + band_b);
-			        			
-			        			m.put("count", c + count);
-			        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        						        			
-			        			m.put("count", count);
-			        			m.put("band_a", band_a);
-			        			m.put("band_b", band_b);
-			        			
-			        			m.put("name", operation);
-			        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("bandMeanMul")) {
-			        		
-			        		Double band_a = DataType.toDouble(params.get("band_a"));
-			        		Double band_b = DataType.toDouble(params.get("band_b"));
-			        		
-		        			Integer count = DataType.toInteger(params.get("count"));
-		        			
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double ba = (Double)m.get("band_a");
-			        			Double bb = (Double)m.get("band_b");
-			        			
-			        			Integer c = (Integer)m.get("count");
-
-			        			m.put("band_a", ba + band_a);
-			        			m.put("band_b", bb + band_b);
-			        			
-			        			m.put("count", c + count);
-			        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        						        			
-			        			m.put("count", count);
-			        			m.put("band_a", band_a);
-			        			m.put("band_b", band_b);
-			        			
-			        			m.put("name", operation);
-			        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	} else if (operation.equals("bandMeanSub")) {
-			        		
-			        		Double band_a = DataType.toDouble(params.get("band_a"));
-			        		Double band_b = DataType.toDouble(params.get("band_b"));
-			        		
-		        			Integer count = DataType.toInteger(params.get("count"));
-		        			
-			        		if (featureMap.containsKey(name)) {
-			        			Map<String, Object> m = featureMap.get(name);
-			        			
-			        			Double ba = (Double)m.get("band_a");
-			        			Double bb = (Double)m.get("band_b");
-			        			
-			        			Integer c = (Integer)m.get("count");
-
-			        			m.put("band_a", ba + band_a);
-			        			m.put("band_b", bb + band_b);
-			        			
-			        			m.put("count", c + count);
-			        			
-			        		} else {
-			        			
-			        			HashMap<String, Object> m = new HashMap<String, Object>();
-			        						        			
-			        			m.put("count", count);
-			        			m.put("band_a", band_a);
-			        			m.put("band_b", band_b);
-			        			
-			        			m.put("name", operation);
-			        			
-			        			featureMap.put(name, m);
-			        			
-			        		}
-			        		
-			        	}
-			        	
-			        }
-			        
-		    	}
-			    
-		    	//combine features
-		    	
-		    	Tuple t = finalMap.get(iiuuid);
-		    	
-		    	Map<String,Object> props = DataType.toMap(t.get(2));
-		    	
-		    	for (Map.Entry<String, Map<String, Object>> entry3 : featureMap.entrySet()) {
-		    	
-		    		String feature = entry3.getKey();
-		    		Map<String, Object> m = entry3.getValue();
-		    		
-		    		String operation = (String)m.get("name");
-		    		
-		    		if (operation.equals("mean")) {
-		    			
-		    			Double sum = (Double)m.get("sum");
-		    			Integer count = (Integer)m.get("count");
-		    			
-	    				props.put(feature, sum/count);
-		    			
-		    		} else if (operation.equals("maxPixelValue")) {
-		    			
-		    			Double max = (Double)m.get("max");
-		    			
-	    				props.put(feature, max);
-		    			
-		    		} else if (operation.equals("minPixelValue")) {
-		    			
-		    			Double min = (Double)m.get("min");
-		    			
-		    			props.put(feature, min);
-		    					    			
-		    		} else if (operation.equals("amplitudeValue")) {
-		    			
-		    			Double max = (Double)m.get("max");
-		    			Double min = (Double)m.get("min");
-		    			
-		    			props.put(feature, max-min);
-		    			
-		    		} else if (operation.equals("standardDeviation")) {
-		    			
-		    			Double sum = (Double)m.get("sum");
-		    			Double squared = (Double)m.get("squared");
-		    			Integer count = (Integer)m.get("count");
-		    			
-		    			Double mean = sum/count;
-		    			
-		    			props.put(feature, Math.sqrt(Math.abs((squared - 2*mean*sum + count*mean*mean))/count));
-		    			
-		    			
-		    		} else if (operation.equals("ratio")) {
-		    			
-		    			Integer bands = (Integer)m.get("bands");
-		    			Integer band = (Integer)m.get("band");
-		    			Integer count = (Integer)m.get("count");
-		    			
-		    			Double sum = 0.0;
-		    			Double bandMean = 0.0;
-		    			
-		    			for (int i=0; i<bands; i++) {
-	        				Double s = (Double)m.get("band_" + i);
-	        				Double mean = s / count;
-	        				
-	        				if (i==band)
-	        					bandMean = mean;
-	        				
-	        				sum = sum + mean;
-	        			}
-		    			
-		    			props.put(feature, bandMean/sum);
-		    			
-		    		} else if (operation.equals("brightness")) {
-		    			
-		    			Integer bands = (Integer)m.get("bands");		    			
-		    			Integer count = (Integer)m.get("count");
-		    			
-		    			Double sum = 0.0;
-		    			
-		    			for (int i=0; i<bands; i++) {
-	        				Double s = (Double)m.get("band_" + i);
-	        				Double mean = s / count;
-	        				sum = sum + mean;
-	        			}
-		    			
-		    			props.put(feature, sum/bands);
-		    			
-		    		} else if (operation.equals("bandMeanAdd")) {
-		    			
-		    			Double band_a = (Double)m.get("band_a");
-		    			Double band_b = (Double)m.get("band_b");
-		    			Integer count = (Integer)m.get("count");
-
-		    			Double mean_a = band_a / count;
-		    			Double mean_b = band_b / count;
-		    					    			
-		    			props.put(feature, mean_a + mean_b);
-		    			
-		    		} else if (operation.equals("bandMeanDiv")) {
-		    			
-		    			Double band_a = (Double)m.get("band_a");
-		    			Double band_b = (Double)m.get("band_b");
-		    			Integer count = (Integer)m.get("count");
-
-		    			Double mean_a = band_a / count;
-		    			Double mean_b = band_b / count;
-		    					    			
-		    			props.put(feature, mean_a / mean_b);
-		    			
-		    		} else if (operation.equals("bandMeanMul")) {
-		    			
-		    			Double band_a = (Double)m.get("band_a");
-		    			Double band_b = (Double)m.get("band_b");
-		    			Integer count = (Integer)m.get("count");
-
-		    			Double mean_a = band_a / count;
-		    			Double mean_b = band_b / count;
-		    					    			
-		    			props.put(feature, mean_a * mean_b);
-		    			
-		    		} else if (operation.equals("bandMeanSub")) {
-		    			
-		    			Double band_a = (Double)m.get("band_a");
-		    			Double band_b = (Double)m.get("band_b");
-		    			Integer count = (Integer)m.get("count");
-
-		    			Double mean_a = band_a / count;
-		    			Double mean_b = band_b / count;
-		    					    			
-		    			props.put(feature, mean_a - mean_b);
-		    			
-		    		}
-		    				    	
-		    	}
-		    	
-		    	props.remove("spectral_features");
-		    	
-		    	t.set(2, props);
-		    	output.add(t);		    	
-		    			    	
-			}
-		    		    
+		    //combine features
 		    
+		    objects.output(output);
+						
 		} catch (Exception e) {
 			e.printStackTrace();
 			System.out.println("It was not possible to merge neighboring objects.");	
 		}
-				
+		
 	}
-			
+	
 	/**
      * Method invoked on every bag during foreach evaluation.
      * @param input tuple<br>
-     * first column is assumed to have a bag with the single parent object
-     * second column is assumed to have a bag with the corresponding child objects
+     * first column is assumed to have a bag with the parts of the objects
      * @exception java.io.IOException
      * @return a bag with the computed features in the properties
      */
 	@Override
 	public DataBag exec(Tuple input) throws IOException {
-				
+		
 		if (input == null || input.size() == 0)
             return null;
-			
+		
 		try {
 			
 			DataBag bag = DataType.toBag(input.get(0));
 			
 			DataBag output = BagFactory.getInstance().newDefaultBag();
-	        
+			
 			combineFeatures(bag, output);
 			
 	        return output;
-	        
+			
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new IOException("Caught exception processing input row ", e);
 		}
 	}
-		
+	
+	public String getInitial() { return Initial.class.getName(); }
+	
+	public String getIntermed() { return Intermed.class.getName(); }
+	
+	public String getFinal() { return Final.class.getName(); }
+	
+	/*
+	 * The partial results are tuples with a bag that has, for each object of the group, its iiuuid, the part that
+	 * represents it without its partials (null if not among the parts seen) and its merged partials.
+	 */
+	
+	//Initial
+	static public class Initial extends EvalFunc<Tuple> {
+		@Override
+		public Tuple exec(Tuple input) throws IOException {
+			
+			Objects objects = new Objects();
+			
+			for (Tuple t : DataType.toBag(input.get(0))) {
+				
+				Map<String,Object> props = DataType.toMap(t.get(2));
+				
+				Tuple representative = null;
+				
+				if (!props.containsKey("iirep")) {
+					Map<String,Object> copy = new HashMap<String,Object>(props);
+					copy.remove("spectral_features");
+					representative = TupleFactory.getInstance().newTuple(3);
+					representative.set(0, t.get(0));
+					representative.set(1, t.get(1));
+					representative.set(2, copy);
+				}
+				
+				objects.add(DataType.toString(props.get("iiuuid")), representative, partials(props.get("spectral_features")));
+				
+			}
+			
+			return objects.toPartial();
+		}
+	}
+
+	//Intermed
+	static public class Intermed extends EvalFunc<Tuple> {
+		@Override
+		public Tuple exec(Tuple input) throws IOException {
+			
+			Objects objects = new Objects();
+			
+			for (Tuple t : DataType.toBag(input.get(0)))
+				objects.addPartial(t);
+			
+			return objects.toPartial();
+		}
+	}
+	
+	//Final
+	static public class Final extends EvalFunc<DataBag> {
+		@Override
+		public DataBag exec(Tuple input) throws IOException {
+			
+			Objects objects = new Objects();
+			
+			for (Tuple t : DataType.toBag(input.get(0)))
+				objects.addPartial(t);
+			
+			DataBag output = BagFactory.getInstance().newDefaultBag();
+			
+			objects.output(output);
+			
+			return output;
+		}
+	}
+	
 	@Override
     public Schema outputSchema(Schema input) {
 		
 		try {
-
+		
 			List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
-			list.add(new Schema.FieldSchema(null, DataType.CHARARRAY));
+			list.add(new Schema.FieldSchema(null, DataType.BYTEARRAY));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
-					
+			
 			Schema tupleSchema = new Schema(list);
 			
 			Schema.FieldSchema ts = new Schema.FieldSchema(null, tupleSchema, DataType.TUPLE);
@@ -661,7 +335,7 @@ public class CombineSpectralFeatures extends EvalFunc<DataBag> {
 			Schema.FieldSchema bs = new Schema.FieldSchema(null, bagSchema, DataType.BAG);
 			
 			return new Schema(bs);
-
+			
 		} catch (Exception e) {
 			return null;
 		}
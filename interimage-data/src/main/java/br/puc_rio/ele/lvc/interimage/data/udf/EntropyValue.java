@@ -1,9 +1,6 @@
 package br.puc_rio.ele.lvc.interimage.data.udf;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataType;
@@ -11,10 +8,11 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.data.DataParser;
+import br.puc_rio.ele.lvc.interimage.data.PixelHistogram;
 
 
 /**
- * A UDF that returns the entropy of a raster layer.
+ * A UDF that returns the Shannon entropy, in bits, of the values of a raster layer, computed from their histogram.
  * Example:
  * 		A = load 'mydata' as (raster);
  * 		B = foreach A generate EntropyValue(raster#'0');
@@ -37,38 +35,14 @@ public class EntropyValue extends EvalFunc<Double> {
             return null;
         
 		try {			
-			Object objImage = input.get(0);
-			//TODO this should be generic and not only for Double
-			List <Double> lst = imageParser.parseListData(objImage);
+			PixelHistogram histogram = new PixelHistogram();
+			histogram.add(imageParser.parseSamples(input.get(0)));
 			
-			final Map<Double, Integer> countMap = new HashMap<Double, Integer>();
-			    
-		    //iterate over data to find frequency
-		    for (int n=0; n < lst.size(); n++) {
-		        int count = 0;
-		        
-		        double val=lst.get(n);
-		        if (countMap.containsKey(val)) {
-		            count = countMap.get(val) + 1;
-		        } else {
-		            count = 1;
-		        }			
-		        countMap.put(val, count);
-	    	}
-		    
-		    double accSum =0;
-		    
-		    //For each distinct value operate
-		    for (final Map.Entry<Double, Integer> tuple : countMap.entrySet())  {
-		    	double val =tuple.getValue();
-		    	//TODO verify formula: different definitions in literature
-		    	accSum= accSum + val * Math.log(val)/Math.log(2);
-		    }
-			 			
-				
-			return accSum*(-1);
-		
+			if (histogram.getCount() == 0)
+				return null;
 			
+			return histogram.getEntropy();
+
 		} catch (Exception e) {
 			throw new IOException("Caught exception processing input row ", e);
 		}
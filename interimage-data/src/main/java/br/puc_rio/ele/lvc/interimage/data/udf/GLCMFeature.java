@@ -0,0 +1,99 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data.udf;
+
+import java.io.IOException;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import br.puc_rio.ele.lvc.interimage.data.DataParser;
+import br.puc_rio.ele.lvc.interimage.data.HaralickTexture;
+import br.puc_rio.ele.lvc.interimage.data.RasterBlock;
+import ij.process.ImageProcessor;
+
+/**
+ * Base class of the UDFs that return one GLCM texture feature of a raster layer given an angle.<br>
+ * The co-occurrence matrix has 256 gray levels; HaralickFeatures computes several features from one matrix.
+ * @author Patrick Happ, Rodrigo Ferreira
+ */
+public abstract class GLCMFeature extends EvalFunc<Double> {
+	
+	private final DataParser imageParser = new DataParser();
+	
+	private final String _feature;
+	
+	protected GLCMFeature(String feature) {
+		_feature = feature;
+	}
+	
+	/**Accumulates the pairs of a raster layer; only the pixels of the object are considered when it is a masked raster block.*/
+	static void accumulate(HaralickTexture texture, DataParser parser, Object objImage) {
+		
+		RasterBlock block = parser.parseRasterBlock(objImage);
+		
+		if (block != null) {
+			texture.accumulate(block.getSamples(0, null), block.getWidth(), block.getHeight(), block.getMask());
+			return;
+		}
+		
+		ImageProcessor ip = parser.parseImgProc(objImage);
+		
+		double[] samples = new double[ip.getWidth()*ip.getHeight()];
+		for (int i=0; i<samples.length; i++)
+			samples[i] = ip.getf(i);
+		
+		texture.accumulate(samples, ip.getWidth(), ip.getHeight(), null);
+		
+	}
+	
+	/**
+     * Method invoked on every tuple during foreach evaluation
+     * @param input tuple; first column is assumed to have the raster layer, second column the angle
+     * @exception java.io.IOException
+     * @return the GLCM feature, or null in case of processing error
+     */
+	@Override
+	public Double exec(Tuple input) throws IOException {		
+		if (input == null || input.size() < 2)
+            return null;
+        
+		try {			
+			Object objImage = input.get(0);
+			
+			String strIndex = (String)input.get(1);
+			int angle = Integer.parseInt(strIndex);
+
+			if (!(angle == 0 || angle ==45 || angle ==90 || angle == 135 || angle ==180 || angle ==225 || angle ==270 || angle ==315))
+				System.out.println("Angle is out of possible range!");
+			
+			HaralickTexture texture = new HaralickTexture(256, new int[] {angle});
+			accumulate(texture, imageParser, objImage);
+		
+			return texture.getFeature(_feature);
+
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+	
+	@Override
+    public Schema outputSchema(Schema input) {
+        return new Schema(new Schema.FieldSchema(null, DataType.DOUBLE));
+    }
+	
+}
@@ -0,0 +1,130 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data.udf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import br.puc_rio.ele.lvc.interimage.data.DataParser;
+import br.puc_rio.ele.lvc.interimage.data.HaralickTexture;
+
+/**
+ * A UDF that returns several GLCM texture features of a raster layer computed from one co-occurrence matrix.<br>
+ * The pairs of all the given angles are accumulated in the same matrix, quantized to the given number of gray levels.<br>
+ * Example:<br>
+ * 		DEFINE II_HaralickFeatures br.puc_rio.ele.lvc.interimage.data.udf.HaralickFeatures('contrast,entropy,homogeneity', '0,45,90,135', '64');<br>
+ * 		A = load 'mydata' as (raster);<br>
+ * 		B = foreach A generate FLATTEN(II_HaralickFeatures(raster#'0'));
+ * @author Rodrigo Ferreira
+ */
+public class HaralickFeatures extends EvalFunc<Tuple> {
+	
+	private final DataParser imageParser = new DataParser();
+	
+	private final String[] _features;
+	private final int[] _angles;
+	private final int _levels;
+	
+	/**Constructor that computes all the features in the four directions with 256 gray levels.*/
+	public HaralickFeatures() {
+		this("");
+	}
+	
+	public HaralickFeatures(String features) {
+		this(features, "0,45,90,135");
+	}
+	
+	public HaralickFeatures(String features, String angles) {
+		this(features, angles, "256");
+	}
+	
+	/**
+	 * @param features comma separated list of features (asm, contrast, correlation, dissimilarity, entropy, homogeneity, idm, mean, quisquare, stddev, variance); empty for all
+	 * @param angles comma separated list of angles
+	 * @param levels number of gray levels, from 2 to 256
+	 */
+	public HaralickFeatures(String features, String angles, String levels) {
+		
+		if (features.trim().isEmpty()) {
+			_features = HaralickTexture.FEATURES;
+		} else {
+			_features = features.split(",");
+			for (int i=0; i<_features.length; i++)
+				_features[i] = _features[i].trim().toLowerCase();
+		}
+		
+		_angles = HaralickTexture.parseAngles(angles);
+		_levels = Integer.parseInt(levels.trim());
+		
+	}
+	
+	/**
+     * Method invoked on every tuple during foreach evaluation
+     * @param input tuple; first column is assumed to have the raster layer
+     * @exception java.io.IOException
+     * @return a tuple with the features in the given order
+     */
+	@Override
+	public Tuple exec(Tuple input) throws IOException {
+		if (input == null || input.size() == 0)
+            return null;
+        
+		try {
+			
+			HaralickTexture texture = new HaralickTexture(_levels, _angles);
+			GLCMFeature.accumulate(texture, imageParser, input.get(0));
+			
+			Map<String, Double> features = texture.getFeatures();
+			
+			Tuple output = TupleFactory.getInstance().newTuple(_features.length);
+			
+			for (int i=0; i<_features.length; i++) {
+				if (!features.containsKey(_features[i]))
+					throw new IllegalArgumentException("Unknown texture feature: " + _features[i]);
+				output.set(i, features.get(_features[i]));
+			}
+			
+			return output;
+			
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+	
+	@Override
+    public Schema outputSchema(Schema input) {
+		
+		List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
+		
+		for (String feature : _features)
+			list.add(new Schema.FieldSchema(feature, DataType.DOUBLE));
+		
+		try {
+			return new Schema(new Schema.FieldSchema(null, new Schema(list), DataType.TUPLE));
+		} catch (Exception e) {
+			return null;
+		}
+		
+    }
+	
+}
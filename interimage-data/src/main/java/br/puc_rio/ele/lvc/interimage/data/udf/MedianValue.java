@@ -8,12 +8,10 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.data.DataParser;
-import net.imglib2.img.Img;
-import net.imglib2.type.numeric.real.DoubleType;
-import net.imglib2.ops.operation.iterable.unary.MedianOp;;
+import br.puc_rio.ele.lvc.interimage.data.PixelHistogram;
 
 /**
- * A UDF that returns the median of a raster layer.
+ * A UDF that returns the median of a raster layer, computed from the histogram of its values.
  * Example:
  * 		A = load 'mydata' as (raster);
  * 		B = foreach A generate MedianValue(raster#'0');
@@ -37,13 +35,13 @@ public class MedianValue extends EvalFunc<Double> {
             return null;
         
 		try {			
-			Object objImage = input.get(0);
-			//TODO this should be generic and not only for DoubleType
-			Img <DoubleType> ip = imageParser.parseData(objImage);
-			DoubleType value =  new DoubleType();;
+			PixelHistogram histogram = new PixelHistogram();
+			histogram.add(imageParser.parseSamples(input.get(0)));
 			
-			MedianOp< DoubleType, DoubleType >  res = new MedianOp< DoubleType, DoubleType >();
-			return res.compute(ip.iterator(), value).get();
+			if (histogram.getCount() == 0)
+				return null;
+			
+			return histogram.getMedian();
 
 		} catch (Exception e) {
 			throw new IOException("Caught exception processing input row ", e);
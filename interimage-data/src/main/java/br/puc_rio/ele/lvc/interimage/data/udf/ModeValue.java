@@ -1,10 +1,6 @@
 package br.puc_rio.ele.lvc.interimage.data.udf;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.HashMap; 
-import java.util.Map; 
 
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataType;
@@ -12,10 +8,12 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.data.DataParser;
+import br.puc_rio.ele.lvc.interimage.data.PixelHistogram;
 
 
 /**
- * A UDF that returns the mode of a raster layer.
+ * A UDF that returns the mode of a raster layer, computed from the histogram of its values.<br>
+ * The smallest value is returned in case of a tie, and null when no value occurs more than once.
  * Example:
  * 		A = load 'mydata' as (raster);
  * 		B = foreach A generate ModeValue(raster#'0');
@@ -38,45 +36,15 @@ public class ModeValue extends EvalFunc<Double> {
             return null;
         
 		try {			
-			Object objImage = input.get(0);
-			//TODO this should be generic and not only for Double
-			List <Double> lst = imageParser.parseListData(objImage);
+			PixelHistogram histogram = new PixelHistogram();
+			histogram.add(imageParser.parseSamples(input.get(0)));
 			
-			final List<Double> modes = new ArrayList<Double>();
-			final Map<Double, Integer> countMap = new HashMap<Double, Integer>();
-			    int max = -1;
-			    
-			    //iterate over data to find frequency
-			    for (int n=0; n < lst.size(); n++) {
-			        int count = 0;
-			        
-			        double val=lst.get(n);
-			        if (countMap.containsKey(val)) {
-			            count = countMap.get(val) + 1;
-			        } else {
-			            count = 1;
-			        }			
-			        countMap.put(val, count);
-			        
-		        	//Get the mode
-			        //keep track of the whole list (multimodal)
-			        //Is it better than read the list again?
-			        if (count > max) {
-			        	max = count;
-			        	modes.clear();
-			        	modes.add(val);
-			        }
-			        else if(count == max)
-			        	modes.add(val);
-			    }
-			    
-			 				
 			//TODO Return multiple results when it exists
-			if (max<2)
+			if (histogram.getModeCount() < 2)
 				return null;
-			else
-				return modes.get(0);
 			
+			return histogram.getMode();
+
 		} catch (Exception e) {
 			throw new IOException("Caught exception processing input row ", e);
 		}
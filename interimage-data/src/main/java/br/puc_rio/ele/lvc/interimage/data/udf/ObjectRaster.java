@@ -0,0 +1,150 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.data.udf;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
+import br.puc_rio.ele.lvc.interimage.data.Image;
+import br.puc_rio.ele.lvc.interimage.data.RasterBlock;
+import br.puc_rio.ele.lvc.interimage.data.Rasterizer;
+import br.puc_rio.ele.lvc.interimage.data.TileCache;
+
+/**
+ * A UDF that returns the pixels of an object as a binary raster block.<br>
+ * The window of the object's bounding box is read from the tile given in the properties, with a mask of the pixels
+ * covered by the polygon. The result can be given to the *Value and *GLCM UDFs instead of the text form.<br>
+ * Example:<br>
+ * 		DEFINE II_ObjectRaster br.puc_rio.ele.lvc.interimage.data.udf.ObjectRaster('s3n://bucket/images/', 'image', '1', 'false');<br>
+ * 		A = load 'mydata' as (geometry, data, properties);<br>
+ * 		B = foreach A generate II_MeanValue(II_ObjectRaster(geometry, properties));
+ * @author Rodrigo Ferreira
+ */
+public class ObjectRaster extends EvalFunc<DataByteArray> {
+	
+	private final GeometryParser _geometryParser = new GeometryParser();
+	
+	private final String _imageUrl;
+	private final String _image;
+	private final int[] _bands;
+	private final boolean _deflate;
+	
+	/**Constructor that takes image URL and image key; all the bands are encoded, without compression.*/
+	public ObjectRaster(String imageUrl, String image) {
+		this(imageUrl, image, "", "false");
+	}
+	
+	/**
+	 * @param bands comma separated list of layers, starting at 1; empty for all
+	 * @param deflate whether the samples are compressed
+	 */
+	public ObjectRaster(String imageUrl, String image, String bands, String deflate) {
+		
+		_imageUrl = imageUrl;
+		_image = image;
+		_deflate = Boolean.parseBoolean(deflate.trim());
+		
+		if (bands.trim().isEmpty()) {
+			_bands = null;
+		} else {
+			String[] tokens = bands.split(",");
+			_bands = new int[tokens.length];
+			for (int i=0; i<tokens.length; i++)
+				_bands[i] = Integer.parseInt(tokens[i].trim().replace("layer", ""))-1;
+		}
+		
+	}
+	
+	/**
+     * Method invoked on every tuple during foreach evaluation
+     * @param input tuple; first column is assumed to have the geometry, second column the properties
+     * @exception java.io.IOException
+     * @return the raster block, or null if the object doesn't reach the tile
+     */
+	@Override
+	public DataByteArray exec(Tuple input) throws IOException {
+		if (input == null || input.size() < 2)
+            return null;
+        
+		try {
+			
+			Geometry geometry = _geometryParser.parseGeometry(input.get(0));
+			Map<String,Object> properties = DataType.toMap(input.get(1));
+			
+			String tile = DataType.toString(properties.get("tile"));
+			
+			TileCache cache = TileCache.getInstance();
+			
+			BufferedImage buff = cache.getImage(_imageUrl, _image, tile);
+			
+			TileCache.Meta meta = buff == null ? null : cache.getMeta(_imageUrl, _image, tile);
+			
+			if (meta == null)
+				return null;
+			
+			double[] tileGeoBox = meta.getGeoBox();
+			
+			Geometry tileGeom = new GeometryFactory().createPolygon(new Coordinate[] { new Coordinate(tileGeoBox[0], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[1])});
+			
+			if (!tileGeom.intersects(geometry))
+				return null;
+			
+			/*Gets the part of the polygon inside the tile*/
+			Geometry geom = tileGeom.intersection(geometry);
+			
+			int[] bBox = Image.imgBBox(new double[] {geom.getEnvelopeInternal().getMinX(), geom.getEnvelopeInternal().getMinY(), geom.getEnvelopeInternal().getMaxX(), geom.getEnvelopeInternal().getMaxY()}, tileGeoBox, new int[] {buff.getWidth(), buff.getHeight()});
+			
+			if ((bBox[0] < 0) || (bBox[1] < 0) || (bBox[2] < 0) || (bBox[3] < 0)
+			|| (bBox[0] >= buff.getWidth()) || (bBox[1] >= buff.getHeight()) || (bBox[2] >= buff.getWidth()) || (bBox[3] >= buff.getHeight()))
+				return null;
+			
+			int width = bBox[2]-bBox[0]+1;
+			int height = bBox[1]-bBox[3]+1;
+			
+			double[] geoBBox = Image.geoBBox(bBox, tileGeoBox, new int[] {buff.getWidth(), buff.getHeight()});
+			
+			double resX = (tileGeoBox[2]-tileGeoBox[0])/buff.getWidth();
+			double resY = (tileGeoBox[1]-tileGeoBox[3])/buff.getHeight();
+			
+			boolean[] mask = new boolean[width*height];
+			
+			new Rasterizer(width, height, geoBBox[0], geoBBox[3], resX, resY).rasterize(geom.buffer(0), mask);
+			
+			/*The samples keep the type of the tile*/
+			return new DataByteArray(RasterBlock.encode(buff.getRaster(), bBox[0], bBox[3], width, height, _bands, mask, buff.getRaster().getDataBuffer().getDataType(), _deflate));
+			
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+	
+	@Override
+    public Schema outputSchema(Schema input) {
+        return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+	
+}
@@ -0,0 +1,56 @@
+package br.puc_rio.ele.lvc.interimage.data.udf;
+
+import java.io.IOException;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import br.puc_rio.ele.lvc.interimage.data.DataParser;
+import br.puc_rio.ele.lvc.interimage.data.PixelHistogram;
+
+/**
+ * A UDF that returns a percentile (0 to 100) of a raster layer, computed from the histogram of its values.<br>
+ * The nearest rank is used, so the 50th percentile is the same as the median.
+ * Example:
+ * 		A = load 'mydata' as (raster);
+ * 		B = foreach A generate PercentileValue(raster#'0', 90);
+ * @author Rodrigo Ferreira
+ *
+ */
+public class PercentileValue extends EvalFunc<Double> {
+	
+	private final DataParser imageParser = new DataParser();
+	
+	/**
+     * Method invoked on every tuple during foreach evaluation
+     * @param input tuple; first column is assumed to have the raster layer and the second the percentile
+     * @exception java.io.IOException
+     * @return the percentile of the layer, or null in case of processing error
+     */
+	@Override
+	public Double exec(Tuple input) throws IOException {		
+		if (input == null || input.size() < 2)
+            return null;
+        
+		try {			
+			PixelHistogram histogram = new PixelHistogram();
+			histogram.add(imageParser.parseSamples(input.get(0)));
+			
+			if (histogram.getCount() == 0)
+				return null;
+			
+			return histogram.getPercentile(DataType.toDouble(input.get(1)));
+
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+	
+	@Override
+    public Schema outputSchema(Schema input) {
+        return new Schema(new Schema.FieldSchema(null, DataType.DOUBLE));
+    }
+	
+}
\ No newline at end of file
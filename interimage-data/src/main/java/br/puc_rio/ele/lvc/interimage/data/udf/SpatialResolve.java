@@ -14,23 +14,13 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.data.udf;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgFactory;
-import net.imglib2.type.numeric.integer.LongType;
-
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -42,16 +32,15 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LinearRing;
-import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
-import com.vividsolutions.jts.io.WKTWriter;
 
+import br.puc_rio.ele.lvc.interimage.common.GeometryCodec;
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
 import br.puc_rio.ele.lvc.interimage.common.OrderedList;
 import br.puc_rio.ele.lvc.interimage.data.Image;
+import br.puc_rio.ele.lvc.interimage.data.Polygonizer;
+import br.puc_rio.ele.lvc.interimage.data.Rasterizer;
+import br.puc_rio.ele.lvc.interimage.data.TileCache;
 
 /**
  * A UDF that resolves spatial overlaps based on membership values.<br><br>
@@ -84,9 +73,9 @@ public class SpatialResolve extends EvalFunc<DataBag> {
 	@SuppressWarnings("unchecked")
 	private void computeSpatialResolve(OrderedList list, DataBag output) throws Exception {
 		
-		Img<LongType> img = null;
+		int[] labels = null;
 		
-		long id = 1;
+		int id = 1;
 		double resX = 0.0;
 		double resY = 0.0;
 		double[] tileGeoBox = new double[4];
@@ -97,7 +86,7 @@ public class SpatialResolve extends EvalFunc<DataBag> {
         
         Geometry tileGeom = null;
         
-        Map<Long, List<Object>> map1 = new HashMap<Long, List<Object>>();
+        Map<Integer, List<Object>> map1 = new HashMap<Integer, List<Object>>();
         Map<String,String> data = null;
         
 		while (!list.isEmpty()) {
@@ -124,7 +113,7 @@ public class SpatialResolve extends EvalFunc<DataBag> {
 			
 			//Computes image info just once
 			
-			if (img == null) {
+			if (labels == null) {
 							
 				data = (Map<String,String>)t.get(1);
 				
@@ -132,31 +121,14 @@ public class SpatialResolve extends EvalFunc<DataBag> {
 				crs = DataType.toString(properties.get("crs"));
 				
 				/*Getting width and height*/
-	        	URL worldFile1 = new URL(_imageUrl + _image + "/" + tileStr + ".meta");
-				URLConnection urlConn1 = worldFile1.openConnection();
-	            urlConn1.connect();
-				InputStreamReader inStream1 = new InputStreamReader(urlConn1.getInputStream());
-		        BufferedReader reader1 = new BufferedReader(inStream1);
-		        		        
-		        String line1;
-		        int index1 = 0;
-		        while ((line1 = reader1.readLine()) != null) {
-		        	if (!line1.trim().isEmpty()) {
-		        		if (index1==1)
-		        			width = Integer.parseInt(line1);
-		        		else if (index1==2)
-		        			height = Integer.parseInt(line1);
-		        		else if (index1==3)
-		        			tileGeoBox[0] = Double.parseDouble(line1);
-		        		else if (index1==4)
-		        			tileGeoBox[1] = Double.parseDouble(line1);
-		        		else if (index1==5)
-		        			tileGeoBox[2] = Double.parseDouble(line1);
-		        		else if (index1==6)
-		        			tileGeoBox[3] = Double.parseDouble(line1);
-			        	index1++;
-		        	}
-		        }
+				TileCache.Meta meta = TileCache.getInstance().getMeta(_imageUrl, _image, tileStr);
+				
+				if (meta == null)
+					throw new Exception("Could not read tile metadata: " + _imageUrl + _image + "/" + tileStr + ".meta");
+				
+				width = meta.getWidth();
+				height = meta.getHeight();
+				tileGeoBox = meta.getGeoBox();
 				
 		        resX = (tileGeoBox[2]-tileGeoBox[0])/width;
 				resY = (tileGeoBox[1]-tileGeoBox[3])/height;		        
@@ -172,7 +144,10 @@ public class SpatialResolve extends EvalFunc<DataBag> {
 				System.out.println("resX: " + resX);
 				System.out.println("resY: " + resY);*/
 				
-		        img = new ArrayImgFactory<LongType>().create(new long[] {width, height}, new LongType());
+		        labels = new int[width*height];
+		        
+		        for (int i=0; i<labels.length; i++)
+		        	labels[i] = -1;
 		        
 		        tileGeom = new GeometryFactory().createPolygon(new Coordinate[] { new Coordinate(tileGeoBox[0], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[1])});
 		        
@@ -187,16 +162,12 @@ public class SpatialResolve extends EvalFunc<DataBag> {
 				if (!(g instanceof Polygon))
 					continue;
 				
-				PreparedGeometry prep = PreparedGeometryFactory.prepare(g);
-				
 				int[] bBox = Image.imgBBox(new double[] {g.getEnvelopeInternal().getMinX(), g.getEnvelopeInternal().getMinY(), g.getEnvelopeInternal().getMaxX(), g.getEnvelopeInternal().getMaxY()}, tileGeoBox, new int[] {width, height});
 		        
 		        double[] geoBBox = Image.geoBBox(bBox, tileGeoBox, new int[] {width, height});
 					        
 				//int gwidth = bBox[2]-bBox[0]+1;
 				//int gheight = bBox[1]-bBox[3]+1;
-							
-				RandomAccess< LongType > r = img.randomAccess();
 				
 				/*System.out.println("bbox[0]: " + bBox[0]);
 				System.out.println("bbox[1]: " + bBox[1]);
@@ -209,30 +180,7 @@ public class SpatialResolve extends EvalFunc<DataBag> {
 				System.out.println("geobbox[3]: " + geoBBox[3]);*/
 				
 				//Rasterization
-				for (int j=bBox[3]; j<=bBox[1]; j++) {
-					for (int i=bBox[0]; i<=bBox[2]; i++) {
-						
-						double centerPixelX = geoBBox[0] + ((i-bBox[0])*resX) + (resX/2);
-						double centerPixelY = geoBBox[3] + ((j-bBox[3])*resY) + (resY/2);
-						
-						Point point = new GeometryFactory().createPoint(new Coordinate(centerPixelX, centerPixelY));
-						
-						if (prep.covers(point)) {
-							
-							//System.out.println("covers: " + i + "," + j);
-							
-							r.setPosition(i, 0);
-							r.setPosition(j, 1);
-							LongType value = r.get();
-							value.set(id);
-							
-							//System.out.println("put id: " + id);
-							
-							//System.out.println("img id: " + r.get().get());
-						}
-						
-					}
-				}
+				new Rasterizer(bBox[2]-bBox[0]+1, bBox[1]-bBox[3]+1, geoBBox[0], geoBBox[3], resX, resY).rasterize(g, labels, bBox[3]*width + bBox[0], width, id);
 				
 			}
 			
@@ -241,84 +189,17 @@ public class SpatialResolve extends EvalFunc<DataBag> {
 		}
 		
 		//vectorization
-				
-		GeometryFactory fact = new GeometryFactory();
 		
-		Map<Long, List<Geometry>> map2 = new HashMap<Long, List<Geometry>>();
-				
-		Cursor<LongType> cursor = img.cursor();
+		if (labels == null)
+			return;
 		
-		int[] pos = new int[2];
+		Map<Integer, List<Polygon>> map2 = new Polygonizer(width, height, tileGeoBox).polygonize(labels);
 		
-		while (cursor.hasNext()) {
-			LongType value = cursor.next();
-			long id2 = value.get();
-			
-			//invalid id
-			
-			if (!map1.containsKey(id2))
-				continue;
-			
-			cursor.localize(pos);
-			
-			int x = pos[0];
-			int y = pos[1];
-			
-			double CoordX, CoordY;
-				
-			Coordinate [] linePoints = new Coordinate[5];
-			//left top corner
-			CoordX = Image.imgToGeoX(x - 0.5, width, tileGeoBox);
-			CoordY = Image.imgToGeoY(y - 0.5, height, tileGeoBox);
-			linePoints[0]= new Coordinate(CoordX,CoordY);
-			linePoints[4]= new Coordinate(CoordX,CoordY); //close the ring
-            //right top corner
-			CoordX = Image.imgToGeoX(x + 0.5, width, tileGeoBox);
-			CoordY = Image.imgToGeoY(y - 0.5, height, tileGeoBox);
-			linePoints[1] = new Coordinate(CoordX,CoordY);
-			//right bottom corner
-			CoordX = Image.imgToGeoX(x + 0.5, width, tileGeoBox);
-			CoordY = Image.imgToGeoY(y + 0.5, height, tileGeoBox);
-			linePoints[2] = new Coordinate(CoordX,CoordY);
-			//right bottom corner
-			CoordX = Image.imgToGeoX(x - 0.5, width, tileGeoBox);
-			CoordY = Image.imgToGeoY(y + 0.5, height, tileGeoBox);
-			linePoints[3] = new Coordinate(CoordX,CoordY);
-			 
-			LinearRing shell = fact.createLinearRing(linePoints);          			
-  			Geometry poly = fact.createPolygon(shell, null);
-		
-  			if (map2.containsKey(id2)) {
-  				List<Geometry> l = map2.get(id2);
-  				l.add(poly);
-  			} else {
-  				List<Geometry> l = new ArrayList<Geometry>();
-  				l.add(poly);
-  				map2.put(id2, l);
-  			}
-  			  			
-		}
-				
-		for (Map.Entry<Long, List<Geometry>> entry : map2.entrySet()) {
+		for (Map.Entry<Integer, List<Polygon>> entry : map2.entrySet()) {
         	
-			long lid = entry.getKey();
+			int lid = entry.getKey();
 			
-        	List<Geometry> list2 = entry.getValue();
-        	
-        	Geometry[] geoms = new Geometry[list2.size()];
-        	
-        	int index = 0;
-        	for (Geometry geom : list2) {
-        		geoms[index] = geom;
-        		index++;
-        	}
-        	
-        	//Geometry union = new GeometryCollection(geoms, new GeometryFactory()).buffer(0);
-        	Geometry union = fact.createGeometryCollection(geoms).buffer(0);
-        	
-        	for (int k=0; k<union.getNumGeometries(); k++) {
-        	
-        		Geometry aux = union.getGeometryN(k);
+        	for (Polygon aux : entry.getValue()) {
         		
         		if (aux.getArea() < _minArea)
         			continue;
@@ -340,7 +221,7 @@ public class SpatialResolve extends EvalFunc<DataBag> {
         		props.put("iiuuid", map1.get(lid).get(3));
         		props.put("parent", map1.get(lid).get(2));
         		        		
-        		t.set(0,new WKTWriter().write(aux));
+        		t.set(0,GeometryCodec.toBytes(aux, GeometryCodec.quantum(resX)));
         		t.set(1,new HashMap<String,String>(data));
         		t.set(2,props);
         		output.add(t);
@@ -406,7 +287,7 @@ public class SpatialResolve extends EvalFunc<DataBag> {
 		try {
 
 			List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
-			list.add(new Schema.FieldSchema(null, DataType.CHARARRAY));
+			list.add(new Schema.FieldSchema(null, DataType.BYTEARRAY));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			
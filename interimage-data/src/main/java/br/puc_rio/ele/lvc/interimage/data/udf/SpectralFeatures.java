@@ -15,26 +15,17 @@ limitations under the License.*/
 package br.puc_rio.ele.lvc.interimage.data.udf;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import javax.imageio.ImageIO;
-import javax.imageio.ImageReadParam;
-import javax.imageio.stream.ImageInputStream;
-
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
@@ -42,9 +33,10 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
 import com.vividsolutions.jts.geom.Geometry;
 
 import br.puc_rio.ele.lvc.interimage.common.Common;
-import br.puc_rio.ele.lvc.interimage.data.imageioimpl.plugins.tiff.TIFFImageReader;
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
 import br.puc_rio.ele.lvc.interimage.data.FeatureCalculator;
+import br.puc_rio.ele.lvc.interimage.data.PartialFeature;
+import br.puc_rio.ele.lvc.interimage.data.TileCache;
 
 /**
  * A class that computes spectral features for all the input polygons.
@@ -65,11 +57,25 @@ public class SpectralFeatures extends EvalFunc<DataBag> {
 	//private double _tileSize;
 	private boolean _newBag;
 	//private Long _currentTileId;
+	private final boolean _zonal;
 	
 	/**Constructor that takes image URL, feature list and tile size.*/
 	public SpectralFeatures(String imageUrl, String features/*, String tileSize*/) {
+		this(imageUrl, features, "object");
+	}
+	
+	/**
+	 * Constructor that also takes the mode: 'object' computes the features of each polygon alone; 'zonal' burns all
+	 * the polygons of the tile group into a label raster and sweeps the pixels of the tile once. Both give the same values.
+	 */
+	public SpectralFeatures(String imageUrl, String features, String mode) {
 		_imageUrl = imageUrl;
 		_features = features;
+		
+		if (!mode.trim().equalsIgnoreCase("object") && !mode.trim().equalsIgnoreCase("zonal"))
+			throw new IllegalArgumentException("Unknown spectral features mode, expected 'object' or 'zonal': " + mode);
+		
+		_zonal = mode.trim().equalsIgnoreCase("zonal");
 		//_tileSize = Double.parseDouble(tileSize);
 	}
 	
@@ -110,7 +116,8 @@ public class SpectralFeatures extends EvalFunc<DataBag> {
 					imageKey = tokens[0];
 				}
 				
-				if (!_images.contains(imageKey)) {
+				/*Numeric parameters such as the number of gray levels aren't images*/
+				if (!Common.isNumeric(params[j].trim()) && !_images.contains(imageKey)) {
 					_images.add(imageKey);
 				}
 				
@@ -161,6 +168,10 @@ public class SpectralFeatures extends EvalFunc<DataBag> {
 						
 			DataBag output = BagFactory.getInstance().newDefaultBag();
 			
+			/*Objects of the group, computed together in zonal mode*/
+			List<Tuple> tuples = new ArrayList<Tuple>();
+			List<Geometry> geometries = new ArrayList<Geometry>();
+			
 			Iterator it = bag.iterator();
 	        while (it.hasNext()) {
 	            Tuple t = (Tuple)it.next();
@@ -217,132 +228,37 @@ public class SpectralFeatures extends EvalFunc<DataBag> {
 									
 					_imageMap = new HashMap<String, Map<String, Map<String, Object>>>();
 					
+					TileCache cache = TileCache.getInstance();
+					
+					/*The other tiles needed by this group are decoded in the background while this thread loads the first one*/
+					boolean first = true;
+					for (String img : _images) {
+						for (String tile : tiles) {
+							if (!first)
+								cache.prefetch(_imageUrl, img, tile);
+							first = false;
+						}
+					}
+					
 					for (String img : _images) {
 						
-						//Image imageObj = new Image();
-
 						if (!_imageMap.containsKey(img)) {
 							_imageMap.put(img, new HashMap<String, Map<String, Object>>());
 						}
-							
-						//System.out.println(img);
-						
-						//int tileIndex = 0;
 						
 						for (String tile : tiles) {
 						
 							if (!_imageMap.get(img).containsKey(tile)) {	//if tile is not yet in the map
 								
-								//System.out.println(tile + " is not in the map");
-								
-								//download the tile
-								BufferedImage buff = null;
-								//Img< DoubleType > buff = null;
+								BufferedImage buff = cache.getImage(_imageUrl, img, tile);
 								
-								if (br.puc_rio.ele.lvc.interimage.common.URL.exists(_imageUrl + img + "/" + tile + ".tif")) {	//if tile doesn't exist
+								TileCache.Meta meta = buff == null ? null : cache.getMeta(_imageUrl, img, tile);
 								
-									//System.out.println("tile exists");
-
-									//ImgOpener imgOpener = new ImgOpener();
-
-									//buff = (Img< DoubleType >) imgOpener.openImg( _imageUrl + img + "_" + tile + ".tif");
-									
-									//TODO: treat other formats
-									URL imageFile  = new URL(_imageUrl + img + "/" + tile + ".tif");	        		
-									
-									URLConnection urlConn2 = imageFile.openConnection();
-																		
-					                urlConn2.connect();
-					                
-					                InputStream stream = new BufferedInputStream(urlConn2.getInputStream());
-														                
-									//Preparing to read the image
-							        ImageInputStream in = ImageIO.createImageInputStream(stream);
-							        
-							        if (in == null)
-							        	throw new Exception("Could not create input stream: " + imageFile.toString());
-							        
-							        // try to decode the image with all registered imagereaders 
-							        //Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
-							        //Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("tiff");
-							        
-							        //if (!readers.hasNext())
-							        //	throw new Exception("Could not find a reader: " + imageFile.toString());
-							        
-							        //ImageReader reader = null;
-							        
-							        TIFFImageReader reader = new TIFFImageReader(null);
-							        reader.setInput(in);
-							        
-							        //if (readers.hasNext()) {
-							        //    reader = readers.next();
-							        //  reader.setInput(in);           
-							        //} else {
-							        //	// TODO: Test if it is supported format
-							        //	//out.close();
-								    //    throw new Exception("Unsuported image type");
-							        //}
-									
-							        ImageReadParam param = reader.getDefaultReadParam();
-							        
-									buff = reader.read(0,param);
-					                
-									if (buff == null)
-										throw new Exception("Could not instantiate tile image: " + imageFile.toString());
-									
-									/*URL worldFile = new URL(_imageUrl + img + "_" + tile + ".tifw");
-									URLConnection urlConn = worldFile.openConnection();
-					                urlConn.connect();
-									InputStreamReader inStream = new InputStreamReader(urlConn.getInputStream());
-							        BufferedReader reader2 = new BufferedReader(inStream);
-							        
-							        double[] worldArr = new double[6];
-							        
-							        String line;
-							        int index = 0;
-							        while ((line = reader2.readLine()) != null) {
-							        	if (!line.trim().isEmpty()) {
-								        	worldArr[index] = Double.parseDouble(line);
-								        	index++;
-							        	}
-							        }*/
+								if (meta != null) {	//if tile exists
 									
-					                //after downloading, update the map
 									Map<String, Object> aux2 = new HashMap<String, Object>();
 									
-									double[] tileGeoBox = new double[4];
-									
-									/*double [] origin = new double[] {worldArr[4] - (worldArr[0]/2), worldArr[5] - (worldArr[3]/2)};
-																		
-									tileGeoBox[0] = origin[0];
-									tileGeoBox[1] = origin[1] + (worldArr[3]*buff.getHeight());
-									tileGeoBox[2] = origin[0] + (worldArr[0]*buff.getWidth());
-									tileGeoBox[3] = origin[1];*/
-									
-									/*Getting width and height*/
-						        	URL worldFile1 = new URL(_imageUrl + img + "/" + tile + ".meta");
-									URLConnection urlConn1 = worldFile1.openConnection();
-					                urlConn1.connect();
-									InputStreamReader inStream1 = new InputStreamReader(urlConn1.getInputStream());
-							        BufferedReader reader1 = new BufferedReader(inStream1);
-							        
-							        String line1;
-							        int index1 = 0;
-							        while ((line1 = reader1.readLine()) != null) {
-							        	if (!line1.trim().isEmpty()) {
-							        		if (index1==3)
-							        			tileGeoBox[0] = Double.parseDouble(line1);
-							        		else if (index1==4)
-							        			tileGeoBox[1] = Double.parseDouble(line1);
-							        		else if (index1==5)
-							        			tileGeoBox[2] = Double.parseDouble(line1);
-							        		else if (index1==6)
-							        			tileGeoBox[3] = Double.parseDouble(line1);
-								        	index1++;
-							        	}
-							        }
-									
-									aux2.put("geoBox",tileGeoBox);
+									aux2.put("geoBox",meta.getGeoBox());
 									aux2.put("image",buff);
 									
 									/*
@@ -354,14 +270,8 @@ public class SpectralFeatures extends EvalFunc<DataBag> {
 									 * 
 									 */
 									
-									//System.out.println("adds " + tileIndex);
-									
 									Map<String, Map<String, Object>> aux = _imageMap.get(img);
 									aux.put(tile, aux2);
-					                //aux.put(String.valueOf(tileIndex), aux2);
-					                //tileIndex++;
-					                
-									//tileGeom = new GeometryFactory().createPolygon(new Coordinate[] { new Coordinate(tileGeoBox[0], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[1]), new Coordinate(tileGeoBox[2], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[3]), new Coordinate(tileGeoBox[0], tileGeoBox[1])});
 									
 								}
 				                
@@ -409,6 +319,12 @@ public class SpectralFeatures extends EvalFunc<DataBag> {
 										
 				}
 					
+				if (_zonal) {
+					tuples.add(t);
+					geometries.add(geometry);
+					continue;
+				}
+				
 				Map<String, Map<String, Object>> features = null;
 				
 				//String iiuuid = DataType.toString(properties.get("iiuuid"));
@@ -431,17 +347,22 @@ public class SpectralFeatures extends EvalFunc<DataBag> {
 					properties.put(entry.getKey(), entry.getValue());
 				}*/
 				
-				properties.put("spectral_features", features);
+				setFeatures(t, features);
 				
-				String orig_tile = DataType.toString(properties.get("orig_tile"));
+				output.add(t);
 				
-				properties.put("tile", orig_tile);
+	        }
+			
+			if (_zonal && !tuples.isEmpty()) {
 				
-				properties.remove("orig_tile");
+				List<Map<String, Map<String, Object>>> features = new FeatureCalculator().computeFeatures(_imageMap, _featureMap, geometries);
 				
-				output.add(t);
+				for (int i=0; i<tuples.size(); i++) {
+					setFeatures(tuples.get(i), features.get(i));
+					output.add(tuples.get(i));
+				}
 				
-	        }
+			}
 			
 			return output;
 			
@@ -451,13 +372,33 @@ public class SpectralFeatures extends EvalFunc<DataBag> {
 		}
 	}
 	
+	private void setFeatures(Tuple t, Map<String, Map<String, Object>> features) throws Exception {
+		
+		Map<String,Object> properties = DataType.toMap(t.get(2));
+		
+		/*The partials are written as binary records*/
+		Map<String,Object> partials = new HashMap<String,Object>();
+		
+		for (Map.Entry<String, Map<String, Object>> entry : features.entrySet())
+			partials.put(entry.getKey(), new DataByteArray(PartialFeature.fromParams(entry.getValue()).encode()));
+		
+		properties.put("spectral_features", partials);
+		
+		String orig_tile = DataType.toString(properties.get("orig_tile"));
+		
+		properties.put("tile", orig_tile);
+		
+		properties.remove("orig_tile");
+		
+	}
+	
 	@Override
     public Schema outputSchema(Schema input) {
 		
 		try {
 
 			List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
-			list.add(new Schema.FieldSchema(null, DataType.CHARARRAY));
+			list.add(new Schema.FieldSchema(null, DataType.BYTEARRAY));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 					
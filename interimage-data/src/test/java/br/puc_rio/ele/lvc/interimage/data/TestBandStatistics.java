@@ -0,0 +1,154 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.BandStatistics;
+
+import junit.framework.TestCase;
+
+public class TestBandStatistics extends TestCase {
+
+	private static final int WIDTH = 40;
+	private static final int HEIGHT = 30;
+
+	private final Random _random = new Random(42);
+
+	private void fill(WritableRaster raster, double scale, double offset) {
+		for (int y=0; y<raster.getHeight(); y++) {
+			for (int x=0; x<raster.getWidth(); x++) {
+				for (int b=0; b<raster.getNumBands(); b++)
+					raster.setSample(x, y, b, offset + _random.nextDouble()*scale);
+			}
+		}
+	}
+
+	/*Reference implementation: one sample at a time through the raster*/
+	private void assertMatches(Raster raster) {
+
+		for (int n=0; n<10; n++) {
+
+			int x0 = _random.nextInt(raster.getWidth()/2);
+			int y0 = _random.nextInt(raster.getHeight()/2);
+			int width = 1 + _random.nextInt(raster.getWidth()-x0);
+			int height = 1 + _random.nextInt(raster.getHeight()-y0);
+
+			boolean[] mask = new boolean[width*height];
+
+			for (int i=0; i<mask.length; i++)
+				mask[i] = _random.nextBoolean();
+
+			int bands = raster.getNumBands();
+
+			BandStatistics stats = new BandStatistics(bands);
+			stats.accumulate(raster, x0, y0, width, height, mask);
+
+			int count = 0;
+			double[] sum = new double[bands];
+			double[] squared = new double[bands];
+			double[] min = new double[bands];
+			double[] max = new double[bands];
+
+			for (int b=0; b<bands; b++) {
+				min[b] = Double.MAX_VALUE;
+				max[b] = -Double.MAX_VALUE;
+			}
+
+			for (int j=0; j<height; j++) {
+				for (int i=0; i<width; i++) {
+
+					if (!mask[j*width + i])
+						continue;
+
+					for (int b=0; b<bands; b++) {
+						double v = raster.getSampleDouble(x0+i, y0+j, b);
+						sum[b] += v;
+						squared[b] += v*v;
+						min[b] = Math.min(min[b], v);
+						max[b] = Math.max(max[b], v);
+					}
+
+					count++;
+
+				}
+			}
+
+			assertEquals(count, stats.getCount());
+
+			for (int b=0; b<bands; b++) {
+				assertEquals(sum[b], stats.getSum(b), 1e-6);
+				assertEquals(squared[b], stats.getSquared(b), 1e-3);
+				assertEquals(min[b], stats.getMin(b), 0.0);
+				assertEquals(max[b], stats.getMax(b), 0.0);
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testInterleavedBytes() {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+		fill(image.getRaster(), 255, 0);
+		assertMatches(image.getRaster());
+	}
+
+	@Test
+	public void testUnsignedShorts() {
+		WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_USHORT, WIDTH, HEIGHT, 4, null);
+		fill(raster, 65535, 0);
+		assertMatches(raster);
+	}
+
+	@Test
+	public void testBandedFloats() {
+		WritableRaster raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_FLOAT, WIDTH, HEIGHT, 2), null);
+		fill(raster, 2, -1);
+		assertMatches(raster);
+	}
+
+	@Test
+	public void testChildRaster() {
+		WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, WIDTH*2, HEIGHT*2, 3, null);
+		fill(raster, 255, 0);
+		assertMatches(raster.createWritableChild(7, 5, WIDTH, HEIGHT, 0, 0, null));
+	}
+
+	@Test
+	public void testPackedPixels() {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		fill(image.getRaster(), 255, 0);
+		assertMatches(image.getRaster());
+	}
+
+	@Test
+	public void testAccumulatesWindows() {
+
+		WritableRaster raster = Raster.createBandedRaster(DataBuffer.TYPE_INT, WIDTH, HEIGHT, 1, null);
+		fill(raster, 100, 0);
+
+		boolean[] mask = new boolean[WIDTH*HEIGHT];
+		Arrays.fill(mask, true);
+
+		BandStatistics whole = new BandStatistics(1);
+		whole.accumulate(raster, 0, 0, WIDTH, HEIGHT, mask);
+
+		BandStatistics parts = new BandStatistics(1);
+		parts.accumulate(raster, 0, 0, WIDTH, HEIGHT/2, mask);
+		parts.accumulate(raster, 0, HEIGHT/2, WIDTH, HEIGHT-HEIGHT/2, mask);
+
+		assertEquals(whole.getCount(), parts.getCount());
+		assertEquals(whole.getSum(0), parts.getSum(0), 0.0);
+		assertEquals(whole.getMin(0), parts.getMin(0), 0.0);
+		assertEquals(whole.getMax(0), parts.getMax(0), 0.0);
+
+	}
+
+}
@@ -0,0 +1,133 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.pig.data.DataByteArray;
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.FeatureCalculator;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import junit.framework.TestCase;
+
+public class TestFeatureCalculator extends TestCase {
+
+	private static final int WIDTH = 60;
+	private static final int HEIGHT = 40;
+
+	private Map<String, Map<String, Map<String, Object>>> imageMap(Random random) {
+
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+
+		for (int y=0; y<HEIGHT; y++)
+			for (int x=0; x<WIDTH; x++)
+				for (int b=0; b<3; b++)
+					image.getRaster().setSample(x, y, b, random.nextInt(256));
+
+		Map<String, Object> tile = new HashMap<String, Object>();
+		tile.put("image", image);
+		tile.put("geoBox", new double[] {1000, 2000, 1000 + WIDTH, 2000 + HEIGHT});
+
+		Map<String, Map<String, Object>> tiles = new HashMap<String, Map<String, Object>>();
+		tiles.put("T0", tile);
+
+		Map<String, Map<String, Map<String, Object>>> imageMap = new HashMap<String, Map<String, Map<String, Object>>>();
+		imageMap.put("image", tiles);
+
+		return imageMap;
+	}
+
+	private void feature(Map<String, Map<String, Object>> featureMap, String attribute, String operation, String... params) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("operation", operation);
+		map.put("params", new ArrayList<String>(Arrays.asList(params)));
+		featureMap.put(attribute, map);
+	}
+
+	private Geometry box(double x1, double y1, double x2, double y2) {
+		return new GeometryFactory().createPolygon(new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y1), new Coordinate(x2, y2), new Coordinate(x1, y2), new Coordinate(x1, y1)});
+	}
+
+	@Test
+	public void testZonalModeMatchesObjectMode() throws Exception {
+
+		Random random = new Random(42);
+
+		Map<String, Map<String, Map<String, Object>>> imageMap = imageMap(random);
+
+		Map<String, Map<String, Object>> featureMap = new HashMap<String, Map<String, Object>>();
+		feature(featureMap, "Mean", "mean", "image_layer1");
+		feature(featureMap, "StdDev", "standardDeviation", "image_layer2");
+		feature(featureMap, "Max", "maxPixelValue", "image_layer3");
+		feature(featureMap, "Min", "minPixelValue", "image_layer3");
+		feature(featureMap, "Brightness", "brightness", "image");
+		feature(featureMap, "Ratio", "ratio", "image_layer2");
+		feature(featureMap, "Contrast", "glcmContrast", "image_layer1", "32");
+
+		List<Geometry> geometries = new ArrayList<Geometry>();
+
+		/*A grid of objects*/
+		for (int y=0; y<4; y++)
+			for (int x=0; x<6; x++)
+				geometries.add(box(1000 + x*10, 2000 + y*10, 1000 + (x+1)*10, 2000 + (y+1)*10));
+
+		/*Overlapping objects, an object crossing the tile border and one outside the tile*/
+		geometries.add(box(1003.2, 2004.7, 1017.9, 2013.1));
+		geometries.add(box(1055.5, 2035.5, 1070, 2045));
+		geometries.add(new GeometryFactory().createPolygon(new Coordinate[] {new Coordinate(1020, 2020), new Coordinate(1031, 2024), new Coordinate(1024, 2033), new Coordinate(1020, 2020)}));
+		geometries.add(box(2000, 3000, 2010, 3010));
+
+		FeatureCalculator calculator = new FeatureCalculator();
+
+		List<Map<String, Map<String, Object>>> zonal = calculator.computeFeatures(imageMap, featureMap, geometries);
+
+		assertEquals(geometries.size(), zonal.size());
+
+		for (int i=0; i<geometries.size(); i++)
+			assertEquals(calculator.computeFeatures(imageMap, featureMap, geometries.get(i)), zonal.get(i));
+
+		/*The object outside the tile only carries the operation names*/
+		assertEquals(1, zonal.get(geometries.size()-1).get("Mean").size());
+		assertEquals(100, zonal.get(0).get("Mean").get("count"));
+
+	}
+
+	@Test
+	public void testZonalHistogramsWithoutTextures() throws Exception {
+
+		Map<String, Map<String, Map<String, Object>>> imageMap = imageMap(new Random(7));
+
+		Map<String, Map<String, Object>> featureMap = new HashMap<String, Map<String, Object>>();
+		feature(featureMap, "Median", "median", "image_layer1");
+		feature(featureMap, "Percentile", "percentile", "image_layer2", "97.5");
+
+		List<Geometry> geometries = new ArrayList<Geometry>();
+
+		for (int x=0; x<6; x++)
+			geometries.add(box(1000 + x*10, 2000, 1000 + (x+1)*10, 2010));
+
+		FeatureCalculator calculator = new FeatureCalculator();
+
+		List<Map<String, Map<String, Object>>> zonal = calculator.computeFeatures(imageMap, featureMap, geometries);
+
+		for (int i=0; i<geometries.size(); i++) {
+			assertEquals(calculator.computeFeatures(imageMap, featureMap, geometries.get(i)), zonal.get(i));
+			assertEquals(100, PixelHistogram.read(new DataInputStream(new ByteArrayInputStream(((DataByteArray)zonal.get(i).get("Median").get("histogram")).get()))).getCount());
+		}
+
+		assertEquals(97.5, zonal.get(0).get("Percentile").get("percentile"));
+
+	}
+
+}
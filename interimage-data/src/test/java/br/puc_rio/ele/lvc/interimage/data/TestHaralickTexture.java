@@ -0,0 +1,186 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.HaralickTexture;
+
+import junit.framework.TestCase;
+
+public class TestHaralickTexture extends TestCase {
+
+	private static final int[] ANGLES = {0, 45, 90, 135};
+
+	private double[] image(int width, int height, Random random) {
+		double[] samples = new double[width*height];
+		for (int i=0; i<samples.length; i++)
+			samples[i] = random.nextInt(256);
+		return samples;
+	}
+
+	/*Dense symmetric matrix computed directly from the definition*/
+	private double[][] matrix(double[] samples, int width, int height, int levels, boolean[] mask) {
+
+		double[][] glcm = new double[levels][levels];
+		double total = 0;
+
+		for (int angle : ANGLES) {
+
+			int dx = (int)Math.round(Math.cos(Math.toRadians(-angle)));
+			int dy = (int)Math.round(Math.sin(Math.toRadians(-angle)));
+
+			for (int y=0; y<height; y++) {
+				for (int x=0; x<width; x++) {
+
+					int x2 = x+dx;
+					int y2 = y+dy;
+
+					if (x2 < 0 || y2 < 0 || x2 >= width || y2 >= height)
+						continue;
+
+					if (mask != null && (!mask[y*width+x] || !mask[y2*width+x2]))
+						continue;
+
+					int a = ((int)samples[y*width+x] * levels) / 256;
+					int b = ((int)samples[y2*width+x2] * levels) / 256;
+
+					glcm[a][b]++;
+					glcm[b][a]++;
+					total += 2;
+
+				}
+			}
+
+		}
+
+		for (int i=0; i<levels; i++)
+			for (int j=0; j<levels; j++)
+				glcm[i][j] /= total;
+
+		return glcm;
+	}
+
+	private void assertFeatures(double[][] p, Map<String, Double> features) {
+
+		int levels = p.length;
+
+		double[] px = new double[levels];
+		double asm = 0, contrast = 0, entropy = 0, homogeneity = 0, dissimilarity = 0;
+
+		for (int i=0; i<levels; i++) {
+			for (int j=0; j<levels; j++) {
+				px[i] += p[i][j];
+				asm += p[i][j]*p[i][j];
+				contrast += (i-j)*(i-j)*p[i][j];
+				dissimilarity += Math.abs(i-j)*p[i][j];
+				homogeneity += p[i][j]/(1+Math.abs(i-j));
+				if (p[i][j] > 0)
+					entropy -= p[i][j]*Math.log(p[i][j]);
+			}
+		}
+
+		double mean = 0;
+		for (int i=0; i<levels; i++)
+			mean += i*px[i];
+
+		double variance = 0;
+		for (int i=0; i<levels; i++)
+			variance += (i-mean)*(i-mean)*px[i];
+
+		assertEquals(asm, features.get("asm"), 1e-9);
+		assertEquals(contrast, features.get("contrast"), 1e-9);
+		assertEquals(dissimilarity, features.get("dissimilarity"), 1e-9);
+		assertEquals(entropy, features.get("entropy"), 1e-9);
+		assertEquals(homogeneity, features.get("homogeneity"), 1e-9);
+		assertEquals(mean, features.get("mean"), 1e-9);
+		assertEquals(variance, features.get("variance"), 1e-9);
+		assertEquals(Math.sqrt(variance), features.get("stddev"), 1e-9);
+
+	}
+
+	@Test
+	public void testFeaturesMatchDefinition() throws Exception {
+
+		Random random = new Random(42);
+
+		int width = 30;
+		int height = 20;
+
+		double[] samples = image(width, height, random);
+
+		boolean[] mask = new boolean[width*height];
+		for (int i=0; i<mask.length; i++)
+			mask[i] = random.nextInt(4) != 0;
+
+		for (int levels : new int[] {8, 32, 256}) {
+
+			HaralickTexture texture = new HaralickTexture(levels, ANGLES);
+			texture.accumulate(samples, width, height, null);
+			assertFeatures(matrix(samples, width, height, levels, null), texture.getFeatures());
+
+			HaralickTexture masked = new HaralickTexture(levels, ANGLES);
+			masked.accumulate(samples, width, height, mask);
+			assertFeatures(matrix(samples, width, height, levels, mask), masked.getFeatures());
+
+		}
+
+	}
+
+	@Test
+	public void testSparseAndDenseAgree() throws Exception {
+
+		Random random = new Random(7);
+
+		/*Few pairs stay sparse, many pairs switch to the dense matrix*/
+		double[] small = image(4, 3, random);
+		double[] large = image(40, 40, random);
+
+		HaralickTexture sparse = new HaralickTexture(16, ANGLES);
+		sparse.accumulate(small, 4, 3, null);
+
+		HaralickTexture dense = new HaralickTexture(16, ANGLES);
+		dense.accumulate(large, 40, 40, null);
+
+		HaralickTexture merged = HaralickTexture.decode(sparse.encode());
+		merged.merge(HaralickTexture.decode(dense.encode()));
+
+		HaralickTexture both = new HaralickTexture(16, ANGLES);
+		both.accumulate(large, 40, 40, null);
+		both.accumulate(small, 4, 3, null);
+
+		assertEquals(both.getPairs(), merged.getPairs());
+		assertEquals(both.encode(), merged.encode());
+
+		for (String feature : HaralickTexture.FEATURES)
+			assertEquals(both.getFeature(feature), merged.getFeature(feature), 1e-12);
+
+	}
+
+	@Test
+	public void testConstantAndEmptyObjects() throws Exception {
+
+		HaralickTexture constant = new HaralickTexture(32, ANGLES);
+		constant.accumulate(new double[] {100, 100, 100, 100}, 2, 2, null);
+
+		assertEquals(1.0, constant.getFeature("asm"), 1e-12);
+		assertEquals(0.0, constant.getFeature("contrast"), 1e-12);
+		assertEquals(1.0, constant.getFeature("correlation"), 1e-12);
+		assertEquals(12.0, constant.getFeature("mean"), 1e-12);
+
+		HaralickTexture empty = new HaralickTexture(32, ANGLES);
+		empty.accumulate(new double[] {100}, 1, 1, null);
+
+		assertEquals(0, empty.getPairs());
+		assertTrue(Double.isNaN(empty.getFeature("entropy")));
+
+		try {
+			empty.getFeature("unknown");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+	}
+
+}
@@ -0,0 +1,274 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.FeatureCalculator;
+import br.puc_rio.ele.lvc.interimage.data.PartialFeature;
+import br.puc_rio.ele.lvc.interimage.data.udf.CombineSpectralFeatures;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import junit.framework.TestCase;
+
+public class TestPartialFeature extends TestCase {
+
+	private static final String[][] FEATURES = {
+		{"Mean", "mean", "image_layer1"},
+		{"StdDev", "standardDeviation", "image_layer2"},
+		{"Max", "maxPixelValue", "image_layer3"},
+		{"Min", "minPixelValue", "image_layer1"},
+		{"Amplitude", "amplitudeValue", "image_layer2"},
+		{"Brightness", "brightness", "image"},
+		{"Ratio", "ratio", "image_layer2"},
+		{"Add", "bandMeanAdd", "image_layer1", "image_layer2"},
+		{"Div", "bandMeanDiv", "image_layer1", "image_layer3"},
+		{"Mul", "bandMeanMul", "image_layer2", "image_layer3"},
+		{"Sub", "bandMeanSub", "image_layer3", "image_layer1"},
+		{"Entropy", "glcmEntropy", "image_layer1", "16"},
+		{"Median", "median", "image_layer2"},
+		{"Mode", "mode", "image_layer3"},
+		{"ValueEntropy", "entropy", "image_layer1"},
+		{"Percentile", "percentile", "image_layer3", "97.5"}
+	};
+
+	private Map<String, Map<String, Object>> featureMap() {
+
+		Map<String, Map<String, Object>> featureMap = new HashMap<String, Map<String, Object>>();
+
+		for (String[] feature : FEATURES) {
+			Map<String, Object> map = new HashMap<String, Object>();
+			map.put("operation", feature[1]);
+			map.put("params", new ArrayList<String>(Arrays.asList(feature).subList(2, feature.length)));
+			featureMap.put(feature[0], map);
+		}
+
+		return featureMap;
+	}
+
+	/*Tiles of 20x20 pixels side by side*/
+	private Map<String, Map<String, Map<String, Object>>> imageMap(BufferedImage[] tiles, int... indices) {
+
+		Map<String, Map<String, Object>> map = new HashMap<String, Map<String, Object>>();
+
+		for (int t : indices) {
+			Map<String, Object> tile = new HashMap<String, Object>();
+			tile.put("image", tiles[t]);
+			tile.put("geoBox", new double[] {t*20, 0, (t+1)*20, 20});
+			map.put("T" + t, tile);
+		}
+
+		Map<String, Map<String, Map<String, Object>>> imageMap = new HashMap<String, Map<String, Map<String, Object>>>();
+		imageMap.put("image", map);
+
+		return imageMap;
+	}
+
+	private Tuple part(Geometry geometry, Map<String, Map<String, Object>> features, boolean representative) throws Exception {
+		return part("object", geometry, features, representative);
+	}
+
+	private Tuple part(String id, Geometry geometry, Map<String, Map<String, Object>> features, boolean representative) throws Exception {
+
+		Map<String, Object> partials = new HashMap<String, Object>();
+
+		for (Map.Entry<String, Map<String, Object>> entry : features.entrySet())
+			partials.put(entry.getKey(), new DataByteArray(PartialFeature.fromParams(entry.getValue()).encode()));
+
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("iiuuid", id);
+		props.put("spectral_features", partials);
+		if (!representative)
+			props.put("iirep", "true");
+
+		Tuple t = TupleFactory.getInstance().newTuple(3);
+		t.set(0, geometry.toText());
+		t.set(1, new HashMap<String, Object>());
+		t.set(2, props);
+
+		return t;
+	}
+
+	private DataBag bag(Tuple... tuples) {
+		DataBag bag = BagFactory.getInstance().newDefaultBag();
+		for (Tuple t : tuples)
+			bag.add(t);
+		return bag;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> properties(DataBag bag) throws Exception {
+		assertEquals(1, bag.size());
+		return (Map<String, Object>)bag.iterator().next().get(2);
+	}
+
+	@Test
+	public void testMergedPartialsMatchWholeObject() throws Exception {
+
+		Random random = new Random(42);
+
+		BufferedImage[] tiles = new BufferedImage[2];
+
+		for (int t=0; t<2; t++) {
+			tiles[t] = new BufferedImage(20, 20, BufferedImage.TYPE_3BYTE_BGR);
+			for (int y=0; y<20; y++)
+				for (int x=0; x<20; x++)
+					for (int b=0; b<3; b++)
+						tiles[t].getRaster().setSample(x, y, b, 1 + random.nextInt(255));
+		}
+
+		Geometry geometry = new GeometryFactory().createPolygon(new Coordinate[] {new Coordinate(5, 3), new Coordinate(33, 6), new Coordinate(28, 17), new Coordinate(7, 15), new Coordinate(5, 3)});
+
+		FeatureCalculator calculator = new FeatureCalculator();
+
+		Map<String, Map<String, Object>> whole = calculator.computeFeatures(imageMap(tiles, 0, 1), featureMap(), geometry);
+		Map<String, Map<String, Object>> left = calculator.computeFeatures(imageMap(tiles, 0), featureMap(), geometry);
+		Map<String, Map<String, Object>> right = calculator.computeFeatures(imageMap(tiles, 1), featureMap(), geometry);
+
+		for (String[] feature : FEATURES) {
+
+			PartialFeature expected = PartialFeature.fromParams(whole.get(feature[0]));
+
+			PartialFeature merged = PartialFeature.decode(PartialFeature.fromParams(left.get(feature[0])).encode());
+			merged.merge(PartialFeature.decode(PartialFeature.fromParams(right.get(feature[0])).encode()));
+
+			assertEquals(feature[0], expected.getValue(), merged.getValue(), 1e-9);
+
+		}
+
+		/*Combined by the reducer and through the combiner*/
+		Tuple part1 = part(geometry, left, true);
+		Tuple part2 = part(geometry, right, false);
+
+		Map<String, Object> reduced = properties(new CombineSpectralFeatures().exec(TupleFactory.getInstance().newTuple(bag(part1, part2))));
+
+		Tuple initial1 = new CombineSpectralFeatures.Initial().exec(TupleFactory.getInstance().newTuple(bag(part(geometry, left, true))));
+		Tuple initial2 = new CombineSpectralFeatures.Initial().exec(TupleFactory.getInstance().newTuple(bag(part(geometry, right, false))));
+		Tuple intermed = new CombineSpectralFeatures.Intermed().exec(TupleFactory.getInstance().newTuple(bag(initial2)));
+
+		Map<String, Object> combined = properties(new CombineSpectralFeatures.Final().exec(TupleFactory.getInstance().newTuple(bag(intermed, initial1))));
+
+		assertFalse(reduced.containsKey("spectral_features"));
+		assertFalse(combined.containsKey("spectral_features"));
+
+		for (String[] feature : FEATURES) {
+			assertEquals(PartialFeature.fromParams(whole.get(feature[0])).getValue(), (Double)reduced.get(feature[0]), 1e-9);
+			assertEquals((Double)reduced.get(feature[0]), (Double)combined.get(feature[0]), 1e-9);
+		}
+
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testObjectsOfGroupKeptApart() throws Exception {
+
+		BufferedImage[] tiles = new BufferedImage[2];
+
+		for (int t=0; t<2; t++) {
+			tiles[t] = new BufferedImage(20, 20, BufferedImage.TYPE_3BYTE_BGR);
+			for (int y=0; y<20; y++)
+				for (int x=0; x<20; x++)
+					for (int b=0; b<3; b++)
+						tiles[t].getRaster().setSample(x, y, b, t*100 + x + y + b);
+		}
+
+		GeometryFactory factory = new GeometryFactory();
+
+		Geometry a = factory.createPolygon(new Coordinate[] {new Coordinate(2, 2), new Coordinate(30, 2), new Coordinate(30, 8), new Coordinate(2, 8), new Coordinate(2, 2)});
+		Geometry b = factory.createPolygon(new Coordinate[] {new Coordinate(12, 10), new Coordinate(38, 10), new Coordinate(38, 18), new Coordinate(12, 18), new Coordinate(12, 10)});
+
+		FeatureCalculator calculator = new FeatureCalculator();
+
+		Tuple[] parts = {
+				part("a", a, calculator.computeFeatures(imageMap(tiles, 0), featureMap(), a), true),
+				part("b", b, calculator.computeFeatures(imageMap(tiles, 0), featureMap(), b), false),
+				part("a", a, calculator.computeFeatures(imageMap(tiles, 1), featureMap(), a), false),
+				part("b", b, calculator.computeFeatures(imageMap(tiles, 1), featureMap(), b), true)
+		};
+
+		Tuple initial1 = new CombineSpectralFeatures.Initial().exec(TupleFactory.getInstance().newTuple(bag(parts[0], parts[1])));
+		Tuple initial2 = new CombineSpectralFeatures.Initial().exec(TupleFactory.getInstance().newTuple(bag(parts[2])));
+		Tuple initial3 = new CombineSpectralFeatures.Initial().exec(TupleFactory.getInstance().newTuple(bag(parts[3])));
+		Tuple intermed = new CombineSpectralFeatures.Intermed().exec(TupleFactory.getInstance().newTuple(bag(initial1, initial2)));
+
+		DataBag combined = new CombineSpectralFeatures.Final().exec(TupleFactory.getInstance().newTuple(bag(intermed, initial3)));
+
+		assertEquals(2, combined.size());
+
+		Map<String, Geometry> geometries = new HashMap<String, Geometry>();
+		geometries.put("a", a);
+		geometries.put("b", b);
+
+		for (Tuple t : combined) {
+
+			Map<String, Object> properties = (Map<String, Object>)t.get(2);
+
+			Map<String, Map<String, Object>> whole = calculator.computeFeatures(imageMap(tiles, 0, 1), featureMap(), geometries.get(properties.get("iiuuid")));
+
+			for (String[] feature : FEATURES)
+				assertEquals(PartialFeature.fromParams(whole.get(feature[0])).getValue(), (Double)properties.get(feature[0]), 1e-9);
+
+		}
+
+	}
+
+	@Test
+	public void testEmptyAndLegacyPartials() throws Exception {
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("name", "mean");
+
+		PartialFeature empty = PartialFeature.decode(PartialFeature.fromParams(params).encode());
+
+		assertTrue(empty.isEmpty());
+		assertNull(empty.getValue());
+
+		params.put("sum", 30.0);
+		params.put("count", 4);
+
+		PartialFeature mean = PartialFeature.fromParams(params);
+
+		empty.merge(mean);
+		empty.merge(mean);
+
+		assertEquals(7.5, empty.getValue(), 0.0);
+
+		/*Partials written as maps are still combined*/
+		Map<String, Object> features = new HashMap<String, Object>();
+		features.put("Mean", params);
+
+		Map<String, Object> props = new HashMap<String, Object>();
+		props.put("iiuuid", "object");
+		props.put("spectral_features", features);
+
+		Tuple t = TupleFactory.getInstance().newTuple(3);
+		t.set(0, "POINT (0 0)");
+		t.set(1, new HashMap<String, Object>());
+		t.set(2, props);
+
+		assertEquals(7.5, properties(new CombineSpectralFeatures().exec(TupleFactory.getInstance().newTuple(bag(t)))).get("Mean"));
+
+	}
+
+	@Test
+	public void testGeometriesDeclaredAsBytes() throws Exception {
+		Schema.FieldSchema tuple = new CombineSpectralFeatures().outputSchema(null).getField(0).schema.getField(0);
+		assertEquals(DataType.BYTEARRAY, tuple.schema.getField(0).type);
+	}
+
+}
@@ -0,0 +1,218 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.ops.operation.iterable.unary.MedianOp;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.PixelHistogram;
+import br.puc_rio.ele.lvc.interimage.data.udf.EntropyValue;
+import br.puc_rio.ele.lvc.interimage.data.udf.MedianValue;
+import br.puc_rio.ele.lvc.interimage.data.udf.ModeValue;
+import br.puc_rio.ele.lvc.interimage.data.udf.PercentileValue;
+
+import junit.framework.TestCase;
+
+public class TestPixelHistogram extends TestCase {
+
+	/*8 bit, 16 bit, signed, sparse integers and non integer values*/
+	private double[] values(Random random, int kind, int n) {
+
+		double[] values = new double[n];
+
+		for (int i=0; i<n; i++) {
+			switch (kind) {
+				case 0:
+					values[i] = random.nextInt(256);
+					break;
+				case 1:
+					values[i] = random.nextInt(65536);
+					break;
+				case 2:
+					values[i] = random.nextInt(4096) - 2048;
+					break;
+				case 3:
+					values[i] = random.nextInt(10) * 100000 - 300000;
+					break;
+				default:
+					values[i] = Math.round(random.nextGaussian() * 100) / 8.0;
+			}
+		}
+
+		return values;
+	}
+
+	private void assertMatches(double[] values, PixelHistogram histogram) {
+
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+
+		int n = sorted.length;
+
+		assertEquals(n, histogram.getCount());
+		assertEquals(sorted[0], histogram.getMin());
+		assertEquals(sorted[n-1], histogram.getMax());
+		assertEquals(sorted[n/2], histogram.getMedian());
+
+		for (int p : new int[] {0, 1, 25, 50, 90, 100})
+			assertEquals(sorted[Math.min(n-1, p*n/100)], histogram.getPercentile(p));
+
+		Map<Double, Integer> counts = new HashMap<Double, Integer>();
+
+		for (double value : values)
+			counts.put(value, counts.containsKey(value) ? counts.get(value) + 1 : 1);
+
+		double mode = Double.NaN;
+		int max = 0;
+		double entropy = 0.0;
+
+		for (Map.Entry<Double, Integer> entry : counts.entrySet()) {
+			if (entry.getValue() > max || (entry.getValue() == max && entry.getKey() < mode)) {
+				max = entry.getValue();
+				mode = entry.getKey();
+			}
+			double p = (double)entry.getValue() / n;
+			entropy -= p * Math.log(p) / Math.log(2);
+		}
+
+		assertEquals(counts.size(), histogram.getDistinct());
+		assertEquals(mode, histogram.getMode());
+		assertEquals(max, histogram.getModeCount());
+		assertEquals(entropy, histogram.getEntropy(), 1e-9);
+
+	}
+
+	private String text(double[] values) {
+		StringBuilder builder = new StringBuilder("0 " + values.length + " 1");
+		for (double value : values)
+			builder.append(' ').append(value);
+		return builder.toString();
+	}
+
+	@Test
+	public void testStatisticsMatchSortedValues() throws Exception {
+
+		Random random = new Random(42);
+
+		for (int kind=0; kind<5; kind++) {
+			for (int n : new int[] {1, 2, 7, 1000}) {
+
+				double[] values = values(random, kind, n);
+
+				PixelHistogram histogram = new PixelHistogram();
+				histogram.add(values);
+
+				assertMatches(values, histogram);
+
+				/*Split in two, merged and written in both forms*/
+				PixelHistogram first = new PixelHistogram();
+				first.add(Arrays.copyOfRange(values, 0, n/2));
+
+				PixelHistogram second = new PixelHistogram();
+				second.add(Arrays.copyOfRange(values, n/2, n));
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				second.write(new DataOutputStream(bytes));
+
+				PixelHistogram merged = PixelHistogram.decode(first.encode());
+				merged.merge(PixelHistogram.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+				assertMatches(values, merged);
+
+			}
+		}
+
+		/*Values that don't fit in the dense range together*/
+		double[] values = {70000, 3, 3, 70000, -5, 70000, 2.5, 65539, 4};
+
+		PixelHistogram histogram = new PixelHistogram();
+		histogram.add(values);
+
+		assertMatches(values, histogram);
+
+		assertTrue(Double.isNaN(new PixelHistogram().getMedian()));
+
+	}
+
+	@Test
+	public void testRasterWindow() throws Exception {
+
+		BufferedImage image = new BufferedImage(8, 6, BufferedImage.TYPE_USHORT_GRAY);
+
+		Random random = new Random(7);
+
+		for (int y=0; y<6; y++)
+			for (int x=0; x<8; x++)
+				image.getRaster().setSample(x, y, 0, random.nextInt(65536));
+
+		boolean[] mask = new boolean[5*4];
+		double[] values = new double[mask.length];
+
+		int n = 0;
+
+		for (int i=0; i<mask.length; i++) {
+			mask[i] = i % 3 != 0;
+			if (mask[i])
+				values[n++] = image.getRaster().getSample(2 + i%5, 1 + i/5, 0);
+		}
+
+		PixelHistogram histogram = new PixelHistogram();
+		histogram.accumulate(image.getRaster(), 0, 2, 1, 5, 4, mask);
+
+		assertMatches(Arrays.copyOf(values, n), histogram);
+
+	}
+
+	@Test
+	public void testUDFs() throws Exception {
+
+		Random random = new Random(3);
+
+		for (int n : new int[] {1, 4, 9, 500}) {
+
+			double[] values = values(random, 0, n);
+
+			Img<DoubleType> img = new ArrayImgFactory<DoubleType>().create(new long[] {n, 1}, new DoubleType());
+			Cursor<DoubleType> cursor = img.cursor();
+			for (int i=0; cursor.hasNext(); i++)
+				cursor.next().set(values[i]);
+
+			Tuple input = TupleFactory.getInstance().newTuple(text(values));
+
+			/*Same convention as imglib for an even number of values*/
+			assertEquals(new MedianOp<DoubleType, DoubleType>().compute(img.iterator(), new DoubleType()).get(), new MedianValue().exec(input));
+
+			PixelHistogram histogram = new PixelHistogram();
+			histogram.add(values);
+
+			assertEquals(histogram.getEntropy(), new EntropyValue().exec(input));
+
+			Tuple percentile = TupleFactory.getInstance().newTuple(2);
+			percentile.set(0, text(values));
+			percentile.set(1, 50);
+
+			assertEquals(histogram.getMedian(), new PercentileValue().exec(percentile));
+
+		}
+
+		assertEquals(3.0, new ModeValue().exec(TupleFactory.getInstance().newTuple("0 7 1 5 3 1 3 5 9 2")));
+		assertNull(new ModeValue().exec(TupleFactory.getInstance().newTuple("0 3 1 5 3 1")));
+
+	}
+
+}
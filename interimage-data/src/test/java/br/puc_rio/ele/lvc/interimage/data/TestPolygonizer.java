@@ -0,0 +1,155 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.Image;
+import br.puc_rio.ele.lvc.interimage.data.Polygonizer;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+import junit.framework.TestCase;
+
+public class TestPolygonizer extends TestCase {
+
+	private static final double[] GEO_BOX = new double[] {684306.2852457707, 7463100.402618, 684330.2852457707, 7463168.402618};
+
+	/*Reference implementation: union of the pixel squares of each label*/
+	private Map<Integer, Geometry> unionOfSquares(int[] labels, int width, int height) {
+
+		GeometryFactory fact = new GeometryFactory();
+
+		Map<Integer, List<Geometry>> map = new HashMap<Integer, List<Geometry>>();
+
+		for (int y=0; y<height; y++) {
+			for (int x=0; x<width; x++) {
+
+				int label = labels[y*width + x];
+
+				if (label < 0)
+					continue;
+
+				Coordinate[] linePoints = new Coordinate[5];
+				linePoints[0] = new Coordinate(Image.imgToGeoX(x - 0.5, width, GEO_BOX), Image.imgToGeoY(y - 0.5, height, GEO_BOX));
+				linePoints[1] = new Coordinate(Image.imgToGeoX(x + 0.5, width, GEO_BOX), Image.imgToGeoY(y - 0.5, height, GEO_BOX));
+				linePoints[2] = new Coordinate(Image.imgToGeoX(x + 0.5, width, GEO_BOX), Image.imgToGeoY(y + 0.5, height, GEO_BOX));
+				linePoints[3] = new Coordinate(Image.imgToGeoX(x - 0.5, width, GEO_BOX), Image.imgToGeoY(y + 0.5, height, GEO_BOX));
+				linePoints[4] = new Coordinate(linePoints[0]);
+
+				if (!map.containsKey(label))
+					map.put(label, new ArrayList<Geometry>());
+
+				map.get(label).add(fact.createPolygon(fact.createLinearRing(linePoints), null));
+
+			}
+		}
+
+		Map<Integer, Geometry> result = new HashMap<Integer, Geometry>();
+
+		for (Map.Entry<Integer, List<Geometry>> entry : map.entrySet()) {
+			List<Geometry> list = entry.getValue();
+			result.put(entry.getKey(), fact.createGeometryCollection(list.toArray(new Geometry[list.size()])).buffer(0));
+		}
+
+		return result;
+	}
+
+	private void assertEquivalent(int[] labels, int width, int height) {
+
+		GeometryFactory fact = new GeometryFactory();
+
+		Map<Integer, Geometry> expected = unionOfSquares(labels, width, height);
+		Map<Integer, List<Polygon>> actual = new Polygonizer(width, height, GEO_BOX).polygonize(labels);
+
+		assertEquals(expected.keySet(), actual.keySet());
+
+		for (Map.Entry<Integer, List<Polygon>> entry : actual.entrySet()) {
+
+			List<Polygon> polys = entry.getValue();
+			Geometry geom = fact.createMultiPolygon(polys.toArray(new Polygon[polys.size()]));
+			Geometry ref = expected.get(entry.getKey());
+
+			assertTrue(geom.isValid());
+			assertEquals(ref.getNumGeometries(), geom.getNumGeometries());
+			assertTrue(ref.equalsTopo(geom));
+
+			for (Polygon p : polys) {
+				assertFalse(hasCollinearVertex(p.getExteriorRing().getCoordinates()));
+				for (int k=0; k<p.getNumInteriorRing(); k++)
+					assertFalse(hasCollinearVertex(p.getInteriorRingN(k).getCoordinates()));
+			}
+
+		}
+
+	}
+
+	private boolean hasCollinearVertex(Coordinate[] coords) {
+		int n = coords.length-1;
+		for (int i=0; i<n; i++) {
+			Coordinate a = coords[(i+n-1) % n];
+			Coordinate b = coords[i];
+			Coordinate c = coords[(i+1) % n];
+			if ((a.x == b.x && b.x == c.x) || (a.y == b.y && b.y == c.y))
+				return true;
+		}
+		return false;
+	}
+
+	@Test
+	public void testHoleTouchingShell() {
+
+		/*The hole touches the outside diagonally at a single vertex*/
+		int[] labels = new int[] {
+				-1, 1, 1, 1,
+				 1,-1, 1, 1,
+				 1, 1, 1, 1,
+				 1, 1, 1, 2};
+
+		assertEquivalent(labels, 4, 4);
+
+	}
+
+	@Test
+	public void testDiagonalRegions() {
+
+		/*Same label touching only at corners must give separate polygons*/
+		int[] labels = new int[] {
+				0, 1, 0, 1,
+				1, 0, 1, 0,
+				0, 1, 0, 1};
+
+		assertEquivalent(labels, 4, 3);
+
+	}
+
+	@Test
+	public void testRandomRasters() {
+
+		Random random = new Random(42);
+
+		for (int n=0; n<200; n++) {
+
+			int width = 3 + random.nextInt(14);
+			int height = 3 + random.nextInt(14);
+			int classes = 1 + random.nextInt(4);
+
+			int[] labels = new int[width*height];
+
+			for (int i=0; i<labels.length; i++)
+				labels[i] = random.nextInt(classes+1) - 1;
+
+			assertEquivalent(labels, width, height);
+
+		}
+
+	}
+
+}
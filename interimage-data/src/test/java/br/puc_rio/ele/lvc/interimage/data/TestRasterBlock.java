@@ -0,0 +1,153 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.data.DataByteArray;
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.DataParser;
+import br.puc_rio.ele.lvc.interimage.data.RasterBlock;
+
+import junit.framework.TestCase;
+
+public class TestRasterBlock extends TestCase {
+
+	private WritableRaster raster(Random random) {
+
+		BufferedImage image = new BufferedImage(12, 9, BufferedImage.TYPE_3BYTE_BGR);
+		WritableRaster raster = image.getRaster();
+
+		for (int y=0; y<9; y++)
+			for (int x=0; x<12; x++)
+				for (int b=0; b<3; b++)
+					raster.setSample(x, y, b, random.nextInt(256));
+
+		return raster;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		Random random = new Random(42);
+		WritableRaster raster = raster(random);
+
+		boolean[] mask = new boolean[5*4];
+		for (int i=0; i<mask.length; i++)
+			mask[i] = random.nextBoolean();
+
+		int[] types = {DataBuffer.TYPE_BYTE, DataBuffer.TYPE_USHORT, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_INT, DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE};
+
+		for (int type : types) {
+			for (boolean deflate : new boolean[] {false, true}) {
+
+				RasterBlock block = RasterBlock.parse(RasterBlock.encode(raster, 3, 2, 5, 4, new int[] {2, 0}, mask, type, deflate));
+
+				assertEquals(type, block.getType());
+				assertEquals(5, block.getWidth());
+				assertEquals(4, block.getHeight());
+				assertEquals(2, block.getBands());
+
+				for (int i=0; i<mask.length; i++) {
+					assertEquals(mask[i], block.getMask()[i]);
+					assertEquals(raster.getSample(3 + i%5, 2 + i/5, 2), block.getSample(0, i), 0.0);
+					assertEquals(raster.getSample(3 + i%5, 2 + i/5, 0), block.getSample(1, i), 0.0);
+				}
+
+			}
+		}
+
+	}
+
+	@Test
+	public void testViews() throws Exception {
+
+		WritableRaster raster = raster(new Random(7));
+
+		RasterBlock block = RasterBlock.parse(RasterBlock.encode(raster, 0, 0, 12, 9, null, null, DataBuffer.TYPE_USHORT, false));
+
+		assertNull(block.getMask());
+		assertEquals(3, block.getBands());
+
+		ShortBuffer view = (ShortBuffer)block.getView(1);
+		assertEquals(12*9, view.remaining());
+		assertEquals(raster.getSample(4, 5, 1), view.get(5*12 + 4) & 0xffff);
+
+		block = RasterBlock.parse(RasterBlock.encode(raster, 0, 0, 12, 9, new int[] {1}, null, DataBuffer.TYPE_FLOAT, false));
+		FloatBuffer floats = (FloatBuffer)block.getView(0);
+		assertEquals(raster.getSample(11, 8, 1), floats.get(8*12 + 11), 0.0f);
+
+	}
+
+	@Test
+	public void testParserAcceptsBlocks() throws Exception {
+
+		WritableRaster raster = raster(new Random(3));
+
+		boolean[] mask = new boolean[4*3];
+		mask[0] = mask[5] = mask[11] = true;
+
+		DataParser parser = new DataParser();
+
+		DataByteArray bytes = new DataByteArray(RasterBlock.encode(raster, 1, 1, 4, 3, new int[] {0}, mask, DataBuffer.TYPE_BYTE, true));
+
+		List<Double> values = parser.parseListData(bytes);
+
+		assertEquals(3, values.size());
+		assertEquals((double)raster.getSample(1, 1, 0), values.get(0));
+		assertEquals((double)raster.getSample(2, 2, 0), values.get(1));
+		assertEquals((double)raster.getSample(4, 3, 0), values.get(2));
+
+		assertEquals(4, parser.parseImgProc(bytes).getWidth());
+		assertEquals(raster.getSample(3, 2, 0), parser.parseImgProc(bytes).getf(2, 1), 0.0f);
+
+		/*The text form is still understood*/
+		assertEquals(2, parser.parseListData("0 2 1 5 7").size());
+		assertEquals(7.0, parser.parseListData(new DataByteArray("0 2 1 5 7")).get(1));
+
+		assertFalse(RasterBlock.isBlock("0 2 1 5 7".getBytes()));
+
+	}
+
+	private void assertRejected(byte[] bytes) {
+		try {
+			RasterBlock.parse(bytes);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testInvalidBlocks() throws Exception {
+
+		WritableRaster raster = raster(new Random(5));
+
+		for (boolean deflate : new boolean[] {false, true}) {
+
+			byte[] bytes = RasterBlock.encode(raster, 0, 0, 12, 9, null, null, DataBuffer.TYPE_INT, deflate);
+
+			/*Truncated body*/
+			assertRejected(Arrays.copyOf(bytes, bytes.length - 10));
+			assertRejected(Arrays.copyOf(bytes, 21));
+
+			/*Unknown data type*/
+			byte[] type = bytes.clone();
+			type[5] = 42;
+			assertRejected(type);
+
+			/*Declared size much larger than the body*/
+			byte[] size = bytes.clone();
+			size[8] = 0x10;
+			assertRejected(size);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,180 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.Polygonizer;
+import br.puc_rio.ele.lvc.interimage.data.Rasterizer;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+import junit.framework.TestCase;
+
+public class TestRasterizer extends TestCase {
+
+	private static final double[] GEO_BOX = new double[] {684306.2852457707, 7463100.402618, 684330.2852457707, 7463168.402618};
+
+	private static final int WIDTH = 24;
+	private static final int HEIGHT = 34;
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	private Rasterizer createRasterizer() {
+		double resX = (GEO_BOX[2]-GEO_BOX[0])/WIDTH;
+		double resY = (GEO_BOX[1]-GEO_BOX[3])/HEIGHT;
+		return new Rasterizer(WIDTH, HEIGHT, GEO_BOX[0], GEO_BOX[3], resX, resY);
+	}
+
+	/*Reference implementation: a covers test for the center of every pixel*/
+	private boolean[] coversMask(Geometry geom, Rasterizer rasterizer) {
+
+		PreparedGeometry prep = PreparedGeometryFactory.prepare(geom);
+
+		boolean[] mask = new boolean[WIDTH*HEIGHT];
+
+		for (int y=0; y<HEIGHT; y++) {
+			for (int x=0; x<WIDTH; x++) {
+				Point point = _factory.createPoint(new Coordinate(rasterizer.centerX(x), rasterizer.centerY(y)));
+				mask[y*WIDTH + x] = prep.covers(point);
+			}
+		}
+
+		return mask;
+	}
+
+	private void assertIdentical(Geometry geom) {
+
+		Rasterizer rasterizer = createRasterizer();
+
+		boolean[] expected = coversMask(geom, rasterizer);
+		boolean[] actual = new boolean[WIDTH*HEIGHT];
+
+		int count = rasterizer.rasterize(geom, actual);
+
+		int expectedCount = 0;
+
+		for (int i=0; i<expected.length; i++) {
+			assertEquals("pixel " + i, expected[i], actual[i]);
+			if (expected[i])
+				expectedCount++;
+		}
+
+		assertEquals(expectedCount, count);
+
+		/*The label variant writes the same pixels into a larger raster*/
+		int[] labels = new int[(WIDTH+2)*(HEIGHT+1)];
+
+		rasterizer.rasterize(geom, labels, (WIDTH+2) + 1, WIDTH+2, 7);
+
+		for (int y=0; y<HEIGHT; y++) {
+			for (int x=0; x<WIDTH; x++)
+				assertEquals(expected[y*WIDTH + x], labels[(y+1)*(WIDTH+2) + x + 1] == 7);
+		}
+
+	}
+
+	/*Random star-shaped polygon; some vertices snapped to pixel centers to exercise the boundary cases*/
+	private Polygon randomPolygon(Random random, Rasterizer rasterizer, boolean snap) {
+
+		int n = 3 + random.nextInt(12);
+
+		double cx = GEO_BOX[0] + random.nextDouble()*(GEO_BOX[2]-GEO_BOX[0]);
+		double cy = GEO_BOX[1] + random.nextDouble()*(GEO_BOX[3]-GEO_BOX[1]);
+
+		Coordinate[] coords = new Coordinate[n+1];
+
+		for (int i=0; i<n; i++) {
+
+			double angle = 2*Math.PI*i/n;
+			double radius = 1 + random.nextDouble()*15;
+
+			double x = cx + radius*Math.cos(angle);
+			double y = cy + radius*Math.sin(angle);
+
+			if (snap) {
+				int px = (int)Math.floor((x - GEO_BOX[0])/(GEO_BOX[2]-GEO_BOX[0])*WIDTH);
+				int py = (int)Math.floor((GEO_BOX[3] - y)/(GEO_BOX[3]-GEO_BOX[1])*HEIGHT);
+				x = rasterizer.centerX(px);
+				y = rasterizer.centerY(py);
+			}
+
+			coords[i] = new Coordinate(x, y);
+		}
+
+		coords[n] = new Coordinate(coords[0]);
+
+		return _factory.createPolygon(_factory.createLinearRing(coords), null);
+	}
+
+	@Test
+	public void testCenterAlignedRectangle() {
+
+		Rasterizer rasterizer = createRasterizer();
+
+		/*Every edge goes through pixel centers*/
+		Coordinate[] coords = new Coordinate[] {
+				new Coordinate(rasterizer.centerX(2), rasterizer.centerY(3)),
+				new Coordinate(rasterizer.centerX(9), rasterizer.centerY(3)),
+				new Coordinate(rasterizer.centerX(9), rasterizer.centerY(20)),
+				new Coordinate(rasterizer.centerX(2), rasterizer.centerY(20)),
+				new Coordinate(rasterizer.centerX(2), rasterizer.centerY(3))};
+
+		assertIdentical(_factory.createPolygon(_factory.createLinearRing(coords), null));
+
+	}
+
+	@Test
+	public void testRandomPolygons() {
+
+		Random random = new Random(42);
+		Rasterizer rasterizer = createRasterizer();
+
+		for (int n=0; n<300; n++) {
+
+			Geometry geom = randomPolygon(random, rasterizer, n % 2 == 0).buffer(0);
+
+			/*Holes and multiple parts*/
+			if (n % 3 == 0)
+				geom = geom.difference(randomPolygon(random, rasterizer, true));
+			else if (n % 3 == 1)
+				geom = geom.union(randomPolygon(random, rasterizer, false));
+
+			assertIdentical(geom);
+
+		}
+
+	}
+
+	@Test
+	public void testPolygonizedRegions() {
+
+		Random random = new Random(7);
+
+		for (int n=0; n<20; n++) {
+
+			int[] labels = new int[WIDTH*HEIGHT];
+
+			for (int i=0; i<labels.length; i++)
+				labels[i] = random.nextInt(3) - 1;
+
+			Map<Integer, List<Polygon>> map = new Polygonizer(WIDTH, HEIGHT, GEO_BOX).polygonize(labels);
+
+			for (List<Polygon> polys : map.values()) {
+				for (Polygon p : polys)
+					assertIdentical(p);
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,160 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.data.imageioimpl.plugins.tiff.TIFFImageWriter;
+import br.puc_rio.ele.lvc.interimage.data.udf.SpectralFeatures;
+
+import junit.framework.TestCase;
+
+public class TestSpectralFeatures extends TestCase {
+
+	private static final int WIDTH = 40;
+	private static final int HEIGHT = 30;
+
+	private static final String FEATURES = "Mean = mean(image_layer1);StdDev = standardDeviation(image_layer1);Max = maxPixelValue(image_layer1);Contrast = glcmContrast(image_layer1,16)";
+
+	private File _dir;
+	private String _imageUrl;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		_dir = File.createTempFile("spectral", "");
+		_dir.delete();
+
+		new File(_dir, "image").mkdirs();
+
+		_imageUrl = _dir.toURI().toURL().toString();
+
+		Random random = new Random(42);
+
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+
+		for (int y=0; y<HEIGHT; y++)
+			for (int x=0; x<WIDTH; x++)
+				image.getRaster().setSample(x, y, 0, random.nextInt(256));
+
+		ImageOutputStream out = ImageIO.createImageOutputStream(new File(_dir, "image/T0.tif"));
+
+		TIFFImageWriter writer = new TIFFImageWriter(null);
+		writer.setOutput(out);
+		writer.write(image);
+		writer.dispose();
+
+		out.close();
+
+		FileWriter meta = new FileWriter(new File(_dir, "image/T0.meta"));
+		meta.write("1\n" + WIDTH + "\n" + HEIGHT + "\n\n0.0\n0.0\n" + WIDTH + ".0\n" + HEIGHT + ".0\n");
+		meta.close();
+
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : new File(_dir, "image").listFiles())
+			file.delete();
+		new File(_dir, "image").delete();
+		_dir.delete();
+	}
+
+	/*The objects of tile T0, some of them overlapping*/
+	private DataBag group() throws Exception {
+
+		String[] wkts = {
+			"POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))",
+			"POLYGON ((10 0, 25 0, 25 12, 10 12, 10 0))",
+			"POLYGON ((5 5, 18 5, 18 20, 5 20, 5 5))",
+			"POLYGON ((20 15, 38 18, 30 29, 20 15))",
+			"POLYGON ((35 25, 45 25, 45 35, 35 35, 35 25))"
+		};
+
+		DataBag bag = BagFactory.getInstance().newDefaultBag();
+
+		for (int i=0; i<wkts.length; i++) {
+
+			Map<String,Object> properties = new HashMap<String,Object>();
+			properties.put("iiuuid", "object" + i);
+			properties.put("tile", "T0");
+			properties.put("orig_tile", "T0");
+
+			Tuple t = TupleFactory.getInstance().newTuple(3);
+			t.set(0, new DataByteArray(wkts[i]));
+			t.set(1, new HashMap<String,Object>());
+			t.set(2, properties);
+
+			bag.add(t);
+
+		}
+
+		return bag;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Map<String,Object>> features(String mode) throws Exception {
+
+		Tuple input = TupleFactory.getInstance().newTuple(1);
+		input.set(0, group());
+
+		DataBag output = new SpectralFeatures(_imageUrl, FEATURES, mode).exec(input);
+
+		Map<String, Map<String,Object>> features = new HashMap<String, Map<String,Object>>();
+
+		for (Iterator<Tuple> it = output.iterator(); it.hasNext();) {
+			Map<String,Object> properties = (Map<String,Object>)it.next().get(2);
+			assertEquals("T0", properties.get("tile"));
+			features.put((String)properties.get("iiuuid"), (Map<String,Object>)properties.get("spectral_features"));
+		}
+
+		return features;
+	}
+
+	@Test
+	public void testZonalModeMatchesObjectMode() throws Exception {
+
+		Map<String, Map<String,Object>> object = features("object");
+		Map<String, Map<String,Object>> zonal = features("zonal");
+
+		assertEquals(5, zonal.size());
+		assertEquals(object.keySet(), zonal.keySet());
+
+		List<String> names = new ArrayList<String>();
+
+		for (Map.Entry<String, Map<String,Object>> entry : object.entrySet()) {
+			assertEquals(entry.getValue(), zonal.get(entry.getKey()));
+			names.addAll(entry.getValue().keySet());
+		}
+
+		assertTrue(names.contains("Mean") && names.contains("Contrast"));
+
+	}
+
+	@Test
+	public void testUnknownMode() throws Exception {
+		try {
+			new SpectralFeatures(_imageUrl, FEATURES, "pixel");
+			fail();
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+}
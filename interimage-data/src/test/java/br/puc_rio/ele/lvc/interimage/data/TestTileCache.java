@@ -0,0 +1,214 @@
+package br.puc_rio.ele.lvc.interimage.data;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.impl.util.UDFContext;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import br.puc_rio.ele.lvc.interimage.data.TileCache;
+import br.puc_rio.ele.lvc.interimage.data.imageioimpl.plugins.tiff.TIFFImageWriter;
+
+import junit.framework.TestCase;
+
+public class TestTileCache extends TestCase {
+
+	private static final int WIDTH = 16;
+	private static final int HEIGHT = 8;
+
+	private File _dir;
+	private String _imageUrl;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		_dir = File.createTempFile("tilecache", "");
+		_dir.delete();
+
+		new File(_dir, "image").mkdirs();
+
+		_imageUrl = _dir.toURI().toURL().toString();
+
+		for (int t=0; t<3; t++)
+			writeTile("T" + t, t);
+
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : new File(_dir, "image").listFiles())
+			file.delete();
+		new File(_dir, "image").delete();
+		_dir.delete();
+	}
+
+	private void writeTile(String tile, int value) throws IOException {
+
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+
+		for (int y=0; y<HEIGHT; y++) {
+			for (int x=0; x<WIDTH; x++)
+				image.getRaster().setSample(x, y, 0, value*10 + x);
+		}
+
+		ImageOutputStream out = ImageIO.createImageOutputStream(new File(_dir, "image/" + tile + ".tif"));
+
+		TIFFImageWriter writer = new TIFFImageWriter(null);
+		writer.setOutput(out);
+		writer.write(image);
+		writer.dispose();
+
+		out.close();
+
+		FileWriter meta = new FileWriter(new File(_dir, "image/" + tile + ".meta"));
+		meta.write("1\n" + WIDTH + "\n" + HEIGHT + "\n\n" + value + ".0\n0.0\n" + (value+1) + ".0\n1.0\n");
+		meta.close();
+
+	}
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+
+		TileCache cache = new TileCache(Long.MAX_VALUE);
+
+		BufferedImage image = cache.getImage(_imageUrl, "image", "T1");
+
+		assertEquals(WIDTH, image.getWidth());
+		assertEquals(HEIGHT, image.getHeight());
+		assertEquals(15, image.getRaster().getSample(5, 3, 0));
+
+		assertSame(image, cache.getImage(_imageUrl, "image", "T1"));
+
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertEquals(WIDTH*HEIGHT, cache.getSize());
+
+		/*Missing tiles are cached as well*/
+		assertNull(cache.getImage(_imageUrl, "image", "T9"));
+		assertNull(cache.getImage(_imageUrl, "image", "T9"));
+
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, cache.getHits());
+
+		TileCache.Meta meta = cache.getMeta(_imageUrl, "image", "T2");
+
+		assertEquals(1, meta.getBands());
+		assertEquals(WIDTH, meta.getWidth());
+		assertEquals(HEIGHT, meta.getHeight());
+		assertEquals(2.0, meta.getGeoBox()[0], 0.0);
+		assertEquals(0.0, meta.getGeoBox()[1], 0.0);
+		assertEquals(3.0, meta.getGeoBox()[2], 0.0);
+		assertEquals(1.0, meta.getGeoBox()[3], 0.0);
+
+		assertNull(cache.getMeta(_imageUrl, "image", "T9"));
+
+	}
+
+	@Test
+	public void testHttpErrorsAreMissingTiles() throws Exception {
+
+		/*S3 answers 403 (Forbidden) for missing keys*/
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(403, -1);
+				exchange.close();
+			}
+		});
+
+		server.start();
+
+		try {
+
+			String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+			TileCache cache = new TileCache(Long.MAX_VALUE);
+
+			assertNull(cache.getImage(url, "image", "T0"));
+			assertNull(cache.getMeta(url, "image", "T0"));
+
+		} finally {
+			server.stop(0);
+		}
+
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+
+		/*Room for two tiles*/
+		TileCache cache = new TileCache(2*WIDTH*HEIGHT);
+
+		cache.getImage(_imageUrl, "image", "T0");
+		cache.getImage(_imageUrl, "image", "T1");
+		cache.getImage(_imageUrl, "image", "T0");
+		cache.getImage(_imageUrl, "image", "T2");
+
+		/*T1 was the least recently used*/
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2*WIDTH*HEIGHT, cache.getSize());
+
+		cache.getImage(_imageUrl, "image", "T0");
+		assertEquals(2, cache.getHits());
+
+		cache.getImage(_imageUrl, "image", "T1");
+		assertEquals(4, cache.getMisses());
+
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+
+		TileCache cache = new TileCache(Long.MAX_VALUE);
+
+		for (int t=0; t<3; t++)
+			cache.prefetch(_imageUrl, "image", "T" + t);
+
+		for (int t=0; t<3; t++)
+			assertEquals(t*10, cache.getImage(_imageUrl, "image", "T" + t).getRaster().getSample(0, 0, 0));
+
+		/*Each tile was decoded once, either in the background or by the caller*/
+		assertEquals(3, cache.getMisses());
+		assertEquals(3, cache.getHits());
+
+	}
+
+	@Test
+	public void testSettingsFromJobConfiguration() throws Exception {
+
+		UDFContext context = UDFContext.getUDFContext();
+
+		try {
+
+			context.addJobConf(null);
+			assertEquals(Runtime.getRuntime().maxMemory() / 4, TileCache.getDefaultCapacity());
+			assertEquals(Math.min(Runtime.getRuntime().availableProcessors(), 4), TileCache.getDefaultThreads());
+
+			Configuration conf = new Configuration(false);
+			conf.set(TileCache.CAPACITY, "64");
+			conf.set(TileCache.THREADS, "3");
+			context.addJobConf(conf);
+
+			assertEquals(64L * 1024 * 1024, TileCache.getDefaultCapacity());
+			assertEquals(3, TileCache.getDefaultThreads());
+
+		} finally {
+			context.addJobConf(null);
+		}
+
+	}
+
+}
@@ -0,0 +1,330 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.datamining;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+import weka.classifiers.Classifier;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A trained classifier together with the header of its training data.<br><br>
+ * Models are trained only once per JVM: they are cached by classifier and training data URL or, when the training data
+ * is passed as a bag, by a SHA-256 digest of the serialized tuples of the bag. Digesting a large bag for every input row
+ * would cost more than the training it saves, so the UDFs remember the digest of each bag instance with Fingerprints;
+ * the URL form is still cheaper for large training sets.
+ * A model can also be saved to a file next to the training data, so that the tasks only have to read it.
+ * @author Victor Quirita, Rodrigo Ferreira
+ */
+public class ClassifierModel implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int MAX_MODELS = 16;
+
+	@SuppressWarnings("serial")
+	private static final Map<String, ClassifierModel> _cache = new LinkedHashMap<String, ClassifierModel>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ClassifierModel> eldest) {
+			return size() > MAX_MODELS;
+		}
+	};
+
+	private Classifier _classifier;
+	private Instances _header;
+
+	private ClassifierModel(Classifier classifier, Instances header) {
+		_classifier = classifier;
+		_header = header;
+	}
+
+	/**Trains a classifier of the given class (e.g. weka.classifiers.trees.J48) with the training data.*/
+	public static ClassifierModel train(String classifierName, Instances data) throws Exception {
+
+		if (data == null)
+			throw new Exception("Could not parse training data");
+
+		Classifier classifier = (Classifier)Class.forName(classifierName).newInstance();
+		classifier.buildClassifier(data);
+
+		return new ClassifierModel(classifier, new Instances(data, 0));
+	}
+
+	/**
+	 * Returns the model trained with the data at the given URL.<br>
+	 * If a model URL is given, the model is read from it; when it doesn't exist yet, the model is trained and, for local files, saved there.
+	 */
+	public static ClassifierModel get(String classifierName, String trainUrl, String modelUrl) throws Exception {
+
+		String key = classifierName + "|" + trainUrl;
+
+		synchronized (_cache) {
+
+			ClassifierModel model = _cache.get(key);
+
+			if (model == null) {
+
+				if (!modelUrl.isEmpty())
+					model = load(modelUrl);
+
+				if (model == null) {
+
+					BufferedReader buff = new BufferedReader(new InputStreamReader(openStream(trainUrl)));
+
+					try {
+						model = train(classifierName, new DataParser().parseData(buff));
+					} finally {
+						buff.close();
+					}
+
+					if (!modelUrl.isEmpty())
+						save(model, modelUrl);
+
+				}
+
+				_cache.put(key, model);
+
+			}
+
+			return model;
+
+		}
+
+	}
+
+	/**Returns the model trained with the data in the bag; the bag is parsed only when its contents were not seen before.*/
+	public static ClassifierModel get(String classifierName, DataBag trainData) throws Exception {
+		return get(classifierName, trainData, fingerprint(trainData));
+	}
+
+	/**Returns the model trained with the data in the bag, whose fingerprint is already known.*/
+	public static ClassifierModel get(String classifierName, DataBag trainData, String fingerprint) throws Exception {
+
+		String key = classifierName + "#" + fingerprint;
+
+		synchronized (_cache) {
+
+			ClassifierModel model = _cache.get(key);
+
+			if (model == null) {
+				model = train(classifierName, new DataParser().parseData(trainData));
+				_cache.put(key, model);
+			}
+
+			return model;
+
+		}
+
+	}
+
+	/**Computes the SHA-256 digest of the serialized tuples of the bag, in hexadecimal.*/
+	public static String fingerprint(DataBag bag) throws IOException {
+
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available", e);
+		}
+
+		DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+
+		out.writeLong(bag.size());
+
+		for (Iterator<Tuple> it = bag.iterator(); it.hasNext();)
+			it.next().write(out);
+
+		out.close();
+
+		StringBuilder hex = new StringBuilder();
+
+		for (byte b : digest.digest())
+			hex.append(String.format("%02x", b));
+
+		return hex.toString();
+	}
+
+	/**
+	 * The fingerprints of the bags seen so far, by bag instance, so that a bag passed with every input row is digested once.
+	 * The bags are weakly referenced, and a bag whose size changed is digested again.
+	 */
+	public static class Fingerprints {
+
+		private static final int MAX_BAGS = 16;
+
+		private final List<WeakReference<DataBag>> _bags = new ArrayList<WeakReference<DataBag>>();
+		private final List<Long> _sizes = new ArrayList<Long>();
+		private final List<String> _fingerprints = new ArrayList<String>();
+
+		private long _digests = 0;
+
+		public synchronized String get(DataBag bag) throws IOException {
+
+			for (int k=_bags.size()-1; k>=0; k--) {
+
+				DataBag other = _bags.get(k).get();
+
+				if (other == bag) {
+					if (_sizes.get(k) == bag.size())
+						return _fingerprints.get(k);
+					remove(k);
+				} else if (other == null) {
+					remove(k);
+				}
+
+			}
+
+			if (_bags.size() == MAX_BAGS)
+				remove(0);
+
+			String fingerprint = fingerprint(bag);
+			_digests++;
+
+			_bags.add(new WeakReference<DataBag>(bag));
+			_sizes.add(bag.size());
+			_fingerprints.add(fingerprint);
+
+			return fingerprint;
+		}
+
+		private void remove(int k) {
+			_bags.remove(k);
+			_sizes.remove(k);
+			_fingerprints.remove(k);
+		}
+
+		/**Returns the number of bags digested so far.*/
+		public synchronized long getDigests() {
+			return _digests;
+		}
+
+	}
+
+	/*Discards the bytes; only their digest is needed*/
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+	private static InputStream openStream(String url) throws IOException {
+		URLConnection urlConn = new URL(url).openConnection();
+		urlConn.connect();
+		return new BufferedInputStream(urlConn.getInputStream());
+	}
+
+	/*Returns null if there's no model at the URL*/
+	private static ClassifierModel load(String modelUrl) throws Exception {
+
+		InputStream stream = null;
+
+		try {
+			stream = openStream(modelUrl);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+
+		try {
+			return read(stream);
+		} finally {
+			stream.close();
+		}
+
+	}
+
+	/*Only local files can be written*/
+	private static void save(ClassifierModel model, String modelUrl) throws Exception {
+
+		URL url = new URL(modelUrl);
+
+		if (!url.getProtocol().equals("file"))
+			return;
+
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(new File(url.toURI())));
+
+		try {
+			model.write(stream);
+		} finally {
+			stream.close();
+		}
+
+	}
+
+	public static ClassifierModel read(InputStream stream) throws IOException {
+		try {
+			return (ClassifierModel)new ObjectInputStream(stream).readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown model format", e);
+		}
+	}
+
+	public void write(OutputStream stream) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(stream);
+		out.writeObject(this);
+		out.flush();
+	}
+
+	public int getNumFeatures() {
+		return _header.numAttributes() - 1;
+	}
+
+	/**Returns the class name assigned to the features.*/
+	public String classify(double[] features) throws Exception {
+
+		Instance instance = new DenseInstance(_header.numAttributes());
+		instance.setDataset(_header);
+
+		for (int i=0; i<features.length; i++)
+			instance.setValue(i, features[i]);
+
+		double classification = _classifier.classifyInstance(instance);
+
+		return _header.classAttribute().value((int)classification);
+	}
+
+}
@@ -0,0 +1,116 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.datamining.udf;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import br.puc_rio.ele.lvc.interimage.datamining.ClassifierModel;
+
+/**
+ * A UDF that classifies a whole bag of tuples with a Weka classifier trained once per task.<br>
+ * The classifier is one of bayes, decisionTree, randomForest, svm or the name of a Weka classifier class.
+ * Each output tuple holds the input features followed by the assigned class.<br><br>
+ * Example:<br>
+ * 		A = load 'mydata1' as (attr1, attr2, attr3);<br>
+ * 		B = group A all;<br>
+ * 		C = foreach B generate flatten(BatchClassifier(A));
+ * @author Victor Quirita, Rodrigo Ferreira
+ */
+public class BatchClassifier extends EvalFunc<DataBag> {
+
+	private static final Map<String, String> _classifiers = new HashMap<String, String>();
+
+	static {
+		_classifiers.put("bayes", "weka.classifiers.bayes.NaiveBayes");
+		_classifiers.put("decisionTree", "weka.classifiers.trees.J48");
+		_classifiers.put("randomForest", "weka.classifiers.trees.RandomForest");
+		_classifiers.put("svm", "weka.classifiers.functions.SMO");
+	}
+
+	private String _classifierName;
+	private String _trainUrl;
+	private String _modelUrl;
+
+	private ClassifierModel _model = null;
+
+	/**Constructor that takes the classifier and the training data URL.*/
+	public BatchClassifier(String classifier, String trainUrl) {
+		this(classifier, trainUrl, "");
+	}
+
+	/**Constructor that takes the classifier, the training data URL and the URL where the trained model is kept.*/
+	public BatchClassifier(String classifier, String trainUrl, String modelUrl) {
+		_classifierName = _classifiers.containsKey(classifier) ? _classifiers.get(classifier) : classifier;
+		_trainUrl = trainUrl;
+		_modelUrl = modelUrl;
+	}
+
+	@Override
+	public DataBag exec(Tuple input) throws IOException {
+		if (input == null || input.size() == 0)
+            return null;
+
+		try {
+
+			if (_model == null)
+				_model = ClassifierModel.get(_classifierName, _trainUrl, _modelUrl);
+
+			DataBag bag = DataType.toBag(input.get(0));
+
+			DataBag output = BagFactory.getInstance().newDefaultBag();
+
+			double[] testData = null;
+
+			for (Iterator<Tuple> it = bag.iterator(); it.hasNext();) {
+
+				Tuple t = it.next();
+
+				if (testData == null || testData.length != t.size())
+					testData = new double[t.size()];
+
+				for (int i=0; i<t.size(); i++)
+					testData[i] = DataType.toDouble(t.get(i));
+
+				Tuple result = TupleFactory.getInstance().newTuple(t.getAll());
+				result.append(_model.classify(testData));
+
+				output.add(result);
+
+			}
+
+			return output;
+
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+
+	@Override
+    public Schema outputSchema(Schema input) {
+		return new Schema(new Schema.FieldSchema(null, DataType.BAG));
+    }
+
+}
@@ -14,23 +14,6 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.datamining.udf;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.lang.Exception;
-import java.net.URL;
-import java.net.URLConnection;
-
-import org.apache.pig.EvalFunc;
-import org.apache.pig.data.DataType;
-import org.apache.pig.data.Tuple;
-import org.apache.pig.impl.logicalLayer.schema.Schema;
-
-import br.puc_rio.ele.lvc.interimage.datamining.DataParser;
-import weka.classifiers.Classifier;
-import weka.core.Instance;
-import weka.core.Instances;
-
 /**
  * A UDF that classifies the tuples using a Bayes classifier.<br><br>
  * Example:<br>
@@ -38,73 +21,21 @@ import weka.core.Instances;
  * 		B = foreach A generate *, BayesClassifier(properties#'attr1', properties#'attr2', properties#'attr3') as class;
  * @author Victor Quirita, Rodrigo Ferreira
  */
-public class BayesClassifier extends EvalFunc<String> {
+public class BayesClassifier extends WekaClassifier {
 
-	private final DataParser _dataParser = new DataParser();
-	
-	private String _trainUrl;
-	private Instances _trainData = null;
+	/**Constructor for training data passed as the last field of each tuple.*/
+	public BayesClassifier() {
+		this("", "");
+	}
 	
 	/**Constructor that takes the training data URL.*/
 	public BayesClassifier(String trainUrl) {
-		_trainUrl = trainUrl;
+		this(trainUrl, "");
 	}
 	
-	@Override
-	public String exec(Tuple input) throws IOException {
-		if (input == null)
-            return null;
-        
-		if (_trainData == null) {
-		
-			//Reads train data
-	        try {
-	        	
-	        	if (!_trainUrl.isEmpty()) {
-	        		
-	        		URL url  = new URL(_trainUrl);	        		
-	                URLConnection urlConn = url.openConnection();
-	                urlConn.connect();
-	                InputStreamReader inStream = new InputStreamReader(urlConn.getInputStream());
-			        BufferedReader buff = new BufferedReader(inStream);
-			        
-			        _trainData = _dataParser.parseData(buff);
-	
-	        	}
-	        } catch (Exception e) {
-				throw new IOException("Caught exception reading training data file ", e);
-			}
-	        
-		}
-		
-		try {
-			Integer numFeatures = input.size();
-			
-			double [] testData;			
-			testData = new double[numFeatures];
-			
-			for (int i=0; i<numFeatures; i++)
-				testData[i] = DataType.toDouble(input.get(i));
-			
-			Classifier csfr = null;
-			csfr = (Classifier)Class.forName("weka.classifiers.bayes.NaiveBayes").newInstance();
-			csfr.buildClassifier(_trainData);
-			double classification = 0;
-			
-			Instance myinstance = _trainData.instance(0);
-			for (int i=0; i<numFeatures; i++)
-				myinstance.setValue(i, testData[i]);
-			classification = csfr.classifyInstance(myinstance);
-
-			return myinstance.attribute(_trainData.classIndex()).value((int) classification);
-			
-		} catch (Exception e) {
-			throw new IOException("Caught exception processing input row ", e);
-		}
+	/**Constructor that takes the training data URL and the URL where the trained model is kept.*/
+	public BayesClassifier(String trainUrl, String modelUrl) {
+		super("weka.classifiers.bayes.NaiveBayes", trainUrl, modelUrl);
 	}
 	
-	@Override
-    public Schema outputSchema(Schema input) {
-        return new Schema(new Schema.FieldSchema(null, DataType.CHARARRAY));
-    }
-}
\ No newline at end of file
+}
@@ -1,56 +1,41 @@
-package br.puc_rio.ele.lvc.interimage.datamining.udf;
+/*Copyright 2014 Computer Vision Lab
 
-import java.io.IOException;
-import java.lang.Exception;
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
 
-import org.apache.pig.EvalFunc;
-import org.apache.pig.data.DataType;
-import org.apache.pig.data.Tuple;
-import org.apache.pig.impl.logicalLayer.schema.Schema;
+    http://www.apache.org/licenses/LICENSE-2.0
 
-import br.puc_rio.ele.lvc.interimage.datamining.DataParser;
-import weka.classifiers.trees.J48;
-import weka.core.Instance;
-import weka.core.Instances;
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
 
-public class DecisionTreeClassifier extends EvalFunc<String> {
+package br.puc_rio.ele.lvc.interimage.datamining.udf;
 
-	private final DataParser dataParser = new DataParser();
-	
-	@Override
-	public String exec(Tuple input) throws IOException {
-		if (input == null)
-            return null;
-        
-		try {
-			Integer numFeatures = DataType.toInteger(input.get(0));
-			double [] testData;
-			testData = new double[numFeatures];
-			for (int i=0; i<numFeatures; i++)
-				testData[i] = DataType.toDouble(input.get(i+1));
-			
-			Object objData = input.get(input.size()-1);
-			Instances trainData = dataParser.parseData(objData);
-			J48 csfr = new J48();
-			
-			csfr.buildClassifier(trainData);
-			double classification = 0;
-			
-			Instance myinstance = trainData.instance(0);
-			for (int i=0; i<numFeatures; i++)
-				myinstance.setValue(i, testData[i]);
-			classification = csfr.classifyInstance(myinstance);
+/**
+ * A UDF that classifies the tuples using a decision tree (J48).<br><br>
+ * Example:<br>
+ * 		A = load 'mydata1' as (geom, data, properties);<br>
+ * 		B = foreach A generate *, DecisionTreeClassifier(properties#'attr1', properties#'attr2', properties#'attr3') as class;
+ * @author Victor Quirita, Rodrigo Ferreira
+ */
+public class DecisionTreeClassifier extends WekaClassifier {
 
-			//return testData.toString();
-			return myinstance.attribute(trainData.classIndex()).value((int) classification);
-			
-		} catch (Exception e) {
-			throw new IOException("Caught exception processing input row ", e);
-		}
+	/**Constructor for training data passed as the last field of each tuple.*/
+	public DecisionTreeClassifier() {
+		this("", "");
+	}
+	
+	/**Constructor that takes the training data URL.*/
+	public DecisionTreeClassifier(String trainUrl) {
+		this(trainUrl, "");
+	}
+	
+	/**Constructor that takes the training data URL and the URL where the trained model is kept.*/
+	public DecisionTreeClassifier(String trainUrl, String modelUrl) {
+		super("weka.classifiers.trees.J48", trainUrl, modelUrl);
 	}
 	
-	@Override
-    public Schema outputSchema(Schema input) {
-        return new Schema(new Schema.FieldSchema(null, DataType.CHARARRAY));
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.datamining.udf;
+
+import java.io.IOException;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import br.puc_rio.ele.lvc.interimage.datamining.ClassifierModel;
+
+/**
+ * Base class of the UDFs that classify the tuples with a Weka classifier.<br><br>
+ * When the last field of the input tuple is a bag, the tuple is (number of features, features..., training bag),
+ * and the model is trained once for each distinct training bag contents; the bag is digested once per bag instance. Otherwise the tuple holds only the features, and the model
+ * is trained once per task with the training data URL (or read from the model URL, when given).
+ * @author Victor Quirita, Rodrigo Ferreira
+ */
+public abstract class WekaClassifier extends EvalFunc<String> {
+
+	private String _classifierName;
+	private String _trainUrl;
+	private String _modelUrl;
+
+	private ClassifierModel _model = null;
+	private final ClassifierModel.Fingerprints _fingerprints = new ClassifierModel.Fingerprints();
+
+	protected WekaClassifier(String classifierName, String trainUrl, String modelUrl) {
+		_classifierName = classifierName;
+		_trainUrl = trainUrl;
+		_modelUrl = modelUrl;
+	}
+
+	@Override
+	public String exec(Tuple input) throws IOException {
+		if (input == null)
+            return null;
+
+		try {
+
+			double[] testData;
+			ClassifierModel model;
+
+			if (input.get(input.size()-1) instanceof DataBag) {
+
+				Integer numFeatures = DataType.toInteger(input.get(0));
+				testData = new double[numFeatures];
+				for (int i=0; i<numFeatures; i++)
+					testData[i] = DataType.toDouble(input.get(i+1));
+
+				/*Cached by the digest of the bag contents*/
+				DataBag trainData = (DataBag)input.get(input.size()-1);
+				model = ClassifierModel.get(_classifierName, trainData, _fingerprints.get(trainData));
+
+			} else {
+
+				if (_model == null)
+					_model = ClassifierModel.get(_classifierName, _trainUrl, _modelUrl);
+				
+				model = _model;
+
+				Integer numFeatures = input.size();
+				testData = new double[numFeatures];
+				for (int i=0; i<numFeatures; i++)
+					testData[i] = DataType.toDouble(input.get(i));
+
+			}
+
+			return model.classify(testData);
+
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+
+	@Override
+    public Schema outputSchema(Schema input) {
+        return new Schema(new Schema.FieldSchema(null, DataType.CHARARRAY));
+    }
+
+}
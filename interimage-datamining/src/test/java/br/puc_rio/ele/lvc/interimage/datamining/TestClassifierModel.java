@@ -0,0 +1,148 @@
+package br.puc_rio.ele.lvc.interimage.datamining;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.datamining.ClassifierModel;
+
+import junit.framework.TestCase;
+
+public class TestClassifierModel extends TestCase {
+
+	private static final String TREE = "weka.classifiers.trees.J48";
+
+	/*Two well separated clusters*/
+	private String trainingData(Random random) {
+
+		StringBuilder builder = new StringBuilder();
+
+		for (int i=0; i<50; i++) {
+			builder.append(random.nextDouble()).append(",").append(random.nextDouble()).append(",low\n");
+			builder.append(5 + random.nextDouble()).append(",").append(5 + random.nextDouble()).append(",high\n");
+		}
+
+		return builder.toString();
+	}
+
+	@Test
+	public void testTrainsOncePerUrl() throws Exception {
+
+		File train = File.createTempFile("train", ".csv");
+		File model = new File(train.getPath() + ".model");
+
+		try {
+
+			FileWriter writer = new FileWriter(train);
+			writer.write(trainingData(new Random(42)));
+			writer.close();
+
+			String trainUrl = train.toURI().toURL().toString();
+			String modelUrl = model.toURI().toURL().toString();
+
+			ClassifierModel model1 = ClassifierModel.get(TREE, trainUrl, modelUrl);
+
+			assertSame(model1, ClassifierModel.get(TREE, trainUrl, modelUrl));
+			assertTrue(model.exists());
+
+			assertEquals(2, model1.getNumFeatures());
+			assertEquals("low", model1.classify(new double[] {0.5, 0.5}));
+			assertEquals("high", model1.classify(new double[] {5.5, 5.5}));
+
+			/*The saved model is read instead of trained*/
+			train.delete();
+
+			ClassifierModel model2 = ClassifierModel.get(TREE, trainUrl + "?saved", modelUrl);
+
+			assertNotSame(model1, model2);
+			assertEquals("low", model2.classify(new double[] {0.5, 0.5}));
+			assertEquals("high", model2.classify(new double[] {5.5, 5.5}));
+
+		} finally {
+			train.delete();
+			model.delete();
+		}
+
+	}
+
+	@Test
+	public void testTrainsOncePerBag() throws Exception {
+
+		DataBag bag1 = BagFactory.getInstance().newDefaultBag();
+		DataBag bag2 = BagFactory.getInstance().newDefaultBag();
+
+		for (String line : trainingData(new Random(7)).split("\n")) {
+
+			String[] tokens = line.split(",");
+
+			Tuple t1 = TupleFactory.getInstance().newTuple();
+			Tuple t2 = TupleFactory.getInstance().newTuple();
+
+			for (String token : tokens) {
+				t1.append(token);
+				t2.append(token);
+			}
+
+			bag1.add(t1);
+			bag2.add(t2);
+
+		}
+
+		assertEquals(ClassifierModel.fingerprint(bag1), ClassifierModel.fingerprint(bag2));
+
+		ClassifierModel model = ClassifierModel.get(TREE, bag1);
+
+		assertSame(model, ClassifierModel.get(TREE, bag2));
+		assertEquals("high", model.classify(new double[] {5.5, 5.5}));
+
+		/*Any change in the contents gives another model*/
+		Tuple t = TupleFactory.getInstance().newTuple();
+		t.append("5.0");
+		t.append("5.0");
+		t.append("low");
+		bag2.add(t);
+
+		assertFalse(ClassifierModel.fingerprint(bag1).equals(ClassifierModel.fingerprint(bag2)));
+		assertNotSame(model, ClassifierModel.get(TREE, bag2));
+
+	}
+
+	@Test
+	public void testBagDigestedOncePerInstance() throws Exception {
+
+		DataBag bag = BagFactory.getInstance().newDefaultBag();
+
+		for (String line : trainingData(new Random(3)).split("\n")) {
+			Tuple t = TupleFactory.getInstance().newTuple();
+			for (String token : line.split(","))
+				t.append(token);
+			bag.add(t);
+		}
+
+		ClassifierModel.Fingerprints fingerprints = new ClassifierModel.Fingerprints();
+
+		String fingerprint = fingerprints.get(bag);
+
+		assertEquals(ClassifierModel.fingerprint(bag), fingerprint);
+		assertSame(fingerprint, fingerprints.get(bag));
+		assertEquals(1, fingerprints.getDigests());
+
+		/*A bag that grew is digested again*/
+		Tuple t = TupleFactory.getInstance().newTuple();
+		t.append("5.0");
+		t.append("5.0");
+		t.append("low");
+		bag.add(t);
+
+		assertEquals(ClassifierModel.fingerprint(bag), fingerprints.get(bag));
+		assertEquals(2, fingerprints.getDigests());
+
+	}
+
+}
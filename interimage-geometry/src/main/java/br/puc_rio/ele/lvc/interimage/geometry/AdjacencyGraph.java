@@ -0,0 +1,421 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.puc_rio.ele.lvc.interimage.geometry.SpatialJoinEngine.Item;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * The adjacency graph of the objects of a tile: the id of each object, its neighbors and the length of the border
+ * shared with each neighbor, in compressed (CSR) form.<br><br>
+ * For pixel-aligned segmentations, where every edge is horizontal or vertical, the graph is computed with a single
+ * sweep over the edges: the edges are grouped by the line they lie on and sorted, so the shared borders are the
+ * overlaps of edges of different objects on the same line, and objects that only touch at a corner share a vertex.
+ * This assumes that the objects don't overlap. Otherwise the neighbors are found with {@link SpatialJoinEngine} and the
+ * shared border is the length of the intersection.<br><br>
+ * The objects are identified by their iiuuid property, or by their position in the bag when they don't have one.<br><br>
+ * Binary record (big endian): number of objects (int), the ids (UTF) and, for each object, the number of neighbors
+ * (int) followed by the index (int) and shared border (double) of each neighbor.
+ * @author Rodrigo Ferreira
+ */
+public class AdjacencyGraph {
+
+	private String[] _ids;
+	private Map<String, Integer> _index;
+
+	/*Neighbors of object i at offsets[i] to offsets[i+1]-1*/
+	private int[] _offsets;
+	private int[] _neighbors;
+	private double[] _borders;
+
+	private AdjacencyGraph(String[] ids, int[] offsets, int[] neighbors, double[] borders) {
+
+		_ids = ids;
+		_offsets = offsets;
+		_neighbors = neighbors;
+		_borders = borders;
+
+		_index = new HashMap<String, Integer>(2*ids.length);
+
+		for (int i=0; i<ids.length; i++)
+			_index.put(ids[i], i);
+
+	}
+
+	/**Computes the graph of the given objects.*/
+	public static AdjacencyGraph build(List<String> ids, List<Geometry> geometries) {
+
+		int n = geometries.size();
+
+		/*Border of each pair, by i*n + j with i < j*/
+		Map<Long, double[]> pairs = new HashMap<Long, double[]>();
+
+		if (isRectilinear(geometries))
+			sweep(geometries, pairs);
+		else
+			intersect(geometries, pairs);
+
+		int[] offsets = new int[n+1];
+
+		for (long key : pairs.keySet()) {
+			offsets[(int)(key / n) + 1]++;
+			offsets[(int)(key % n) + 1]++;
+		}
+
+		for (int i=0; i<n; i++)
+			offsets[i+1] += offsets[i];
+
+		int[] neighbors = new int[offsets[n]];
+		double[] borders = new double[offsets[n]];
+
+		int[] next = Arrays.copyOf(offsets, n);
+
+		Long[] keys = pairs.keySet().toArray(new Long[0]);
+		Arrays.sort(keys);
+
+		for (long key : keys) {
+
+			int i = (int)(key / n);
+			int j = (int)(key % n);
+			double border = pairs.get(key)[0];
+
+			neighbors[next[i]] = j;
+			borders[next[i]++] = border;
+
+			neighbors[next[j]] = i;
+			borders[next[j]++] = border;
+
+		}
+
+		return new AdjacencyGraph(ids.toArray(new String[n]), offsets, neighbors, borders);
+	}
+
+	/*The shell and holes of every polygon of the geometry*/
+	private static List<LineString> rings(Geometry geometry) {
+
+		List<LineString> rings = new ArrayList<LineString>();
+
+		for (int p=0; p<geometry.getNumGeometries(); p++) {
+
+			Geometry part = geometry.getGeometryN(p);
+
+			if (!(part instanceof Polygon))
+				continue;
+
+			Polygon polygon = (Polygon)part;
+
+			rings.add(polygon.getExteriorRing());
+
+			for (int h=0; h<polygon.getNumInteriorRing(); h++)
+				rings.add(polygon.getInteriorRingN(h));
+
+		}
+
+		return rings;
+	}
+
+	private static boolean isRectilinear(List<Geometry> geometries) {
+
+		for (Geometry geometry : geometries) {
+
+			if (geometry.getDimension() != 2)
+				return false;
+
+			for (LineString ring : rings(geometry)) {
+				Coordinate[] coords = ring.getCoordinates();
+				for (int c=1; c<coords.length; c++) {
+					if (coords[c].x != coords[c-1].x && coords[c].y != coords[c-1].y)
+						return false;
+				}
+			}
+
+		}
+
+		return true;
+	}
+
+	private static void add(Map<Long, double[]> pairs, int n, int i, int j, double border) {
+
+		if (i == j)
+			return;
+
+		long key = i < j ? (long)i*n + j : (long)j*n + i;
+
+		double[] value = pairs.get(key);
+
+		if (value == null)
+			pairs.put(key, new double[] {border});
+		else
+			value[0] += border;
+
+	}
+
+	/*Overlaps of the edges on the same horizontal or vertical line, and shared vertices*/
+	private static void sweep(List<Geometry> geometries, Map<Long, double[]> pairs) {
+
+		int n = geometries.size();
+
+		/*Edges as {start, end, object} by line*/
+		Map<Double, List<double[]>> horizontal = new HashMap<Double, List<double[]>>();
+		Map<Double, List<double[]>> vertical = new HashMap<Double, List<double[]>>();
+
+		/*Objects of each vertex*/
+		Map<Coordinate, List<Integer>> vertices = new HashMap<Coordinate, List<Integer>>();
+
+		for (int g=0; g<n; g++) {
+
+			for (LineString ring : rings(geometries.get(g))) {
+
+				Coordinate[] coords = ring.getCoordinates();
+
+				for (int c=1; c<coords.length; c++) {
+
+					Coordinate a = coords[c-1];
+					Coordinate b = coords[c];
+
+					if (a.y == b.y && a.x != b.x)
+						edge(horizontal, a.y, a.x, b.x, g);
+					else if (a.x == b.x && a.y != b.y)
+						edge(vertical, a.x, a.y, b.y, g);
+
+					List<Integer> objects = vertices.get(b);
+
+					if (objects == null) {
+						objects = new ArrayList<Integer>(2);
+						vertices.put(b, objects);
+					}
+
+					if (!objects.contains(g))
+						objects.add(g);
+
+				}
+
+			}
+
+		}
+
+		overlaps(horizontal, pairs, n);
+		overlaps(vertical, pairs, n);
+
+		for (List<Integer> objects : vertices.values()) {
+			for (int i=0; i<objects.size(); i++)
+				for (int j=i+1; j<objects.size(); j++)
+					add(pairs, n, objects.get(i), objects.get(j), 0.0);
+		}
+
+	}
+
+	private static void edge(Map<Double, List<double[]>> lines, double line, double start, double end, int object) {
+
+		/*-0.0 and 0.0 are the same line*/
+		line += 0.0;
+
+		List<double[]> edges = lines.get(line);
+
+		if (edges == null) {
+			edges = new ArrayList<double[]>();
+			lines.put(line, edges);
+		}
+
+		edges.add(new double[] {Math.min(start, end), Math.max(start, end), object});
+
+	}
+
+	private static void overlaps(Map<Double, List<double[]>> lines, Map<Long, double[]> pairs, int n) {
+
+		Comparator<double[]> byStart = new Comparator<double[]>() {
+			@Override
+			public int compare(double[] e1, double[] e2) {
+				return Double.compare(e1[0], e2[0]);
+			}
+		};
+
+		List<double[]> active = new ArrayList<double[]>();
+
+		for (List<double[]> edges : lines.values()) {
+
+			if (edges.size() < 2)
+				continue;
+
+			Collections.sort(edges, byStart);
+
+			active.clear();
+
+			for (double[] edge : edges) {
+
+				for (int a=active.size()-1; a>=0; a--) {
+
+					double[] other = active.get(a);
+
+					if (other[1] <= edge[0]) {
+						active.remove(a);
+						continue;
+					}
+
+					add(pairs, n, (int)other[2], (int)edge[2], Math.min(other[1], edge[1]) - edge[0]);
+
+				}
+
+				active.add(edge);
+
+			}
+
+		}
+
+	}
+
+	/*Indexed intersection of the objects*/
+	private static void intersect(List<Geometry> geometries, Map<Long, double[]> pairs) {
+
+		int n = geometries.size();
+
+		List<Item> items = new ArrayList<Item>(n);
+
+		for (int g=0; g<n; g++)
+			items.add(new Item(null, geometries.get(g)));
+
+		List<Item>[] matches = new SpatialJoinEngine(SpatialJoinEngine.Method.AUTOMATIC, 0.0).join(items, items);
+
+		Map<Item, Integer> index = new HashMap<Item, Integer>(2*n);
+
+		for (int g=0; g<n; g++)
+			index.put(items.get(g), g);
+
+		for (int i=0; i<n; i++) {
+			for (Item item : matches[i]) {
+				int j = index.get(item);
+				if (i < j)
+					add(pairs, n, i, j, geometries.get(i).intersection(item.getGeometry()).getLength());
+			}
+		}
+
+	}
+
+	/**Returns the id of an object: its iiuuid property or, without it, its position in the bag.*/
+	public static String objectId(Map<String,Object> properties, int position) {
+		Object id = properties == null ? null : properties.get("iiuuid");
+		return id == null ? String.valueOf(position) : id.toString();
+	}
+
+	/**Returns the number of objects.*/
+	public int size() {
+		return _ids.length;
+	}
+
+	public String getId(int object) {
+		return _ids[object];
+	}
+
+	/**Returns the index of the object with the given id, or -1 if it's not in the graph.*/
+	public int indexOf(String id) {
+		Integer object = _index.get(id);
+		return object == null ? -1 : object;
+	}
+
+	public int getDegree(int object) {
+		return _offsets[object+1] - _offsets[object];
+	}
+
+	/**Returns the index of the k-th neighbor of the object.*/
+	public int getNeighbor(int object, int k) {
+		return _neighbors[_offsets[object] + k];
+	}
+
+	/**Returns the length of the border shared with the k-th neighbor of the object.*/
+	public double getBorder(int object, int k) {
+		return _borders[_offsets[object] + k];
+	}
+
+	public byte[] encode() throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeInt(_ids.length);
+
+		for (String id : _ids)
+			out.writeUTF(id);
+
+		for (int i=0; i<_ids.length; i++) {
+
+			out.writeInt(getDegree(i));
+
+			for (int e=_offsets[i]; e<_offsets[i+1]; e++) {
+				out.writeInt(_neighbors[e]);
+				out.writeDouble(_borders[e]);
+			}
+
+		}
+
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	public static AdjacencyGraph decode(byte[] record) throws IOException {
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+		int n = in.readInt();
+
+		String[] ids = new String[n];
+
+		for (int i=0; i<n; i++)
+			ids[i] = in.readUTF();
+
+		int[] offsets = new int[n+1];
+		int[] neighbors = new int[16];
+		double[] borders = new double[16];
+
+		for (int i=0; i<n; i++) {
+
+			int degree = in.readInt();
+
+			offsets[i+1] = offsets[i] + degree;
+
+			if (offsets[i+1] > neighbors.length) {
+				neighbors = Arrays.copyOf(neighbors, Math.max(2*neighbors.length, offsets[i+1]));
+				borders = Arrays.copyOf(borders, neighbors.length);
+			}
+
+			for (int e=offsets[i]; e<offsets[i+1]; e++) {
+				neighbors[e] = in.readInt();
+				borders[e] = in.readDouble();
+			}
+
+		}
+
+		return new AdjacencyGraph(ids, offsets, Arrays.copyOf(neighbors, offsets[n]), Arrays.copyOf(borders, offsets[n]));
+	}
+
+}
@@ -0,0 +1,220 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import com.vividsolutions.jts.algorithm.ConvexHull;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.util.GeometricShapeFactory;
+
+/**
+ * The minimum-area rectangle that surrounds a geometry, computed once and shared by the shape features
+ * (rectangle fit, ellipse fit, length, width...).<br><br>
+ * One side of the minimum rectangle lies on an edge of the convex hull. The rotating calipers walk the hull edges
+ * keeping the extreme vertices along and across the current edge, so every edge is tested in constant time over
+ * primitive arrays, without rotating the hull.
+ * @author Rodrigo Ferreira
+ *
+ */
+public class MinimumRectangle {
+
+	/*Angle of the hull edge that holds the first side*/
+	private final double _rotation;
+	
+	/*Side along the edge and side across it*/
+	private final double _along;
+	private final double _across;
+	
+	private final double _centerX;
+	private final double _centerY;
+	
+	private MinimumRectangle(double rotation, double along, double across, double centerX, double centerY) {
+		_rotation = rotation;
+		_along = along;
+		_across = across;
+		_centerX = centerX;
+		_centerY = centerY;
+	}
+	
+	/**Computes the rectangle of the geometry, or returns null if its convex hull is not a polygon.*/
+	public static MinimumRectangle get(Geometry geom) {
+		
+		Geometry hull = new ConvexHull(geom).getConvexHull();
+		
+		if (!(hull instanceof Polygon))
+			return null;
+		
+		Coordinate[] coords = ((Polygon)hull).getExteriorRing().getCoordinates();
+		
+		/*The ring is closed; the coordinates are taken relative to the first vertex to keep the precision*/
+		int n = coords.length-1;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		
+		for (int i=0; i<n; i++) {
+			x[i] = coords[i].x - coords[0].x;
+			y[i] = coords[i].y - coords[0].y;
+		}
+		
+		MinimumRectangle rect = get(x, y, n);
+		
+		return new MinimumRectangle(rect._rotation, rect._along, rect._across, rect._centerX + coords[0].x, rect._centerY + coords[0].y);
+	}
+	
+	/**Computes the rectangle of a convex polygon given by its n vertices in order, without repeating the first one.*/
+	public static MinimumRectangle get(double[] x, double[] y, int n) {
+		
+		double minArea = Double.MAX_VALUE;
+		MinimumRectangle best = null;
+		
+		/*Extreme vertices: farthest ahead, farthest behind and farthest across the edge*/
+		int ahead = -1;
+		int behind = -1;
+		int across = -1;
+		
+		for (int i=0; i<n; i++) {
+			
+			int next = (i+1) % n;
+			double dx = x[next] - x[i];
+			double dy = y[next] - y[i];
+			double len = Math.sqrt(dx*dx + dy*dy);
+			
+			if (len == 0)
+				continue;
+			
+			double ux = dx/len;
+			double uy = dy/len;
+			
+			if (ahead < 0) {
+				
+				/*Full scan for the first edge; afterwards the calipers only move forward*/
+				ahead = i;
+				behind = i;
+				across = i;
+				
+				for (int k=0; k<n; k++) {
+					if (dot(x, y, k, i, ux, uy) > dot(x, y, ahead, i, ux, uy))
+						ahead = k;
+					if (dot(x, y, k, i, ux, uy) < dot(x, y, behind, i, ux, uy))
+						behind = k;
+					if (Math.abs(cross(x, y, k, i, ux, uy)) > Math.abs(cross(x, y, across, i, ux, uy)))
+						across = k;
+				}
+				
+			} else {
+				
+				for (int k=0; k<n && dot(x, y, (ahead+1) % n, i, ux, uy) > dot(x, y, ahead, i, ux, uy); k++)
+					ahead = (ahead+1) % n;
+				
+				for (int k=0; k<n && dot(x, y, (behind+1) % n, i, ux, uy) < dot(x, y, behind, i, ux, uy); k++)
+					behind = (behind+1) % n;
+				
+				for (int k=0; k<n && Math.abs(cross(x, y, (across+1) % n, i, ux, uy)) > Math.abs(cross(x, y, across, i, ux, uy)); k++)
+					across = (across+1) % n;
+				
+			}
+			
+			double max = dot(x, y, ahead, i, ux, uy);
+			double min = dot(x, y, behind, i, ux, uy);
+			double height = cross(x, y, across, i, ux, uy);
+			
+			double area = (max-min) * Math.abs(height);
+			
+			if (area < minArea) {
+				
+				minArea = area;
+				
+				/*Center in the frame of the edge, rotated back*/
+				double u = (max+min)/2;
+				double v = height/2;
+				
+				best = new MinimumRectangle(Math.atan2(dy, dx), max-min, Math.abs(height), x[i] + u*ux - v*uy, y[i] + u*uy + v*ux);
+				
+			}
+			
+		}
+		
+		return best;
+	}
+	
+	/*Projection of the vertex k on the edge that starts at the vertex i*/
+	private static double dot(double[] x, double[] y, int k, int i, double ux, double uy) {
+		return (x[k]-x[i])*ux + (y[k]-y[i])*uy;
+	}
+	
+	/*Signed distance of the vertex k to the line of the edge that starts at the vertex i*/
+	private static double cross(double[] x, double[] y, int k, int i, double ux, double uy) {
+		return (y[k]-y[i])*ux - (x[k]-x[i])*uy;
+	}
+	
+	/**Orientation of the longest side, in radians within [0, Pi).*/
+	public double getAngle() {
+		double angle = _along >= _across ? _rotation : _rotation + Math.PI/2;
+		angle = angle % Math.PI;
+		return angle < 0 ? angle + Math.PI : angle;
+	}
+	
+	/**Longest side.*/
+	public double getLength() {
+		return Math.max(_along, _across);
+	}
+	
+	/**Shortest side.*/
+	public double getWidth() {
+		return Math.min(_along, _across);
+	}
+	
+	public double getArea() {
+		return _along * _across;
+	}
+	
+	public Coordinate getCenter() {
+		return new Coordinate(_centerX, _centerY);
+	}
+	
+	/**Builds the rectangle.*/
+	public Polygon toPolygon(GeometryFactory gf) {
+		
+		double cos = Math.cos(_rotation);
+		double sin = Math.sin(_rotation);
+		
+		/*Corners in the frame of the edge, in the order of the envelope of the rotated hull*/
+		double[] u = {-_along/2, -_along/2, _along/2, _along/2, -_along/2};
+		double[] v = {-_across/2, _across/2, _across/2, -_across/2, -_across/2};
+		
+		Coordinate[] coords = new Coordinate[5];
+		
+		for (int k=0; k<4; k++)
+			coords[k] = new Coordinate(_centerX + u[k]*cos - v[k]*sin, _centerY + u[k]*sin + v[k]*cos);
+		
+		coords[4] = new Coordinate(coords[0]);
+		
+		return gf.createPolygon(gf.createLinearRing(coords), null);
+	}
+	
+	/**Builds the ellipse whose axes are the sides of the rectangle, with the given number of points.*/
+	public Polygon toEllipse(GeometryFactory gf, int numPoints) {
+		GeometricShapeFactory gsf = new GeometricShapeFactory(gf);
+		gsf.setCentre(getCenter());
+		gsf.setWidth(getLength());
+		gsf.setHeight(getWidth());
+		gsf.setNumPoints(numPoints);
+		gsf.setRotation(getAngle());
+		return gsf.createCircle();
+	}
+	
+}
@@ -72,26 +72,14 @@ public class Orientation {
 	public double getGeneralOrientation(){
 
 		//get ssr
-		Polygon ssr = SmallestSurroundingRectangle.get(this.geom);
+		MinimumRectangle ssr = MinimumRectangle.get(this.geom);
 
 		if (ssr == null)
 			return 999.9;
 
-		//get longest side
-		Coordinate[] coords = ssr.getCoordinates();
-		double lg1 = coords[0].distance(coords[1]);
-		double lg2 = coords[1].distance(coords[2]);
-		if (lg1==lg2) return 999.9;
-
-		//orientation is (c1,c2)
-		Coordinate c1,c2;
-		if (lg1>lg2) { c1=coords[0]; c2=coords[1]; }
-		else { c1=coords[1]; c2=coords[2]; }
-
-		//computes longest side orientation
-		double angle = Math.atan((c1.y-c2.y)/(c1.x-c2.x));
-		if (angle<0) angle += Math.PI;
-		return angle;
+		//longest side orientation
+		if (ssr.getLength()==ssr.getWidth()) return 999.9;
+		return ssr.getAngle();
 	}
 
 	/**
@@ -43,6 +43,7 @@ import org.geotools.shapefile.Shapefile;
 import org.geotools.shapefile.ShapefileHeader;
 import org.iq80.snappy.SnappyInputStream;
 
+import br.puc_rio.ele.lvc.interimage.common.AdaptiveTileManager;
 import br.puc_rio.ele.lvc.interimage.common.CRS;
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
 import br.puc_rio.ele.lvc.interimage.common.TileManager;
@@ -409,7 +410,7 @@ public class ShapefileConverter {
 	 * keep - tells if the method should keep or remove the listed attributes<br>
 	 * crsFrom - input CRS code in the form "EPSG:0000"<br>
 	 * geoBBox - the method will store in this vector the bbox of the shapefile<br>
-	 * tileManager - TileManager object
+	 * tileManager - TileManager object; an AdaptiveTileManager gets the centroids of the objects as loads
 	 */	
 	
 	public static void shapefileToJSON(String shapefile, String json, List<String> names, boolean keep, String crsFrom, String crsTo, double[] geoBBox, TileManager tileManager, boolean compressed) {
@@ -529,6 +530,13 @@ public class ShapefileConverter {
 	                contentLength=file.readIntBE();                
 	                geom = handler.read(file,factory,contentLength);
 	
+	                /*Each object adds to the load of the adaptive tile that holds its centroid*/
+	                if (tileManager instanceof AdaptiveTileManager && !geom.isEmpty()) {
+	                	Point centroid = geom.getCentroid();
+	                	CRS.convert(crsFrom, crsTo, centroid);
+	                	((AdaptiveTileManager)tileManager).addLoad(centroid.getX(), centroid.getY(), 1.0);
+	                }
+	                
 	                //TODO: Should we do it here or in the cluster?
 	                //TODO: Maybe it's possible to postpone the conversion and tile computation to the cluster
 	                
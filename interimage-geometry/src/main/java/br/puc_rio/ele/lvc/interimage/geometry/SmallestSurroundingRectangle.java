@@ -18,8 +18,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.*
 
 package br.puc_rio.ele.lvc.interimage.geometry;
 
-import com.vividsolutions.jts.algorithm.ConvexHull;
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Polygon;
@@ -38,29 +36,10 @@ public class SmallestSurroundingRectangle {
 	}
 
 	public static Polygon get(Geometry geom, GeometryFactory gf){
-		Geometry hull_ = (new ConvexHull(geom)).getConvexHull();
-		if (!(hull_ instanceof Polygon)) return null;
-		Polygon convHull = (Polygon)hull_;
-
-		Coordinate c = geom.getCentroid().getCoordinate();
-		Coordinate[] coords = convHull.getExteriorRing().getCoordinates();
-
-		double minArea = Double.MAX_VALUE, minAngle = 0.0;
-		Polygon ssr = null;
-		Coordinate ci = coords[0], cii;
-		for(int i=0; i<coords.length-1; i++){
-			cii = coords[i+1];
-			double angle = Math.atan2(cii.y-ci.y, cii.x-ci.x);
-			Polygon rect = (Polygon) Rotation.get(convHull, c, -1.0*angle, gf).getEnvelope();
-			double area = rect.getArea();
-			if (area < minArea) {
-				minArea = area;
-				ssr = rect;
-				minAngle = angle;
-			}
-			ci = cii;
-		}
-		return Rotation.get(ssr, c, minAngle, gf);
+		//rotating calipers, see MinimumRectangle
+		MinimumRectangle ssr = MinimumRectangle.get(geom);
+		if (ssr == null) return null;
+		return ssr.toPolygon(gf);
 	}
 
 	public static Polygon get(Geometry geom, boolean preserveSize){
@@ -0,0 +1,268 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
+import br.puc_rio.ele.lvc.interimage.common.SpatialIndex;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.AbstractNode;
+import com.vividsolutions.jts.index.strtree.Boundable;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+
+/**
+ * A class that computes spatial joins between bags of geometries.<br><br>
+ * Each bag is parsed and indexed only once per join. Candidate pairs are found either with the index nested loop
+ * method or with the hierarchical traversal method (synchronized traversal of two STR-Trees), and then refined
+ * with a prepared geometry (intersects) or with an exact distance test.<br><br>
+ * The methods are described in this paper:
+ * Edwin H. Jacox and Hanan Samet. 2007. Spatial join techniques.
+ * ACM Trans. Database Syst. 32, 1, Article 7 (March 2007).
+ * DOI=10.1145/1206049.1206056 http://doi.acm.org/10.1145/1206049.1206056
+ * @author Rodrigo Ferreira
+ */
+public class SpatialJoinEngine {
+
+	public enum Method {AUTOMATIC, INDEX_NESTED_LOOP, HIERARCHICAL_TRAVERSAL}
+
+	/**Minimum size of both sides for the hierarchical traversal to be chosen automatically.*/
+	public static final int TRAVERSAL_THRESHOLD = 1000;
+
+	/**A parsed tuple of a bag.*/
+	public static class Item {
+
+		private Tuple _tuple;
+		private Geometry _geometry;
+		private PreparedGeometry _prepared;
+
+		public Item(Tuple tuple, Geometry geometry) {
+			_tuple = tuple;
+			_geometry = geometry;
+		}
+
+		public Tuple getTuple() {
+			return _tuple;
+		}
+
+		public Geometry getGeometry() {
+			return _geometry;
+		}
+
+		/**Prepares the geometry on first use.*/
+		public PreparedGeometry getPrepared() {
+			if (_prepared == null)
+				_prepared = PreparedGeometryFactory.prepare(_geometry);
+			return _prepared;
+		}
+
+	}
+
+	private final GeometryParser _geometryParser = new GeometryParser();
+
+	private Method _method;
+	private double _distance;
+
+	/**
+	 * @param method the join method
+	 * @param distance the maximum distance between joined geometries; zero means that they must intersect
+	 */
+	public SpatialJoinEngine(Method method, double distance) {
+		_method = method;
+		_distance = distance;
+	}
+
+	/**Parses the join method. It can be 'index-nested-loop' or 'hierarchical-traversal', anything else selects the method based on the bag sizes.*/
+	public static Method parseMethod(String joinType) {
+		if ("index-nested-loop".equalsIgnoreCase(joinType))
+			return Method.INDEX_NESTED_LOOP;
+		else if ("hierarchical-traversal".equalsIgnoreCase(joinType))
+			return Method.HIERARCHICAL_TRAVERSAL;
+		else
+			return Method.AUTOMATIC;
+	}
+
+	/**Parses all the geometries of the bag. Tuples whose geometry cannot be parsed are skipped.*/
+	@SuppressWarnings("rawtypes")
+	public List<Item> parse(DataBag bag) throws Exception {
+
+		List<Item> list = new ArrayList<Item>((int)bag.size());
+
+		Iterator it = bag.iterator();
+        while (it.hasNext()) {
+            Tuple t = (Tuple)it.next();
+            Geometry geometry = _geometryParser.parseGeometry(t.get(0));
+            if (geometry == null || geometry.isEmpty())
+            	continue;
+            list.add(new Item(t, geometry));
+        }
+
+		return list;
+	}
+
+	/**
+	 * Computes the matching items of the second list for each item of the first list.
+	 * @return an array aligned with the first list; each position has the list of matches
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Item>[] join(List<Item> outer, List<Item> inner) {
+
+		List<Item>[] matches = new List[outer.size()];
+
+		for (int i=0; i<matches.length; i++)
+			matches[i] = new ArrayList<Item>();
+
+		if (outer.isEmpty() || inner.isEmpty())
+			return matches;
+
+		Method method = _method;
+
+		if (method == Method.AUTOMATIC) {
+			if (Math.min(outer.size(), inner.size()) >= TRAVERSAL_THRESHOLD)
+				method = Method.HIERARCHICAL_TRAVERSAL;
+			else
+				method = Method.INDEX_NESTED_LOOP;
+		}
+
+		if (method == Method.HIERARCHICAL_TRAVERSAL)
+			computeHierarchicalTraversalJoin(outer, inner, matches);
+		else
+			computeIndexNestedLoopJoin(outer, inner, matches);
+
+		return matches;
+	}
+
+	/**Envelope of the item, expanded by the join distance.*/
+	private Envelope envelope(Item item) {
+		Envelope env = new Envelope(item.getGeometry().getEnvelopeInternal());
+		if (_distance > 0)
+			env.expandBy(_distance);
+		return env;
+	}
+
+	private boolean refine(Item outer, Item inner) {
+		if (_distance > 0)
+			return outer.getGeometry().isWithinDistance(inner.getGeometry(), _distance);
+		else
+			return outer.getPrepared().intersects(inner.getGeometry());
+	}
+
+	/**Indexes the larger side once and probes it with every geometry of the smaller side.*/
+	@SuppressWarnings("unchecked")
+	private void computeIndexNestedLoopJoin(List<Item> outer, List<Item> inner, List<Item>[] matches) {
+
+		boolean indexInner = inner.size() >= outer.size();
+
+		List<Item> indexed = indexInner ? inner : outer;
+		List<Item> probing = indexInner ? outer : inner;
+
+		SpatialIndex index = new SpatialIndex();
+
+		for (int i=0; i<indexed.size(); i++)
+			index.insert(indexed.get(i).getGeometry().getEnvelopeInternal(), i);
+
+		for (int j=0; j<probing.size(); j++) {
+
+			List<Integer> candidates = index.query(envelope(probing.get(j)));
+
+			for (Integer i : candidates) {
+
+				int o = indexInner ? j : i;
+				int n = indexInner ? i : j;
+
+				if (refine(outer.get(o), inner.get(n)))
+					matches[o].add(inner.get(n));
+
+			}
+
+		}
+
+	}
+
+	/**Traverses both STR-Trees at the same time, descending only into pairs of nodes whose bounds intersect.*/
+	@SuppressWarnings("unchecked")
+	private void computeHierarchicalTraversalJoin(List<Item> outer, List<Item> inner, List<Item>[] matches) {
+
+		SpatialIndex index1 = new SpatialIndex();
+		SpatialIndex index2 = new SpatialIndex();
+
+		for (int i=0; i<outer.size(); i++)
+			index1.insert(envelope(outer.get(i)), i);
+
+		for (int i=0; i<inner.size(); i++)
+			index2.insert(inner.get(i).getGeometry().getEnvelopeInternal(), i);
+
+		index1.build();
+		index2.build();
+
+		//depth-first, so that the number of pending pairs stays small
+		LinkedList<Boundable[]> stack = new LinkedList<Boundable[]>();
+		stack.add(new Boundable[] {index1.getRoot(), index2.getRoot()});
+
+		while (!stack.isEmpty()) {
+
+			Boundable[] pair = stack.pollLast();
+
+			Boundable b1 = pair[0];
+			Boundable b2 = pair[1];
+
+			if (!intersects(b1, b2))
+				continue;
+
+			if ((b1 instanceof ItemBoundable) && (b2 instanceof ItemBoundable)) {
+
+				int o = (Integer)((ItemBoundable)b1).getItem();
+				int n = (Integer)((ItemBoundable)b2).getItem();
+
+				if (refine(outer.get(o), inner.get(n)))
+					matches[o].add(inner.get(n));
+
+			} else if ((b1 instanceof AbstractNode) && ((b2 instanceof ItemBoundable) || (((AbstractNode)b1).getLevel() >= ((AbstractNode)b2).getLevel()))) {
+
+				//descends on the first tree
+				for (Boundable child : (List<Boundable>)((AbstractNode)b1).getChildBoundables())
+					stack.add(new Boundable[] {child, b2});
+
+			} else {
+
+				//descends on the second tree
+				for (Boundable child : (List<Boundable>)((AbstractNode)b2).getChildBoundables())
+					stack.add(new Boundable[] {b1, child});
+
+			}
+
+		}
+
+	}
+
+	private boolean intersects(Boundable b1, Boundable b2) {
+		Envelope e1 = (Envelope)b1.getBounds();
+		Envelope e2 = (Envelope)b2.getBounds();
+		if (e1 == null || e2 == null)
+			return false;
+		return e1.intersects(e2);
+	}
+
+}
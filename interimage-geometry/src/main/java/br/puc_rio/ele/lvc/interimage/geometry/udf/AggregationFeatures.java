@@ -29,7 +29,7 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.geometry.SmallestSurroundingRectangle;
+import br.puc_rio.ele.lvc.interimage.geometry.MinimumRectangle;
 
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -58,8 +58,7 @@ public class AggregationFeatures extends EvalFunc<DataBag> {
 		if (attribute.equals("area")) {
 			return geom.getArea();
 		} else if (attribute.equals("rectangle_fit")) {
-			Geometry ssRect = SmallestSurroundingRectangle.get(geom);			
-			return geom.getArea() / ssRect.getArea();
+			return geom.getArea() / MinimumRectangle.get(geom).getArea();
 		}
 		return Double.NaN;
 	}
@@ -0,0 +1,97 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package br.puc_rio.ele.lvc.interimage.geometry.udf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
+import br.puc_rio.ele.lvc.interimage.geometry.AdjacencyGraph;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A UDF that computes the adjacency graph of the objects of a tile: the neighbors of each object and the length of
+ * the border shared with each one, as a binary {@link AdjacencyGraph} record.<br>
+ * The graph is computed once per tile and can be given to NeighborhoodFeatures, that then answers the connected
+ * neighborhood features from it instead of intersecting the polygons.<br><br>
+ * Example:<br>
+ * 		A = load 'mydata' as (geom, data, props);<br>
+ * 		B = group A by props#'tile';<br>
+ * 		C = foreach B generate A, CalculateAdjacency(A) as graph;<br>
+ * 		D = foreach C generate flatten(NeighborhoodFeatures(A, graph));<br>
+ * @author Rodrigo Ferreira
+ */
+public class CalculateAdjacency extends EvalFunc<DataByteArray> {
+
+	private final GeometryParser _geometryParser = new GeometryParser();
+
+	/**
+     * Method invoked on every bag during foreach evaluation.
+     * @param input tuple<br>
+     * first column is assumed to have the bag of objects of the tile
+     * @exception java.io.IOException
+     * @return the adjacency graph of the objects; objects without a geometry have no neighbors
+     */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public DataByteArray exec(Tuple input) throws IOException {
+
+		if (input == null || input.size() == 0)
+            return null;
+
+		try {
+
+			DataBag bag = DataType.toBag(input.get(0));
+
+			List<String> ids = new ArrayList<String>((int)bag.size());
+			List<Geometry> geometries = new ArrayList<Geometry>((int)bag.size());
+
+			int position = 0;
+
+			Iterator it = bag.iterator();
+	        while (it.hasNext()) {
+	        	Tuple t = (Tuple)it.next();
+	        	Geometry geometry = _geometryParser.parseGeometry(t.get(0));
+	        	if (geometry != null && !geometry.isEmpty()) {
+	        		ids.add(AdjacencyGraph.objectId(DataType.toMap(t.get(2)), position));
+	        		geometries.add(geometry);
+	        	}
+	        	position++;
+	        }
+
+			return new DataByteArray(AdjacencyGraph.build(ids, geometries).encode());
+
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+
+	@Override
+    public Schema outputSchema(Schema input) {
+		return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+
+}
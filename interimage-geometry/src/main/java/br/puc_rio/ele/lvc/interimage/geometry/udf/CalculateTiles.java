@@ -14,12 +14,7 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.geometry.udf;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,12 +23,11 @@ import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.strtree.STRtree;
-import com.vividsolutions.jts.io.WKTReader;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.common.Tile;
+import br.puc_rio.ele.lvc.interimage.common.TileGrid;
 
 /**
  * A UDF that computes the tiles a geometry intersects.<br><br>
@@ -45,7 +39,7 @@ import br.puc_rio.ele.lvc.interimage.common.Tile;
 public class CalculateTiles extends EvalFunc<String> {
 	
 	private final GeometryParser _geometryParser = new GeometryParser();
-	private STRtree _gridIndex = null;
+	private TileGrid _grid = null;
 	private String _gridUrl = null;
 	private String _assignment = null;
 	private double _resolution;
@@ -66,44 +60,17 @@ public class CalculateTiles extends EvalFunc<String> {
      * @exception java.io.IOException
      * @return string with intersecting tiles
      */
-	@SuppressWarnings("unchecked")
 	@Override
 	public String exec(Tuple input) throws IOException {
 		if (input == null || input.size() < 2)
             return null;
      		
 		//executes initialization
-		if (_gridIndex == null) {
-			_gridIndex = new STRtree();
+		if ((_grid == null) && (!_gridUrl.isEmpty())) {
 			
-			//Creates an index for the grid
+			//Gets the grid, shared by all the UDFs in this JVM
 	        try {
-	        	
-	        	if (!_gridUrl.isEmpty()) {
-	        		
-	        		URL url  = new URL(_gridUrl);	        		
-	                URLConnection urlConn = url.openConnection();
-	                urlConn.connect();
-			        InputStream buff = new BufferedInputStream(urlConn.getInputStream());				    	    	        
-			        ObjectInputStream in = new ObjectInputStream(buff);
-	    			
-	    		    List<Tile> tiles = (List<Tile>)in.readObject();
-	    		    
-	    		    in.close();
-				    
-				    for (Tile t : tiles) {
-				    	Geometry geometry = new WKTReader().read(t.getGeometry());
-				    	if (_buffer.equals("positive")) {
-				    		_gridIndex.insert(geometry.buffer(_resolution/2).getEnvelopeInternal(),t);
-				    	} else if (_buffer.equals("negative")) {
-				    		_gridIndex.insert(geometry.buffer(_resolution/(-2)).getEnvelopeInternal(),t);
-				    	} else {
-				    		_gridIndex.insert(geometry.getEnvelopeInternal(),t);
-				    	}
-    					
-				    }
-			        			        
-	        	}
+	        	_grid = TileGrid.get(_gridUrl);
 	        } catch (Exception e) {
 				throw new IOException("Caught exception reading grid file ", e);
 			}
@@ -117,16 +84,41 @@ public class CalculateTiles extends EvalFunc<String> {
 			
 			Geometry geom = _geometryParser.parseGeometry(objGeometry);
 			
-			List<Tile> list = _gridIndex.query(geom.getEnvelopeInternal());
-						
 			List<String> tiles = new ArrayList<String>();
 			
-			for (Tile t : list) {
+			if (_grid != null) {
+				
+				Envelope geomEnv = geom.getEnvelopeInternal();
+				
+				/*The tiles are buffered by half a pixel according to the buffer type*/
+				double buffer = 0;
+				
+				if (_buffer.equals("positive")) {
+					buffer = _resolution/2;
+				} else if (_buffer.equals("negative")) {
+					buffer = _resolution/(-2);
+				}
 				
-				Geometry g = _geometryParser.parseGeometry(t.getGeometry());
+				Envelope queryEnv = new Envelope(geomEnv);
 				
-				if (g.intersects(geom)) {
-					tiles.add(t.getCode());
+				if (buffer > 0)
+					queryEnv.expandBy(buffer);
+				
+				List<Integer> list = _grid.query(queryEnv);
+				
+				for (Integer k : list) {
+					
+					if (buffer != 0) {
+						Envelope tileEnv = _grid.getEnvelope(k);
+						tileEnv.expandBy(buffer);
+						if (!tileEnv.intersects(geomEnv))
+							continue;
+					}
+					
+					if (_grid.intersects(k, geom)) {
+						tiles.add(_grid.getCode(k));
+					}
+					
 				}
 				
 			}
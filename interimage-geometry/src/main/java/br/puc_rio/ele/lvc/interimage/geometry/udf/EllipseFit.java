@@ -22,13 +22,10 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.geometry.Orientation;
-import br.puc_rio.ele.lvc.interimage.geometry.SmallestSurroundingRectangle;
+import br.puc_rio.ele.lvc.interimage.geometry.MinimumRectangle;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.util.GeometricShapeFactory;
 
 /**
  * A UDF that returns the ellipse fit of a geometry.<br><br>
@@ -58,32 +55,7 @@ public class EllipseFit extends EvalFunc<Double> {
 			Object objGeometry = input.get(0);
 			Geometry geometry = _geometryParser.parseGeometry(objGeometry);
 			
-			Geometry ssRect = SmallestSurroundingRectangle.get(geometry);
-			
-			Coordinate[] coords = ssRect.getCoordinates();
-			double lg1 = coords[0].distance(coords[1]);
-			double lg2 = coords[1].distance(coords[2]);
-			
-			 double semiMajor;
-             double semiMinor;
-             
-             if (lg1>lg2) {
-            	 semiMajor = lg1;
-            	 semiMinor = lg2;
-             } else {
-            	 semiMajor = lg2;
-            	 semiMinor = lg1;
-             }
-             
-             Coordinate centre = ssRect.getCentroid().getCoordinate();
-             double orientRad = new Orientation(ssRect).getGeneralOrientation();
-             GeometricShapeFactory gsf = new GeometricShapeFactory();
-             gsf.setCentre(centre);
-             gsf.setWidth(semiMajor);
-             gsf.setHeight(semiMinor);
-             gsf.setNumPoints(30);
-             gsf.setRotation(orientRad);
-             Polygon ellipse = gsf.createCircle();
+			Polygon ellipse = MinimumRectangle.get(geometry).toEllipse(geometry.getFactory(), 30);
 			
 			return geometry.getArea() / ellipse.getArea();
 			
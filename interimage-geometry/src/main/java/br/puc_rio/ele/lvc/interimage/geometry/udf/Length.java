@@ -22,9 +22,8 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.geometry.SmallestSurroundingRectangle;
+import br.puc_rio.ele.lvc.interimage.geometry.MinimumRectangle;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 
 /**
@@ -55,16 +54,7 @@ public class Length extends EvalFunc<Double> {
 			Object objGeometry = input.get(0);
 			Geometry geometry = _geometryParser.parseGeometry(objGeometry);
 
-			Geometry ssRect = SmallestSurroundingRectangle.get(geometry);
-			
-			Coordinate[] coords = ssRect.getCoordinates();
-			double lg1 = coords[0].distance(coords[1]);
-			double lg2 = coords[1].distance(coords[2]);
-			
-			if (lg1>lg2)
-				return lg1;
-			else
-				return lg2;
+			return MinimumRectangle.get(geometry).getLength();
 			
 		} catch (Exception e) {
 			throw new IOException("Caught exception processing input row ", e);
@@ -22,9 +22,8 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.geometry.SmallestSurroundingRectangle;
+import br.puc_rio.ele.lvc.interimage.geometry.MinimumRectangle;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 
 /**
@@ -55,16 +54,9 @@ public class LengthWidthRatio extends EvalFunc<Double> {
 			Object objGeometry = input.get(0);
 			Geometry geometry = _geometryParser.parseGeometry(objGeometry);
 			
-			Geometry ssRect = SmallestSurroundingRectangle.get(geometry);
+			MinimumRectangle rect = MinimumRectangle.get(geometry);
 			
-			Coordinate[] coords = ssRect.getCoordinates();
-			double lg1 = coords[0].distance(coords[1]);
-			double lg2 = coords[1].distance(coords[2]);
-			
-			if (lg1>lg2)
-				return lg1/lg2;
-			else
-				return lg2/lg1;
+			return rect.getLength() / rect.getWidth();
 			
 		} catch (Exception e) {
 			throw new IOException("Caught exception processing input row ", e);
@@ -30,12 +30,12 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import br.puc_rio.ele.lvc.interimage.common.GeometryCodec;
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
 import br.puc_rio.ele.lvc.interimage.common.UUID;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.io.WKTWriter;
 
 /**
  * A class that merges neighboring polygons of the same class.<br>
@@ -74,6 +74,7 @@ public class MergeNeighbors extends EvalFunc<DataBag> {
 			String crs = null;
 			Map<String,String> data = null;
 			String parent = null;
+			double quantum = 0;
 			
 			Iterator it = bag.iterator();
 		    while (it.hasNext()) {
@@ -88,6 +89,7 @@ public class MergeNeighbors extends EvalFunc<DataBag> {
 		        	crs = DataType.toString(props.get("crs"));
 		        	data = (Map<String,String>)t.get(1);
 		        	parent = DataType.toString(props.get("parent"));
+		        	quantum = GeometryCodec.getQuantum(t.get(0));
 		        }
 		        
 		        if (_mergeNeighborClasses.contains(className)) {
@@ -149,7 +151,7 @@ public class MergeNeighbors extends EvalFunc<DataBag> {
 	        		props.put("iiuuid", id2);
 	        		props.put("parent", parent);
 	        		        		
-	        		t.set(0,new WKTWriter().write(aux));
+	        		t.set(0,GeometryCodec.toBytes(aux, quantum));
 	        		t.set(1,new HashMap<String,String>(data));
 	        		t.set(2,props);
 	        		output.add(t);
@@ -201,7 +203,7 @@ public class MergeNeighbors extends EvalFunc<DataBag> {
 		try {
 
 			List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
-			list.add(new Schema.FieldSchema(null, DataType.CHARARRAY));
+			list.add(new Schema.FieldSchema(null, DataType.BYTEARRAY));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 					
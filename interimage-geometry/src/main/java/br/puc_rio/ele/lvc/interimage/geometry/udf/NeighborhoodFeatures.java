@@ -0,0 +1,375 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package br.puc_rio.ele.lvc.interimage.geometry.udf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
+import br.puc_rio.ele.lvc.interimage.geometry.AdjacencyGraph;
+import br.puc_rio.ele.lvc.interimage.geometry.SpatialJoinEngine;
+import br.puc_rio.ele.lvc.interimage.geometry.SpatialJoinEngine.Item;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A UDF that computes neighborhood features for all the objects of a group at once and adds them to the properties.<br><br>
+ * The group is parsed and indexed once, and the neighbors of every object are found with {@link SpatialJoinEngine}:
+ * prepared geometries for the connected neighbors and envelopes expanded by the distance for the others. The objects
+ * are filtered by class before any geometry is tested, so only the objects of the given class are indexed (all of them
+ * for RelativeAreaOf, that also needs the area of the other neighbors).<br>
+ * When the adjacency graph of the group computed by CalculateAdjacency is also given, the connected neighbors and their
+ * shared borders are read from the graph, in time proportional to the number of neighbors of each object. If some
+ * object of the group is not in the graph, or two objects have the same iiuuid, the graph is ignored.<br><br>
+ * Each feature gives the same value as the UDF of the same name called for each object with the whole group as the
+ * neighbor bag; as there, the object itself is one of its neighbors. The features are:<br>
+ * NumberOf(distance, class), ExistenceOf(distance, class), AreaOf(distance, class), RelativeAreaOf(distance, class),
+ * BorderTo(class) and RelativeBorderTo(class); an empty distance means connected neighbors.<br><br>
+ * Example:<br>
+ * 		A = load 'mydata' as (geom, data, props);<br>
+ * 		B = group A by props#'tile';<br>
+ * 		C = foreach B generate flatten(NeighborhoodFeatures(A));<br>
+ * @author Rodrigo Ferreira
+ *
+ */
+public class NeighborhoodFeatures extends EvalFunc<DataBag> {
+
+	public static final List<String> FEATURES = Arrays.asList("numberof", "existenceof", "areaof", "relativeareaof", "borderto", "relativeborderto");
+
+	private final GeometryParser _geometryParser = new GeometryParser();
+
+	private String[] _names;
+	private String[] _features;
+	private double[] _distances;
+	private String[] _classes;
+
+	/**
+	 * Constructor that takes the feature list, such as "water = NumberOf(10, water);border = BorderTo(water)".
+	 * A feature without a name is stored under the name of the operator.
+	 */
+	public NeighborhoodFeatures(String features) {
+
+		String[] expressions = features.split(";");
+
+		_names = new String[expressions.length];
+		_features = new String[expressions.length];
+		_distances = new double[expressions.length];
+		_classes = new String[expressions.length];
+
+		for (int i=0; i<expressions.length; i++) {
+
+			int idx = expressions[i].indexOf("=");
+
+			String term = expressions[i].substring(idx+1).trim();
+
+			int idx1 = term.indexOf("(");
+			int idx2 = term.lastIndexOf(")");
+
+			if (idx1 < 0 || idx2 < idx1)
+				throw new IllegalArgumentException("Missing parameters of the neighborhood feature: " + term);
+
+			String operator = term.substring(0, idx1).trim();
+			String[] params = term.substring(idx1+1, idx2).split(",", -1);
+
+			_features[i] = operator.toLowerCase();
+			_names[i] = idx < 0 ? operator : expressions[i].substring(0, idx).trim();
+
+			if (!FEATURES.contains(_features[i]))
+				throw new IllegalArgumentException("Unknown neighborhood feature: " + term);
+
+			if (_features[i].endsWith("borderto")) {
+				_classes[i] = params[0].replace("'", "").trim();
+			} else {
+
+				if (params.length < 2)
+					throw new IllegalArgumentException("The neighborhood feature needs a distance and a class: " + term);
+
+				String distance = params[0].replace("'", "").trim();
+
+				_distances[i] = distance.isEmpty() ? 0.0 : Double.parseDouble(distance);
+				_classes[i] = params[1].replace("'", "").trim();
+
+			}
+
+		}
+
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String className(Item item) throws Exception {
+		Map<String,Object> properties = (Map<String,Object>)item.getTuple().get(2);
+		return properties == null ? null : DataType.toString(properties.get("class"));
+	}
+
+	/*The connected neighbors of each object, read from the graph; the object itself is one of them*/
+	@SuppressWarnings("unchecked")
+	private static List<Item>[] neighbors(List<Item> items, String[] classes, String filter, int[] nodes, int[] objects, AdjacencyGraph graph) {
+
+		List<Item>[] neighbors = new List[items.size()];
+
+		for (int o=0; o<items.size(); o++) {
+
+			neighbors[o] = new ArrayList<Item>();
+
+			if (filter == null || filter.equals(classes[o]))
+				neighbors[o].add(items.get(o));
+
+			for (int k=0; k<graph.getDegree(nodes[o]); k++) {
+				int object = objects[graph.getNeighbor(nodes[o], k)];
+				if (object >= 0 && (filter == null || filter.equals(classes[object])))
+					neighbors[o].add(items.get(object));
+			}
+
+		}
+
+		return neighbors;
+	}
+
+	/**
+	 * Computes the features of all the objects.
+	 * @param ids the ids of the objects in the graph
+	 * @param graph the adjacency graph of the objects; null to find the neighbors geometrically, as is done when some
+	 * object is not in the graph or two objects have the same id
+	 * @return the values of each object, aligned with the items
+	 */
+	public Object[][] compute(List<Item> items, List<String> ids, AdjacencyGraph graph) throws Exception {
+
+		int n = items.size();
+
+		String[] classes = new String[n];
+
+		for (int o=0; o<n; o++)
+			classes[o] = className(items.get(o));
+
+		/*Node of each object in the graph and object of each node, -1 if missing*/
+		int[] nodes = null;
+		int[] objects = null;
+
+		if (graph != null) {
+
+			nodes = new int[n];
+			objects = new int[graph.size()];
+
+			Arrays.fill(objects, -1);
+
+			for (int o=0; o<n; o++) {
+
+				nodes[o] = graph.indexOf(ids.get(o));
+
+				/*The graph can't tell the neighbors of this object*/
+				if (nodes[o] < 0 || objects[nodes[o]] >= 0) {
+					graph = null;
+					break;
+				}
+
+				objects[nodes[o]] = o;
+
+			}
+
+		}
+
+		/*Neighbors by distance and class (null for all the classes)*/
+		Map<String, List<Item>[]> neighborsMap = new HashMap<String, List<Item>[]>();
+
+		Object[][] values = new Object[n][_features.length];
+
+		for (int f=0; f<_features.length; f++) {
+
+			String feature = _features[f];
+
+			String filter = feature.equals("relativeareaof") ? null : _classes[f];
+
+			boolean fromGraph = graph != null && _distances[f] == 0.0;
+
+			String key = (fromGraph ? "graph" : String.valueOf(_distances[f])) + "_" + filter;
+
+			List<Item>[] neighbors = neighborsMap.get(key);
+
+			if (neighbors == null && fromGraph) {
+
+				neighbors = neighbors(items, classes, filter, nodes, objects, graph);
+
+				neighborsMap.put(key, neighbors);
+
+			} else if (neighbors == null) {
+
+				List<Item> candidates = new ArrayList<Item>();
+
+				for (int o=0; o<n; o++) {
+					if (filter == null || filter.equals(classes[o]))
+						candidates.add(items.get(o));
+				}
+
+				neighbors = new SpatialJoinEngine(SpatialJoinEngine.Method.AUTOMATIC, _distances[f]).join(items, candidates);
+
+				neighborsMap.put(key, neighbors);
+
+			}
+
+			for (int o=0; o<n; o++) {
+
+				Geometry geometry = items.get(o).getGeometry();
+
+				if (feature.equals("numberof")) {
+					values[o][f] = neighbors[o].size();
+				} else if (feature.equals("existenceof")) {
+					values[o][f] = !neighbors[o].isEmpty();
+				} else if (feature.equals("areaof")) {
+					double area = 0.0;
+					for (Item item : neighbors[o])
+						area += item.getGeometry().getArea();
+					values[o][f] = area;
+				} else if (feature.equals("relativeareaof")) {
+					double area = 0.0;
+					double totalArea = 0.0;
+					for (Item item : neighbors[o]) {
+						double a = item.getGeometry().getArea();
+						if (_classes[f].equals(className(item)))
+							area += a;
+						totalArea += a;
+					}
+					values[o][f] = area / totalArea;
+				} else if (fromGraph) {
+					/*The border shared with itself is the whole boundary, as the intersection*/
+					double border = _classes[f].equals(classes[o]) ? geometry.getLength() : 0.0;
+					for (int k=0; k<graph.getDegree(nodes[o]); k++) {
+						int object = objects[graph.getNeighbor(nodes[o], k)];
+						if (object >= 0 && _classes[f].equals(classes[object]))
+							border += graph.getBorder(nodes[o], k);
+					}
+					values[o][f] = feature.equals("borderto") ? border : border / geometry.getLength();
+				} else {
+					double border = 0.0;
+					for (Item item : neighbors[o])
+						border += geometry.intersection(item.getGeometry()).getLength();
+					values[o][f] = feature.equals("borderto") ? border : border / geometry.getLength();
+				}
+
+			}
+
+		}
+
+		return values;
+	}
+
+	/**
+     * Method invoked on every bag during foreach evaluation.
+     * @param input tuple; first column is assumed to have the bag of objects of the group and the optional second
+     * column the adjacency graph of the group
+     * @exception java.io.IOException
+     * @return a bag with the objects and the features added to their properties; objects without a geometry are returned unchanged
+     */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public DataBag exec(Tuple input) throws IOException {
+
+		if (input == null || input.size() == 0)
+            return null;
+
+		try {
+
+			DataBag bag = DataType.toBag(input.get(0));
+
+			DataBag output = BagFactory.getInstance().newDefaultBag();
+
+			AdjacencyGraph graph = null;
+
+			if (input.size() > 1 && input.get(1) != null)
+				graph = AdjacencyGraph.decode(DataType.toBytes(input.get(1)));
+
+			List<Item> items = new ArrayList<Item>((int)bag.size());
+			List<String> ids = new ArrayList<String>((int)bag.size());
+
+			int position = 0;
+
+			Iterator it = bag.iterator();
+	        while (it.hasNext()) {
+	        	Tuple t = (Tuple)it.next();
+	        	Geometry geometry = _geometryParser.parseGeometry(t.get(0));
+	        	if (geometry == null || geometry.isEmpty()) {
+	        		output.add(t);
+	        	} else {
+	        		items.add(new Item(t, geometry));
+	        		ids.add(AdjacencyGraph.objectId(DataType.toMap(t.get(2)), position));
+	        	}
+	        	position++;
+	        }
+
+	        Object[][] values = compute(items, ids, graph);
+
+	        for (int o=0; o<items.size(); o++) {
+
+	        	Tuple t = items.get(o).getTuple();
+
+	        	Map<String,Object> properties = new HashMap<String,Object>((Map<String,Object>)t.get(2));
+
+	        	for (int f=0; f<_names.length; f++)
+	        		properties.put(_names[f], values[o][f]);
+
+	        	Tuple tuple = TupleFactory.getInstance().newTuple(t.getAll());
+	        	tuple.set(2, properties);
+
+	        	output.add(tuple);
+
+	        }
+
+			return output;
+
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+
+	@Override
+    public Schema outputSchema(Schema input) {
+
+		try {
+
+			List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
+			list.add(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+			list.add(new Schema.FieldSchema(null, DataType.MAP));
+			list.add(new Schema.FieldSchema(null, DataType.MAP));
+
+			Schema tupleSchema = new Schema(list);
+
+			Schema.FieldSchema ts = new Schema.FieldSchema(null, tupleSchema, DataType.TUPLE);
+
+			Schema bagSchema = new Schema(ts);
+
+			Schema.FieldSchema bs = new Schema.FieldSchema(null, bagSchema, DataType.BAG);
+
+			return new Schema(bs);
+
+		} catch (Exception e) {
+			return null;
+		}
+
+    }
+
+}
@@ -22,7 +22,7 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.geometry.SmallestSurroundingRectangle;
+import br.puc_rio.ele.lvc.interimage.geometry.MinimumRectangle;
 
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -54,9 +54,9 @@ public class RectangleFit extends EvalFunc<Double> {
 			Object objGeometry = input.get(0);
 			Geometry geometry = _geometryParser.parseGeometry(objGeometry);
 			
-			Geometry ssRect = SmallestSurroundingRectangle.get(geometry);
+			MinimumRectangle rect = MinimumRectangle.get(geometry);
 			
-			return geometry.getArea() / ssRect.getArea();
+			return geometry.getArea() / rect.getArea();
 			
 		} catch (Exception e) {
 			throw new IOException("Caught exception processing input row ", e);
@@ -14,12 +14,7 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.geometry.udf;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -36,13 +31,12 @@ import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jts.io.WKBWriter;
-import com.vividsolutions.jts.io.WKTReader;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
+import br.puc_rio.ele.lvc.interimage.common.MortonTileManager;
 import br.puc_rio.ele.lvc.interimage.common.SpatialIndex;
-import br.puc_rio.ele.lvc.interimage.common.Tile;
+import br.puc_rio.ele.lvc.interimage.common.TileGrid;
 
 /**
  * A UDF that recalculates the tiles according to a neighborhood criterion.<br><br>
@@ -58,7 +52,7 @@ import br.puc_rio.ele.lvc.interimage.common.Tile;
 public class ReplicateNeighborhood extends EvalFunc<DataBag> {
 
 	private final GeometryParser _geometryParser = new GeometryParser();
-	private STRtree _gridIndex = null;
+	private TileGrid _grid = null;
 	private String _gridUrl = null;
 	@SuppressWarnings("unused")
 	private Double _distance = null;
@@ -121,30 +115,11 @@ public class ReplicateNeighborhood extends EvalFunc<DataBag> {
 		Map<String,List<String>> replicated = new HashMap<String,List<String>>();
 		
 		//executes initialization
-		if (_gridIndex == null) {
-			_gridIndex = new STRtree();
+		if (_grid == null) {
 			
-			//Creates an index for the grid
+			//Gets the grid, shared by all the UDFs in this JVM
 	        try {
-	        	
-	        	if (!_gridUrl.isEmpty()) {
-	        		
-	        		URL url  = new URL(_gridUrl);	        		
-	                URLConnection urlConn = url.openConnection();
-	                urlConn.connect();
-			        InputStream buff = new BufferedInputStream(urlConn.getInputStream());				    	    	        
-			        ObjectInputStream in = new ObjectInputStream(buff);
-	    			
-	    		    List<Tile> tiles = (List<Tile>)in.readObject();
-	    		    
-	    		    in.close();
-				    
-				    for (Tile t : tiles) {
-				    	Geometry geometry = new WKTReader().read(t.getGeometry());
-    					_gridIndex.insert(geometry.getEnvelopeInternal(),t);
-				    }
-			        			        
-	        	}
+	        	_grid = TileGrid.get(_gridUrl);
 	        } catch (Exception e) {
 				throw new IOException("Caught exception reading grid file ", e);
 			}
@@ -172,19 +147,16 @@ public class ReplicateNeighborhood extends EvalFunc<DataBag> {
 	            String tileId = DataType.toString(props1.get("tile"));
 	            
 	            /*Computing tiles*/
-	            List<Tile> tiles = _gridIndex.query(geom1.getEnvelopeInternal());
+	            List<Integer> tiles = _grid.query(geom1.getEnvelopeInternal());
 	            
-	            Geometry tileGeom = null;
+	            /*Get the current tile; being a rectangle, containment tests only need envelopes*/
+	            int current = _grid.indexOf(tileId);
 	            
-	            /*Get tile geometry*/
-	            for (Tile t : tiles) {
-	            	if (t.getCode().equals(tileId)) {
-	            		tileGeom = _geometryParser.parseGeometry(t.getGeometry());
-	            	}
-	            }
+	            if (current < 0)
+	            	throw new Exception("Tile " + tileId + " is not in the grid");
 	            
 	            /*Check if it is a boundary polygon*/
-	            if (!geom1.within(tileGeom)) {
+	            if (!_grid.covers(current, geom1)) {
 	            	            	
 	            	/*Compute the neighboring polygons*/
 		        	List<Tuple> list = index.query(geom1.getEnvelopeInternal());
@@ -201,23 +173,21 @@ public class ReplicateNeighborhood extends EvalFunc<DataBag> {
 	        			if (geom2.intersects(geom1)) {
 	        					        			
 		        			/*If the neighboring polygon is not a boundary polygon*/		        			
-		        			if (geom2.within(tileGeom)) {
+		        			if (_grid.covers(current, geom2)) {
 		        				
 		        				List<String> neighboringTiles = new ArrayList<String>();
 		        				
-			        			for (Tile i : tiles) {
-			        				
-			        				Geometry tg = _geometryParser.parseGeometry(i.getGeometry());
+			        			for (Integer i : tiles) {
 			        				
 			        				/*If it's in fact an intersecting tile*/
-			        				if (geom1.intersects(tg)) {
+			        				if (_grid.intersects(i, geom1)) {
 			        				
 				        				/*if the tile is not the current one*/
-				        				if (!i.getCode().equals(tileId)) {
+				        				if (!_grid.getCode(i).equals(tileId)) {
 				        											        			
 				        					//if (!isReplicated(iiuuid, i.getCode(), replicated)) {
 				        					
-				        						neighboringTiles.add(i.getCode());
+				        						neighboringTiles.add(_grid.getCode(i));
 				        											        				
 						        				/*if (replicated.containsKey(iiuuid)) {
 						        					List<String> l = replicated.get(iiuuid);
@@ -238,20 +208,21 @@ public class ReplicateNeighborhood extends EvalFunc<DataBag> {
 				        				        				
 		        				/*Replicates for the tile with the lowest ID*/
 		        				long min = Long.MAX_VALUE;
-		        				long tid = Long.parseLong(tileId.substring(1));
+		        				long tid = MortonTileManager.getOrderKey(tileId);
+		        				String tileString = null;
 		        				
 		        				for (String t : neighboringTiles) {
-		        					long id = Long.parseLong(t.substring(1));
-		        					if (id < min)
+		        					long id = MortonTileManager.getOrderKey(t);
+		        					if (id < min) {
 		        						min = id;
+		        						tileString = t;
+		        					}
 		        				}
 		        				
-		        				String tileString = "T" + String.valueOf(min);
-		        				
 		        				/* Avoids that one polygon is replicated to same tile more than once.
 		        				 * Also replicates only for tiles with lower IDs than the current one.
 		        				 * */		        				
-		        				if ((!isReplicated(iiuuid, tileString, replicated)) && (min<tid)) {
+		        				if ((min<tid) && (!isReplicated(iiuuid, tileString, replicated))) {
 		        				
 			        				byte[] bytes = new WKBWriter().write(geom2);
 			        				
@@ -23,7 +23,7 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.geometry.SmallestSurroundingRectangle;
+import br.puc_rio.ele.lvc.interimage.geometry.MinimumRectangle;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.WKBWriter;
@@ -56,7 +56,7 @@ public class SSRectangle extends EvalFunc<DataByteArray> {
 			Object objGeometry = input.get(0);
 			Geometry geometry = _geometryParser.parseGeometry(objGeometry);
 			
-			Geometry ssRect = SmallestSurroundingRectangle.get(geometry);
+			Geometry ssRect = MinimumRectangle.get(geometry).toPolygon(geometry.getFactory());
 			
 			return new DataByteArray(new WKBWriter().write(ssRect));
 			
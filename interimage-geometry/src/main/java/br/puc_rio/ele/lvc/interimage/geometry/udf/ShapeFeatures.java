@@ -0,0 +1,246 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.geometry.udf;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
+import br.puc_rio.ele.lvc.interimage.geometry.MinimumRectangle;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A UDF that computes several shape features of a geometry at once and adds them to the properties map.<br><br>
+ * The geometry is parsed once and the values shared by the features (area, perimeter, centroid distances of the
+ * vertices and minimum-area rectangle) are computed only if some feature needs them. Each feature gives the same
+ * value as the UDF of the same name (Area, Compactness, RectangleFit...).<br><br>
+ * Example:<br>
+ * 		A = load 'mydata' as (geom, props);<br>
+ * 		B = foreach A generate ShapeFeatures(geom, props) as props;<br>
+ * @author Rodrigo Ferreira
+ *
+ */
+public class ShapeFeatures extends EvalFunc<Map<String,Object>> {
+	
+	public static final List<String> FEATURES = Arrays.asList("angle", "area", "compactness", "density", "ellipsefit", "fractaldimension", "gyrationradius",
+			"length", "lengthwidthratio", "perimeter", "perimeterarearatio", "rectanglefit", "roundness", "shapeindex", "width");
+	
+	private final GeometryParser _geometryParser = new GeometryParser();
+	
+	private String[] _names;
+	private String[] _features;
+	
+	/**
+	 * Constructor that takes the feature list, such as "area = Area(geometry);fit = RectangleFit(geometry)".
+	 * A feature given alone, such as "Compactness", is stored under its own name. Expressions such as "Area(geometry) / 2"
+	 * are not accepted.
+	 */
+	public ShapeFeatures(String features) {
+		
+		String[] expressions = features.split(";");
+		
+		_names = new String[expressions.length];
+		_features = new String[expressions.length];
+		
+		for (int i=0; i<expressions.length; i++) {
+			
+			int idx = expressions[i].indexOf("=");
+			
+			String term = expressions[i].substring(idx+1).trim();
+			
+			int idx1 = term.indexOf("(");
+			
+			/*Only the value of the feature itself is computed, so anything around the call is an error*/
+			if (idx1 >= 0 && !(term.endsWith(")") && term.substring(idx1+1, term.length()-1).trim().equals("geometry")))
+				throw new IllegalArgumentException("Not a single shape feature: " + term);
+			
+			_features[i] = (idx1 < 0 ? term : term.substring(0, idx1)).trim().toLowerCase();
+			_names[i] = idx < 0 ? term : expressions[i].substring(0, idx).trim();
+			
+			if (!FEATURES.contains(_features[i]))
+				throw new IllegalArgumentException("Unknown shape feature: " + term);
+			
+		}
+		
+	}
+	
+	/*Values shared by the features, computed on demand*/
+	private static class Measures {
+		
+		private final Geometry _geometry;
+		
+		private double _area = Double.NaN;
+		private double _perimeter = Double.NaN;
+		private double _maxRadius = Double.NaN;
+		private double _meanRadius = Double.NaN;
+		private MinimumRectangle _rect;
+		private boolean _hasRect = false;
+		
+		private Measures(Geometry geometry) {
+			_geometry = geometry;
+		}
+		
+		private double area() {
+			if (Double.isNaN(_area))
+				_area = _geometry.getArea();
+			return _area;
+		}
+		
+		private double perimeter() {
+			if (Double.isNaN(_perimeter))
+				_perimeter = _geometry.getLength();
+			return _perimeter;
+		}
+		
+		/*Largest and mean distance of the vertices to the centroid, from one pass over the vertices*/
+		private void radii() {
+			
+			if (!Double.isNaN(_maxRadius))
+				return;
+			
+			Coordinate centroid = _geometry.getCentroid().getCoordinate();
+			Coordinate[] vertices = _geometry.getCoordinates();
+			
+			double max = -Double.MAX_VALUE;
+			double sum = 0.0;
+			
+			for (int v=0; v<vertices.length; v++) {
+				double distance = vertices[v].distance(centroid);
+				if (distance > max)
+					max = distance;
+				sum = sum + distance;
+			}
+			
+			_maxRadius = max;
+			_meanRadius = sum / vertices.length;
+			
+		}
+		
+		private MinimumRectangle rect() {
+			if (!_hasRect) {
+				_rect = MinimumRectangle.get(_geometry);
+				_hasRect = true;
+			}
+			return _rect;
+		}
+		
+	}
+	
+	private static double compute(String feature, Measures m) {
+		
+		if (feature.equals("area")) {
+			return m.area();
+		} else if (feature.equals("perimeter")) {
+			return m.perimeter();
+		} else if (feature.equals("compactness")) {
+			return (m.perimeter()/m.area()) / Math.sqrt(m.area());
+		} else if (feature.equals("shapeindex")) {
+			return m.perimeter() / (4 * Math.sqrt(m.area()));
+		} else if (feature.equals("fractaldimension")) {
+			return 2 * (Math.log(m.perimeter()/4) / Math.log(m.area()));
+		} else if (feature.equals("perimeterarearatio")) {
+			return m.perimeter() / m.area();
+		} else if (feature.equals("roundness")) {
+			m.radii();
+			return 1.0 - (m.area() / (Math.PI * Math.pow(m._maxRadius,2.0)));
+		} else if (feature.equals("density")) {
+			m.radii();
+			return m.area() / m._maxRadius;
+		} else if (feature.equals("gyrationradius")) {
+			m.radii();
+			return m._meanRadius;
+		}
+		
+		MinimumRectangle rect = m.rect();
+		
+		/*Same value as Orientation.getGeneralOrientation() when the rectangle is undefined or square*/
+		if (feature.equals("angle"))
+			return (rect == null || rect.getLength() == rect.getWidth()) ? 999.9 : rect.getAngle();
+		
+		if (rect == null)
+			return Double.NaN;
+		
+		if (feature.equals("length")) {
+			return rect.getLength();
+		} else if (feature.equals("width")) {
+			return rect.getWidth();
+		} else if (feature.equals("lengthwidthratio")) {
+			return rect.getLength() / rect.getWidth();
+		} else if (feature.equals("rectanglefit")) {
+			return m.area() / rect.getArea();
+		} else if (feature.equals("ellipsefit")) {
+			return m.area() / rect.toEllipse(m._geometry.getFactory(), 30).getArea();
+		}
+		
+		return Double.NaN;
+	}
+	
+	/**Computes the given features (lower case names from FEATURES) of the geometry.*/
+	public static double[] compute(Geometry geometry, String[] features) {
+		
+		Measures m = new Measures(geometry);
+		
+		double[] values = new double[features.length];
+		
+		for (int i=0; i<features.length; i++)
+			values[i] = compute(features[i], m);
+		
+		return values;
+	}
+	
+	/**
+     * Method invoked on every tuple during foreach evaluation.
+     * @param input tuple<br>
+     * first column is assumed to have a geometry<br>
+     * second column is assumed to have the properties map
+     * @exception java.io.IOException
+     * @return properties map with the features
+     */
+	@Override
+	public Map<String,Object> exec(Tuple input) throws IOException {
+		if (input == null || input.size() < 2)
+            return null;
+        
+		try {
+			Geometry geometry = _geometryParser.parseGeometry(input.get(0));
+			Map<String,Object> properties = DataType.toMap(input.get(1));
+			
+			double[] values = compute(geometry, _features);
+			
+			for (int i=0; i<_names.length; i++)
+				properties.put(_names[i], values[i]);
+			
+			return properties;
+			
+		} catch (Exception e) {
+			throw new IOException("Caught exception processing input row ", e);
+		}
+	}
+	
+	@Override
+    public Schema outputSchema(Schema input) {
+        return new Schema(new Schema.FieldSchema(null, DataType.MAP));
+    }
+	
+}
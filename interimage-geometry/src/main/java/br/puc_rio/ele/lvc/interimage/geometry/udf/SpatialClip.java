@@ -14,13 +14,9 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.geometry.udf;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,16 +29,15 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import br.puc_rio.ele.lvc.interimage.common.GeometryCodec;
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.common.Tile;
+import br.puc_rio.ele.lvc.interimage.common.ShapeSet;
+import br.puc_rio.ele.lvc.interimage.common.TileGrid;
 import br.puc_rio.ele.lvc.interimage.common.UUID;
 import br.puc_rio.ele.lvc.interimage.geometry.FilterGeometryCollection;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.index.strtree.STRtree;
-import com.vividsolutions.jts.io.WKTReader;
-import com.vividsolutions.jts.io.WKTWriter;
 
 /**
  * A UDF that clips geometries in relation to a list of ROIs.<br>
@@ -64,9 +59,9 @@ import com.vividsolutions.jts.io.WKTWriter;
 public class SpatialClip extends EvalFunc<DataBag> {
 	
 	private final GeometryParser _geometryParser = new GeometryParser();
-	private STRtree _gridIndex = null;
-	private STRtree _roiIndex = null;
-	private List<String> _gridIds = null;
+	private TileGrid _grid = null;
+	private ShapeSet _rois = null;
+	private BitSet _roiTiles = null;
 	
 	private String _roiUrl = null;
 	private String _gridUrl = null;
@@ -100,96 +95,31 @@ public class SpatialClip extends EvalFunc<DataBag> {
             return null;
         
 		//executes initialization
-		if (_gridIndex == null) {
-			_gridIndex = new STRtree();
-			_roiIndex = new STRtree();
-			_gridIds = new ArrayList<String>();
+		if (_roiTiles == null) {
+			_roiTiles = new BitSet();
 			
-			//Creates an index for the grid
+			//Gets the grid, shared by all the UDFs in this JVM
 	        try {
 	        	
-	        	if (!_gridUrl.isEmpty()) {
-	    	        
-	        		URL url  = new URL(_gridUrl);	        		
-	                URLConnection urlConn = url.openConnection();
-	                urlConn.connect();
-			        InputStream buff = new BufferedInputStream(urlConn.getInputStream());				    	    	        
-			        ObjectInputStream in = new ObjectInputStream(buff);
-	    			
-	    		    List<Tile> tiles = (List<Tile>)in.readObject();
-	    		    
-	    		    in.close();
-				    
-				    for (Tile t : tiles) {
-				    	Geometry geometry = new WKTReader().read(t.getGeometry());
-    					_gridIndex.insert(geometry.getEnvelopeInternal(),t.getCode());
-				    }
-			        			        
-	        	}
+	        	if (!_gridUrl.isEmpty())
+	        		_grid = TileGrid.get(_gridUrl);
+	        	
 	        } catch (Exception e) {
 	        	e.printStackTrace();
 				throw new IOException("Caught exception reading grid file ", e);
 			}
 	        
-	        //Creates index for the ROIs
-	        //Also creates a list with the Ids of the tiles that intersect the ROIs
+	        //Gets the ROIs
+	        //Also computes the set of tiles that intersect the ROIs
 	        try {
 	        	
 	        	if (!_roiUrl.isEmpty()) {
-	        			      
-	        		URL url  = new URL(_roiUrl);	        		
-	                URLConnection urlConn = url.openConnection();
-	                urlConn.connect();
-			        InputStream buff = new BufferedInputStream(urlConn.getInputStream());				    	    	        
-			        ObjectInputStream in = new ObjectInputStream(buff);
-	    			
-	    		    List<br.puc_rio.ele.lvc.interimage.common.Shape> shapes = (List<br.puc_rio.ele.lvc.interimage.common.Shape>)in.readObject();
-	    		    
-	    		    in.close();
-				    
-				    for (br.puc_rio.ele.lvc.interimage.common.Shape t : shapes) {				    	
-				    	Geometry geometry = new WKTReader().read(t.getGeometry());
-				    	_roiIndex.insert(geometry.getEnvelopeInternal(),t);
-			        	_gridIds.addAll(_gridIndex.query(geometry.getEnvelopeInternal()));
-				    }
 	        		
-	        		/*if (_roiUrl.endsWith(".wkts")) {
-	        			
-	        			URL url  = new URL(_roiUrl);	        		
-		                URLConnection urlConn = url.openConnection();
-		                urlConn.connect();
-		                InputStream inStream = urlConn.getInputStream();
-	        			
-		                //File temp = File.createTempFile(br.puc_rio.ele.lvc.interimage.common.URL.getFileNameWithoutExtension(_roiUrl), ".wkt");
-		                
-		                //temp.deleteOnExit();
-		                
-		                byte[] compressed = ByteStreams.toByteArray(inStream);
-		                
-		                byte[] decompressed = ByteStreams.toByteArray(new SnappyInputStream(new ByteArrayInputStream(compressed)));
-		                
-		                Geometry geometry = new WKTReader().read(new String(decompressed));
-		                
-			        	_roiIndex.insert(geometry.getEnvelopeInternal(),geometry);
-			        	_gridIds.addAll(_gridIndex.query(geometry.getEnvelopeInternal()));
-	        			
-	        		} else {	        		
+	        		_rois = ShapeSet.get(_roiUrl);
+	        		
+	        		if (_grid != null)
+	        			_roiTiles = _grid.intersecting(_rois);
 	        		
-		        		URL url  = new URL(_roiUrl);	        		
-		                URLConnection urlConn = url.openConnection();
-		                urlConn.connect();
-		                InputStreamReader inStream = new InputStreamReader(urlConn.getInputStream());
-				        BufferedReader buff = new BufferedReader(inStream);
-				        
-				        String line;
-				        while ((line = buff.readLine()) != null) {
-				        	Geometry geometry = new WKTReader().read(line);
-				        	_roiIndex.insert(geometry.getEnvelopeInternal(),geometry);
-				        	_gridIds.addAll(_gridIndex.query(geometry.getEnvelopeInternal()));
-				        }
-				        
-	        		}*/
-
 	        	}
 	        } catch (Exception e) {
 	        	e.printStackTrace();
@@ -212,18 +142,23 @@ public class SpatialClip extends EvalFunc<DataBag> {
 			DataBag bag = BagFactory.getInstance().newDefaultBag();
 			
 	    	if ((!_roiUrl.isEmpty()) && (!_gridUrl.isEmpty())) {
-		        if (_gridIds.contains(tileStr)) {
+		        if (_grid.contains(_roiTiles, tileStr)) {
 		        	Geometry geometry = _geometryParser.parseGeometry(objGeometry);
+		        	double quantum = GeometryCodec.getQuantum(objGeometry);
 	
-	        		List<br.puc_rio.ele.lvc.interimage.common.Shape> list = _roiIndex.query(geometry.getEnvelopeInternal());
+	        		List<Integer> list = _rois.query(geometry.getEnvelopeInternal());
 	  	        		
-		        	for (br.puc_rio.ele.lvc.interimage.common.Shape shape : list) {
-		        		
-		        		Geometry geom = new WKTReader().read(shape.getGeometry());
+		        	for (Integer r : list) {
 		        		
-		        		if (geom.intersects(geometry)) {
+		        		if (_rois.intersects(r, geometry)) {
+		        			
+		        			Geometry g = null;
 		        			
-		        			Geometry g = geom.intersection(geometry);
+		        			/*A rectangular ROI that covers the geometry leaves it untouched*/
+		        			if (_rois.isRectangle(r) && _rois.covers(r, geometry))
+		        				g = geometry;
+		        			else
+		        				g = _rois.getGeometry(r).intersection(geometry);
 		        			
 		        			if (g.getNumGeometries()>1) {// if it's a geometry collection
 								g = FilterGeometryCollection.filter(g);	//keeping only polygons
@@ -255,12 +190,12 @@ public class SpatialClip extends EvalFunc<DataBag> {
 		        							continue;
 		        				
 			        			Tuple t = TupleFactory.getInstance().newTuple(3);
-			        			t.set(0,new WKTWriter().write(aux_geom));
+			        			t.set(0,GeometryCodec.toBytes(aux_geom, quantum));
 			        			t.set(1,new HashMap<String,String>(data));
 			        			
 			        			HashMap<String,Object> props = new HashMap<String,Object>(properties);
 			        			props.put("iiuuid",new UUID(null).random());
-			        			props.put("parent", shape.getCode());
+			        			props.put("parent", _rois.getCode(r));
 			        			t.set(2,props);
 			        			
 			        			bag.add(t);
@@ -291,7 +226,7 @@ public class SpatialClip extends EvalFunc<DataBag> {
 		try {
 
 			List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
-			list.add(new Schema.FieldSchema(null, DataType.CHARARRAY));
+			list.add(new Schema.FieldSchema(null, DataType.BYTEARRAY));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			
@@ -14,13 +14,8 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.geometry.udf;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import org.apache.pig.EvalFunc;
@@ -29,11 +24,10 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.common.Tile;
+import br.puc_rio.ele.lvc.interimage.common.ShapeSet;
+import br.puc_rio.ele.lvc.interimage.common.TileGrid;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.strtree.STRtree;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * A UDF that filters geometries with respect to a list of ROIs.<br><br>
@@ -46,9 +40,9 @@ import com.vividsolutions.jts.io.WKTReader;
 public class SpatialFilter extends EvalFunc<Boolean> {
 	
 	private final GeometryParser _geometryParser = new GeometryParser();
-	private STRtree _gridIndex = null;
-	private STRtree _roiIndex = null;
-	private List<String> _gridIds = null;
+	private TileGrid _grid = null;
+	private ShapeSet _rois = null;
+	private BitSet _roiTiles = null;
 	
 	private String _roiUrl = null;
 	private String _gridUrl = null;
@@ -71,103 +65,37 @@ public class SpatialFilter extends EvalFunc<Boolean> {
      * 
      * TODO: Use distributed cache; check if an index for the ROIs is necessary
      */
-	@SuppressWarnings("unchecked")
 	@Override
 	public Boolean exec(Tuple input) throws IOException {
 		if (input == null || input.size() < 2)
             return null;
         
 		//executes initialization
-		if (_gridIndex == null) {
-			_gridIndex = new STRtree();
-			_roiIndex = new STRtree();
-			_gridIds = new ArrayList<String>();
+		if (_roiTiles == null) {
+			_roiTiles = new BitSet();
 			
-			//Creates an index for the grid
+			//Gets the grid, shared by all the UDFs in this JVM
 	        try {
 	        	
-	        	if (!_gridUrl.isEmpty()) {
-	        		
-	        		URL url  = new URL(_gridUrl);	        		
-	                URLConnection urlConn = url.openConnection();
-	                urlConn.connect();
-			        InputStream buff = new BufferedInputStream(urlConn.getInputStream());				    	    	        
-			        ObjectInputStream in = new ObjectInputStream(buff);
-	    			
-	    		    List<Tile> tiles = (List<Tile>)in.readObject();
-	    		    
-	    		    in.close();
-				    
-				    for (Tile t : tiles) {				    	
-				    	Geometry geometry = new WKTReader().read(t.getGeometry());
-    					_gridIndex.insert(geometry.getEnvelopeInternal(),t.getCode());
-				    }
-			        			        
-	        	}
+	        	if (!_gridUrl.isEmpty())
+	        		_grid = TileGrid.get(_gridUrl);
+	        	
 	        } catch (Exception e) {
 	        	e.printStackTrace();
 				throw new IOException("Caught exception reading grid file ", e);
 			}
 	        
-	        //Creates index for the ROIs
-	        //Also creates a list with the Ids of the tiles that intersect the ROIs
+	        //Gets the ROIs
+	        //Also computes the set of tiles that intersect the ROIs
 	        try {
 	        	
 	        	if (!_roiUrl.isEmpty()) {
 	        		
-	        		URL url  = new URL(_roiUrl);	        		
-	                URLConnection urlConn = url.openConnection();
-	                urlConn.connect();
-			        InputStream buff = new BufferedInputStream(urlConn.getInputStream());				    	    	        
-			        ObjectInputStream in = new ObjectInputStream(buff);
-	    			
-	    		    List<br.puc_rio.ele.lvc.interimage.common.Shape> shapes = (List<br.puc_rio.ele.lvc.interimage.common.Shape>)in.readObject();
-	    		    
-	    		    in.close();
-				    
-				    for (br.puc_rio.ele.lvc.interimage.common.Shape t : shapes) {				    	
-				    	Geometry geometry = new WKTReader().read(t.getGeometry());
-				    	_roiIndex.insert(geometry.getEnvelopeInternal(),t);
-			        	_gridIds.addAll(_gridIndex.query(geometry.getEnvelopeInternal()));
-				    }
+	        		_rois = ShapeSet.get(_roiUrl);
 	        		
-	        		/*if (_roiUrl.endsWith(".wkts")) {
-	        			
-	        			URL url  = new URL(_roiUrl);	        		
-		                URLConnection urlConn = url.openConnection();
-		                urlConn.connect();
-		                InputStream inStream = urlConn.getInputStream();
-	        			
-		                //File temp = File.createTempFile(br.puc_rio.ele.lvc.interimage.common.URL.getFileNameWithoutExtension(_roiUrl), ".wkt");
-		                
-		                //temp.deleteOnExit();
-		                
-		                byte[] compressed = ByteStreams.toByteArray(inStream);
-		                
-		                byte[] decompressed = ByteStreams.toByteArray(new SnappyInputStream(new ByteArrayInputStream(compressed)));
-		                
-		                Geometry geometry = new WKTReader().read(new String(decompressed));
-		                		                
-			        	_roiIndex.insert(geometry.getEnvelopeInternal(),geometry);
-			        	_gridIds.addAll(_gridIndex.query(geometry.getEnvelopeInternal()));
-	        		    
-	        		} else {
+	        		if (_grid != null)
+	        			_roiTiles = _grid.intersecting(_rois);
 	        		
-		        		URL url  = new URL(_roiUrl);	        		
-		                URLConnection urlConn = url.openConnection();
-		                urlConn.connect();
-		                InputStreamReader inStream = new InputStreamReader(urlConn.getInputStream());
-				        BufferedReader buff = new BufferedReader(inStream);
-				        
-				        String line;
-				        while ((line = buff.readLine()) != null) {
-				        	Geometry geometry = new WKTReader().read(line);
-				        	_roiIndex.insert(geometry.getEnvelopeInternal(),geometry);
-				        	_gridIds.addAll(_gridIndex.query(geometry.getEnvelopeInternal()));
-				        }
-				        
-	        		}*/
-
 	        	}
 	        } catch (Exception e) {
 	        	e.printStackTrace();
@@ -185,23 +113,21 @@ public class SpatialFilter extends EvalFunc<Boolean> {
 			//Long tileId = Long.parseLong(tileStr.substring(1));
 			
 	    	if ((!_roiUrl.isEmpty()) && (!_gridUrl.isEmpty())) {
-		        if (_gridIds.contains(tileStr)) {
+		        if (_grid.contains(_roiTiles, tileStr)) {
 		        	Geometry geometry = _geometryParser.parseGeometry(objGeometry);
 		        	
-	        		List<br.puc_rio.ele.lvc.interimage.common.Shape> list = _roiIndex.query(geometry.getEnvelopeInternal());
+	        		List<Integer> list = _rois.query(geometry.getEnvelopeInternal());
 	        	
-		        	for (br.puc_rio.ele.lvc.interimage.common.Shape shape : list) {
-		        		
-		        		Geometry geom = new WKTReader().read(shape.getGeometry());
+		        	for (Integer k : list) {
 		        		
 		        		boolean bool = false;
 		        		
 		        		if (_filterType.equals("intersection")) {
-		        			bool = geom.intersects(geometry);
+		        			bool = _rois.intersects(k, geometry);
 		        		} else if (_filterType.equals("containment")) {		        			
-		        			bool = geom.covers(geometry);
+		        			bool = _rois.covers(k, geometry);
 		        		} else {
-		        			bool = geom.intersects(geometry);
+		        			bool = _rois.intersects(k, geometry);
 		        		}
 		        		
 		        		if (bool)
@@ -16,7 +16,6 @@ package br.puc_rio.ele.lvc.interimage.geometry.udf;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.pig.EvalFunc;
@@ -27,10 +26,8 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
-import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.common.SpatialIndex;
-
-import com.vividsolutions.jts.geom.Geometry;
+import br.puc_rio.ele.lvc.interimage.geometry.SpatialJoinEngine;
+import br.puc_rio.ele.lvc.interimage.geometry.SpatialJoinEngine.Item;
 
 /**
  * A UDF that spatially groups geometries.<br><br>
@@ -40,114 +37,74 @@ import com.vividsolutions.jts.geom.Geometry;
  * 		C = SpatialGroup(A,B,2);<br>
  * @author Rodrigo Ferreira
  * <br><br>
- * The method provided by this class is described in this paper:
- * Edwin H. Jacox and Hanan Samet. 2007. Spatial join techniques.
- * ACM Trans. Database Syst. 32, 1, Article 7 (March 2007).
- * DOI=10.1145/1206049.1206056 http://doi.acm.org/10.1145/1206049.1206056
+ * The grouping is computed by {@link SpatialJoinEngine}; with a distance, the targets within that distance of the reference are grouped.
  * 
  * TODO: Should create new objects as in clip?
  *   
  */
 public class SpatialGroup extends EvalFunc<DataBag> {
 	
-	private final GeometryParser _geometryParser = new GeometryParser();
-	
-	private Double _distance = null;
+	private SpatialJoinEngine _engine;
 	
 	/**Constructor that takes the distance used to group the objects.*/
 	public SpatialGroup(String distance) {
+		double d = 0.0;
 		if (!distance.isEmpty())
-			_distance = Double.parseDouble(distance);		
+			d = Double.parseDouble(distance);
+		_engine = new SpatialJoinEngine(SpatialJoinEngine.Method.AUTOMATIC, d);
 	}
 	
-	/**This method computes a spatial grouping using the index nested loop method.*/
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private void computeIndexNestedLoopGroup(DataBag bag1, List<DataBag> bagList, DataBag output) {
+	/**This method computes the spatial grouping. Each bag is parsed and indexed just once.*/
+	@SuppressWarnings("unchecked")
+	private void computeGroup(DataBag bag1, List<DataBag> bagList, DataBag output) throws Exception {
 		
-		try {
+		int size = bagList.size();
+		
+		List<Item> outer = _engine.parse(bag1);
+		
+		List<Item>[][] matches = new List[size][];
+		
+		for (int k=0; k<size; k++)
+			matches[k] = _engine.join(outer, _engine.parse(bagList.get(k)));
+		
+		for (int i=0; i<outer.size(); i++) {
+			
+			Tuple t1 = outer.get(i).getTuple();
 			
-			int size = bagList.size();
+			Tuple tuple1 = TupleFactory.getInstance().newTuple(4);
 			
-			SpatialIndex[] index = new SpatialIndex[size];
+			tuple1.set(0,t1.get(0));
+			tuple1.set(1,t1.get(1));
+			tuple1.set(2,t1.get(2));
 			
-			Iterator it = bag1.iterator();
-	        while (it.hasNext()) {
-	            Tuple t1 = (Tuple)it.next();
-	        	Geometry geometry = null;
-	            
-	        	if (_distance != null) {
-	        		geometry = _geometryParser.parseGeometry(t1.get(0)).buffer(_distance);
-	        	} else {
-	        		geometry = _geometryParser.parseGeometry(t1.get(0));
-	        	}
+			DataBag bag = BagFactory.getInstance().newDefaultBag();
+			
+			//each grouped tuple fills the fields of the bag it came from
+			for (int k=0; k<size; k++) {
+				
+				int count = 3*k;
+				
+				for (Item item : matches[k][i]) {
 					
-				for (int k=0; k<size; k++)
-					index[k] = createIndex(bagList.get(k));
+					Tuple t2 = item.getTuple();
 					
-	        	Tuple tuple1 = TupleFactory.getInstance().newTuple(4);
-	        	
-	        	List<Tuple> list = new ArrayList<Tuple>();
-	        	
-	        	for (int k=0; k<size; k++) {
-	        		List<Tuple> l = index[k].query(geometry.getEnvelopeInternal());
-	        		list.addAll(l);
-	        	}
-	        	
-	        	tuple1.set(0,t1.get(0));
-	        	tuple1.set(1,t1.get(1));
-	        	tuple1.set(2,t1.get(2));
-	        	
-	        	DataBag bag = BagFactory.getInstance().newDefaultBag();
-	        	
-	        	Tuple tuple2 = TupleFactory.getInstance().newTuple(3*size);
-	        	
-	        	int count = 0;
-	        	
-	        	for (Tuple t2 : list) {
-	        		
-        			tuple2.set(count+0,t2.get(0));
-        			tuple2.set(count+1,t2.get(1));
-        			tuple2.set(count+2,t2.get(2));
-        			        			
-        			count = count + 3;
-
-	        	}
-	        	
-	        	bag.add(tuple2);
-	        	
-	        	tuple1.set(3,bag);
-	        	output.add(tuple1);
-	        	
-	        }
-	        
-		} catch (Exception e) {
-			System.err.println("Failed to compute the grouping; error - " + e.getMessage());
-		}
-
-	}
-	
-	/**This method creates an STR-Tree index for the input bag and returns it.*/
-	@SuppressWarnings("rawtypes")
-	private SpatialIndex createIndex(DataBag bag) {
-		
-		SpatialIndex index = null;
-		
-		try {
-		
-			index = new SpatialIndex();
-			
-			Iterator it = bag.iterator();
-	        while (it.hasNext()) {
-	            Tuple t = (Tuple)it.next();
-            	Geometry geometry = _geometryParser.parseGeometry(t.get(0));
-				index.insert(geometry.getEnvelopeInternal(),t);
-	        }
-		} catch (Exception e) {
-			System.err.println("Failed to index bag; error - " + e.getMessage());
-			return null;
+					Tuple tuple2 = TupleFactory.getInstance().newTuple(3*size);
+					
+					tuple2.set(count+0,t2.get(0));
+					tuple2.set(count+1,t2.get(1));
+					tuple2.set(count+2,t2.get(2));
+					
+					bag.add(tuple2);
+					
+				}
+				
+			}
+			
+			tuple1.set(3,bag);
+			output.add(tuple1);
+			
 		}
 		
-		return index;
 	}
 	
 	/**
@@ -176,7 +133,7 @@ public class SpatialGroup extends EvalFunc<DataBag> {
 				bagList.add(bag2);				
 			}
 			
-			computeIndexNestedLoopGroup(bag1, bagList, output);
+			computeGroup(bag1, bagList, output);
 			
 			return output;
 			
@@ -16,7 +16,6 @@ package br.puc_rio.ele.lvc.interimage.geometry.udf;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.pig.EvalFunc;
@@ -27,10 +26,8 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
-import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.common.SpatialIndex;
-
-import com.vividsolutions.jts.geom.Geometry;
+import br.puc_rio.ele.lvc.interimage.geometry.SpatialJoinEngine;
+import br.puc_rio.ele.lvc.interimage.geometry.SpatialJoinEngine.Item;
 
 /**
  * A UDF that spatially joins geometries.<br><br>
@@ -40,260 +37,70 @@ import com.vividsolutions.jts.geom.Geometry;
  * 		C = SpatialJoin(A,B,2);<br>
  * @author Rodrigo Ferreira
  * <br><br>
- * The methods provided by this class are described in this paper:
- * Edwin H. Jacox and Hanan Samet. 2007. Spatial join techniques.
- * ACM Trans. Database Syst. 32, 1, Article 7 (March 2007).
- * DOI=10.1145/1206049.1206056 http://doi.acm.org/10.1145/1206049.1206056  
+ * The join methods are implemented by {@link SpatialJoinEngine}.
  * 
  * TODO: Should create new objects as in clip?
  * 
  */
 public class SpatialJoin extends EvalFunc<DataBag> {
 	
-	private final GeometryParser _geometryParser = new GeometryParser();
-	@SuppressWarnings("unused")
-	private String _joinType = null;
+	private SpatialJoinEngine _engine;
 	
-	/**Constructor that takes the join method. It can be 'index-nested-loop' or 'hierarchical-traversal'.*/
+	/**Constructor that takes the join method. It can be 'index-nested-loop' or 'hierarchical-traversal'; any other value chooses the method based on the bag sizes.*/
 	public SpatialJoin(String joinType) {
-		_joinType = joinType;
+		_engine = new SpatialJoinEngine(SpatialJoinEngine.parseMethod(joinType), 0.0);
 	}
 	
-	/**This method computes intersecting pairs using the index nested loop method.<br>
-	 * It is used by {@link #computeHierarchicalTraversalJoin(DataBag, DataBag, DataBag, boolean)}.*/
-	/*private List<Map<String,Boundable>> findIntersectingPairs(Map<String,Boundable> map) {
+	/**This method computes the spatial join. Each bag is parsed and indexed just once.<br>
+	 * For each tuple of the first bag, it outputs one tuple with its fields followed by the fields of all the intersecting
+	 * tuples of the other bags, bag after bag. Tuples without any intersecting tuple are output too; the tuple has at
+	 * least as many fields as the schema, the missing ones being null.*/
+	@SuppressWarnings("unchecked")
+	private void computeJoin(DataBag bag1, List<DataBag> bagList, DataBag output) throws Exception {
 		
-		List<Map<String,Boundable>> list = new ArrayList<Map<String,Boundable>>();
+		int size = bagList.size();
 		
-		try {
+		List<Item> outer = _engine.parse(bag1);
 		
-			Boundable first = map.get("first");
-			Boundable second = map.get("second");
-			
-			if ((first instanceof AbstractNode) && (second instanceof AbstractNode)) {
+		List<Item>[][] matches = new List[size][];
+		
+		for (int k=0; k<size; k++)
+			matches[k] = _engine.join(outer, _engine.parse(bagList.get(k)));
+		
+		for (int i=0; i<outer.size(); i++) {
 			
-				List<Boundable> l1 = ((AbstractNode)first).getChildBoundables();
-				List<Boundable> l2 = ((AbstractNode)second).getChildBoundables();
-				
-				SpatialIndex index = new SpatialIndex();
-				
-				if (l1.size() > l2.size()) {
-					for (Boundable b1 : l1) {
-						index.insert((Envelope)b1.getBounds(),b1);
-					}
-					
-					for (Boundable b2 : l2) {
-						List<Boundable> l3 = index.query((Envelope)b2.getBounds());
-						for (Boundable b3 : l3) {
-							Map<String,Boundable> auxMap = new HashMap<String,Boundable>();
-							auxMap.put("first", b3);
-							auxMap.put("second", b2);
-							list.add(auxMap);
-						}
-					}
-					
-				} else {
-					for (Boundable b2 : l2) {
-						index.insert((Envelope)b2.getBounds(),b2);
-					}
-					
-					for (Boundable b1 : l1) {
-						List<Boundable> l3 = index.query((Envelope)b1.getBounds());
-						for (Boundable b3 : l3) {
-							Map<String,Boundable> auxMap = new HashMap<String,Boundable>();
-							auxMap.put("first", b1);
-							auxMap.put("second", b3);
-							list.add(auxMap);
-						}
-					}
-				}
-				
-			} else if ((first instanceof AbstractNode) && (second instanceof ItemBoundable)) {
-				
-				List<Boundable> l = ((AbstractNode)first).getChildBoundables();
-				
-				SpatialIndex index = new SpatialIndex();
-								
-				for (Boundable b : l) {
-					index.insert((Envelope)b.getBounds(),b);
-				}
-				
-				List<Boundable> l1 = index.query((Envelope)second.getBounds());
-				
-				for (Boundable b1 : l1) {
-					Map<String,Boundable> auxMap = new HashMap<String,Boundable>();
-					auxMap.put("first", b1);
-					auxMap.put("second", second);
-					list.add(auxMap);
-				}
-				
-			} else if ((first instanceof ItemBoundable) && (second instanceof AbstractNode)) {
-				
-				List<Boundable> l = ((AbstractNode)second).getChildBoundables();
-				
-				SpatialIndex index = new SpatialIndex();
-								
-				for (Boundable b : l) {
-					index.insert((Envelope)b.getBounds(),b);
-				}
-				
-				List<Boundable> l2 = index.query((Envelope)first.getBounds());
-				
-				for (Boundable b2 : l2) {
-					Map<String,Boundable> auxMap = new HashMap<String,Boundable>();
-					auxMap.put("first", first);
-					auxMap.put("second", b2);
-					list.add(auxMap);
-				}
-				
-			}
-						
-		} catch (Exception e) {
-			System.err.println("Failed to compute join; error - " + e.getMessage());
-		}
-	
-		return list;
-	}*/
-	
-	/**This method computes a spatial join using a hierarchical traversal method.*/
-	/*private void computeHierarchicalTraversalJoin(DataBag bag1, DataBag bag2, DataBag output) {
-	
-		try {
+			int total = 0;
 			
-			SpatialIndex index1 = createIndex(bag1, 0);
-			SpatialIndex index2 = createIndex(bag2, 0);
+			for (int k=0; k<size; k++)
+				total += matches[k][i].size();
 			
-			index1.build();
-			index2.build();
+			Tuple tuple = TupleFactory.getInstance().newTuple(3*Math.max(total, size)+3);
 			
-			Boundable root1 = index1.getRoot();
-			Boundable root2 = index2.getRoot();
+			Tuple t1 = outer.get(i).getTuple();
 			
-			LinkedList<Map<String,Boundable>> queue = new LinkedList<Map<String,Boundable>>();
+			tuple.set(0,t1.get(0));
+			tuple.set(1,t1.get(1));
+			tuple.set(2,t1.get(2));
 			
-			Map<String,Boundable> auxMap = new HashMap<String,Boundable>();
-			auxMap.put("first", root1);
-			auxMap.put("second", root2);
-			queue.add(auxMap);
+			int count = 3;
 			
-			while (!queue.isEmpty()) {
-				
-				Map<String,Boundable> nodePair = queue.poll();
-				
-				List<Map<String,Boundable>> rectanglesList = findIntersectingPairs(nodePair);
-				
-				for (Map<String,Boundable> pair : rectanglesList) {
+			for (int k=0; k<size; k++) {
+				for (Item item : matches[k][i]) {
 					
-					Boundable b1 = pair.get("first");
-					Boundable b2 = pair.get("second");
+					Tuple t2 = item.getTuple();
 					
-					if ((b1 instanceof AbstractNode) && (b2 instanceof AbstractNode)) {						
-						queue.add(pair);
-					} else if ((b1 instanceof ItemBoundable) && (b2 instanceof ItemBoundable)) {
-												
-						Tuple tuple = TupleFactory.getInstance().newTuple(6);
-						
-						Tuple t1 = (Tuple)((ItemBoundable)b1).getItem();
-						Tuple t2 = (Tuple)((ItemBoundable)b2).getItem();
-
-	        			tuple.set(0,t1.get(0));
-	        			tuple.set(1,t1.get(1));
-	        			tuple.set(2,t1.get(2));
-	        			
-	        			tuple.set(3,t2.get(0));
-	        			tuple.set(4,t2.get(1));
-	        			tuple.set(5,t2.get(2));
-												
-						output.add(tuple);
-						
-					} else if ((b1 instanceof AbstractNode) && (b2 instanceof ItemBoundable)) {
-						queue.add(pair);						
-					} else if ((b1 instanceof ItemBoundable) && (b2 instanceof AbstractNode)) {
-						queue.add(pair);
-					}
+					tuple.set(count+0,t2.get(0));
+					tuple.set(count+1,t2.get(1));
+					tuple.set(count+2,t2.get(2));
+					
+					count = count + 3;
 				}
 			}
 			
-		} catch (Exception e) {
-			System.err.println("Failed to compute join; error - " + e.getMessage());
-		}
-		
-	}*/
-	
-	/**This method computes a spatial join using the index nested loop method.*/
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private void computeIndexNestedLoopJoin(DataBag bag1, List<DataBag> bagList, DataBag output) {
-		
-		try {
+			output.add(tuple);
 			
-			int size = bagList.size();
-			
-			SpatialIndex[] index = new SpatialIndex[size];
-			
-			Iterator it = bag1.iterator();
-	        while (it.hasNext()) {
-	            Tuple t1 = (Tuple)it.next();
-	        	Geometry geometry = _geometryParser.parseGeometry(t1.get(0));
-					
-				for (int k=0; k<size; k++)
-					index[k] = createIndex(bagList.get(k));					
-	        	
-				List<Tuple> list = new ArrayList<Tuple>();
-	        	
-	        	for (int k=0; k<size; k++) {
-	        		List<Tuple> l = index[k].query(geometry.getEnvelopeInternal());
-	        		list.addAll(l);
-	        	}
-	        	
-	        	Tuple tuple = TupleFactory.getInstance().newTuple(3*size+1);
-	        	
-	        	tuple.set(0,t1.get(0));
-    			tuple.set(1,t1.get(1));
-    			tuple.set(2,t1.get(2));
-    			
-    			int count = 3;
-	        	
-	        	for (Tuple t2 : list) {
-	        		        			
-        			tuple.set(count+0,t2.get(0));
-        			tuple.set(count+1,t2.get(1));
-        			tuple.set(count+2,t2.get(2));
-        			
-    			    count = count + 3;
-	        	}
-	        	
-	        	output.add(tuple);
-	        	
-	        }
-	        
-		} catch (Exception e) {
-			System.err.println("Failed to compute join; error - " + e.getMessage());
-		}
-
-	}
-	
-	/**This method creates an STR-Tree index for the input bag and returns it.*/
-	@SuppressWarnings("rawtypes")
-	private SpatialIndex createIndex(DataBag bag) {
-		
-		SpatialIndex index = null;
-		
-		try {
-		
-			index = new SpatialIndex();
-
-			Iterator it = bag.iterator();
-	        while (it.hasNext()) {
-	            Tuple t = (Tuple)it.next();
-            	Geometry geometry = _geometryParser.parseGeometry(t.get(0));            	            	
-				index.insert(geometry.getEnvelopeInternal(),t);					
-	        }
-		} catch (Exception e) {
-			System.err.println("Failed to index bag; error - " + e.getMessage());
-			return null;
 		}
 		
-		return index;
 	}
 	
 	/**
@@ -323,7 +130,7 @@ public class SpatialJoin extends EvalFunc<DataBag> {
 				bagList.add(bag2);				
 			}
 			
-			computeIndexNestedLoopJoin(bag1, bagList, output);
+			computeJoin(bag1, bagList, output);
 			
 			return output;
 			
@@ -14,12 +14,7 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.geometry.udf;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -37,13 +32,11 @@ import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
-import br.puc_rio.ele.lvc.interimage.common.Tile;
+import br.puc_rio.ele.lvc.interimage.common.TileGrid;
 import br.puc_rio.ele.lvc.interimage.common.UUID;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jts.io.WKBWriter;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * A UDF that computes the union of a bag of geometries.<br><br>
@@ -58,7 +51,7 @@ public class SpatialUnion extends EvalFunc<DataBag> {
 
 	private final GeometryParser _geometryParser = new GeometryParser();
 	
-	private STRtree _gridIndex = null;
+	private TileGrid _grid = null;
 	private String _gridUrl = null;
 	
 	public SpatialUnion(String gridUrl) {
@@ -74,30 +67,11 @@ public class SpatialUnion extends EvalFunc<DataBag> {
 		System.out.println(new Date().toString());
 		
 		//executes initialization
-		if (_gridIndex == null) {
-			_gridIndex = new STRtree();
+		if ((_grid == null) && (!_gridUrl.isEmpty())) {
 			
-			//Creates an index for the grid
+			//Gets the grid, shared by all the UDFs in this JVM
 	        try {
-	        	
-	        	if (!_gridUrl.isEmpty()) {
-	        		
-	        		URL url  = new URL(_gridUrl);	        		
-	                URLConnection urlConn = url.openConnection();
-	                urlConn.connect();
-			        InputStream buff = new BufferedInputStream(urlConn.getInputStream());				    	    	        
-			        ObjectInputStream in = new ObjectInputStream(buff);
-	    			
-	    		    List<Tile> tiles = (List<Tile>)in.readObject();
-	    		    
-	    		    in.close();
-				    
-				    for (Tile t : tiles) {
-				    	Geometry geometry = new WKTReader().read(t.getGeometry());
-    					_gridIndex.insert(geometry.getEnvelopeInternal(),t);
-				    }
-			        			        
-	        	}
+	        	_grid = TileGrid.get(_gridUrl);
 	        } catch (Exception e) {
 				throw new IOException("Caught exception reading grid file ", e);
 			}
@@ -124,13 +98,13 @@ public class SpatialUnion extends EvalFunc<DataBag> {
             	className = (String)props.get("class");
             }
             
-            List<Tile> list = _gridIndex.query(geometry.getEnvelopeInternal());
+            List<Integer> list = _grid != null ? _grid.query(geometry.getEnvelopeInternal()) : new ArrayList<Integer>();
 						
 			boolean within = false;
 			
-			for (Tile t : list) {
+			for (Integer t : list) {
 				
-				Geometry g = _geometryParser.parseGeometry(t.getGeometry());
+				Geometry g = _grid.getGeometry(t);
 				
 				if (g.contains(geometry)) {
 					within = true;
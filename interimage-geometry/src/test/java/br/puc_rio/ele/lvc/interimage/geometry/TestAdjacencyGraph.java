@@ -0,0 +1,261 @@
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+
+import br.puc_rio.ele.lvc.interimage.geometry.udf.CalculateAdjacency;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.NeighborhoodFeatures;
+
+import junit.framework.TestCase;
+
+public class TestAdjacencyGraph extends TestCase {
+
+	private static final String[] CLASSES = {"water", "forest", "urban"};
+
+	private static final String FEATURES = "n = NumberOf(,water);e = ExistenceOf(,urban);a = AreaOf(,forest);r = RelativeAreaOf(,water);"
+			+ "b = BorderTo(forest);rb = RelativeBorderTo(water);nd = NumberOf(2,urban)";
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	private Geometry box(double x1, double y1, double x2, double y2) {
+		return _factory.createPolygon(new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y1), new Coordinate(x2, y2), new Coordinate(x1, y2), new Coordinate(x1, y1)});
+	}
+
+	/*The segments of a label raster: the pixels are assigned to the nearest of some random seeds*/
+	private List<Geometry> segmentation(Random random, int width, int height, int segments) {
+
+		int[][] seeds = new int[segments][];
+
+		for (int s=0; s<segments; s++)
+			seeds[s] = new int[] {random.nextInt(width), random.nextInt(height)};
+
+		List<List<Geometry>> pixels = new ArrayList<List<Geometry>>();
+
+		for (int s=0; s<segments; s++)
+			pixels.add(new ArrayList<Geometry>());
+
+		for (int y=0; y<height; y++) {
+			for (int x=0; x<width; x++) {
+				int label = 0;
+				for (int s=1; s<segments; s++) {
+					if (Math.abs(seeds[s][0]-x) + Math.abs(seeds[s][1]-y) < Math.abs(seeds[label][0]-x) + Math.abs(seeds[label][1]-y))
+						label = s;
+				}
+				pixels.get(label).add(box(100 + x, 200 + y, 101 + x, 201 + y));
+			}
+		}
+
+		List<Geometry> geometries = new ArrayList<Geometry>();
+
+		for (List<Geometry> list : pixels) {
+			if (!list.isEmpty())
+				geometries.add(CascadedPolygonUnion.union(list));
+		}
+
+		return geometries;
+	}
+
+	private DataBag bag(List<Geometry> geometries, Random random) throws Exception {
+
+		DataBag bag = BagFactory.getInstance().newDefaultBag();
+
+		for (int g=0; g<geometries.size(); g++) {
+
+			Map<String,Object> properties = new HashMap<String,Object>();
+			properties.put("class", CLASSES[random.nextInt(CLASSES.length)]);
+			properties.put("iiuuid", "object" + g);
+
+			Tuple t = TupleFactory.getInstance().newTuple(3);
+			t.set(0, new DataByteArray(new WKBWriter().write(geometries.get(g))));
+			t.set(1, new HashMap<String,Object>());
+			t.set(2, properties);
+
+			bag.add(t);
+
+		}
+
+		return bag;
+	}
+
+	/*The graph must have an edge for every pair of intersecting objects, with the length of the intersection*/
+	private void assertMatchesIntersections(List<Geometry> geometries, AdjacencyGraph graph) {
+
+		int n = geometries.size();
+
+		assertEquals(n, graph.size());
+
+		for (int i=0; i<n; i++) {
+
+			Map<Integer, Double> borders = new HashMap<Integer, Double>();
+
+			for (int k=0; k<graph.getDegree(i); k++)
+				borders.put(graph.getNeighbor(i, k), graph.getBorder(i, k));
+
+			assertEquals(graph.getDegree(i), borders.size());
+
+			for (int j=0; j<n; j++) {
+
+				if (i == j || !geometries.get(i).intersects(geometries.get(j))) {
+					assertFalse(borders.containsKey(j));
+					continue;
+				}
+
+				assertTrue(borders.containsKey(j));
+				assertEquals(geometries.get(i).intersection(geometries.get(j)).getLength(), borders.get(j), 1e-9);
+
+			}
+
+		}
+
+	}
+
+	private List<String> ids(int n) {
+		List<String> ids = new ArrayList<String>();
+		for (int i=0; i<n; i++)
+			ids.add("object" + i);
+		return ids;
+	}
+
+	@Test
+	public void testPixelAlignedSegmentation() throws Exception {
+
+		List<Geometry> geometries = segmentation(new Random(42), 40, 30, 35);
+
+		AdjacencyGraph graph = AdjacencyGraph.build(ids(geometries.size()), geometries);
+
+		assertMatchesIntersections(geometries, graph);
+
+		AdjacencyGraph decoded = AdjacencyGraph.decode(graph.encode());
+
+		assertMatchesIntersections(geometries, decoded);
+		assertEquals(7, decoded.indexOf("object7"));
+		assertEquals(-1, decoded.indexOf("other"));
+
+	}
+
+	@Test
+	public void testOtherGeometries() throws Exception {
+
+		List<Geometry> geometries = new ArrayList<Geometry>();
+
+		Random random = new Random(7);
+
+		for (int g=0; g<30; g++) {
+			Coordinate center = new Coordinate(random.nextInt(40), random.nextInt(40));
+			geometries.add(_factory.createPoint(center).buffer(3 + random.nextInt(5), 4));
+		}
+
+		assertMatchesIntersections(geometries, AdjacencyGraph.build(ids(geometries.size()), geometries));
+
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testNeighborhoodFeaturesFromGraph() throws Exception {
+
+		DataBag group = bag(segmentation(new Random(3), 30, 30, 40), new Random(5));
+
+		DataByteArray graph = new CalculateAdjacency().exec(TupleFactory.getInstance().newTuple((Object)group));
+
+		Tuple input = TupleFactory.getInstance().newTuple(2);
+		input.set(0, group);
+		input.set(1, graph);
+
+		Map<Object, Map<String,Object>> expected = new HashMap<Object, Map<String,Object>>();
+
+		for (Iterator<Tuple> it = new NeighborhoodFeatures(FEATURES).exec(TupleFactory.getInstance().newTuple((Object)group)).iterator(); it.hasNext();) {
+			Map<String,Object> properties = (Map<String,Object>)it.next().get(2);
+			expected.put(properties.get("iiuuid"), properties);
+		}
+
+		DataBag output = new NeighborhoodFeatures(FEATURES).exec(input);
+
+		assertEquals(expected.size(), output.size());
+
+		for (Iterator<Tuple> it = output.iterator(); it.hasNext();) {
+
+			Map<String,Object> properties = (Map<String,Object>)it.next().get(2);
+			Map<String,Object> other = expected.get(properties.get("iiuuid"));
+
+			assertEquals(other.get("n"), properties.get("n"));
+			assertEquals(other.get("e"), properties.get("e"));
+			assertEquals(other.get("nd"), properties.get("nd"));
+
+			for (String name : new String[] {"a", "r", "b", "rb"})
+				assertEquals((Double)other.get(name), (Double)properties.get(name), 1e-9);
+
+		}
+
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGraphNotMatchingGroup() throws Exception {
+
+		DataBag group = bag(segmentation(new Random(3), 30, 30, 40), new Random(5));
+
+		List<Tuple> tuples = new ArrayList<Tuple>();
+
+		for (Iterator<Tuple> it = group.iterator(); it.hasNext();)
+			tuples.add(it.next());
+
+		/*The graph misses the first object*/
+		DataBag partial = BagFactory.getInstance().newDefaultBag();
+
+		for (int t=1; t<tuples.size(); t++)
+			partial.add(tuples.get(t));
+
+		DataByteArray missing = new CalculateAdjacency().exec(TupleFactory.getInstance().newTuple((Object)partial));
+
+		/*Two objects with the same id*/
+		DataBag duplicated = BagFactory.getInstance().newDefaultBag();
+
+		for (int t=0; t<tuples.size(); t++) {
+			Tuple tuple = TupleFactory.getInstance().newTuple(tuples.get(t).getAll());
+			Map<String,Object> properties = new HashMap<String,Object>((Map<String,Object>)tuple.get(2));
+			if (t == 1)
+				properties.put("iiuuid", "object0");
+			tuple.set(2, properties);
+			duplicated.add(tuple);
+		}
+
+		DataByteArray merged = new CalculateAdjacency().exec(TupleFactory.getInstance().newTuple((Object)duplicated));
+
+		DataBag[] groups = {group, duplicated};
+		DataByteArray[] graphs = {missing, merged};
+
+		for (int g=0; g<groups.length; g++) {
+
+			Tuple input = TupleFactory.getInstance().newTuple(2);
+			input.set(0, groups[g]);
+			input.set(1, graphs[g]);
+
+			Iterator<Tuple> expected = new NeighborhoodFeatures(FEATURES).exec(TupleFactory.getInstance().newTuple((Object)groups[g])).iterator();
+
+			for (Iterator<Tuple> it = new NeighborhoodFeatures(FEATURES).exec(input).iterator(); it.hasNext();)
+				assertEquals(expected.next().get(2), it.next().get(2));
+
+			assertFalse(expected.hasNext());
+
+		}
+
+	}
+
+}
@@ -0,0 +1,132 @@
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.algorithm.ConvexHull;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+import junit.framework.TestCase;
+
+public class TestMinimumRectangle extends TestCase {
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	/*The previous implementation: rotates the hull for every edge and takes its envelope*/
+	private Polygon reference(Geometry geom) {
+
+		Polygon convHull = (Polygon)new ConvexHull(geom).getConvexHull();
+
+		Coordinate c = geom.getCentroid().getCoordinate();
+		Coordinate[] coords = convHull.getExteriorRing().getCoordinates();
+
+		double minArea = Double.MAX_VALUE, minAngle = 0.0;
+		Polygon ssr = null;
+
+		for (int i=0; i<coords.length-1; i++) {
+			double angle = Math.atan2(coords[i+1].y-coords[i].y, coords[i+1].x-coords[i].x);
+			Polygon rect = (Polygon)Rotation.get(convHull, c, -1.0*angle, _factory).getEnvelope();
+			if (rect.getArea() < minArea) {
+				minArea = rect.getArea();
+				ssr = rect;
+				minAngle = angle;
+			}
+		}
+
+		return Rotation.get(ssr, c, minAngle, _factory);
+	}
+
+	/*A random blob of points around a rotated, stretched ellipse, in projected coordinates*/
+	private Geometry blob(Random random, int points) {
+
+		double x0 = 684000 + 1000*random.nextDouble();
+		double y0 = 7463000 + 1000*random.nextDouble();
+		double a = 5 + 50*random.nextDouble();
+		double b = 1 + 20*random.nextDouble();
+		double rot = Math.PI*random.nextDouble();
+
+		Coordinate[] coords = new Coordinate[points];
+
+		for (int k=0; k<points; k++) {
+			double t = 2*Math.PI*random.nextDouble();
+			double r = 0.5 + 0.5*random.nextDouble();
+			double u = r*a*Math.cos(t);
+			double v = r*b*Math.sin(t);
+			coords[k] = new Coordinate(x0 + u*Math.cos(rot) - v*Math.sin(rot), y0 + u*Math.sin(rot) + v*Math.cos(rot));
+		}
+
+		return _factory.createMultiPoint(coords).convexHull().union(_factory.createMultiPoint(coords));
+	}
+
+	@Test
+	public void testMatchesRotatedEnvelopes() throws Exception {
+
+		Random random = new Random(42);
+		int ties = 0;
+
+		for (int n=0; n<500; n++) {
+
+			Geometry geom = blob(random, 3 + random.nextInt(200));
+
+			Polygon expected = reference(geom);
+			MinimumRectangle rect = MinimumRectangle.get(geom);
+			Polygon actual = rect.toPolygon(_factory);
+
+			double tolerance = 1e-6 * expected.getArea();
+
+			assertEquals(expected.getArea(), rect.getArea(), tolerance);
+			assertEquals(expected.getArea(), actual.getArea(), tolerance);
+			/*Another hull edge may give a rectangle of the same area, which must also surround the geometry*/
+			if (expected.symDifference(actual).getArea() > 1e-4 * expected.getArea()) {
+				assertTrue(actual.buffer(1e-6).covers(geom));
+				ties++;
+				continue;
+			}
+
+			Coordinate[] coords = expected.getCoordinates();
+			double lg1 = coords[0].distance(coords[1]);
+			double lg2 = coords[1].distance(coords[2]);
+
+			assertEquals(Math.max(lg1, lg2), rect.getLength(), 1e-6);
+			assertEquals(Math.min(lg1, lg2), rect.getWidth(), 1e-6);
+			assertEquals(expected.getCentroid().getX(), rect.getCenter().x, 1e-6);
+			assertEquals(expected.getCentroid().getY(), rect.getCenter().y, 1e-6);
+
+			/*Same orientation of the longest side, modulo Pi*/
+			Coordinate c1 = lg1 > lg2 ? coords[0] : coords[1];
+			Coordinate c2 = lg1 > lg2 ? coords[1] : coords[2];
+			double angle = Math.atan((c1.y-c2.y)/(c1.x-c2.x));
+			if (angle < 0)
+				angle += Math.PI;
+			double diff = Math.abs(angle - rect.getAngle());
+			assertEquals(0.0, Math.min(diff, Math.PI - diff), 1e-6);
+
+		}
+
+		assertTrue(ties < 5);
+
+	}
+
+	@Test
+	public void testRectangleAndDegenerateGeometries() throws Exception {
+
+		Geometry square = _factory.toGeometry(new Envelope(10, 14, 20, 22));
+
+		MinimumRectangle rect = MinimumRectangle.get(square);
+
+		assertEquals(8.0, rect.getArea(), 1e-9);
+		assertEquals(4.0, rect.getLength(), 1e-9);
+		assertEquals(2.0, rect.getWidth(), 1e-9);
+		assertEquals(0.0, rect.getAngle(), 1e-9);
+		assertTrue(rect.toPolygon(_factory).equalsExact(square.norm(), 1e-9) || rect.toPolygon(_factory).norm().equalsExact(square.norm(), 1e-9));
+
+		assertNull(MinimumRectangle.get(_factory.createPoint(new Coordinate(1, 1))));
+
+	}
+
+}
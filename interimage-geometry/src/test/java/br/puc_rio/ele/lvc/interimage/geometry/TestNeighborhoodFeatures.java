@@ -0,0 +1,129 @@
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import br.puc_rio.ele.lvc.interimage.geometry.udf.AreaOf;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.BorderTo;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.ExistenceOf;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.NeighborhoodFeatures;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.NumberOf;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.RelativeAreaOf;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.RelativeBorderTo;
+
+import junit.framework.TestCase;
+
+public class TestNeighborhoodFeatures extends TestCase {
+
+	private static final String[] CLASSES = {"water", "forest", "urban"};
+
+	private static final String FEATURES = "n = NumberOf(,water);nd = NumberOf(3,'forest');e = ExistenceOf(,urban);ed = ExistenceOf(1.5,water);"
+			+ "a = AreaOf(,forest);ad = AreaOf(2,urban);r = RelativeAreaOf(,water);rd = RelativeAreaOf(4,forest);"
+			+ "b = BorderTo(forest);rb = RelativeBorderTo(water)";
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	private Geometry box(double x1, double y1, double x2, double y2) {
+		return _factory.createPolygon(new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y1), new Coordinate(x2, y2), new Coordinate(x1, y2), new Coordinate(x1, y1)});
+	}
+
+	/*Pixel-aligned segments of a grid, with a few overlapping objects*/
+	private DataBag group(Random random, int columns, int rows) {
+
+		DataBag bag = BagFactory.getInstance().newDefaultBag();
+
+		for (int y=0; y<rows; y++) {
+			for (int x=0; x<columns; x++) {
+				int w = 1 + random.nextInt(3);
+				Geometry geometry = (x+y) % 7 == 0 ? box(x*4 + 1.5, y*4 + 1.5, x*4 + 6.5, y*4 + 5) : box(x*4, y*4, x*4 + w + 2, y*4 + 4);
+				bag.add(tuple(geometry, CLASSES[random.nextInt(CLASSES.length)]));
+			}
+		}
+
+		return bag;
+	}
+
+	private Tuple tuple(Geometry geometry, String className) {
+
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("class", className);
+
+		Tuple t = TupleFactory.getInstance().newTuple(3);
+
+		try {
+			t.set(0, new DataByteArray(new WKBWriter().write(geometry)));
+			t.set(1, new HashMap<String,Object>());
+			t.set(2, properties);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+		return t;
+	}
+
+	private Object single(EvalFunc<?> udf, Object... params) throws Exception {
+		Tuple input = TupleFactory.getInstance().newTuple(params.length);
+		for (int i=0; i<params.length; i++)
+			input.set(i, params[i]);
+		return udf.exec(input);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMatchesSingleObjectOperators() throws Exception {
+
+		DataBag group = group(new Random(42), 12, 9);
+
+		DataBag output = new NeighborhoodFeatures(FEATURES).exec(TupleFactory.getInstance().newTuple((Object)group));
+
+		assertEquals(group.size(), output.size());
+
+		for (Iterator<Tuple> it = output.iterator(); it.hasNext();) {
+
+			Tuple t = it.next();
+
+			Object geometry = t.get(0);
+			Map<String,Object> properties = (Map<String,Object>)t.get(2);
+
+			assertEquals(single(new NumberOf(), geometry, group, "", "water"), properties.get("n"));
+			assertEquals(single(new NumberOf(), geometry, group, "3", "forest"), properties.get("nd"));
+			assertEquals(single(new ExistenceOf(), geometry, group, "", "urban"), properties.get("e"));
+			assertEquals(single(new ExistenceOf(), geometry, group, "1.5", "water"), properties.get("ed"));
+			assertEquals((Double)single(new AreaOf(), geometry, group, "", "forest"), (Double)properties.get("a"), 1e-9);
+			assertEquals((Double)single(new AreaOf(), geometry, group, "2", "urban"), (Double)properties.get("ad"), 1e-9);
+			assertEquals((Double)single(new RelativeAreaOf(), geometry, group, "", "water"), (Double)properties.get("r"), 1e-9);
+			assertEquals((Double)single(new RelativeAreaOf(), geometry, group, "4", "forest"), (Double)properties.get("rd"), 1e-9);
+			assertEquals((Double)single(new BorderTo(), geometry, group, "forest"), (Double)properties.get("b"), 1e-9);
+			assertEquals((Double)single(new RelativeBorderTo(), geometry, group, "water"), (Double)properties.get("rb"), 1e-9);
+
+			assertNotNull(properties.get("class"));
+
+		}
+
+	}
+
+	@Test
+	public void testUnknownFeature() throws Exception {
+		try {
+			new NeighborhoodFeatures("x = DistanceTo(,water)");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import br.puc_rio.ele.lvc.interimage.geometry.udf.Angle;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.Area;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.Compactness;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.Density;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.EllipseFit;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.FractalDimension;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.GyrationRadius;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.Length;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.LengthWidthRatio;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.Perimeter;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.PerimeterAreaRatio;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.RectangleFit;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.Roundness;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.ShapeFeatures;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.ShapeIndex;
+import br.puc_rio.ele.lvc.interimage.geometry.udf.Width;
+
+import junit.framework.TestCase;
+
+public class TestShapeFeatures extends TestCase {
+
+	private static final String FEATURES = "a = Area(geometry);p = Perimeter(geometry);c = Compactness(geometry);r = Roundness(geometry);"
+			+ "s = ShapeIndex(geometry);d = Density(geometry);f = FractalDimension(geometry);g = GyrationRadius(geometry);"
+			+ "lw = LengthWidthRatio(geometry);l = Length(geometry);w = Width(geometry);an = Angle(geometry);"
+			+ "rf = RectangleFit(geometry);ef = EllipseFit(geometry);pa = PerimeterAreaRatio(geometry)";
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	/*A star-shaped polygon around a random center*/
+	private Geometry polygon(Random random) {
+
+		int n = 5 + random.nextInt(40);
+		double x0 = 684000 + 1000*random.nextDouble();
+		double y0 = 7463000 + 1000*random.nextDouble();
+
+		Coordinate[] coords = new Coordinate[n+1];
+
+		for (int k=0; k<n; k++) {
+			double t = 2*Math.PI*k/n;
+			double r = 5 + 20*random.nextDouble();
+			coords[k] = new Coordinate(x0 + 2*r*Math.cos(t), y0 + r*Math.sin(t));
+		}
+
+		coords[n] = coords[0];
+
+		return _factory.createPolygon(_factory.createLinearRing(coords), null);
+	}
+
+	private Tuple tuple(Object... values) throws Exception {
+		Tuple tuple = TupleFactory.getInstance().newTuple(values.length);
+		for (int i=0; i<values.length; i++)
+			tuple.set(i, values[i]);
+		return tuple;
+	}
+
+	@Test
+	public void testMatchesSingleFeatureUDFs() throws Exception {
+
+		String[] names = {"a", "p", "c", "r", "s", "d", "f", "g", "lw", "l", "w", "an", "rf", "ef", "pa"};
+
+		@SuppressWarnings("rawtypes")
+		EvalFunc[] udfs = {new Area(), new Perimeter(), new Compactness(), new Roundness(), new ShapeIndex(), new Density(), new FractalDimension(), new GyrationRadius(),
+				new LengthWidthRatio(), new Length(), new Width(), new Angle(), new RectangleFit(), new EllipseFit(), new PerimeterAreaRatio()};
+
+		ShapeFeatures features = new ShapeFeatures(FEATURES);
+
+		Random random = new Random(42);
+
+		for (int n=0; n<200; n++) {
+
+			DataByteArray wkb = new DataByteArray(new WKBWriter().write(polygon(random)));
+
+			Map<String,Object> properties = new HashMap<String,Object>();
+			properties.put("tile", "T1");
+
+			Map<String,Object> result = features.exec(tuple(wkb, properties));
+
+			assertEquals("T1", result.get("tile"));
+
+			for (int i=0; i<names.length; i++) {
+				double expected = (Double)udfs[i].exec(tuple(wkb));
+				assertEquals(names[i], expected, (Double)result.get(names[i]), 1e-6 * Math.max(1.0, Math.abs(expected)));
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testFeatureNames() throws Exception {
+
+		Map<String,Object> result = new ShapeFeatures("Area;fit = rectangleFit(geometry)").exec(tuple(polygon(new Random(7)).toText(), new HashMap<String,Object>()));
+
+		assertTrue(result.containsKey("Area"));
+		assertTrue(result.containsKey("fit"));
+
+		try {
+			new ShapeFeatures("x = Brightness(geometry)");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		try {
+			new ShapeFeatures("x = Area(geometry) / 2");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+	}
+
+}
@@ -0,0 +1,100 @@
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import br.puc_rio.ele.lvc.interimage.geometry.udf.SpatialJoin;
+
+import junit.framework.TestCase;
+
+public class TestSpatialJoin extends TestCase {
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	private Tuple tuple(String id, double x1, double y1, double x2, double y2) throws Exception {
+
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("iiuuid", id);
+
+		Tuple t = TupleFactory.getInstance().newTuple(3);
+		t.set(0, new DataByteArray(new WKBWriter().write(_factory.createPolygon(new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y1), new Coordinate(x2, y2), new Coordinate(x1, y2), new Coordinate(x1, y1)}))));
+		t.set(1, new HashMap<String,Object>());
+		t.set(2, properties);
+
+		return t;
+	}
+
+	private DataBag bag(Tuple... tuples) {
+		DataBag bag = BagFactory.getInstance().newDefaultBag();
+		for (Tuple t : tuples)
+			bag.add(t);
+		return bag;
+	}
+
+	private Object id(Tuple t, int field) throws Exception {
+		return ((Map<?,?>)t.get(field)).get("iiuuid");
+	}
+
+	/*The ids of the joined objects after the outer one, sorted by bag*/
+	private String joined(Tuple t) throws Exception {
+		StringBuilder ids = new StringBuilder();
+		for (int f=3; f<t.size() && t.get(f) != null; f+=3)
+			ids.append(id(t, f+2));
+		return ids.toString();
+	}
+
+	@Test
+	public void testOneTuplePerOuterObject() throws Exception {
+
+		DataBag outer = bag(tuple("a", 0, 0, 2, 2), tuple("b", 10, 10, 12, 12), tuple("c", 20, 20, 22, 22));
+		DataBag inner1 = bag(tuple("x", 1, 1, 3, 3), tuple("y", 11, 11, 13, 13));
+		DataBag inner2 = bag(tuple("z", 1.5, 1.5, 4, 4), tuple("w", -1, -1, 0.5, 0.5));
+
+		Tuple input = TupleFactory.getInstance().newTuple(3);
+		input.set(0, outer);
+		input.set(1, inner1);
+		input.set(2, inner2);
+
+		for (String method : new String[] {"index-nested-loop", "hierarchical-traversal"}) {
+
+			DataBag output = new SpatialJoin(method).exec(input);
+
+			assertEquals(3, output.size());
+
+			Map<Object, String> result = new HashMap<Object, String>();
+
+			for (Iterator<Tuple> it = output.iterator(); it.hasNext();) {
+				Tuple t = it.next();
+				assertTrue(t.size() >= 9);
+				assertEquals(0, t.size() % 3);
+				result.put(id(t, 2), joined(t));
+			}
+
+			/*The matches of the first bag come before the ones of the second bag*/
+			String a = result.get("a");
+			assertEquals(3, a.length());
+			assertEquals('x', a.charAt(0));
+			assertTrue(a.indexOf('z') > 0 && a.indexOf('w') > 0);
+
+			assertEquals("y", result.get("b"));
+
+			/*Objects without matches are kept*/
+			assertEquals("", result.get("c"));
+
+		}
+
+	}
+
+}
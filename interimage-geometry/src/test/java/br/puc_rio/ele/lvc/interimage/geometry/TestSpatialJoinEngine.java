@@ -0,0 +1,124 @@
+package br.puc_rio.ele.lvc.interimage.geometry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import br.puc_rio.ele.lvc.interimage.geometry.SpatialJoinEngine.Item;
+
+import junit.framework.TestCase;
+
+public class TestSpatialJoinEngine extends TestCase {
+
+	private final GeometryFactory _factory = new GeometryFactory();
+
+	private List<Item> items(Random random, int count) {
+		List<Item> items = new ArrayList<Item>();
+		for (int i=0; i<count; i++) {
+			Coordinate center = new Coordinate(random.nextDouble()*100, random.nextDouble()*100);
+			items.add(new Item(null, _factory.createPoint(center).buffer(0.5 + random.nextDouble()*3, 4)));
+		}
+		return items;
+	}
+
+	/*Matches of each outer item by brute force*/
+	private void assertMatches(List<Item> outer, List<Item> inner, double distance, List<Item>[] matches) {
+
+		assertEquals(outer.size(), matches.length);
+
+		for (int o=0; o<outer.size(); o++) {
+
+			Set<Item> expected = new HashSet<Item>();
+
+			for (Item item : inner) {
+				Geometry geometry = outer.get(o).getGeometry();
+				if (distance > 0 ? geometry.isWithinDistance(item.getGeometry(), distance) : geometry.intersects(item.getGeometry()))
+					expected.add(item);
+			}
+
+			assertEquals(expected.size(), matches[o].size());
+			assertEquals(expected, new HashSet<Item>(matches[o]));
+
+		}
+
+	}
+
+	@Test
+	public void testMethodsMatchBruteForce() throws Exception {
+
+		Random random = new Random(42);
+
+		List<Item> outer = items(random, 300);
+		List<Item> inner = items(random, 500);
+
+		for (SpatialJoinEngine.Method method : SpatialJoinEngine.Method.values()) {
+			for (double distance : new double[] {0.0, 2.5}) {
+
+				SpatialJoinEngine engine = new SpatialJoinEngine(method, distance);
+
+				assertMatches(outer, inner, distance, engine.join(outer, inner));
+				assertMatches(inner, outer, distance, engine.join(inner, outer));
+
+			}
+		}
+
+	}
+
+	@Test
+	public void testEmptySides() throws Exception {
+
+		List<Item> items = items(new Random(7), 10);
+
+		List<Item>[] matches = new SpatialJoinEngine(SpatialJoinEngine.Method.AUTOMATIC, 0.0).join(items, new ArrayList<Item>());
+
+		assertEquals(10, matches.length);
+
+		for (List<Item> list : matches)
+			assertTrue(list.isEmpty());
+
+		assertEquals(0, new SpatialJoinEngine(SpatialJoinEngine.Method.AUTOMATIC, 0.0).join(new ArrayList<Item>(), items).length);
+
+	}
+
+	@Test
+	public void testParseSkipsInvalidGeometries() throws Exception {
+
+		DataBag bag = BagFactory.getInstance().newDefaultBag();
+
+		Tuple valid = TupleFactory.getInstance().newTuple(3);
+		valid.set(0, new DataByteArray(new WKBWriter().write(_factory.createPoint(new Coordinate(1, 2)).buffer(1))));
+		bag.add(valid);
+
+		Tuple empty = TupleFactory.getInstance().newTuple(3);
+		empty.set(0, new DataByteArray(new WKBWriter().write(_factory.createPolygon(null, null))));
+		bag.add(empty);
+
+		List<Item> items = new SpatialJoinEngine(SpatialJoinEngine.Method.AUTOMATIC, 0.0).parse(bag);
+
+		assertEquals(1, items.size());
+		assertSame(valid, items.get(0).getTuple());
+
+	}
+
+	@Test
+	public void testParseMethod() throws Exception {
+		assertEquals(SpatialJoinEngine.Method.INDEX_NESTED_LOOP, SpatialJoinEngine.parseMethod("index-nested-loop"));
+		assertEquals(SpatialJoinEngine.Method.HIERARCHICAL_TRAVERSAL, SpatialJoinEngine.parseMethod("Hierarchical-Traversal"));
+		assertEquals(SpatialJoinEngine.Method.AUTOMATIC, SpatialJoinEngine.parseMethod(null));
+	}
+
+}
@@ -0,0 +1,499 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.operators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A band-math expression compiled once and evaluated over whole rows of pixels.<br><br>
+ * The expressions have numbers, band references (b0, b1, ...), the operators + - * / and the comparisons
+ * &lt; &lt;= &gt; &gt;= == != (1 if true, 0 otherwise), parentheses and the functions min, max, abs and sqrt.<br>
+ * Example: (b3-b2)/(b3+b2)<br><br>
+ * The expression is compiled to a sequence of operations over rows, so the evaluation runs one tight loop per operation
+ * and row instead of interpreting the expression for each pixel. Constant subexpressions are computed at compilation.
+ * An instance is not thread-safe, since the rows of the intermediate results are reused between calls.
+ * @author Rodrigo Ferreira
+ */
+public class BandExpression {
+
+	private static final int ADD = 0;
+	private static final int SUB = 1;
+	private static final int MUL = 2;
+	private static final int DIV = 3;
+	private static final int MIN = 4;
+	private static final int MAX = 5;
+	private static final int LT = 6;
+	private static final int LE = 7;
+	private static final int GT = 8;
+	private static final int GE = 9;
+	private static final int EQ = 10;
+	private static final int NE = 11;
+	private static final int NEG = 12;
+	private static final int ABS = 13;
+	private static final int SQRT = 14;
+
+	/*Kinds of operand*/
+	private static final int BAND = 0;
+	private static final int CONST = 1;
+	private static final int TEMP = 2;
+
+	private final String _expression;
+
+	/*Compiled code: operation, destination and source registers*/
+	private int[] _op;
+	private int[] _dst;
+	private int[] _srcA;
+	private int[] _srcB;
+	private int _result;
+
+	private int[] _bands;
+	private int _numBands; //registers of the bands, indexed by the band number
+	private double[] _constants;
+	private int _numTemps;
+
+	private double[][] _registers;
+	private int _capacity = 0;
+
+	/*Compilation state*/
+	private String _text;
+	private int _pos;
+	private List<int[]> _code;
+	private List<Double> _constantList;
+	private List<Integer> _freeTemps;
+	private boolean[] _usedBands;
+
+	/**Compiles the expression; throws an exception if it is not valid.*/
+	public BandExpression(String expression) throws Exception {
+		_expression = expression;
+		compile();
+	}
+
+	public String getExpression() {
+		return _expression;
+	}
+
+	/**Returns the bands referenced by the expression, in increasing order.*/
+	public int[] getBands() {
+		return _bands.clone();
+	}
+
+	/**Returns the highest band referenced by the expression, or -1 if there is none.*/
+	public int getMaxBand() {
+		return _numBands - 1;
+	}
+
+	/**
+	 * Evaluates the expression over a row of pixels.
+	 * @param bands the values of each band, indexed by the band number; only the referenced bands are read
+	 * @param length the number of pixels
+	 * @param result the array that receives the values
+	 */
+	public void evaluate(double[][] bands, int length, double[] result) {
+
+		ensureCapacity(length);
+
+		for (int b : _bands)
+			_registers[b] = bands[b];
+
+		int[] op = _op;
+		int[] dst = _dst;
+		int[] srcA = _srcA;
+		int[] srcB = _srcB;
+		double[][] r = _registers;
+
+		for (int k=0; k<op.length; k++) {
+
+			double[] d = r[dst[k]];
+			double[] a = r[srcA[k]];
+			double[] c = srcB[k] < 0 ? null : r[srcB[k]];
+
+			switch (op[k]) {
+				case ADD: for (int i=0; i<length; i++) d[i] = a[i] + c[i]; break;
+				case SUB: for (int i=0; i<length; i++) d[i] = a[i] - c[i]; break;
+				case MUL: for (int i=0; i<length; i++) d[i] = a[i] * c[i]; break;
+				case DIV: for (int i=0; i<length; i++) d[i] = a[i] / c[i]; break;
+				case MIN: for (int i=0; i<length; i++) d[i] = Math.min(a[i], c[i]); break;
+				case MAX: for (int i=0; i<length; i++) d[i] = Math.max(a[i], c[i]); break;
+				case LT: for (int i=0; i<length; i++) d[i] = a[i] < c[i] ? 1 : 0; break;
+				case LE: for (int i=0; i<length; i++) d[i] = a[i] <= c[i] ? 1 : 0; break;
+				case GT: for (int i=0; i<length; i++) d[i] = a[i] > c[i] ? 1 : 0; break;
+				case GE: for (int i=0; i<length; i++) d[i] = a[i] >= c[i] ? 1 : 0; break;
+				case EQ: for (int i=0; i<length; i++) d[i] = a[i] == c[i] ? 1 : 0; break;
+				case NE: for (int i=0; i<length; i++) d[i] = a[i] != c[i] ? 1 : 0; break;
+				case NEG: for (int i=0; i<length; i++) d[i] = -a[i]; break;
+				case ABS: for (int i=0; i<length; i++) d[i] = Math.abs(a[i]); break;
+				case SQRT: for (int i=0; i<length; i++) d[i] = Math.sqrt(a[i]); break;
+			}
+
+		}
+
+		System.arraycopy(r[_result], 0, result, 0, length);
+
+		for (int b : _bands)
+			_registers[b] = null;
+
+	}
+
+	/**Evaluates the expression for one pixel, given the values of its bands.*/
+	public double evaluate(double[] pixel) {
+
+		double[][] bands = new double[_numBands][];
+
+		for (int b : _bands)
+			bands[b] = new double[] {pixel[b]};
+
+		double[] result = new double[1];
+		evaluate(bands, 1, result);
+
+		return result[0];
+	}
+
+	@Override
+	public String toString() {
+		return _expression;
+	}
+
+	/*The rows of the constants are filled once, since they never change*/
+	private void ensureCapacity(int length) {
+
+		if (_registers != null && length <= _capacity)
+			return;
+
+		_capacity = Math.max(length, 2*_capacity);
+
+		_registers = new double[_numBands + _constants.length + _numTemps][];
+
+		for (int c=0; c<_constants.length; c++) {
+			double[] row = new double[_capacity];
+			Arrays.fill(row, _constants[c]);
+			_registers[_numBands + c] = row;
+		}
+
+		for (int t=0; t<_numTemps; t++)
+			_registers[_numBands + _constants.length + t] = new double[_capacity];
+
+	}
+
+	private static double apply(int op, double a, double c) {
+		switch (op) {
+			case ADD: return a + c;
+			case SUB: return a - c;
+			case MUL: return a * c;
+			case DIV: return a / c;
+			case MIN: return Math.min(a, c);
+			case MAX: return Math.max(a, c);
+			case LT: return a < c ? 1 : 0;
+			case LE: return a <= c ? 1 : 0;
+			case GT: return a > c ? 1 : 0;
+			case GE: return a >= c ? 1 : 0;
+			case EQ: return a == c ? 1 : 0;
+			case NE: return a != c ? 1 : 0;
+			case NEG: return -a;
+			case ABS: return Math.abs(a);
+			case SQRT: return Math.sqrt(a);
+			default: throw new IllegalArgumentException("Unknown operation " + op);
+		}
+	}
+
+	/*
+	 * Compilation
+	 * The parser returns operands {kind, index}: a band, a constant or a temporary row. The temporary rows are
+	 * reused as soon as they are consumed, so the number of rows is the depth of the expression.
+	 */
+
+	private void compile() throws Exception {
+
+		_text = _expression;
+		_pos = 0;
+		_code = new ArrayList<int[]>();
+		_constantList = new ArrayList<Double>();
+		_freeTemps = new ArrayList<Integer>();
+		_usedBands = new boolean[0];
+		_numTemps = 0;
+
+		int[] operand = parseComparison();
+
+		skipSpaces();
+
+		if (_pos < _text.length())
+			throw error("Unexpected '" + _text.charAt(_pos) + "'");
+
+		/*Laying out the registers: bands, constants and temporary rows*/
+		int bands = 0;
+		for (int b=0; b<_usedBands.length; b++) {
+			if (_usedBands[b])
+				bands++;
+		}
+
+		_bands = new int[bands];
+		bands = 0;
+		for (int b=0; b<_usedBands.length; b++) {
+			if (_usedBands[b])
+				_bands[bands++] = b;
+		}
+
+		_numBands = _usedBands.length;
+
+		_constants = new double[_constantList.size()];
+		for (int c=0; c<_constants.length; c++)
+			_constants[c] = _constantList.get(c);
+
+		_op = new int[_code.size()];
+		_dst = new int[_code.size()];
+		_srcA = new int[_code.size()];
+		_srcB = new int[_code.size()];
+
+		for (int k=0; k<_code.size(); k++) {
+			int[] code = _code.get(k);
+			_op[k] = code[0];
+			_dst[k] = register(TEMP, code[1]);
+			_srcA[k] = register(code[2], code[3]);
+			_srcB[k] = code[4] < 0 ? -1 : register(code[4], code[5]);
+		}
+
+		_result = register(operand[0], operand[1]);
+
+		_text = null;
+		_code = null;
+		_constantList = null;
+		_freeTemps = null;
+		_usedBands = null;
+
+	}
+
+	private int register(int kind, int index) {
+		if (kind == BAND)
+			return index;
+		else if (kind == CONST)
+			return _numBands + index;
+		else
+			return _numBands + _constants.length + index;
+	}
+
+	private Exception error(String message) {
+		return new Exception(message + " at position " + _pos + " of expression " + _expression);
+	}
+
+	private void skipSpaces() {
+		while (_pos < _text.length() && Character.isWhitespace(_text.charAt(_pos)))
+			_pos++;
+	}
+
+	private boolean accept(String token) {
+		skipSpaces();
+		if (_text.startsWith(token, _pos)) {
+			_pos += token.length();
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(String token) throws Exception {
+		if (!accept(token))
+			throw error("Expected '" + token + "'");
+	}
+
+	private int[] constant(double value) {
+		int index = _constantList.indexOf(value);
+		if (index == -1) {
+			index = _constantList.size();
+			_constantList.add(value);
+		}
+		return new int[] {CONST, index};
+	}
+
+	private int newTemp() {
+		if (!_freeTemps.isEmpty())
+			return _freeTemps.remove(_freeTemps.size()-1);
+		return _numTemps++;
+	}
+
+	private double value(int[] operand) {
+		return _constantList.get(operand[1]);
+	}
+
+	private int[] emit(int op, int[] a, int[] c) {
+
+		if (a[0] == CONST && (c == null || c[0] == CONST))
+			return constant(apply(op, value(a), c == null ? 0 : value(c)));
+
+		int dst;
+
+		if (a[0] == TEMP) {
+			dst = a[1];
+			if (c != null && c[0] == TEMP)
+				_freeTemps.add(c[1]);
+		} else if (c != null && c[0] == TEMP) {
+			dst = c[1];
+		} else {
+			dst = newTemp();
+		}
+
+		_code.add(new int[] {op, dst, a[0], a[1], c == null ? -1 : c[0], c == null ? -1 : c[1]});
+
+		return new int[] {TEMP, dst};
+	}
+
+	private int[] parseComparison() throws Exception {
+
+		int[] a = parseAdditive();
+
+		while (true) {
+			int op;
+			if (accept("<="))
+				op = LE;
+			else if (accept(">="))
+				op = GE;
+			else if (accept("=="))
+				op = EQ;
+			else if (accept("!="))
+				op = NE;
+			else if (accept("<"))
+				op = LT;
+			else if (accept(">"))
+				op = GT;
+			else
+				return a;
+			a = emit(op, a, parseAdditive());
+		}
+
+	}
+
+	private int[] parseAdditive() throws Exception {
+
+		int[] a = parseTerm();
+
+		while (true) {
+			if (accept("+"))
+				a = emit(ADD, a, parseTerm());
+			else if (accept("-"))
+				a = emit(SUB, a, parseTerm());
+			else
+				return a;
+		}
+
+	}
+
+	private int[] parseTerm() throws Exception {
+
+		int[] a = parseUnary();
+
+		while (true) {
+			if (accept("*"))
+				a = emit(MUL, a, parseUnary());
+			else if (accept("/"))
+				a = emit(DIV, a, parseUnary());
+			else
+				return a;
+		}
+
+	}
+
+	private int[] parseUnary() throws Exception {
+		if (accept("-"))
+			return emit(NEG, parseUnary(), null);
+		if (accept("+"))
+			return parseUnary();
+		return parsePrimary();
+	}
+
+	private int[] parsePrimary() throws Exception {
+
+		skipSpaces();
+
+		if (_pos >= _text.length())
+			throw error("Unexpected end");
+
+		char ch = _text.charAt(_pos);
+
+		if (ch == '(') {
+			_pos++;
+			int[] a = parseComparison();
+			expect(")");
+			return a;
+		}
+
+		if (Character.isDigit(ch) || ch == '.') {
+			int start = _pos;
+			while (_pos < _text.length() && (Character.isDigit(_text.charAt(_pos)) || _text.charAt(_pos) == '.'))
+				_pos++;
+			if (_pos < _text.length() && (_text.charAt(_pos) == 'e' || _text.charAt(_pos) == 'E')) {
+				_pos++;
+				if (_pos < _text.length() && (_text.charAt(_pos) == '+' || _text.charAt(_pos) == '-'))
+					_pos++;
+				while (_pos < _text.length() && Character.isDigit(_text.charAt(_pos)))
+					_pos++;
+			}
+			try {
+				return constant(Double.parseDouble(_text.substring(start, _pos)));
+			} catch (NumberFormatException e) {
+				_pos = start;
+				throw error("Invalid number");
+			}
+		}
+
+		if (Character.isLetter(ch)) {
+
+			int start = _pos;
+			while (_pos < _text.length() && Character.isLetterOrDigit(_text.charAt(_pos)))
+				_pos++;
+
+			String name = _text.substring(start, _pos).toLowerCase();
+
+			if (name.length() > 1 && name.charAt(0) == 'b' && isNumber(name.substring(1))) {
+				int band = Integer.parseInt(name.substring(1));
+				if (band >= _usedBands.length)
+					_usedBands = Arrays.copyOf(_usedBands, band+1);
+				_usedBands[band] = true;
+				return new int[] {BAND, band};
+			}
+
+			if (name.equals("abs") || name.equals("sqrt")) {
+				expect("(");
+				int[] a = parseComparison();
+				expect(")");
+				return emit(name.equals("abs") ? ABS : SQRT, a, null);
+			}
+
+			if (name.equals("min") || name.equals("max")) {
+				int op = name.equals("min") ? MIN : MAX;
+				expect("(");
+				int[] a = parseComparison();
+				while (accept(","))
+					a = emit(op, a, parseComparison());
+				expect(")");
+				return a;
+			}
+
+			_pos = start;
+			throw error("Unknown name '" + name + "'");
+
+		}
+
+		throw error("Unexpected '" + ch + "'");
+
+	}
+
+	private static boolean isNumber(String string) {
+		for (int i=0; i<string.length(); i++) {
+			if (!Character.isDigit(string.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,480 @@
+/*Copyright 2014 Computer Vision Lab
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package br.puc_rio.ele.lvc.interimage.operators;
+
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+/**
+ * Region growing engine of the mutual multiresolution segmentation.<br><br>
+ * Every pixel starts as a segment and segments are merged with their best mutual neighbor while the fusion factor
+ * (color and shape heterogeneity) is below the scale. The segments are kept in parallel primitive arrays indexed by
+ * the id of their seed pixel, and the pixels in a label array with linked lists of pixel indices, instead of one
+ * object per segment and per pixel.
+ * @author Patrick Happ, Rodrigo Ferreira
+ */
+public class RegionMerging {
+
+	private final double _scale; //this is scale^2!!
+	private final double _wColor;
+	private final double _wCmpt;
+	private final double[] _wBand;
+	private final int _nbands;
+
+	private int _imageW;
+	private int _imageH;
+
+	/*Pixels*/
+	private int[] _label; //id of the segment of each pixel
+	private int[] _nextPixel; //next pixel of the same segment, -1 at the end of the list
+	private boolean[] _borderline;
+
+	/*Segments*/
+	private int[] _firstPixel; //-1 if the segment was merged into another one
+	private int[] _lastPixel;
+	private int[] _area;
+	private double[] _perimeter;
+	private int[] _bbox; //row, col, height, width
+	private double[] _avgColor; //one value for each band
+	private double[] _stdColor;
+	private double[] _avgColorSquare;
+	private double[] _colorSum;
+	private boolean[] _used;
+
+	private int[] _visitingOrder;
+
+	/*Neighbors of the segment being visited*/
+	private int[] _nbSeg = new int[16];
+	private int _nbSegSize;
+	private int[] _nbMark;
+
+	private final int[] _nb = new int[4];
+
+	/**
+	 * Constructor that takes the squared scale, the color weight, the compactness weight and the normalized band weights.
+	 */
+	public RegionMerging(double scale, double wColor, double wCmpt, double[] wBand) {
+		_scale = scale;
+		_wColor = wColor;
+		_wCmpt = wCmpt;
+		_wBand = wBand;
+		_nbands = wBand.length;
+	}
+
+	/**Returns the approximate number of bytes allocated to segment a raster of the given size.*/
+	public static long estimateBytes(int width, int height, int bands) {
+		/*7 int arrays, the bounding boxes, the perimeters, 2 boolean arrays and 4 double arrays per band*/
+		return (long)width * height * (7*4 + 4*4 + 8 + 2 + 4*8*bands);
+	}
+
+	/**Segments the raster; afterwards each pixel is labeled with the id of its segment.*/
+	public void segment(Raster raster) throws Exception {
+		initializeSegments(raster);
+		randomOrder();
+		computeSegmentation();
+	}
+
+	public int getWidth() {
+		return _imageW;
+	}
+
+	public int getHeight() {
+		return _imageH;
+	}
+
+	/**Returns the id of the segment of each pixel, in row-major order.*/
+	public int[] getLabels() {
+		return _label;
+	}
+
+	/**Returns true if the id belongs to a segment of the result, i.e. its seed pixel was not merged into another segment.*/
+	public boolean isSegment(int id) {
+		return _firstPixel[id] != -1;
+	}
+
+	public double getAvgColor(int id, int band) {
+		return _avgColor[id*_nbands + band];
+	}
+
+	public double getArea(int id) {
+		return _area[id];
+	}
+
+	private void initializeSegments(Raster raster) throws Exception {
+
+		_imageH = raster.getHeight();
+		_imageW = raster.getWidth();
+
+		if (raster.getNumBands() != _nbands) {
+			throw new Exception("Image bands are incompatible with band weights parameter");
+		}
+
+		int size = _imageW * _imageH;
+
+		_label = new int[size];
+		_nextPixel = new int[size];
+		_borderline = new boolean[size];
+
+		_firstPixel = new int[size];
+		_lastPixel = new int[size];
+		_area = new int[size];
+		_perimeter = new double[size];
+		_bbox = new int[4*size];
+		_avgColor = new double[_nbands*size];
+		_stdColor = new double[_nbands*size];
+		_avgColorSquare = new double[_nbands*size];
+		_colorSum = new double[_nbands*size];
+		_used = new boolean[size];
+
+		_nbMark = new int[size];
+		Arrays.fill(_nbMark, -1);
+
+		double[] samples = new double[_imageW];
+
+		for (int row = 0; row < _imageH; row++) {
+
+			for (int b = 0; b < _nbands; b++) {
+
+				raster.getSamples(raster.getMinX(), raster.getMinY() + row, _imageW, 1, b, samples);
+
+				for (int col = 0; col < _imageW; col++) {
+					double val = samples[col];
+					int idx = (row*_imageW + col)*_nbands + b;
+					_avgColor[idx] = val;
+					_avgColorSquare[idx] = val*val;
+					_colorSum[idx] = val;
+				}
+
+			}
+
+			for (int col = 0; col < _imageW; col++) {
+
+				int id = row*_imageW + col;
+
+				_label[id] = id;
+				_nextPixel[id] = -1;
+				_borderline[id] = true;
+
+				_firstPixel[id] = id;
+				_lastPixel[id] = id;
+				_area[id] = 1;
+				_perimeter[id] = 4;
+				_bbox[4*id] = row;
+				_bbox[4*id+1] = col;
+				_bbox[4*id+2] = 1;
+				_bbox[4*id+3] = 1;
+
+			}
+
+		}
+
+	}
+
+	private void randomOrder() {
+		//TODO: Put it on random order
+		_visitingOrder = new int[_imageW * _imageH];
+		for (int i=0; i<_visitingOrder.length; i++) {
+			_visitingOrder[i] = i;
+		}
+	}
+
+	private void computeSegmentation() {
+
+		boolean hasMerged = true;
+
+		while (hasMerged) {
+			hasMerged = false;
+
+			for (int i=0; i<_visitingOrder.length; i++) {
+				int curr = _visitingOrder[i];
+
+				if (_used[curr])
+					continue;
+
+				_used[curr] = true;
+
+				/*collects the neighbor segments through the outline pixels*/
+				for (int p=_firstPixel[curr]; p!=-1; p=_nextPixel[p]) {
+
+					if (!_borderline[p])
+						continue;
+
+					getPixelIdFromNeighbors(p);
+
+					for (int n=0; n<4; n++) {
+						if (_nb[n] != -1) {
+							int seg = _label[_nb[n]];
+							//if neighbor is not from same segment
+							if (seg != curr && _nbMark[seg] != curr) {
+								_nbMark[seg] = curr;
+								addNeighbor(seg);
+							}
+						}
+					}
+
+				}
+
+				/*calculates heterogeneity factors for each neighbor*/
+				double minFusion = Double.MAX_VALUE;
+				int bestNbId = -1;
+
+				for (int k=0; k<_nbSegSize; k++) {
+					int n = _nbSeg[k];
+					_nbMark[n] = -1;
+
+					double spectral = 0;
+					double spatial = 0;
+
+					if (_wColor > 0) {
+						spectral = calcColorStats(curr, n) * _wColor;
+					}
+
+					if (spectral < _scale) { //already the square
+						//only if spatial is wanted
+						if ((1-_wColor) > 0) {
+							spatial = calcSpatialStats(curr, n) * (1-_wColor);
+						}
+
+						double fusion = spectral + spatial;
+						if (fusion < _scale) { //already the square
+							if (fusion < minFusion) {
+								minFusion = fusion;
+								bestNbId = n;
+							}
+							//on a draw, merges with the higher id
+							else if (fusion == minFusion && bestNbId < n) {
+								bestNbId = n;
+							}
+						}
+					}
+				}
+
+				_nbSegSize = 0;
+
+				if (bestNbId != -1) {
+					mergeSegment(curr, bestNbId);
+					hasMerged = true;
+				}
+
+			}
+
+			resetSegments();
+		}
+
+	}
+
+	private void addNeighbor(int seg) {
+		if (_nbSegSize == _nbSeg.length)
+			_nbSeg = Arrays.copyOf(_nbSeg, _nbSegSize*2);
+		_nbSeg[_nbSegSize++] = seg;
+	}
+
+	/*Fills _nb with the north, west, south and east neighbors; -1 at the image limits*/
+	private void getPixelIdFromNeighbors(int pixelId) {
+		int x = pixelId % _imageW;
+		int y = pixelId / _imageW;
+
+		_nb[0] = (y > 0) ? (y-1)*_imageW + x : -1; //north
+		_nb[1] = (x > 0) ? y*_imageW + (x-1) : -1; //west
+		_nb[2] = (y < _imageH-1) ? (y+1)*_imageW + x : -1; //south
+		_nb[3] = (x < _imageW-1) ? y*_imageW + (x+1) : -1; //east
+	}
+
+	private double calcColorStats(int obj, int neighb) {
+
+		double areaObj = _area[obj];
+		double areaNb = _area[neighb];
+		double areaRes = areaObj + areaNb;
+
+		// calculates color factor per band and total
+		double color_h = 0;
+		for (int b = 0; b < _nbands; b++) {
+			int o = obj*_nbands + b;
+			int n = neighb*_nbands + b;
+
+			double mean = ((_avgColor[o]*areaObj)+(_avgColor[n]*areaNb))/areaRes;
+			double squarePixels = _avgColorSquare[o] + _avgColorSquare[n];
+			double colorSum = _colorSum[o] + _colorSum[n];
+			double stddev = Math.sqrt(Math.abs(squarePixels - 2*mean*colorSum + areaRes*mean*mean)/areaRes);
+
+			color_h += _wBand[b] * ((areaRes*stddev) - ((areaObj*_stdColor[o]) + (areaNb*_stdColor[n])));
+		}
+
+		return color_h;
+	}
+
+	private double calcSpatialStats(int obj, int neighb) {
+
+		double areaObj = _area[obj];
+		double areaNb = _area[neighb];
+		double areaRes = areaObj + areaNb;
+
+		double perimObj = _perimeter[obj];
+		double perimNb = _perimeter[neighb];
+		double perimRes;
+
+		if (areaRes < 4) { /* valid only if pixel neighborhood==4 */
+			perimRes = (areaRes == 2) ? 6 : 8;
+		} else {
+			perimRes = calcPerimeter(obj, neighb);
+		}
+
+		double bboxObjLen = _bbox[4*obj+2]*2 + _bbox[4*obj+3]*2;
+		double bboxNbLen = _bbox[4*neighb+2]*2 + _bbox[4*neighb+3]*2;
+
+		int minRow = Math.min(_bbox[4*obj], _bbox[4*neighb]);
+		int minCol = Math.min(_bbox[4*obj+1], _bbox[4*neighb+1]);
+		int maxRow = Math.max(_bbox[4*obj] + _bbox[4*obj+2], _bbox[4*neighb] + _bbox[4*neighb+2]);
+		int maxCol = Math.max(_bbox[4*obj+1] + _bbox[4*obj+3], _bbox[4*neighb+1] + _bbox[4*neighb+3]);
+
+		double bboxResLen = (maxRow-minRow)*2 + (maxCol-minCol)*2;
+
+		/* smoothness factor */
+		double smooth_f = (areaRes*perimRes/bboxResLen -
+				(areaObj*perimObj/bboxObjLen + areaNb*perimNb/bboxNbLen));
+
+		/* compactness factor */
+		double compact_f = (Math.sqrt(areaRes)*perimRes -
+				(Math.sqrt(areaObj)*perimObj + Math.sqrt(areaNb)*perimNb));
+
+		/* spatial heterogeneity */
+		return _wCmpt*compact_f + (1-_wCmpt)*smooth_f;
+	}
+
+	private double calcPerimeter(int obj, int neighb) {
+
+		double perimTotal = _perimeter[obj] + _perimeter[neighb];
+
+		int first;
+		int idNb;
+
+		//choose segment with smaller perimeter
+		if (_perimeter[obj] <= _perimeter[neighb]) {
+			first = _firstPixel[obj];
+			idNb = neighb;
+		} else {
+			first = _firstPixel[neighb];
+			idNb = obj;
+		}
+
+		// for each outline pixel of the smaller perimeter segment
+		for (int p=first; p!=-1; p=_nextPixel[p]) {
+
+			if (!_borderline[p])
+				continue;
+
+			getPixelIdFromNeighbors(p);
+
+			for (int i=0; i<4; i++) {
+				//the original criteria assign (not subtract) when the segments touch
+				if (_nb[i] != -1 && _label[_nb[i]] == idNb)
+					return -2;
+			}
+
+		}
+
+		return perimTotal;
+	}
+
+	private void mergeSegment(int obj, int neighb) {
+
+		_used[neighb] = true;
+
+		double areaObj = _area[obj];
+		double areaNb = _area[neighb];
+		double areaRes = areaObj + areaNb;
+
+		for (int b = 0; b < _nbands; b++) {
+			int o = obj*_nbands + b;
+			int n = neighb*_nbands + b;
+
+			_avgColor[o] = ((_avgColor[o]*areaObj)+(_avgColor[n]*areaNb))/areaRes;
+			_avgColorSquare[o] = _avgColorSquare[o] + _avgColorSquare[n];
+			_colorSum[o] = _colorSum[o] + _colorSum[n];
+			_stdColor[o] = Math.sqrt(Math.abs(_avgColorSquare[o]
+					- 2*_avgColor[o]*_colorSum[o]
+					+ areaRes*_avgColor[o]*_avgColor[o])/areaRes);
+		}
+
+		_perimeter[obj] = calcPerimeter(obj, neighb);
+
+		int minRow = Math.min(_bbox[4*obj], _bbox[4*neighb]);
+		int minCol = Math.min(_bbox[4*obj+1], _bbox[4*neighb+1]);
+		int maxRow = Math.max(_bbox[4*obj] + _bbox[4*obj+2], _bbox[4*neighb] + _bbox[4*neighb+2]);
+		int maxCol = Math.max(_bbox[4*obj+1] + _bbox[4*obj+3], _bbox[4*neighb+1] + _bbox[4*neighb+3]);
+
+		_bbox[4*obj] = minRow;
+		_bbox[4*obj+1] = minCol;
+		_bbox[4*obj+2] = maxRow - minRow;
+		_bbox[4*obj+3] = maxCol - minCol;
+
+		_area[obj] += _area[neighb];
+
+		resetPixels(obj, neighb);
+	}
+
+	private void resetPixels(int obj, int neighb) {
+
+		/* for each pixel of the neighbor segment to be merged */
+		for (int p=_firstPixel[neighb]; p!=-1; p=_nextPixel[p]) {
+			/* assigns the pixel to the current segment */
+			_label[p] = obj;
+
+			if (_borderline[p])
+				updateBorderline(p, obj, neighb);
+		}
+
+		if (_area[obj] > 6) { /* only valid for pixel neighborhood==4 */
+			/* for each outline pixel of the current segment */
+			for (int p=_firstPixel[obj]; p!=-1; p=_nextPixel[p]) {
+				if (_borderline[p])
+					updateBorderline(p, obj, neighb);
+			}
+		}
+
+		/* include pixel list of neighbor in the list of the current segment */
+		_nextPixel[_lastPixel[obj]] = _firstPixel[neighb];
+		_lastPixel[obj] = _lastPixel[neighb];
+		_firstPixel[neighb] = -1;
+		_lastPixel[neighb] = -1;
+
+	}
+
+	/*If the pixel is surrounded by pixels of the segment or of the merged neighbor, it's no longer a border pixel*/
+	private void updateBorderline(int pixel, int obj, int neighb) {
+
+		getPixelIdFromNeighbors(pixel);
+
+		for (int i=0; i<4; i++) {
+			if (_nb[i] == -1) /* image limit */
+				return;
+			int seg = _label[_nb[i]];
+			if (seg != obj && seg != neighb)
+				return;
+		}
+
+		_borderline[pixel] = false;
+	}
+
+	private void resetSegments() {
+		/* mark all remaining segments as unused */
+		for (int i=0; i<_visitingOrder.length; i++) {
+			int id = _visitingOrder[i];
+			if (_label[id] == id)
+				_used[id] = false;
+		}
+	}
+
+}
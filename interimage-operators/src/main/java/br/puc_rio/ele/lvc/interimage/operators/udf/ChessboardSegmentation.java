@@ -34,6 +34,7 @@ import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import br.puc_rio.ele.lvc.interimage.common.UUID;
+import br.puc_rio.ele.lvc.interimage.data.TileCache;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
@@ -124,29 +125,12 @@ public class ChessboardSegmentation extends EvalFunc<DataBag> {
 	        //if (br.puc_rio.ele.lvc.interimage.common.URL.exists(_imageUrl + _image + "/" + tileStr + ".tif")) {	//if tile doesn't exist
 				
 	        	/*Getting width and height*/
-	        	URL worldFile1 = new URL(_imageUrl + _image + "/" + tileStr + ".meta");
-				URLConnection urlConn1 = worldFile1.openConnection();
-                urlConn1.connect();
-				InputStreamReader inStream1 = new InputStreamReader(urlConn1.getInputStream());
-		        BufferedReader reader1 = new BufferedReader(inStream1);
+		        TileCache.Meta meta = TileCache.getInstance().getMeta(_imageUrl, _image, tileStr);
 		        
-		        double[] imageTileGeoBox = new double[4];
+		        if (meta == null)
+		        	throw new Exception("Could not read tile metadata: " + _imageUrl + _image + "/" + tileStr + ".meta");
 		        
-		        String line1;
-		        int index1 = 0;
-		        while ((line1 = reader1.readLine()) != null) {
-		        	if (!line1.trim().isEmpty()) {
-		        		if (index1==3)
-		        			imageTileGeoBox[0] = Double.parseDouble(line1);
-		        		else if (index1==4)
-		        			imageTileGeoBox[1] = Double.parseDouble(line1);
-		        		else if (index1==5)
-		        			imageTileGeoBox[2] = Double.parseDouble(line1);
-		        		else if (index1==6)
-		        			imageTileGeoBox[3] = Double.parseDouble(line1);
-			        	index1++;
-		        	}
-		        }
+		        double[] imageTileGeoBox = meta.getGeoBox();
 						        
 				/*Computing segments*/
 		        int numTilesX = (int)Math.ceil((imageTileGeoBox[2]-imageTileGeoBox[0]) / _segmentSize);
@@ -16,10 +16,8 @@ package br.puc_rio.ele.lvc.interimage.operators.udf;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
@@ -28,10 +26,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.imageio.ImageIO;
-import javax.imageio.ImageReadParam;
-import javax.imageio.stream.ImageInputStream;
-
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -40,23 +34,22 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import br.puc_rio.ele.lvc.interimage.common.GeometryCodec;
 import br.puc_rio.ele.lvc.interimage.common.UUID;
-import br.puc_rio.ele.lvc.interimage.data.Image;
-import br.puc_rio.ele.lvc.interimage.data.imageioimpl.plugins.tiff.TIFFImageReader;
+import br.puc_rio.ele.lvc.interimage.operators.BandExpression;
+import br.puc_rio.ele.lvc.interimage.data.Polygonizer;
+import br.puc_rio.ele.lvc.interimage.data.TileCache;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LinearRing;
-import com.vividsolutions.jts.io.WKTWriter;
+import com.vividsolutions.jts.geom.Polygon;
 
 //TODO: This could be a generic UDF that receives the parameters and compute a particular segmentation process.
 //TODO: Create an interface for segmentation and then each implementation
 //TODO: Allow the computation on more than one image
-//TODO: Implement the operation EXPRESSION
 
 /**
- * UDF for limiarization.
+ * UDF for limiarization.<br><br>
+ * The value thresholded for each pixel is given by the operation: Brightness, Band(b), Index(a,b) or Expression(e),
+ * where e is a band-math expression such as (b3-b2)/(b3+b2) (see {@link BandExpression}).
  * @author Patrick Happ, Rodrigo Ferreira
  */
 
@@ -75,11 +68,12 @@ public class Limiarization extends EvalFunc<DataBag> {
 		
 	private double[] _threshold;
 	private String[] _class; 
+	private int[] _classLabel;
 	private Operation _operation;
-	private int[] _bandsOperation;
+	private BandExpression _expression;
 	private double _minArea;
 
-	private Map<String,List<Geometry>> _segmentList;
+	private int[] _labels;
 	public enum Operation {EXPRESSION, BRIGHTNESS, INDEX, BAND}
 	
 	private double [] _imageTileGeoBox;
@@ -122,35 +116,50 @@ public class Limiarization extends EvalFunc<DataBag> {
 			throw new Exception("Problem with input thresholds and classes");
 		}
 		
-		//operation
+		//ranges with the same class share the same label, so that they are traced together
+		_classLabel = new int[_class.length];
+		for (int i=0; i<_class.length; i++) {
+			_classLabel[i] = i;
+			for (int j=0; j<i; j++) {
+				if (_class[j].equals(_class[i])) {
+					_classLabel[i] = j;
+					break;
+				}
+			}
+		}
+		
+		//operation, compiled once to a band-math expression
 		if (operation.contains("Expression")){
 			_operation= Operation.EXPRESSION;
-			//TODO: Parse expression
-			_bandsOperation=null;
+			try{
+				_expression = new BandExpression(operation.substring(operation.indexOf("(")+1, operation.lastIndexOf(")")));
+			}catch (Exception e){
+				throw new Exception("Problem with input operation", e);
+			}
 		} else if (operation.contains("Index")){
 			_operation= Operation.INDEX;
 			try{
 				String[] bands = operation.substring(operation.indexOf("(")+1, operation.indexOf(")")).split(",");
-				_bandsOperation=new int[2];
-				_bandsOperation[0] = Integer.parseInt(bands[0]);
-				_bandsOperation[1] = Integer.parseInt(bands[1]);
+				int band1 = Integer.parseInt(bands[0].trim());
+				int band2 = Integer.parseInt(bands[1].trim());
+				_expression = new BandExpression("(b" + band1 + "-b" + band2 + ")/(b" + band1 + "+b" + band2 + ")");
 			}catch (Exception e){
 				throw new Exception("Problem with input operation");
 			}
 		}else if (operation.contains("Brightness")){
 			_operation= Operation.BRIGHTNESS;
-			_bandsOperation=null;
+			//depends on the number of bands of the image
+			_expression=null;
 		} else if (operation.contains("Band")){
 			String band = operation.substring(operation.indexOf("(")+1, operation.indexOf(")"));
 			_operation= Operation.BAND;
-			_bandsOperation=new int[1];
-			_bandsOperation[0]=Integer.parseInt(band);
+			_expression = new BandExpression("b" + Integer.parseInt(band.trim()));
 		} else {
 			throw new Exception("Problem with input operation");
 		}
 		
 		
-		_segmentList = null;
+		_labels = null;
 		
 		_nbands=0;
 		_imageH=0;
@@ -216,58 +225,34 @@ public class Limiarization extends EvalFunc<DataBag> {
 	        //if (br.puc_rio.ele.lvc.interimage.common.URL.exists(inputURL)) {	//if tile doesn't exist (???)
 				        	
 	        	//Get Geocoordinates
-	        	URL worldFile1 = new URL(_imageUrl + _image + "/" + tileStr + ".meta");
-				URLConnection urlConn1 = worldFile1.openConnection();
-                urlConn1.connect();
-				InputStreamReader inStream1 = new InputStreamReader(urlConn1.getInputStream());
-		        BufferedReader reader1 = new BufferedReader(inStream1);
+		        TileCache.Meta meta = TileCache.getInstance().getMeta(_imageUrl, _image, tileStr);
 		        
-		        _imageTileGeoBox = new double[4];
+		        if (meta == null)
+		        	throw new Exception("Could not read tile metadata: " + _imageUrl + _image + "/" + tileStr + ".meta");
 		        
-		        String line1;
-		        int index1 = 0;
-		        while ((line1 = reader1.readLine()) != null) {
-		        	if (!line1.trim().isEmpty()) {
-		        		if (index1==3)
-		        			_imageTileGeoBox[0] = Double.parseDouble(line1);
-		        		else if (index1==4)
-		        			_imageTileGeoBox[1] = Double.parseDouble(line1);
-		        		else if (index1==5)
-		        			_imageTileGeoBox[2] = Double.parseDouble(line1);
-		        		else if (index1==6)
-		        			_imageTileGeoBox[3] = Double.parseDouble(line1);
-			        	index1++;
-		        	}
-		        }
+		        _imageTileGeoBox = meta.getGeoBox();
+		        
+		        BufferedImage buff = TileCache.getInstance().getImage(_imageUrl, _image, tileStr);
 		        
-	        	_segmentList = new HashMap<String,List<Geometry>>();
+		        if (buff == null)
+		        	throw new Exception("Could not instantiate tile image: " + inputURL);
 		        
 		        try {		        	
-					thresholding(inputURL);
+					thresholding(buff);
 				} catch (Exception e) {
 					throw new Exception("Problem with segmentation");
 				}
-		        		       
-		        GeometryFactory fact = new GeometryFactory();
 		        
-		        for (Map.Entry<String, List<Geometry>> entry : _segmentList.entrySet()) {
-		        	
-		        	List<Geometry> list = entry.getValue();
-		        	
-		        	Geometry[] geoms = new Geometry[list.size()];
-		        	
-		        	int index = 0;
-		        	for (Geometry geom : list) {
-		        		geoms[index] = geom;
-		        		index++;
-		        	}
-		        	
-		        	//Geometry union = new GeometryCollection(geoms, new GeometryFactory()).buffer(0);
-		        	Geometry union = fact.createGeometryCollection(geoms).buffer(0);
-		        	
-		        	for (int k=0; k<union.getNumGeometries(); k++) {
+		        //Each class is traced directly from the class raster
+		        Map<Integer, List<Polygon>> segmentList = new Polygonizer(_imageW, _imageH, _imageTileGeoBox).polygonize(_labels);
+		        
+		        _labels = null;
+		        
+		        double quantum = GeometryCodec.quantum((_imageTileGeoBox[2]-_imageTileGeoBox[0])/_imageW);
+		        
+		        for (Map.Entry<Integer, List<Polygon>> entry : segmentList.entrySet()) {
 		        	
-		        		Geometry aux = union.getGeometryN(k);
+		        	for (Polygon aux : entry.getValue()) {
 		        		
 		        		if (aux.getArea() < _minArea)
 		        			continue;
@@ -281,9 +266,9 @@ public class Limiarization extends EvalFunc<DataBag> {
 		        		String id = new UUID(null).random();
 		        		
 		        		props.put("iiuuid", id);
-		        		props.put("class", entry.getKey());
+		        		props.put("class", _class[entry.getKey()]);
 		        		
-		        		t.set(0,new WKTWriter().write(aux));
+		        		t.set(0,GeometryCodec.toBytes(aux, quantum));
 		        		t.set(1,new HashMap<String,String>(data));
 		        		t.set(2,props);
 		        		bag.add(t);
@@ -310,7 +295,7 @@ public class Limiarization extends EvalFunc<DataBag> {
 		try {
 
 			List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
-			list.add(new Schema.FieldSchema(null, DataType.CHARARRAY));
+			list.add(new Schema.FieldSchema(null, DataType.BYTEARRAY));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			
@@ -330,80 +315,50 @@ public class Limiarization extends EvalFunc<DataBag> {
 		
     }
 	
-	private void thresholding(String imageFile) throws Exception{
+	private void thresholding(BufferedImage buff) throws Exception{
 		
-		//Read Image
-		URL worldFile1 = new URL(imageFile);
-		URLConnection urlConn = worldFile1.openConnection();
-        urlConn.connect();
-        
-        InputStream stream = new BufferedInputStream(urlConn.getInputStream());
-        ImageInputStream in = ImageIO.createImageInputStream(stream);
-        
-        if (in == null)
-        	throw new Exception("Could not create input stream: " + imageFile.toString());
-        
-        TIFFImageReader reader = new TIFFImageReader(null);
-        reader.setInput(in);
-        
-        //TODO: Optimize this
-        ImageReadParam param = reader.getDefaultReadParam();       
-        BufferedImage buff = reader.read(0,param);
-        
-		if (buff == null)
-			throw new Exception("Could not instantiate tile image: " + imageFile.toString());
-
 		WritableRaster raster = buff.getRaster();
 		
-        _imageH=reader.getHeight(0);
-        _imageW=reader.getWidth(0);
+        _imageH=buff.getHeight();
+        _imageW=buff.getWidth();
 
         _nbands=raster.getNumBands();
 
-        if (_operation != Operation.BRIGHTNESS){
-        	if (_bandsOperation.length > _nbands){
-        		throw new Exception("Image bands are incompatible with input bands operation");
+        if (_operation == Operation.BRIGHTNESS){
+        	if (_expression == null || _expression.getMaxBand() != _nbands-1){
+        		StringBuilder sum = new StringBuilder("(b0");
+        		for (int b = 1; b < _nbands; b++)
+        			sum.append("+b").append(b);
+        		_expression = new BandExpression(sum.append(")/").append(_nbands).toString());
         	}
         }
         
-        GeometryFactory fact = new GeometryFactory();
+        if (_expression.getMaxBand() >= _nbands){
+        	throw new Exception("Image bands are incompatible with input bands operation");
+        }
+        
+        _labels = new int[_imageW*_imageH];
+        
+        //only the bands of the expression are read, one row at a time
+        int[] bands = _expression.getBands();
+        double[][] rows = new double[_expression.getMaxBand()+1][];
+        for (int b : bands)
+        	rows[b] = new double[_imageW];
+        
+        double[] values = new double[_imageW];
         
-        //int id=0;
         //for each line
-        for (int y = 0; y < _imageH; y++) {          	          	
+        for (int y = 0; y < _imageH; y++) {
+        	
+        	for (int b : bands)
+        		raster.getSamples(0, y, _imageW, 1, b, rows[b]);
+        	
+        	_expression.evaluate(rows, _imageW, values);
+        	
           	//for each pixel
           	for (int x=0; x<_imageW; x++){
           		
-          		double val=0;
-          		//check the operation
-          		switch(_operation){
-          			case BRIGHTNESS:
-          				double sum=0;
-          				for(int b = 0; b < _nbands; b++) {
-          					sum += raster.getSampleDouble(x, y, b);	
-        		        }
-          				val = sum/_nbands;
-          				break;
-          			case INDEX:
-          				double idx1 = raster.getSampleDouble(x, y, _bandsOperation[0]);
-          				double idx2 = raster.getSampleDouble(x, y, _bandsOperation[1]);
-          				
-          				val = (idx1 - idx2) / (idx1 + idx2);
-          				break;
-          			case EXPRESSION:
-          				double [] bandVal =  new double[_bandsOperation.length];
-          				for(int b = 0; b < _bandsOperation.length; b++) {
-          					bandVal[b] = raster.getSampleDouble(x, y, _bandsOperation[b]);
-          					//TODO: IMPLEMENT ARITHMETIC EXPRESSION
-          					val =0;
-        		        }
-          				break;
-          			case BAND:
-          				val = raster.getSampleDouble(x, y, _bandsOperation[0]);
-          				break;
-          			default:
-          				throw new Exception("operation not found");
-          		}
+          		double val = values[x];
           		
            		//generate segment only if it has a valid value
           		if ((_threshold[0] <= val) && (val <= _threshold[_threshold.length-1])){
@@ -418,81 +373,12 @@ public class Limiarization extends EvalFunc<DataBag> {
               			}
               		}
           			
-          			//LimiarSegment seg = new LimiarSegment(id);
-          			          			          			    
-      				//double []imgGeo = {0.0, (double)_imageH, (double)_imageW, 0.0};
-      				double CoordX, CoordY;
-      				
-      				Coordinate [] linePoints = new Coordinate[5];
-					//left top corner
-      				CoordX = Image.imgToGeoX(x - 0.5, _imageW, _imageTileGeoBox);
-      				CoordY = Image.imgToGeoY(y - 0.5 ,_imageH, _imageTileGeoBox);
-      				linePoints[0]= new Coordinate(CoordX,CoordY);
-      				linePoints[4]= new Coordinate(CoordX,CoordY); //close the ring
-	                //right top corner
-      				CoordX = Image.imgToGeoX(x + 0.5, _imageW,_imageTileGeoBox);
-      				CoordY = Image.imgToGeoY(y - 0.5,_imageH,_imageTileGeoBox);
-      				linePoints[1] = new Coordinate(CoordX,CoordY);
-					//right bottom corner
-					CoordX = Image.imgToGeoX(x + 0.5,_imageW,_imageTileGeoBox);
-					CoordY = Image.imgToGeoY(y + 0.5,_imageH,_imageTileGeoBox);
-					linePoints[2] = new Coordinate(CoordX,CoordY);
-					//right bottom corner
-					CoordX = Image.imgToGeoX(x - 0.5,_imageW,_imageTileGeoBox);
-					CoordY = Image.imgToGeoY(y + 0.5,_imageH,_imageTileGeoBox);
-					linePoints[3] = new Coordinate(CoordX,CoordY);
-					 
-					LinearRing shell = fact.createLinearRing(linePoints);          			
-          			Geometry poly = fact.createPolygon(shell, null);
-          			
-          			/*if (_roiIndex.size()>0) {
-          			
-	          			//seg.setPolygon(poly);          			
-	          			        
-          				@SuppressWarnings("unchecked")
-						List<Geometry> list = _roiIndex.query(poly.getEnvelopeInternal());
-						
-						for (Geometry g : list) {
-							if (g.intersects(poly)) {
-          				
-								Geometry geometry = g.intersection(poly);
-								
-			          			if (_segmentList.containsKey(_class[classId])) {
-			          				List<Geometry> list1 = _segmentList.get(_class[classId]);
-			          				list1.add(geometry);
-			          			} else {
-			          				List<Geometry> list1 = new ArrayList<Geometry>();
-			          				list1.add(geometry);
-			          				_segmentList.put(_class[classId], list1);
-			          			}
-			          			
-							}
-						}
-	          			
-          			} else {*/
-          				
-          				//Clipping according to the input geometry
-						//if (inputGeometry.intersects(poly)) {
-							
-							//poly = inputGeometry.intersection(poly);
-          				
-	          				if (_segmentList.containsKey(_class[classId])) {
-		          				List<Geometry> list = _segmentList.get(_class[classId]);
-		          				list.add(poly);
-		          			} else {
-		          				List<Geometry> list = new ArrayList<Geometry>();
-		          				list.add(poly);
-		          				_segmentList.put(_class[classId], list);
-		          			}
-	          				
-						//}
-          				
-          			//}
+          			_labels[y*_imageW + x] = _classLabel[classId];
           			
+          		} else {
+          			_labels[y*_imageW + x] = -1;
           		}
           		
-          		
-          		//id++;
           	}
       }
        
@@ -14,11 +14,7 @@ limitations under the License.*/
 
 package br.puc_rio.ele.lvc.interimage.operators.udf;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -34,10 +30,12 @@ import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.WKTWriter;
 
+import br.puc_rio.ele.lvc.interimage.common.GeometryCodec;
 import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
+import br.puc_rio.ele.lvc.interimage.common.MortonTileManager;
 import br.puc_rio.ele.lvc.interimage.common.SpatialIndex;
+import br.puc_rio.ele.lvc.interimage.data.TileCache;
 
 /**
  * UDF for post processing tile based segmentation, i.e. reducing the artifacts among tile borders.
@@ -85,7 +83,6 @@ public class TileBasedSegmentationPostProcessing extends EvalFunc<DataBag> {
 			SpatialIndex index = createIndex(bag1);
 			Iterator it = bag1.iterator();
 			
-			WKTWriter writer = new WKTWriter();
 			DataBag bag = BagFactory.getInstance().newDefaultBag();
 			
 			List<String> mergedList = new ArrayList<String>();
@@ -99,7 +96,7 @@ public class TileBasedSegmentationPostProcessing extends EvalFunc<DataBag> {
 	            Map<String,Object> props1 = DataType.toMap(t1.get(2));
 	            
 	            String tileId = DataType.toString(props1.get("tile"));
-	            long myId = Long.parseLong(tileId.substring(1));
+	            long myId = MortonTileManager.getOrderKey(tileId);
 	            
 	            //Only process polygons in the current tile (TileId = GroupId)
 	            if (_groupTileId == myId){ //current tile
@@ -119,7 +116,7 @@ public class TileBasedSegmentationPostProcessing extends EvalFunc<DataBag> {
 	        			if (geom2.intersects(geom1.buffer(BufDist))) {		        		
 
 	        				Map<String,Object> props2 = DataType.toMap(t2.get(2));
-	        				long nbId = Long.parseLong(DataType.toString(props2.get("tile")).substring(1));
+	        				long nbId = MortonTileManager.getOrderKey(DataType.toString(props2.get("tile")));
 	
 	        				//check only neighbors from another tile
 	        				if (nbId != myId){ //TODO: test this. This test should be irrelevant.
@@ -163,7 +160,7 @@ public class TileBasedSegmentationPostProcessing extends EvalFunc<DataBag> {
 	        			}
         			}
 		        	//update tuple
-		        	t1.set(0, writer.write(geom1));
+		        	t1.set(0, GeometryCodec.toBytes(geom1, GeometryCodec.getQuantum(t1.get(0))));
 	        		t1.set(2, props1);//TODO: check if it is necessary	
 	        		
 	        		//write the polygons from the tile (modified or not)
@@ -224,7 +221,7 @@ public class TileBasedSegmentationPostProcessing extends EvalFunc<DataBag> {
 				Tuple t = (Tuple)it.next();
 				//get information
 				groupId = DataType.toString(DataType.toMap(t.get(2)).get("GroupID"));
-				_groupTileId = Long.parseLong(groupId.substring(1));
+				_groupTileId = MortonTileManager.getOrderKey(groupId);
 				_numBands = GetNumBands(groupId);
 				
 				//only objects from another tile
@@ -255,18 +252,10 @@ public class TileBasedSegmentationPostProcessing extends EvalFunc<DataBag> {
 	/**This method reads metadata to get the number of bands
 	 * @throws Exception */
 	private int GetNumBands(String tileStr) throws Exception {
-    	URL worldFile1 = new URL(_imageUrl + _image + "/" + tileStr + ".meta");
-		URLConnection urlConn1 = worldFile1.openConnection();
-        urlConn1.connect();
-		InputStreamReader inStream1 = new InputStreamReader(urlConn1.getInputStream());
-        BufferedReader reader1 = new BufferedReader(inStream1);
-                
-        String line1 = reader1.readLine();
-        
-        reader1.close();
-        inStream1.close();
-        
-        return Integer.parseInt(line1);
+		TileCache.Meta meta = TileCache.getInstance().getMeta(_imageUrl, _image, tileStr);
+		if (meta == null)
+			throw new Exception("Could not read tile metadata: " + _imageUrl + _image + "/" + tileStr + ".meta");
+		return meta.getBands();
 	}
 	
 	
@@ -277,7 +266,7 @@ public class TileBasedSegmentationPostProcessing extends EvalFunc<DataBag> {
 		try {
 
 			List<Schema.FieldSchema> list = new ArrayList<Schema.FieldSchema>();
-			list.add(new Schema.FieldSchema(null, DataType.CHARARRAY));
+			list.add(new Schema.FieldSchema(null, DataType.BYTEARRAY));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			list.add(new Schema.FieldSchema(null, DataType.MAP));
 			
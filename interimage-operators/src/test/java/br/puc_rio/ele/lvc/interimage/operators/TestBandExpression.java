@@ -0,0 +1,101 @@
+package br.puc_rio.ele.lvc.interimage.operators;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.operators.BandExpression;
+
+import junit.framework.TestCase;
+
+public class TestBandExpression extends TestCase {
+
+	private static final double[] PIXEL = new double[] {10, 20, 30, 40};
+
+	private double evaluate(String expression) throws Exception {
+		return new BandExpression(expression).evaluate(PIXEL);
+	}
+
+	@Test
+	public void testArithmetic() throws Exception {
+		assertEquals(70.0, evaluate("b0 + b1*3"), 0.0);
+		assertEquals(90.0, evaluate("(b0 + b1)*3"), 0.0);
+		assertEquals(-5.0, evaluate("-b0/2"), 0.0);
+		assertEquals(2.0, evaluate("b3 - b2 - 8"), 0.0);
+		assertEquals(0.6, evaluate("(b3-b0)/(b3+b0)"), 1e-12);
+		assertEquals(1.5e-3, evaluate("1.5e-3"), 0.0);
+	}
+
+	@Test
+	public void testFunctions() throws Exception {
+		assertEquals(10.0, evaluate("min(b2, b0, b1)"), 0.0);
+		assertEquals(40.0, evaluate("MAX(b0, b3)"), 0.0);
+		assertEquals(10.0, evaluate("abs(b0 - b1)"), 0.0);
+		assertEquals(5.0, evaluate("sqrt(abs(-25))"), 0.0);
+	}
+
+	@Test
+	public void testComparisons() throws Exception {
+		assertEquals(1.0, evaluate("b0 < b1"), 0.0);
+		assertEquals(0.0, evaluate("b0 >= b1"), 0.0);
+		assertEquals(1.0, evaluate("b0*2 == b1"), 0.0);
+		assertEquals(1.0, evaluate("(b0 != b1) * (b2 <= 30)"), 0.0);
+		assertEquals(0.0, evaluate("b3 > 40"), 0.0);
+	}
+
+	@Test
+	public void testBands() throws Exception {
+
+		BandExpression expression = new BandExpression("b3 - b1*b1");
+
+		assertEquals(3, expression.getMaxBand());
+		assertEquals(2, expression.getBands().length);
+		assertEquals(1, expression.getBands()[0]);
+		assertEquals(3, expression.getBands()[1]);
+
+		assertEquals(-1, new BandExpression("2*3").getMaxBand());
+		assertEquals(6.0, new BandExpression("2*3").evaluate(new double[0]), 0.0);
+
+	}
+
+	@Test
+	public void testRows() throws Exception {
+
+		BandExpression expression = new BandExpression("max(b0, b1) / (1 + abs(b0 - b1)) + (b0 > 0.5)");
+
+		Random random = new Random(42);
+
+		for (int length : new int[] {1, 100, 1000}) {
+
+			double[][] rows = new double[2][length];
+
+			for (int i=0; i<length; i++) {
+				rows[0][i] = random.nextDouble();
+				rows[1][i] = random.nextDouble();
+			}
+
+			double[] result = new double[length];
+			expression.evaluate(rows, length, result);
+
+			for (int i=0; i<length; i++) {
+				double expected = Math.max(rows[0][i], rows[1][i]) / (1 + Math.abs(rows[0][i] - rows[1][i])) + (rows[0][i] > 0.5 ? 1 : 0);
+				assertEquals(expected, result[i], 0.0);
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testInvalidExpressions() {
+		for (String invalid : new String[] {"", "b0 +", "(b0", "b0 b1", "foo(b0)", "b", "1..2", "min()"}) {
+			try {
+				new BandExpression(invalid);
+				fail("Accepted " + invalid);
+			} catch (Exception e) {
+				//expected
+			}
+		}
+	}
+
+}
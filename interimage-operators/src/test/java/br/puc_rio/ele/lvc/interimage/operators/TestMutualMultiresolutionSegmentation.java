@@ -0,0 +1,176 @@
+package br.puc_rio.ele.lvc.interimage.operators;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.util.UDFContext;
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.common.GeometryParser;
+import br.puc_rio.ele.lvc.interimage.data.imageioimpl.plugins.tiff.TIFFImageWriter;
+import br.puc_rio.ele.lvc.interimage.operators.udf.MutualMultiresolutionSegmentation;
+
+import junit.framework.TestCase;
+
+public class TestMutualMultiresolutionSegmentation extends TestCase {
+
+	private static final int WIDTH = 24;
+	private static final int HEIGHT = 20;
+	private static final int TILES = 6;
+
+	private File _dir;
+	private String _imageUrl;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		_dir = File.createTempFile("segmentation", "");
+		_dir.delete();
+
+		new File(_dir, "image").mkdirs();
+
+		_imageUrl = _dir.toURI().toURL().toString();
+
+		Random random = new Random(42);
+
+		for (int t=0; t<TILES; t++)
+			writeTile("T" + t, t, random);
+
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : new File(_dir, "image").listFiles())
+			file.delete();
+		new File(_dir, "image").delete();
+		_dir.delete();
+	}
+
+	private void writeTile(String tile, int column, Random random) throws IOException {
+
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+
+		for (int y=0; y<HEIGHT; y++) {
+			for (int x=0; x<WIDTH; x++) {
+				for (int b=0; b<3; b++)
+					image.getRaster().setSample(x, y, b, (x < WIDTH/2 ? 50 : 150) + (y < HEIGHT/2 ? 0 : 60) + random.nextInt(30));
+			}
+		}
+
+		ImageOutputStream out = ImageIO.createImageOutputStream(new File(_dir, "image/" + tile + ".tif"));
+
+		TIFFImageWriter writer = new TIFFImageWriter(null);
+		writer.setOutput(out);
+		writer.write(image);
+		writer.dispose();
+
+		out.close();
+
+		FileWriter meta = new FileWriter(new File(_dir, "image/" + tile + ".meta"));
+		meta.write("3\n" + WIDTH + "\n" + HEIGHT + "\n\n" + (column*WIDTH) + ".0\n0.0\n" + ((column+1)*WIDTH) + ".0\n" + HEIGHT + ".0\n");
+		meta.close();
+
+	}
+
+	private Tuple tile(int t) throws Exception {
+
+		Map<String,Object> properties = new HashMap<String,Object>();
+		properties.put("tile", "T" + t);
+
+		Tuple tuple = TupleFactory.getInstance().newTuple(3);
+		tuple.set(0, "");
+		tuple.set(1, new HashMap<String,String>());
+		tuple.set(2, properties);
+
+		return tuple;
+	}
+
+	private MutualMultiresolutionSegmentation create(String scale) {
+		return new MutualMultiresolutionSegmentation(_imageUrl, "image", scale, "0.9", "0.5", "1,1,1", "");
+	}
+
+	/*The geometries of the segments, in order*/
+	private List<String> geometries(DataBag bag) throws Exception {
+		List<String> list = new ArrayList<String>();
+		for (Iterator<Tuple> it = bag.iterator(); it.hasNext();)
+			list.add(new GeometryParser().parseGeometry(it.next().get(0)).toText());
+		return list;
+	}
+
+	@Test
+	public void testThreadsFromJobConfiguration() throws Exception {
+
+		UDFContext context = UDFContext.getUDFContext();
+
+		try {
+
+			context.addJobConf(null);
+			assertEquals(Runtime.getRuntime().availableProcessors(), MutualMultiresolutionSegmentation.getThreads());
+
+			Configuration conf = new Configuration(false);
+			conf.set(MutualMultiresolutionSegmentation.THREADS, "3");
+			context.addJobConf(conf);
+
+			assertEquals(3, MutualMultiresolutionSegmentation.getThreads());
+
+		} finally {
+			context.addJobConf(null);
+		}
+
+	}
+
+	@Test
+	public void testInstancesAreIndependent() throws Exception {
+
+		MutualMultiresolutionSegmentation fine = create("5");
+
+		List<String> expected = geometries(fine.exec(tile(0)));
+
+		/*A second instance with other parameters must not change the first one*/
+		MutualMultiresolutionSegmentation coarse = create("100");
+
+		List<String> coarseSegments = geometries(coarse.exec(tile(0)));
+
+		assertEquals(expected, geometries(fine.exec(tile(0))));
+		assertTrue(coarseSegments.size() < expected.size());
+
+	}
+
+	@Test
+	public void testSegmentsGroupInParallel() throws Exception {
+
+		MutualMultiresolutionSegmentation segmentation = create("30");
+
+		List<String> expected = new ArrayList<String>();
+
+		DataBag tiles = BagFactory.getInstance().newDefaultBag();
+
+		for (int t=0; t<TILES; t++) {
+			expected.addAll(geometries(segmentation.exec(tile(t))));
+			tiles.add(tile(t));
+		}
+
+		Tuple input = TupleFactory.getInstance().newTuple(1);
+		input.set(0, tiles);
+
+		assertEquals(expected, geometries(segmentation.exec(input)));
+
+	}
+
+}
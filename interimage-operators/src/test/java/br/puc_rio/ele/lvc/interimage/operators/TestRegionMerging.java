@@ -0,0 +1,233 @@
+package br.puc_rio.ele.lvc.interimage.operators;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.puc_rio.ele.lvc.interimage.operators.RegionMerging;
+
+import junit.framework.TestCase;
+
+public class TestRegionMerging extends TestCase {
+
+	/*Labels of the fixture images, as computed by the object-per-pixel implementation that RegionMerging replaced*/
+	private static final String GRAY_12x8 =
+			"38 38 38 38 38 38 44 44 44 44 44 44\n"
+			+ "38 38 38 38 38 38 44 44 44 44 44 44\n"
+			+ "86 38 38 38 38 38 44 44 44 44 44 44\n"
+			+ "86 38 38 38 38 38 44 44 44 44 44 44\n"
+			+ "86 86 86 38 86 38 38 83 44 83 83 59\n"
+			+ "86 86 86 86 86 86 83 83 83 83 83 83\n"
+			+ "86 86 86 86 86 86 83 83 83 83 82 83\n"
+			+ "86 86 86 86 86 86 83 83 83 83 83 95\n";
+
+	private static final String COLOR_10x7 =
+			"21 21 21 21 21 5 5 5 5 5\n"
+			+ "21 21 21 21 21 5 5 5 5 5\n"
+			+ "21 21 21 21 21 5 5 5 5 5\n"
+			+ "54 54 54 54 54 5 48 48 48 48\n"
+			+ "54 54 54 54 54 48 46 48 48 48\n"
+			+ "54 54 54 54 54 48 48 48 48 48\n"
+			+ "54 54 54 54 54 65 48 48 48 48\n";
+
+	private final Random _random = new Random(42);
+
+	/*Four quadrants of different levels with a deterministic texture*/
+	private BufferedImage fixture(int width, int height, int bands) {
+
+		BufferedImage image = new BufferedImage(width, height, bands == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR);
+		WritableRaster raster = image.getRaster();
+
+		for (int y=0; y<height; y++)
+			for (int x=0; x<width; x++)
+				for (int b=0; b<bands; b++)
+					raster.setSample(x, y, b, ((x*37 + y*53 + b*11) % 23) * 4 + (x < width/2 ? 0 : 120) + (y < height/2 ? 0 : 60 - b*25));
+
+		return image;
+	}
+
+	/*Piecewise constant regions plus noise, so that segments grow at different speeds*/
+	private BufferedImage createImage(int width, int height, int bands) {
+
+		BufferedImage image = new BufferedImage(width, height, bands == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR);
+		WritableRaster raster = image.getRaster();
+
+		int[][] levels = new int[4][raster.getNumBands()];
+		for (int r=0; r<levels.length; r++) {
+			for (int b=0; b<raster.getNumBands(); b++)
+				levels[r][b] = _random.nextInt(200);
+		}
+
+		for (int y=0; y<height; y++) {
+			for (int x=0; x<width; x++) {
+				int region = (x*3/width + y*2/height) % levels.length;
+				for (int b=0; b<raster.getNumBands(); b++)
+					raster.setSample(x, y, b, levels[region][b] + _random.nextInt(40));
+			}
+		}
+
+		return image;
+	}
+
+	private double[] weights(int bands) {
+		double[] weights = new double[bands];
+		for (int b=0; b<bands; b++)
+			weights[b] = 1.0 / bands;
+		return weights;
+	}
+
+	private RegionMerging segment(BufferedImage image, double scale, double wColor, double wCmpt) throws Exception {
+		RegionMerging engine = new RegionMerging(scale*scale, wColor, wCmpt, weights(image.getRaster().getNumBands()));
+		engine.segment(image.getRaster());
+		return engine;
+	}
+
+	/*Every label is a segment whose area and mean are the ones of its pixels, and whose pixels are 4-connected*/
+	private int assertPartition(BufferedImage image, RegionMerging engine) {
+
+		Raster raster = image.getRaster();
+
+		int width = raster.getWidth();
+		int height = raster.getHeight();
+		int bands = raster.getNumBands();
+
+		int[] labels = engine.getLabels();
+
+		assertEquals(width*height, labels.length);
+
+		Map<Integer, double[]> sums = new HashMap<Integer, double[]>();
+
+		for (int p=0; p<labels.length; p++) {
+
+			assertTrue(engine.isSegment(labels[p]));
+
+			double[] sum = sums.get(labels[p]);
+
+			if (sum == null) {
+				sum = new double[bands+1];
+				sums.put(labels[p], sum);
+			}
+
+			for (int b=0; b<bands; b++)
+				sum[b] += raster.getSample(p % width, p / width, b);
+
+			sum[bands]++;
+
+		}
+
+		for (Map.Entry<Integer, double[]> entry : sums.entrySet()) {
+
+			int s = entry.getKey();
+			double[] sum = entry.getValue();
+
+			assertEquals(sum[bands], engine.getArea(s), 0.0);
+
+			for (int b=0; b<bands; b++)
+				assertEquals(sum[b] / sum[bands], engine.getAvgColor(s, b), 1e-9);
+
+		}
+
+		/*Flood fill from one pixel of each segment must reach all its pixels*/
+		boolean[] visited = new boolean[labels.length];
+		int components = 0;
+
+		for (int p=0; p<labels.length; p++) {
+
+			if (visited[p])
+				continue;
+
+			components++;
+
+			LinkedList<Integer> queue = new LinkedList<Integer>();
+			queue.add(p);
+			visited[p] = true;
+
+			while (!queue.isEmpty()) {
+
+				int q = queue.poll();
+				int x = q % width;
+				int y = q / width;
+
+				int[] nbs = {x > 0 ? q-1 : -1, x < width-1 ? q+1 : -1, y > 0 ? q-width : -1, y < height-1 ? q+width : -1};
+
+				for (int nb : nbs) {
+					if (nb != -1 && !visited[nb] && labels[nb] == labels[p]) {
+						visited[nb] = true;
+						queue.add(nb);
+					}
+				}
+
+			}
+
+		}
+
+		assertEquals(sums.size(), components);
+
+		return sums.size();
+	}
+
+	private void assertLabels(String expected, RegionMerging engine) {
+
+		int[] labels = engine.getLabels();
+
+		String[] tokens = expected.trim().split("\\s+");
+
+		assertEquals(tokens.length, labels.length);
+
+		for (int p=0; p<labels.length; p++)
+			assertEquals(Integer.parseInt(tokens[p]), labels[p]);
+
+	}
+
+	@Test
+	public void testGoldenFixtures() throws Exception {
+
+		BufferedImage gray = fixture(12, 8, 1);
+		RegionMerging engine = segment(gray, 10, 0.9, 0.5);
+		assertLabels(GRAY_12x8, engine);
+		assertEquals(7, assertPartition(gray, engine));
+
+		BufferedImage color = fixture(10, 7, 3);
+		engine = segment(color, 8, 0.7, 0.3);
+		assertLabels(COLOR_10x7, engine);
+		assertEquals(6, assertPartition(color, engine));
+
+	}
+
+	@Test
+	public void testSegmentsArePartitions() throws Exception {
+
+		BufferedImage pixel = createImage(1, 1, 1);
+		assertEquals(1, assertPartition(pixel, segment(pixel, 10, 0.9, 0.5)));
+
+		BufferedImage[] images = {createImage(17, 1, 1), createImage(30, 20, 1), createImage(30, 20, 3), createImage(45, 33, 3), createImage(25, 25, 3)};
+		double[][] params = {{10, 0.9, 0.5}, {10, 0.9, 0.5}, {20, 0.7, 0.3}, {40, 0.5, 0.8}, {5, 0.0, 0.5}};
+
+		for (int i=0; i<images.length; i++) {
+			int segments = assertPartition(images[i], segment(images[i], params[i][0], params[i][1], params[i][2]));
+			assertTrue(segments >= 1 && segments < images[i].getWidth()*images[i].getHeight());
+		}
+
+	}
+
+	@Test
+	public void testZeroScaleKeepsPixels() throws Exception {
+
+		BufferedImage image = createImage(20, 15, 3);
+
+		RegionMerging engine = segment(image, 0, 0.9, 0.5);
+
+		assertEquals(20*15, assertPartition(image, engine));
+
+		for (int p=0; p<20*15; p++)
+			assertEquals(p, engine.getLabels()[p]);
+
+	}
+
+}